@@ -38,6 +38,8 @@ import top.chiloven.lukosbot2.core.state.definition.IStateDefinition
 import top.chiloven.lukosbot2.core.state.store.IStateStore
 import top.chiloven.lukosbot2.platform.PlatformFileLoader
 import top.chiloven.lukosbot2.services.IBotService
+import java.nio.file.Path
+import java.time.Duration
 
 @Configuration(proxyBeanMethods = false)
 class CoreConfiguration {
@@ -113,6 +115,23 @@ class CoreConfiguration {
     fun mediaRefLoader(
         platformFileLoaders: List<PlatformFileLoader>,
         urlMediaLoader: IUrlMediaLoader,
-    ): MediaRefLoader = MediaRefLoader(platformFileLoaders, urlMediaLoader)
+        props: AppProperties,
+    ): MediaRefLoader {
+        val cache = props.media.cache
+            .takeIf { it.enabled }
+            ?.let {
+                MediaCache(
+                    maxMemoryBytes = it.memoryBytes,
+                    diskDir = it.dir.takeIf(String::isNotBlank)?.let(Path::of),
+                    maxDiskBytes = it.diskBytes
+                )
+            }
+        return MediaRefLoader(
+            platformFileLoaders,
+            urlMediaLoader,
+            cache,
+            Duration.ofSeconds(props.media.cache.urlTtlSeconds)
+        )
+    }
 
 }
@@ -24,7 +24,10 @@ import org.springframework.context.annotation.Configuration
 import top.chiloven.lukosbot2.core.IUrlMediaLoader
 import top.chiloven.lukosbot2.http.HttpClientFactory
 import top.chiloven.lukosbot2.http.HttpUrlMediaLoader
+import top.chiloven.lukosbot2.util.DownloadCache
 import top.chiloven.lukosbot2.util.DownloadClient
+import top.chiloven.lukosbot2.util.DownloadGovernor
+import java.nio.file.Path
 
 @Configuration(proxyBeanMethods = false)
 class HttpConfiguration {
@@ -34,10 +37,29 @@ class HttpConfiguration {
     fun httpClient(proxyConfig: ProxyConfigProp): HttpClient =
         HttpClientFactory.createHttpClient(proxyConfig)
 
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean(DownloadGovernor::class)
+    fun downloadGovernor(downloadConfig: DownloadConfigProp): DownloadGovernor =
+        DownloadGovernor(
+            maxConnections = downloadConfig.maxConnections,
+            maxConnectionsPerHost = downloadConfig.maxConnectionsPerHost,
+            maxBytesPerSecond = downloadConfig.maxBytesPerSecond
+        ).also(DownloadGovernor::install)
+
     @Bean
     @ConditionalOnMissingBean(DownloadClient::class)
-    fun downloadClient(proxyConfig: ProxyConfigProp): DownloadClient =
-        DownloadClient(proxyConfig)
+    fun downloadClient(
+        proxyConfig: ProxyConfigProp,
+        downloadGovernor: DownloadGovernor,
+        downloadConfig: DownloadConfigProp,
+    ): DownloadClient =
+        DownloadClient(
+            proxyConfig,
+            downloadGovernor,
+            downloadConfig.cache
+                .takeIf { it.enabled }
+                ?.let { DownloadCache(Path.of(it.dir), it.maxBytes) }
+        )
 
     @Bean
     @ConditionalOnMissingBean(IUrlMediaLoader::class)
@@ -26,5 +26,6 @@ import org.springframework.context.annotation.Configuration
     CommandConfigProp::class,
     ServiceConfigProp::class,
     ProxyConfigProp::class,
+    DownloadConfigProp::class,
 )
 class PropertiesConfiguration
@@ -28,11 +28,14 @@ import top.chiloven.lukosbot2.commands.bot.e621.E621Command
 import top.chiloven.lukosbot2.commands.bot.kemono.KemonoAPI
 import top.chiloven.lukosbot2.commands.bot.kemono.KemonoCommand
 import top.chiloven.lukosbot2.config.AppProperties
+import top.chiloven.lukosbot2.config.DownloadConfigProp
 import top.chiloven.lukosbot2.core.MediaRefLoader
+import top.chiloven.lukosbot2.core.MessageSenderHub
 import top.chiloven.lukosbot2.core.auth.AuthorizationService
 import top.chiloven.lukosbot2.core.policy.PolicyService
 import top.chiloven.lukosbot2.core.state.store.IStateStore
 import top.chiloven.lukosbot2.util.DownloadClient
+import java.nio.file.Path
 
 @Configuration(proxyBeanMethods = false)
 class MediaCommandsConfiguration {
@@ -86,8 +89,18 @@ class MediaCommandsConfiguration {
     fun kemonoCommand(
         props: AppProperties,
         kemonoApi: KemonoAPI,
-        http: HttpClient,
+        mediaRefLoader: MediaRefLoader,
         downloadClient: DownloadClient,
-    ): KemonoCommand = KemonoCommand(props, kemonoApi, http, downloadClient)
+        senderHub: MessageSenderHub,
+        downloadConfig: DownloadConfigProp,
+    ): KemonoCommand = KemonoCommand(
+        props,
+        kemonoApi,
+        mediaRefLoader,
+        downloadClient,
+        senderHub,
+        // Next to the download cache, but outside its size-limited directory.
+        Path.of(downloadConfig.cache.dir).resolveSibling("kemono-archives")
+    )
 
 }
@@ -99,6 +99,16 @@ class DiscordLifecycle(
         try {
             receiver?.let { recv ->
                 runBlocking { recv.stop() }
+                recv.rateLimitMetrics.stats().forEach {
+                    log.info(
+                        "Discord REST {}: requests={}, rateLimited={}, avgWait={}ms, maxWait={}ms",
+                        it.route,
+                        it.requests,
+                        it.rateLimited,
+                        "%.1f".format(it.avgWaitMs),
+                        "%.1f".format(it.maxWaitMs)
+                    )
+                }
             }
         } catch (e: Exception) {
             log.warn("[{}] stop error: {}", name(), e.message, e)
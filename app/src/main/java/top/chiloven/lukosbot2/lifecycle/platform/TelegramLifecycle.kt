@@ -27,8 +27,11 @@ import top.chiloven.lukosbot2.config.AppProperties
 import top.chiloven.lukosbot2.core.BotCoroutineRuntime
 import top.chiloven.lukosbot2.core.MessageDispatcher
 import top.chiloven.lukosbot2.core.MessageSenderHub
+import top.chiloven.lukosbot2.core.state.store.IStateStore
 import top.chiloven.lukosbot2.platform.ChatPlatform
+import top.chiloven.lukosbot2.platform.telegram.TelegramFileIdCache
 import top.chiloven.lukosbot2.platform.telegram.TelegramReceiver
+import top.chiloven.lukosbot2.platform.telegram.TelegramWebhookServer
 
 @Component
 @ConditionalOnProperty(
@@ -41,6 +44,7 @@ class TelegramLifecycle(
     private val msh: MessageSenderHub,
     private val props: AppProperties,
     private val runtime: BotCoroutineRuntime,
+    private val store: IStateStore,
 ) : IPlatformAdapter {
 
     private val log = LogManager.getLogger(TelegramLifecycle::class.java)
@@ -56,7 +60,13 @@ class TelegramLifecycle(
             val recv = TelegramReceiver(
                 props.telegram.botToken,
                 props.telegram.botUsername,
-                runtime.dispatcher
+                runtime.dispatcher,
+                props.telegram.fileIdCacheSize
+                    .takeIf { it > 0 }
+                    ?.let { TelegramFileIdCache(store, it) },
+                props.telegram.updateThreads,
+                webhookOptions(),
+                props.telegram.apiBaseUrl
             )
 
             // Register the sender first: TelegramSender only needs the pre-created HTTP client,
@@ -79,7 +89,7 @@ class TelegramLifecycle(
             receiver = recv
             running = true
             log.info("[{}] started (prefix='{}')", name(), props.prefix)
-            log.info("Telegram ready as @{}", props.telegram.botUsername)
+            log.info("Telegram ready as @{} ({})", props.telegram.botUsername, props.telegram.mode)
         } catch (e: Exception) {
             collectorJob?.cancel()
             collectorJob = null
@@ -93,6 +103,24 @@ class TelegramLifecycle(
         try {
             receiver?.let { recv ->
                 runBlocking { recv.stop() }
+                recv.updateLag.stats().let {
+                    log.info(
+                        "Telegram update lag: updates={}, avg={}ms, max={}ms",
+                        it.updates,
+                        "%.1f".format(it.avgMs),
+                        "%.1f".format(it.maxMs)
+                    )
+                }
+                recv.apiMetrics.stats().forEach {
+                    log.info(
+                        "Telegram API {}: calls={}, failed={}, avg={}ms, max={}ms",
+                        it.method,
+                        it.calls,
+                        it.failed,
+                        "%.1f".format(it.avgMs),
+                        "%.1f".format(it.maxMs)
+                    )
+                }
             }
         } catch (e: Exception) {
             log.warn("[{}] stop error: {}", name(), e.message, e)
@@ -104,6 +132,25 @@ class TelegramLifecycle(
         }
     }
 
+    /**
+     * Webhook settings when `lukos.telegram.mode` is "webhook", `null` for long polling.
+     */
+    private fun webhookOptions(): TelegramWebhookServer.Options? =
+        when (val mode = props.telegram.mode.trim().lowercase()) {
+            "polling" -> null
+            "webhook" -> props.telegram.webhook.let {
+                TelegramWebhookServer.Options(
+                    it.host,
+                    it.port,
+                    it.path,
+                    it.secretToken,
+                    it.publicUrl.trim()
+                )
+            }
+
+            else -> throw IllegalArgumentException("Unknown lukos.telegram.mode '$mode', expected polling or webhook")
+        }
+
     override fun name(): String = "Telegram"
 
     override fun isRunning(): Boolean = running
@@ -27,8 +27,11 @@ import top.chiloven.lukosbot2.config.AppProperties
 import top.chiloven.lukosbot2.core.command.bot.CommandSource
 import top.chiloven.lukosbot2.core.command.definition.ArgType
 import top.chiloven.lukosbot2.core.command.definition.dsl.botCommand
+import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
 import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
 import top.chiloven.lukosbot2.core.policy.PolicyService
+import top.chiloven.lukosbot2.util.ImageEncoder
 import top.chiloven.lukosbot2.util.ModernImageDraw
 import top.chiloven.lukosbot2.util.StringUtils.isUrl
 
@@ -283,13 +286,24 @@ class E621Command(
                         val customStyle = appProperties?.let {
                             UsageImageUtils.ImageStyle.forTheme(ModernImageDraw.ThemeMode.parse(it.image.theme))
                         }
-                        val renderedBytes =
-                            SearchGridRenderer.render(search, page, visiblePosts, http, customStyle)
+                        val rendered = SearchGridRenderer.render(
+                            search,
+                            page,
+                            visiblePosts,
+                            http,
+                            customStyle,
+                            ImageEncoder.Target.of(platform().name)
+                        )
+                        val filename = "e621-posts-$page.${rendered.extension}"
                         this.reply(
-                            OutboundMessage.imageBytesPng(
+                            OutboundMessage.img(
                                 addr(),
-                                renderedBytes,
-                                "e621-posts-$page.png"
+                                OutImage(
+                                    BytesRef(filename, rendered.bytes, rendered.mime),
+                                    null,
+                                    filename,
+                                    rendered.mime
+                                )
                             )
                         )
                     } catch (e: CancellationException) {
@@ -22,20 +22,24 @@ import io.ktor.client.plugins.*
 import io.ktor.client.request.*
 import io.ktor.client.statement.*
 import io.ktor.http.*
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeoutOrNull
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.Constants
 import top.chiloven.lukosbot2.commands.UsageImageUtils
 import top.chiloven.lukosbot2.commands.bot.e621.schema.Post
+import top.chiloven.lukosbot2.util.ImageDecodeUtils
+import top.chiloven.lukosbot2.util.ImageEncoder
 import top.chiloven.lukosbot2.util.ImageTextUtils
 import top.chiloven.lukosbot2.util.ModernImageDraw
+import top.chiloven.lukosbot2.util.concurrent.Coroutines
+import top.chiloven.lukosbot2.util.concurrent.RenderExecutor
 import java.awt.Color
 import java.awt.Font
 import java.awt.Graphics2D
 import java.awt.image.BufferedImage
-import java.io.ByteArrayOutputStream
-import javax.imageio.ImageIO
 import kotlin.math.ceil
 import kotlin.math.sqrt
 
@@ -43,6 +47,10 @@ object SearchGridRenderer {
 
     private val log = LogManager.getLogger(SearchGridRenderer::class.java)
 
+    private const val THUMBNAIL_SIZE = 220
+    private const val THUMBNAIL_CONCURRENCY = 8
+    private const val THUMBNAIL_TIMEOUT_MS = 12_000L
+
     private data class BadgeColors(
         val fg: Color,
         val bg: Color
@@ -80,8 +88,10 @@ object SearchGridRenderer {
 
             val bytes = response.bodyAsBytes()
             withContext(Dispatchers.IO) {
-                ImageIO.read(bytes.inputStream())
+                ImageDecodeUtils.readCover(bytes, THUMBNAIL_SIZE, THUMBNAIL_SIZE)
             }
+        } catch (e: CancellationException) {
+            throw e
         } catch (e: Exception) {
             log.debug("Thumbnail load failed: url={}", url, e)
             null
@@ -94,8 +104,53 @@ object SearchGridRenderer {
         posts: List<Post>,
         http: HttpClient,
         customStyle: UsageImageUtils.ImageStyle? = null,
-    ): ByteArray {
+        target: ImageEncoder.Target = ImageEncoder.Target.GENERIC,
+    ): ImageEncoder.Encoded {
         val activeStyle = customStyle?.resolveFontFallbacks() ?: style
+        val thumbnails = prefetchThumbnails(posts, http)
+
+        return RenderExecutor.current().render("e621-grid") {
+            val image = drawGrid(
+                search,
+                page,
+                posts,
+                thumbnails,
+                activeStyle
+            )
+            ImageEncoder.encode(image, ImageEncoder.ContentKind.PHOTO_GRID, target)
+        }
+    }
+
+    /**
+     * Loads every post thumbnail with bounded concurrency before drawing starts.
+     *
+     * Each image gets its own [timeoutMs]; failed or slow images become `null` and are drawn as the
+     * "no preview" placeholder. The result is in the same order as [posts].
+     */
+    internal suspend fun prefetchThumbnails(
+        posts: List<Post>,
+        http: HttpClient,
+        concurrency: Int = THUMBNAIL_CONCURRENCY,
+        timeoutMs: Long = THUMBNAIL_TIMEOUT_MS,
+    ): List<BufferedImage?> =
+        Coroutines.mapLimited(posts, concurrency) { post ->
+            val url = post.preview.url ?: post.sample.url ?: post.file.url
+            val image = withTimeoutOrNull(timeoutMs) {
+                loadImage(url, http)
+            }
+            if (image == null) {
+                log.debug("Thumbnail replaced by placeholder: post={}, url={}", post.id, url)
+            }
+            image
+        }
+
+    private fun drawGrid(
+        search: String,
+        page: Int,
+        posts: List<Post>,
+        thumbnails: List<BufferedImage?>,
+        activeStyle: UsageImageUtils.ImageStyle,
+    ): BufferedImage {
         val activePalette = activeStyle.palette
         val cache = ImageTextUtils.GlyphRunCache()
 
@@ -105,7 +160,7 @@ object SearchGridRenderer {
 
         val pad = 28
         val gap = 18
-        val thumb = 220
+        val thumb = THUMBNAIL_SIZE
         val captionH = 84
         val headerH = 78
         val cardPad = 10
@@ -161,6 +216,7 @@ object SearchGridRenderer {
                 drawPostCard(
                     g = g,
                     post = post,
+                    img = thumbnails.getOrNull(i),
                     x = x,
                     y = y,
                     cellW = cellW,
@@ -170,7 +226,6 @@ object SearchGridRenderer {
                     cardRadius = cardRadius,
                     imageRadius = imageRadius,
                     cache = cache,
-                    http = http,
                     style = activeStyle,
                     palette = activePalette
                 )
@@ -178,12 +233,7 @@ object SearchGridRenderer {
         }
 
         g.dispose()
-
-        val bos = ByteArrayOutputStream()
-        withContext(Dispatchers.IO) {
-            ImageIO.write(out, "png", bos)
-        }
-        return bos.toByteArray()
+        return out
     }
 
     private fun drawHeader(
@@ -237,9 +287,10 @@ object SearchGridRenderer {
         )
     }
 
-    private suspend fun drawPostCard(
+    private fun drawPostCard(
         g: Graphics2D,
         post: Post,
+        img: BufferedImage?,
         x: Int,
         y: Int,
         cellW: Int,
@@ -249,7 +300,6 @@ object SearchGridRenderer {
         cardRadius: Int,
         imageRadius: Int,
         cache: ImageTextUtils.GlyphRunCache,
-        http: HttpClient,
         style: UsageImageUtils.ImageStyle,
         palette: ModernImageDraw.Palette,
     ) {
@@ -257,7 +307,6 @@ object SearchGridRenderer {
 
         val imgX = x + cardPad
         val imgY = y + cardPad
-        val img = loadImage(post.preview.url ?: post.sample.url ?: post.file.url, http)
 
         if (img == null) {
             drawNoPreview(
@@ -17,11 +17,6 @@
  */
 package top.chiloven.lukosbot2.commands.bot.kemono
 
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties
-import io.ktor.client.*
-import io.ktor.client.request.*
-import io.ktor.client.statement.*
-import io.ktor.http.*
 import kotlinx.coroutines.CancellationException
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.Constants
@@ -31,17 +26,18 @@ import top.chiloven.lukosbot2.commands.bot.kemono.schema.HashSearchFile
 import top.chiloven.lukosbot2.commands.bot.kemono.schema.Post
 import top.chiloven.lukosbot2.commands.bot.kemono.schema.Service
 import top.chiloven.lukosbot2.config.AppProperties
+import top.chiloven.lukosbot2.core.MediaRefLoader
+import top.chiloven.lukosbot2.core.MessageSenderHub
 import top.chiloven.lukosbot2.core.command.bot.CommandSource
 import top.chiloven.lukosbot2.core.command.definition.ArgType
 import top.chiloven.lukosbot2.core.command.definition.dsl.botCommand
 import top.chiloven.lukosbot2.core.model.message.inbound.InFile
 import top.chiloven.lukosbot2.core.model.message.inbound.InImage
-import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
 import top.chiloven.lukosbot2.core.model.message.media.MediaRef
-import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
-import top.chiloven.lukosbot2.core.model.message.media.UrlRef
-import top.chiloven.lukosbot2.http.requireSuccess
+import top.chiloven.lukosbot2.platform.ChatPlatform
 import top.chiloven.lukosbot2.util.*
+import top.chiloven.lukosbot2.util.PathUtils.deleteRecursively
 import top.chiloven.lukosbot2.util.PathUtils.sanitizeFileName
 import top.chiloven.lukosbot2.util.PathUtils.sanitizePathSegment
 import top.chiloven.lukosbot2.util.PathUtils.withTempDirectory
@@ -50,48 +46,45 @@ import java.io.IOException
 import java.net.URI
 import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
 import java.time.LocalDateTime
 import java.time.format.DateTimeFormatter
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Command for fetching information from kemono.cr.
  *
+ * Archive payloads are downloaded below [archiveWorkDir], in a directory derived from the job's
+ * URLs, so a job interrupted by a restart resumes its partial downloads when it is run again.
+ *
  * @author Chiloven945
  */
 class KemonoCommand(
     private val appProperties: AppProperties,
     private val kemonoApi: KemonoAPI,
-    private val http: HttpClient,
+    private val mediaRefLoader: MediaRefLoader,
     private val downloadClient: DownloadClient = DownloadClient(),
+    private val senderHub: MessageSenderHub? = null,
+    private val archiveWorkDir: Path = Path.of("data", "cache", "kemono-archives"),
 ) : IBotCommand {
 
     private companion object {
 
         private const val ARCHIVE_DOWNLOAD_TIMEOUT_MS: Int = 3_000_000
+        private const val ARCHIVE_JOB_MAX_AGE_MS: Long = 7L * 24 * 60 * 60 * 1000
         private const val ARCHIVE_MIME_TYPE: String = "application/zip"
+        private const val MAX_HASH_BYTES: Long = 1L shl 30
         private val ARCHIVE_HEADERS: Map<String, String> = mapOf("User-Agent" to Constants.UA)
 
     }
 
-    @JsonIgnoreProperties(ignoreUnknown = true)
-    private data class TelegramGetFileResult(
-        val ok: Boolean = false,
-        val result: TelegramFileDto? = null,
-        val description: String? = null,
-    ) {
-
-        @JsonIgnoreProperties(ignoreUnknown = true)
-        data class TelegramFileDto(
-            val fileId: String? = null,
-            val filePath: String? = null,
-            val fileSize: Long? = null,
-        )
-
-    }
-
     private val log = LogManager.getLogger(KemonoCommand::class.java)
 
+    /** Payload directories of archive jobs that are running right now. */
+    private val activeArchiveJobs: MutableSet<Path> = ConcurrentHashMap.newKeySet()
+
     private val commandDefinition = botCommand("kemono") {
         description = "从 kemono.cr 查询帖子/创作者信息，并支持打包下载附件"
         visible = false
@@ -417,44 +410,25 @@ class KemonoCommand(
         }
     }
 
+    /**
+     * Hashes uploaded media while it streams in, so memory use does not depend on the file size.
+     * Files over [MAX_HASH_BYTES] are rejected as soon as the limit is crossed.
+     */
     private suspend fun sha256OfMedia(ref: MediaRef): String {
-        val sha256 = when (ref) {
-            is BytesRef -> ShaUtils.hashSha256ToHex(ref.bytes())
-            is UrlRef -> sha256OfRemote(ref.url())
-            is PlatformFileRef -> when (ref.platform().lowercase(Locale.ROOT)) {
-                "telegram" -> sha256OfRemote(resolveTelegramFileUrl(ref.fileId()))
-                else -> throw IllegalArgumentException("当前平台的上传文件暂不支持自动读取，请直接提供 SHA-256。")
-            }
+        val hasher = ShaUtils.Hasher(maxBytes = MAX_HASH_BYTES)
+        try {
+            mediaRefLoader.stream(ref) { chunk, length -> hasher.update(chunk, 0, length) }
+        } catch (e: ShaUtils.SizeLimitExceededException) {
+            throw IllegalArgumentException("上传文件超过 ${StringUtils.fmtBytes(e.limit)}，请直接提供 SHA-256。")
+        } catch (e: IOException) {
+            log.debug("Failed to read uploaded media for hashing: {}", e.message)
+            throw IllegalArgumentException("无法读取上传文件内容，请直接提供 SHA-256。")
         }
 
-        if (sha256.isEmpty()) {
+        if (hasher.bytes == 0L) {
             throw IllegalArgumentException("无法读取上传文件内容，请直接提供 SHA-256。")
         }
-        return sha256
-    }
-
-    private suspend fun resolveTelegramFileUrl(fileId: String): String {
-        val token = appProperties.telegram.botToken.trim()
-        require(token.isNotEmpty()) { "当前无法读取 Telegram 上传文件，请直接提供 SHA-256。" }
-
-        val response = http.get("https://api.telegram.org/bot$token/getFile") {
-            parameter("file_id", fileId)
-        }.requireSuccess()
-
-        val text = response.bodyAsText()
-        val getFileResult =
-            JsonUtils.SNAKE_CASE_MAPPER.readValue(text, TelegramGetFileResult::class.java)
-        val filePath = getFileResult.result?.filePath?.takeIf { it.isNotBlank() }
-            ?: throw IOException("无法读取 Telegram 上传文件路径")
-        return "https://api.telegram.org/file/bot$token/$filePath"
-    }
-
-    private suspend fun sha256OfRemote(url: String): String {
-        val response = http.get(url) {
-            header(HttpHeaders.UserAgent, Constants.UA)
-        }.requireSuccess()
-        val bytes = response.bodyAsBytes()
-        return ShaUtils.hashSha256ToHex(bytes)
+        return hasher.hex()
     }
 
     private fun archivePost(resolved: ResolvedPost, src: CommandSource): String {
@@ -484,24 +458,96 @@ class KemonoCommand(
         items: List<DownloadUtils.NamedUrl>,
         src: CommandSource,
     ): String = withTempDirectory("kemono-archive-") { workBase ->
-        val downloadDir = Files.createDirectories(workBase.resolve("payload"))
+        val downloadDir = claimArchiveJobDir(archiveNameHint, items)
         val zipPath = workBase.resolve(buildArchiveFileName(archiveNameHint))
+        // Progress and volumes go out immediately instead of with the final reply.
+        val live = senderHub?.let { CommandSource.forAddress(src.addr(), it::send) } ?: src
+        val volumes = mutableListOf<Pair<String, Long>>()
+        var complete = false
 
-        src.reply("解析完成，正在下载 ${items.size} 个文件……")
-        val report = downloadArchiveItems(items, downloadDir)
+        try {
+            live.reply("解析完成，正在下载并打包 ${items.size} 个文件……")
+            // Each file goes into the archive as soon as it is downloaded and is deleted right after,
+            // so the payload is never on disk twice. Archives over the upload limit are split into
+            // volumes, and each volume is sent as soon as it is complete. A file too large for any
+            // volume cannot be uploaded and is reported as failed.
+            val uploadLimit = uploadLimit(src.addr().platform())
+            val zip = StreamingZipWriter(
+                zipPath,
+                volumeBytes = uploadLimit,
+                onVolume = { volume -> volumes += sendArchiveVolume(live, volume) }
+            )
+            val report = zip.use {
+                downloadArchiveItems(items, downloadDir) { result ->
+                    val file = result.file
+                    if (file != null) {
+                        zip.add(result.index, result.entryName, file)
+                    } else {
+                        zip.skip(result.index)
+                    }
+                }.also { zip.finish() }
+            }
+            val oversized = zip.oversized
+            val failed = report.failed() + oversized.map { "$it（超过 ${StringUtils.fmtBytes(uploadLimit)} 上传上限）" }
+            complete = report.failed().isEmpty()
+
+            buildString {
+                append("打包下载完成：成功打包 ${report.ok() - oversized.size} 个文件，共 ${items.size} 个。")
+                when (volumes.size) {
+                    0 -> append("\n没有可发送的压缩包。")
+                    1 -> {
+                        val (name, size) = volumes.single()
+                        append("\n压缩包：$name（${StringUtils.fmtBytes(size)}）")
+                    }
 
-        src.reply("文件已下载完成，正在打包……")
-        CompressUtils.zipDirectory(downloadDir, zipPath)
+                    else -> append(
+                        "\n压缩包：共 ${volumes.size} 卷（${StringUtils.fmtBytes(volumes.sumOf { it.second })}）"
+                    )
+                }
+                if (failed.isNotEmpty()) {
+                    append("\n下载失败：")
+                    append(failed.joinToString("；"))
+                }
+            }
+        } finally {
+            activeArchiveJobs.remove(downloadDir)
+            // An interrupted or incomplete job keeps its partial payload for the next run.
+            if (complete) deleteRecursively(downloadDir)
+        }
+    }
 
-        val archiveSize = sendArchiveFile(src, zipPath)
+    /**
+     * Returns the payload directory of an archive job. Its name is derived from the job's entries and
+     * URLs, so running the same job again after a restart finds the partial downloads and their range
+     * manifests. A job that is already running gets a fresh directory instead of sharing files.
+     * Directories untouched for [ARCHIVE_JOB_MAX_AGE_MS] are removed on the way.
+     */
+    private fun claimArchiveJobDir(hint: String, items: List<DownloadUtils.NamedUrl>): Path {
+        pruneStaleArchiveJobs()
+
+        val key = ShaUtils.hashSha256ToHex(items.joinToString("\n") { "${it.name}\t${it.url}" })
+        val stable = archiveWorkDir.resolve("${sanitizeFileName(hint)}_${key.take(16)}")
+        val dir = if (activeArchiveJobs.add(stable)) {
+            stable
+        } else {
+            archiveWorkDir.resolve("${stable.fileName}_${UUID.randomUUID().toString().substring(0, 8)}")
+                .also { activeArchiveJobs.add(it) }
+        }
+        Files.createDirectories(dir)
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis()))
+        return dir
+    }
 
-        buildString {
-            append("打包下载完成：成功下载 ${report.ok()} 个文件，共 ${items.size} 个。")
-            append("\n压缩包：${zipPath.fileName}（${StringUtils.fmtBytes(archiveSize)}）")
-            if (report.failed().isNotEmpty()) {
-                append("\n下载失败：")
-                append(report.failed().joinToString("；"))
+    private fun pruneStaleArchiveJobs() {
+        if (Files.notExists(archiveWorkDir)) return
+        val cutoff = System.currentTimeMillis() - ARCHIVE_JOB_MAX_AGE_MS
+        try {
+            Files.list(archiveWorkDir).use { dirs ->
+                dirs.filter { it !in activeArchiveJobs && Files.getLastModifiedTime(it).toMillis() < cutoff }
+                    .forEach(::deleteRecursively)
             }
+        } catch (e: IOException) {
+            log.debug("Failed to prune kemono archive jobs in {}: {}", archiveWorkDir, e.message)
         }
     }
 
@@ -536,21 +582,47 @@ class KemonoCommand(
     private fun downloadArchiveItems(
         items: List<DownloadUtils.NamedUrl>,
         downloadDir: Path,
+        onItemDone: (DownloadUtils.ItemResult) -> Unit,
     ): DownloadUtils.BatchResult = downloadClient.downloadNamedUrlsToDirConcurrent(
-        items,
-        downloadDir,
-        ARCHIVE_HEADERS,
-        ARCHIVE_DOWNLOAD_TIMEOUT_MS
+        items = items,
+        dir = downloadDir,
+        headers = ARCHIVE_HEADERS,
+        timeoutMs = ARCHIVE_DOWNLOAD_TIMEOUT_MS,
+        onItemDone = onItemDone
     )
 
-    private fun sendArchiveFile(src: CommandSource, zipPath: Path): Long {
-        val bytes = Files.readAllBytes(zipPath)
+    /**
+     * Hands a finished volume to the sender, which streams it from disk and deletes it afterwards.
+     * The file is moved out of the work directory first, because that is removed when the command
+     * returns, possibly before the upload has started.
+     *
+     * @return the volume's file name and size
+     */
+    private fun sendArchiveVolume(
+        src: CommandSource,
+        volume: StreamingZipWriter.Volume,
+    ): Pair<String, Long> {
+        val name = volume.path.fileName.toString()
+        val size = Files.size(volume.path)
+        val outbound = Files.createTempFile("kemono-", ".zip")
+        Files.move(volume.path, outbound, StandardCopyOption.REPLACE_EXISTING)
+
         src.replyFile(
-            BytesRef(zipPath.fileName.toString(), bytes, ARCHIVE_MIME_TYPE),
-            zipPath.fileName.toString(),
-            null
+            FileRef(
+                outbound,
+                name,
+                ARCHIVE_MIME_TYPE,
+                true
+            ),
+            name,
+            if (volume.split) "分卷 ${volume.number}" else null
         )
-        return bytes.size.toLong()
+        return name to size
+    }
+
+    private fun uploadLimit(platform: ChatPlatform): Long = when (platform) {
+        ChatPlatform.TELEGRAM -> appProperties.telegram.maxUploadBytes
+        ChatPlatform.DISCORD -> appProperties.discord.maxUploadBytes
     }
 
     private fun buildArchiveEntryName(
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.commands.bot.e621
+
+import io.ktor.client.*
+import io.ktor.client.engine.mock.*
+import io.ktor.http.*
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Test
+import top.chiloven.lukosbot2.commands.bot.e621.schema.Post
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import javax.imageio.ImageIO
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlin.time.measureTime
+
+class SearchGridRendererTest {
+
+    private val png: ByteArray = ByteArrayOutputStream().use { output ->
+        ImageIO.write(BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", output)
+        output.toByteArray()
+    }
+
+    @Test
+    fun `thumbnails are prefetched concurrently`() = runBlocking {
+        val posts = (1..10).map { post(it, "https://static1.e621.net/preview/$it.png") }
+        val client = slowClient(delayMs = 150)
+
+        // Warm up the engine and ImageIO so the measured runs only contain request latency.
+        SearchGridRenderer.prefetchThumbnails(posts.take(1), client)
+
+        lateinit var sequential: List<BufferedImage?>
+        val sequentialTime = measureTime {
+            sequential = SearchGridRenderer.prefetchThumbnails(posts, client, concurrency = 1)
+        }
+
+        lateinit var concurrent: List<BufferedImage?>
+        val concurrentTime = measureTime {
+            concurrent = SearchGridRenderer.prefetchThumbnails(posts, client, concurrency = 10)
+        }
+
+        assertEquals(10, sequential.count { it != null })
+        assertEquals(10, concurrent.count { it != null })
+        assertTrue(
+            concurrentTime * 3 < sequentialTime,
+            "concurrent prefetch ($concurrentTime) should be far below sequential ($sequentialTime)"
+        )
+    }
+
+    @Test
+    fun `slow and failed thumbnails become placeholders in order`() = runBlocking {
+        val client = HttpClient(MockEngine) {
+            engine {
+                addHandler { request ->
+                    when (request.url.encodedPath) {
+                        "/slow.png" -> {
+                            delay(5_000)
+                            respond(png, HttpStatusCode.OK, headersOf(HttpHeaders.ContentType, "image/png"))
+                        }
+
+                        "/missing.png" -> respondError(HttpStatusCode.NotFound)
+                        else -> respond(png, HttpStatusCode.OK, headersOf(HttpHeaders.ContentType, "image/png"))
+                    }
+                }
+            }
+        }
+
+        val posts = listOf(
+            post(1, "https://static1.e621.net/ok.png"),
+            post(2, "https://static1.e621.net/slow.png"),
+            post(3, "https://static1.e621.net/missing.png"),
+            post(4, null),
+        )
+
+        val thumbnails = SearchGridRenderer.prefetchThumbnails(posts, client, timeoutMs = 300)
+
+        assertEquals(4, thumbnails.size)
+        assertNotNull(thumbnails[0])
+        assertNull(thumbnails[1])
+        assertNull(thumbnails[2])
+        assertNull(thumbnails[3])
+    }
+
+    private fun slowClient(delayMs: Long): HttpClient = HttpClient(MockEngine) {
+        engine {
+            addHandler { _ ->
+                delay(delayMs)
+                respond(png, HttpStatusCode.OK, headersOf(HttpHeaders.ContentType, "image/png"))
+            }
+        }
+    }
+
+    private fun post(id: Int, previewUrl: String?): Post =
+        Post(
+            id = id,
+            preview = Post.Preview(url = previewUrl)
+        )
+
+}
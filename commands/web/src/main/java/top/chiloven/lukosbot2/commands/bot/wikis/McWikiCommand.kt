@@ -28,6 +28,7 @@ import top.chiloven.lukosbot2.core.model.message.media.BytesRef
 import top.chiloven.lukosbot2.core.model.message.outbound.OutFile
 import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
 import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
+import top.chiloven.lukosbot2.util.ImageEncoder
 import top.chiloven.lukosbot2.util.JsoupHttp
 import top.chiloven.lukosbot2.util.feature.WebScreenshot
 import top.chiloven.lukosbot2.util.feature.WebToMarkdown
@@ -145,7 +146,7 @@ class McWikiCommand(
                 return
             }
 
-            val cd = webScreenshot.screenshotMcWiki(url)
+            val cd = webScreenshot.screenshotMcWiki(url, ImageEncoder.Target.of(src.platform().name))
             val ref = BytesRef(cd.filename(), cd.bytes(), cd.mime())
             src.reply(
                 OutboundMessage(
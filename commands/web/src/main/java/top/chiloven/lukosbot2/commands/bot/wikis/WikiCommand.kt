@@ -27,6 +27,7 @@ import top.chiloven.lukosbot2.core.model.message.media.BytesRef
 import top.chiloven.lukosbot2.core.model.message.outbound.OutFile
 import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
 import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
+import top.chiloven.lukosbot2.util.ImageEncoder
 import top.chiloven.lukosbot2.util.feature.WebScreenshot
 import top.chiloven.lukosbot2.util.feature.WebToMarkdown
 
@@ -84,7 +85,7 @@ class WikiCommand(
                 return
             }
 
-            val img = webScreenshot.screenshotWikipedia(url)
+            val img = webScreenshot.screenshotWikipedia(url, ImageEncoder.Target.of(src.platform().name))
             val ref = BytesRef(img.filename(), img.bytes(), img.mime())
             src.reply(
                 OutboundMessage(
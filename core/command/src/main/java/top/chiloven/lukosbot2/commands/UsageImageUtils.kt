@@ -17,47 +17,52 @@
  */
 package top.chiloven.lukosbot2.commands
 
+import top.chiloven.lukosbot2.util.ImageEncoder
 import top.chiloven.lukosbot2.util.ImageTextUtils
 import top.chiloven.lukosbot2.util.ModernImageDraw
 import top.chiloven.lukosbot2.util.PathUtils
 import java.awt.Font
 import java.awt.Graphics2D
 import java.awt.image.BufferedImage
-import java.io.ByteArrayOutputStream
-import javax.imageio.ImageIO
 
 object UsageImageUtils {
 
     private val bulletSeparators = listOf(" — ", " – ", " - ", ": ", "：")
 
     @JvmStatic
+    @JvmOverloads
     fun renderUsagePng(
         filenameBase: String,
         node: UsageNode,
         options: UsageTextRenderer.Options,
-        style: ImageStyle
+        style: ImageStyle,
+        target: ImageEncoder.Target = ImageEncoder.Target.GENERIC
     ): RenderedImage = renderLinesPng(
         filenameBase = filenameBase,
         lines = UsageTextRenderer.render(node, options).lines(),
-        style0 = style
+        style0 = style,
+        target = target
     )
 
     @JvmStatic
+    @JvmOverloads
     fun renderLinesPng(
         filenameBase: String,
         lines: List<UsageTextRenderer.RenderedLine>?,
-        style0: ImageStyle
+        style0: ImageStyle,
+        target: ImageEncoder.Target = ImageEncoder.Target.GENERIC
     ): RenderedImage {
         val style = style0.resolveFontFallbacks()
         val palette = style.palette
 
+        val spec = ImageEncoder.select(ImageEncoder.ContentKind.UI, target)
         val filename = PathUtils
                 .sanitizeFileName(
                     filenameBase,
                     fallback = "usage",
                     maxLength = 64
                 )
-                .let { "$it.png" }
+                .let { "$it.${spec.extension}" }
 
         val model = parse(lines.orEmpty())
 
@@ -170,15 +175,12 @@ object UsageImageUtils {
         }
 
         return try {
-            ByteArrayOutputStream().use { output ->
-                ImageIO.write(image, "png", output)
-
-                RenderedImage(
-                    filename = filename,
-                    bytes = output.toByteArray(),
-                    mime = "image/png"
-                )
-            }
+            val encoded = ImageEncoder.encode(image, spec)
+            RenderedImage(
+                filename = filename,
+                bytes = encoded.bytes,
+                mime = encoded.mime
+            )
         } catch (e: Exception) {
             throw RuntimeException(
                 "Render usage PNG failed: ${e.message}",
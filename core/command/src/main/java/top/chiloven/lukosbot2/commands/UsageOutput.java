@@ -23,6 +23,8 @@ import top.chiloven.lukosbot2.core.command.bot.CommandSource;
 import top.chiloven.lukosbot2.core.model.message.media.BytesRef;
 import top.chiloven.lukosbot2.core.model.message.outbound.OutImage;
 import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage;
+import top.chiloven.lukosbot2.util.ImageEncoder;
+import top.chiloven.lukosbot2.util.concurrent.RenderExecutor;
 
 import java.util.List;
 
@@ -33,8 +35,10 @@ import java.util.List;
  * <ul>
  *   <li>Render usage as markdown text.</li>
  *   <li>Decide whether to send text or image based on mode and heuristics.</li>
- *   <li>When using image, render a PNG and send it as an image part (caption used as title when supported).</li>
- *   <li>If image rendering fails, fall back to text output.</li>
+ *   <li>When using image, render it on the shared {@link RenderExecutor}, encode it for the source platform
+ *   with {@link ImageEncoder} and send it as an image part
+ *   (caption used as title when supported).</li>
+ *   <li>If image rendering fails or the render queue is full, fall back to text output.</li>
  * </ul>
  */
 @Log4j2
@@ -100,11 +104,15 @@ public final class UsageOutput {
         }
 
         try {
-            UsageImageUtils.RenderedImage img = UsageImageUtils.renderUsagePng(
-                    "usage-" + (cmdName.isEmpty() ? node.getName() : cmdName),
-                    node,
-                    opt,
-                    style
+            UsageImageUtils.RenderedImage img = RenderExecutor.current().renderBlocking(
+                    "usage",
+                    () -> UsageImageUtils.renderUsagePng(
+                            "usage-" + (cmdName.isEmpty() ? node.getName() : cmdName),
+                            node,
+                            opt,
+                            style,
+                            ImageEncoder.Target.of(src.platform().name())
+                    )
             );
 
             String title = "命令用法：%s%s".formatted(p, cmdName);
@@ -285,7 +285,7 @@ public final class CommandSource {
         if (ref == null) return;
         sink.accept(new OutboundMessage(
                 addr,
-                List.of(new OutFile(ref, name, null, caption))
+                List.of(new OutFile(ref, caption, name, null))
         ));
     }
 
@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.core.model.message.media;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Media stored in a local file and streamed from disk when sent.
+ *
+ * <p>An {@code owned} file belongs to the message once it is handed over: it is deleted after the
+ * message has been sent or dropped, so the producer must not move or delete it afterwards.</p>
+ */
+public record FileRef(
+        Path path,
+        String name,
+        String mime,
+        boolean owned
+) implements MediaRef {
+
+    public FileRef(Path path) {
+        this(path, null, null, false);
+    }
+
+    public FileRef {
+        if (path == null) {
+            throw new IllegalArgumentException("path must not be null");
+        }
+        if (name != null && name.isBlank()) name = null;
+        if (mime != null && mime.isBlank()) mime = null;
+    }
+
+    /**
+     * The explicit name, or the file name of {@link #path()}.
+     */
+    public String fileName() {
+        return name != null ? name : path.getFileName().toString();
+    }
+
+    /**
+     * Deletes the file when it is owned; a missing file is not an error.
+     *
+     * @throws IOException if the file exists and cannot be deleted
+     */
+    public void release() throws IOException {
+        if (owned) Files.deleteIfExists(path);
+    }
+
+}
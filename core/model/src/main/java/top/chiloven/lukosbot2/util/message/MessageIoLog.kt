@@ -20,6 +20,7 @@ package top.chiloven.lukosbot2.util.message
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.core.model.message.inbound.*
 import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
 import top.chiloven.lukosbot2.core.model.message.media.MediaRef
 import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
 import top.chiloven.lukosbot2.core.model.message.media.UrlRef
@@ -125,6 +126,7 @@ object MessageIoLog {
             is UrlRef -> "url=" + clip(ref.url())
             is PlatformFileRef -> "pf=" + ref.platform() + ":" + clip(ref.fileId())
             is BytesRef -> "bytes" + (ref.name()?.let { ":$it" } ?: "")
+            is FileRef -> "file:" + ref.fileName()
         }
     }
 
@@ -17,8 +17,13 @@
  */
 package top.chiloven.lukosbot2.util.message
 
+import org.apache.logging.log4j.LogManager
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
+import top.chiloven.lukosbot2.core.model.message.outbound.OutFile
+import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
 import top.chiloven.lukosbot2.core.model.message.outbound.OutPart
 import top.chiloven.lukosbot2.core.model.message.outbound.OutText
+import java.io.IOException
 import java.util.*
 
 /**
@@ -26,6 +31,8 @@ import java.util.*
  */
 object OutboundPartUtils {
 
+    private val log = LogManager.getLogger(OutboundPartUtils::class.java)
+
     @JvmStatic
     fun safeText(s: String?): String = s ?: ""
 
@@ -75,6 +82,27 @@ object OutboundPartUtils {
         }
     }
 
+    /**
+     * Deletes the files behind owned [FileRef] media in [parts]. Called once a message has been sent
+     * or dropped; failures are logged and ignored.
+     */
+    @JvmStatic
+    fun releaseOwnedMedia(parts: List<OutPart?>?) {
+        parts.orEmpty().forEach { part ->
+            val ref = when (part) {
+                is OutImage -> part.ref()
+                is OutFile -> part.ref()
+                else -> null
+            }
+            if (ref !is FileRef || !ref.owned()) return@forEach
+            try {
+                ref.release()
+            } catch (e: IOException) {
+                log.warn("Failed to delete outbound media file {}: {}", ref.path(), e.message)
+            }
+        }
+    }
+
     private fun flushText(sb: StringBuilder, out: MutableList<OutPart>) {
         if (sb.isEmpty()) return
         out += OutText(sb.toString())
@@ -28,6 +28,7 @@ import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import org.apache.logging.log4j.LogManager
+import top.chiloven.lukosbot2.util.concurrent.RenderExecutor
 import java.lang.Runnable
 import kotlin.math.max
 import kotlin.time.Duration.Companion.milliseconds
@@ -42,6 +43,10 @@ import kotlin.time.Duration.Companion.milliseconds
  * <p>The dispatcher defaults to [Dispatchers.IO] because command and service work is blocking-heavy
  * (HTTP, JDBC, SDK calls). Tests inject a test dispatcher instead.</p>
  *
+ * <p>CPU-bound rendering (Java2D drawing, PNG/JPEG encoding) must not run on that dispatcher. It goes through
+ * [renderExecutor], a pool sized to the CPU count with a bounded queue that rejects work when overloaded. The
+ * runtime installs it as [RenderExecutor.current] so renderers outside this module share the same pool.</p>
+ *
  * <p>Task exception policy: non-cancellation exceptions thrown by [Runnable] tasks submitted through the
  * Java-friendly bridges ([launchBlockingTask], [schedule], [scheduleAtFixedRate]) are caught and logged as
  * warnings; the job survives and, for fixed-rate schedules, the next tick still runs. [CancellationException]
@@ -60,6 +65,10 @@ class BotCoroutineRuntime(
      */
     val dispatcher: CoroutineDispatcher = Dispatchers.IO,
     private val monotonicTimeMs: () -> Long = { System.nanoTime() / 1_000_000 },
+    /**
+     * Bounded pool for CPU-bound rendering work. See the class docs.
+     */
+    val renderExecutor: RenderExecutor = RenderExecutor(),
 ) {
 
     private val log = LogManager.getLogger(BotCoroutineRuntime::class.java)
@@ -67,6 +76,10 @@ class BotCoroutineRuntime(
     private val rootJob = SupervisorJob()
     private val scope = CoroutineScope(rootJob + dispatcher + CoroutineName("lukos-runtime"))
 
+    init {
+        RenderExecutor.install(renderExecutor)
+    }
+
     /**
      * Launches a child coroutine in the runtime scope. The returned [Job] can be cancelled by the caller.
      * Callers own the exception policy for the block.
@@ -139,12 +152,32 @@ class BotCoroutineRuntime(
             }
         })
 
+    /**
+     * Runs CPU-bound [block] on [renderExecutor] and suspends until it finishes.
+     *
+     * @throws RenderExecutor.RenderOverloadedException when the render queue is full.
+     */
+    suspend fun <T> render(name: String, block: () -> T): T =
+        renderExecutor.render(name, block)
+
     /**
      * Cancels the whole runtime scope without joining. See the class docs for why this must not join.
      */
     fun destroy() {
         log.info("Cancelling bot coroutine runtime scope")
         rootJob.cancel()
+
+        val stats = renderExecutor.stats()
+        log.info(
+            "Render executor stats: completed={}, failed={}, rejected={}, avgQueueWait={}ms, maxQueueWait={}ms",
+            stats.completed,
+            stats.failed,
+            stats.rejected,
+            "%.1f".format(stats.avgQueueWaitMs),
+            "%.1f".format(stats.maxQueueWaitMs)
+        )
+        RenderExecutor.uninstall(renderExecutor)
+        renderExecutor.shutdown()
     }
 
     private fun taskHandle(job: Job): ICancellableTask = object : ICancellableTask {
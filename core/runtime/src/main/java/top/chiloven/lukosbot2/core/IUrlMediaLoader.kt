@@ -26,4 +26,15 @@ interface IUrlMediaLoader {
     @Throws(IOException::class)
     suspend fun load(ref: UrlRef): LoadedPlatformMedia
 
+    /**
+     * Passes the response body to [consumer] one chunk at a time; the chunk array may be reused
+     * between calls. Throwing from [consumer] aborts the transfer. The default implementation
+     * loads the whole body first.
+     */
+    @Throws(IOException::class)
+    suspend fun stream(ref: UrlRef, consumer: (chunk: ByteArray, length: Int) -> Unit) {
+        val bytes = load(ref).bytes()
+        consumer(bytes, bytes.size)
+    }
+
 }
@@ -0,0 +1,506 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.core
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import org.apache.logging.log4j.LogManager
+import top.chiloven.lukosbot2.core.model.message.media.LoadedPlatformMedia
+import top.chiloven.lukosbot2.util.PathUtils
+import top.chiloven.lukosbot2.util.ShaUtils
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.NoSuchFileException
+import java.nio.file.Path
+import java.net.URLConnection
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Weight-bounded cache for media loaded by [MediaRefLoader], keyed by platform file ID or URL.
+ *
+ * - The memory tier holds up to [maxMemoryBytes] of payload, least recently used first out. A single
+ *   entry may use at most an eighth of it, so one large file cannot flush everything else.
+ * - With a [diskDir], entries evicted from memory or too large for it are spilled to disk, bounded
+ *   by [maxDiskBytes]. The disk tier only lives as long as the process; it is cleared on startup.
+ * - Concurrent loads and streams of the same key share one download. Media captured by [stream]
+ *   carries no name; when [getOrLoad] serves it, the MIME type is sniffed from the content.
+ * - Entries created with a TTL (URLs, whose content may change) expire; platform file IDs do not.
+ *
+ * @param maxMemoryBytes payload budget of the memory tier
+ * @param diskDir        spill directory, or `null` to keep the cache in memory only
+ * @param maxDiskBytes   payload budget of the disk tier
+ * @param clock          current time in milliseconds
+ */
+class MediaCache @JvmOverloads constructor(
+    private val maxMemoryBytes: Long = DEFAULT_MEMORY_BYTES,
+    private val diskDir: Path? = null,
+    private val maxDiskBytes: Long = DEFAULT_DISK_BYTES,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+
+    private val lock = Any()
+    private val memory = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private val disk = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private var memoryBytes = 0L
+    private var diskBytes = 0L
+    private val inFlight = ConcurrentHashMap<String, CompletableDeferred<LoadedPlatformMedia?>>()
+
+    private val hits = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val misses = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val evictions = AtomicLong()
+
+    private val maxMemoryEntryBytes = maxMemoryBytes / 8
+    private val maxDiskEntryBytes = maxDiskBytes / 4
+
+    init {
+        if (diskDir != null) {
+            if (Files.isDirectory(diskDir)) PathUtils.deleteRecursively(diskDir)
+            Files.createDirectories(diskDir)
+        }
+    }
+
+    /**
+     * Snapshot of cache usage.
+     */
+    data class Stats(
+        val memoryEntries: Int,
+        val memoryBytes: Long,
+        val diskEntries: Int,
+        val diskBytes: Long,
+        val hits: Long,
+        val diskHits: Long,
+        val misses: Long,
+        val coalesced: Long,
+        val evictions: Long,
+    )
+
+    /**
+     * Returns the cached media for [key], or runs [loader] once for all concurrent callers and
+     * caches its result.
+     *
+     * @param ttlMs lifetime of the new entry, or `null` for no expiry
+     */
+    @Throws(IOException::class)
+    suspend fun getOrLoad(
+        key: String,
+        ttlMs: Long?,
+        loader: suspend () -> LoadedPlatformMedia,
+    ): LoadedPlatformMedia {
+        while (true) {
+            lookup(key)?.let { return it }
+
+            val mine = CompletableDeferred<LoadedPlatformMedia?>()
+            val running = inFlight.putIfAbsent(key, mine)
+            if (running != null) {
+                coalesced.incrementAndGet()
+                // null means the loading caller was cancelled or streamed the media; look it up
+                // again, and load it ourselves if it was not cached.
+                running.await()?.let { return it }
+                continue
+            }
+
+            try {
+                // The previous load may have finished between the lookup and claiming the key.
+                val cached = lookup(key)
+                val loaded = cached ?: loader().also {
+                    misses.incrementAndGet()
+                    put(
+                        key,
+                        it,
+                        ttlMs
+                    )
+                }
+                mine.complete(loaded)
+                return loaded
+            } catch (e: CancellationException) {
+                mine.complete(null)
+                throw e
+            } catch (e: Throwable) {
+                mine.completeExceptionally(e)
+                throw e
+            } finally {
+                inFlight.remove(key, mine)
+            }
+        }
+    }
+
+    /**
+     * Passes the media for [key] to [consumer], from the cache when possible and otherwise from
+     * [source]. A streamed miss is captured on the way through and cached when it fits a tier, and
+     * concurrent callers for the same key wait for it instead of streaming the media again.
+     */
+    @Throws(IOException::class)
+    suspend fun stream(
+        key: String,
+        ttlMs: Long?,
+        consumer: (chunk: ByteArray, length: Int) -> Unit,
+        source: suspend (consumer: (chunk: ByteArray, length: Int) -> Unit) -> Unit,
+    ) {
+        while (true) {
+            if (streamCached(key, consumer)) return
+
+            val mine = CompletableDeferred<LoadedPlatformMedia?>()
+            val running = inFlight.putIfAbsent(key, mine)
+            if (running != null) {
+                coalesced.incrementAndGet()
+                val media = running.await()
+                if (media != null) {
+                    consumer(media.bytes(), media.bytes().size)
+                    return
+                }
+                continue
+            }
+
+            val capture = Capture()
+            try {
+                if (streamCached(key, consumer)) return
+                misses.incrementAndGet()
+                source { chunk, length ->
+                    consumer(chunk, length)
+                    capture.write(chunk, length)
+                }
+                capture.finish(key, ttlMs)
+                return
+            } finally {
+                capture.discard()
+                // Waiters look the key up again; a payload too large to cache is streamed once more.
+                mine.complete(null)
+                inFlight.remove(key, mine)
+            }
+        }
+    }
+
+    fun invalidate(key: String) {
+        val removed = synchronized(lock) {
+            memory.remove(key)?.let { memoryBytes -= it.size }
+            disk.remove(key)?.also { diskBytes -= it.size }
+        }
+        removed?.file?.let(PathUtils::deleteIfExistsQuietly)
+    }
+
+    fun stats(): Stats = synchronized(lock) {
+        Stats(
+            memoryEntries = memory.size,
+            memoryBytes = memoryBytes,
+            diskEntries = disk.size,
+            diskBytes = diskBytes,
+            hits = hits.get(),
+            diskHits = diskHits.get(),
+            misses = misses.get(),
+            coalesced = coalesced.get(),
+            evictions = evictions.get()
+        )
+    }
+
+    private suspend fun lookup(key: String): LoadedPlatformMedia? {
+        val now = clock()
+        val (inMemory, onDisk) = fresh(key, now)
+        if (inMemory != null) {
+            hits.incrementAndGet()
+            return inMemory.media()
+        }
+        if (onDisk == null) return null
+
+        val bytes = withContext(Dispatchers.IO) {
+            try {
+                Files.readAllBytes(onDisk.file!!)
+            } catch (_: IOException) {
+                null
+            }
+        }
+        if (bytes == null) {
+            invalidate(key)
+            return null
+        }
+        diskHits.incrementAndGet()
+        val media = LoadedPlatformMedia(bytes, onDisk.name, onDisk.mime ?: sniffMime(bytes))
+        if (bytes.size <= maxMemoryEntryBytes) {
+            // Promote; the disk copy stays until it is evicted there.
+            put(
+                key,
+                media,
+                onDisk.expiresAt?.let { it - now }
+            )
+        }
+        return media
+    }
+
+    private suspend fun streamCached(
+        key: String,
+        consumer: (chunk: ByteArray, length: Int) -> Unit,
+    ): Boolean {
+        val (inMemory, onDisk) = fresh(key, clock())
+        if (inMemory != null) {
+            hits.incrementAndGet()
+            consumer(inMemory.bytes!!, inMemory.bytes.size)
+            return true
+        }
+        if (onDisk == null) return false
+
+        return withContext(Dispatchers.IO) {
+            try {
+                Files.newInputStream(onDisk.file!!).use { input ->
+                    val buffer = ByteArray(CHUNK_SIZE)
+                    while (true) {
+                        val read = input.read(buffer)
+                        if (read == -1) break
+                        consumer(buffer, read)
+                    }
+                }
+                diskHits.incrementAndGet()
+                true
+            } catch (_: NoSuchFileException) {
+                invalidate(key)
+                false
+            }
+        }
+    }
+
+    private suspend fun put(
+        key: String,
+        media: LoadedPlatformMedia,
+        ttlMs: Long?,
+    ) {
+        val size = media.bytes().size.toLong()
+        val expiresAt = ttlMs?.let { clock() + it }
+        if (size <= maxMemoryEntryBytes) {
+            val entry = Entry(
+                size,
+                media.name(),
+                media.mime(),
+                expiresAt,
+                bytes = media.bytes()
+            )
+            val evicted = synchronized(lock) {
+                memory.put(key, entry)?.let { memoryBytes -= it.size }
+                memoryBytes += size
+                trimMemory(keep = key)
+            }
+            evicted.forEach { (evictedKey, evictedEntry) -> spillToDisk(evictedKey, evictedEntry) }
+        } else if (diskDir != null && size <= maxDiskEntryBytes) {
+            spillToDisk(
+                key,
+                Entry(
+                    size,
+                    media.name(),
+                    media.mime(),
+                    expiresAt,
+                    bytes = media.bytes()
+                )
+            )
+        }
+    }
+
+    private fun trimMemory(keep: String): List<Pair<String, Entry>> {
+        val evicted = mutableListOf<Pair<String, Entry>>()
+        val iterator = memory.entries.iterator()
+        while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+            val (key, entry) = iterator.next()
+            if (key == keep) continue
+            iterator.remove()
+            memoryBytes -= entry.size
+            evicted += key to entry
+            evictions.incrementAndGet()
+        }
+        return evicted
+    }
+
+    private suspend fun spillToDisk(key: String, entry: Entry) {
+        val dir = diskDir ?: return
+        if (entry.size > maxDiskEntryBytes || entry.expired(clock())) return
+        val file = dir.resolve(ShaUtils.hashSha256ToHex(key))
+        try {
+            withContext(Dispatchers.IO) { Files.write(file, entry.bytes!!) }
+        } catch (e: IOException) {
+            log.debug("[MEDIA-CACHE] failed to spill {}: {}", key, e.message)
+            return
+        }
+        addDiskEntry(key, entry.copy(bytes = null, file = file))
+    }
+
+    private fun addDiskEntry(key: String, entry: Entry) {
+        val victims = mutableListOf<Path>()
+        synchronized(lock) {
+            disk.put(key, entry)?.let {
+                diskBytes -= it.size
+                if (it.file != entry.file) victims.add(it.file!!)
+            }
+            diskBytes += entry.size
+            val iterator = disk.entries.iterator()
+            while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+                val (victimKey, victim) = iterator.next()
+                if (victimKey == key) continue
+                iterator.remove()
+                diskBytes -= victim.size
+                victims.add(victim.file!!)
+                evictions.incrementAndGet()
+            }
+        }
+        victims.forEach(PathUtils::deleteIfExistsQuietly)
+    }
+
+    /**
+     * The live memory entry for [key], or else its live disk entry.
+     */
+    private fun fresh(key: String, now: Long): Pair<Entry?, Entry?> = synchronized(lock) {
+        val m = memory[key]?.takeIf { !it.expired(now) }
+        m to (if (m == null) disk[key]?.takeIf { !it.expired(now) } else null)
+    }
+
+    private class Entry(
+        val size: Long,
+        val name: String?,
+        val mime: String?,
+        val expiresAt: Long?,
+        val bytes: ByteArray? = null,
+        val file: Path? = null,
+    ) {
+
+        fun expired(now: Long): Boolean = expiresAt != null && now >= expiresAt
+
+        fun media(): LoadedPlatformMedia = LoadedPlatformMedia(bytes, name, mime ?: sniffMime(bytes!!))
+
+        fun copy(bytes: ByteArray?, file: Path?): Entry = Entry(
+            size,
+            name,
+            mime,
+            expiresAt,
+            bytes,
+            file
+        )
+
+    }
+
+    /**
+     * Copy of a streamed payload: kept in memory while it fits a memory entry, then moved to a
+     * spill file, and given up once it exceeds the disk entry limit.
+     */
+    private inner class Capture {
+
+        private var buffer: ByteArrayOutputStream? = ByteArrayOutputStream()
+        private var file: Path? = null
+        private var fileOut: OutputStream? = null
+        private var size = 0L
+        private var abandoned = false
+
+        fun write(chunk: ByteArray, length: Int) {
+            if (abandoned) return
+            size += length
+            try {
+                when {
+                    size <= maxMemoryEntryBytes -> buffer!!.write(chunk, 0, length)
+                    diskDir == null || size > maxDiskEntryBytes -> abandon()
+                    else -> {
+                        val out = fileOut ?: openSpill()
+                        out.write(chunk, 0, length)
+                    }
+                }
+            } catch (_: IOException) {
+                abandon()
+            }
+        }
+
+        suspend fun finish(key: String, ttlMs: Long?) {
+            if (abandoned) return
+            val expiresAt = ttlMs?.let { clock() + it }
+            val spilled = file
+            if (spilled == null) {
+                val bytes = buffer!!.toByteArray()
+                if (bytes.isNotEmpty()) {
+                    put(
+                        key,
+                        LoadedPlatformMedia(bytes, null, null),
+                        ttlMs
+                    )
+                }
+                return
+            }
+
+            fileOut!!.close()
+            fileOut = null
+            val target = spilled.resolveSibling(ShaUtils.hashSha256ToHex(key))
+            withContext(Dispatchers.IO) { Files.move(spilled, target, StandardCopyOption.REPLACE_EXISTING) }
+            file = null
+            addDiskEntry(
+                key,
+                Entry(
+                    size,
+                    null,
+                    null,
+                    expiresAt,
+                    file = target
+                )
+            )
+        }
+
+        fun discard() {
+            fileOut?.let { runCatching { it.close() } }
+            file?.let(PathUtils::deleteIfExistsQuietly)
+            fileOut = null
+            file = null
+            buffer = null
+        }
+
+        private fun openSpill(): OutputStream {
+            val spill = Files.createTempFile(diskDir!!, "capture-", ".tmp")
+            val out = Files.newOutputStream(spill)
+            buffer!!.writeTo(out)
+            buffer = null
+            file = spill
+            fileOut = out
+            return out
+        }
+
+        private fun abandon() {
+            abandoned = true
+            discard()
+        }
+
+    }
+
+    companion object {
+
+        private val log = LogManager.getLogger(MediaCache::class.java)
+
+        const val DEFAULT_MEMORY_BYTES: Long = 64L * 1024 * 1024
+        const val DEFAULT_DISK_BYTES: Long = 512L * 1024 * 1024
+
+        private const val CHUNK_SIZE = 64 * 1024
+
+        /**
+         * MIME type guessed from the leading bytes, for captured media that came without one.
+         */
+        private fun sniffMime(bytes: ByteArray): String? =
+            try {
+                URLConnection.guessContentTypeFromStream(ByteArrayInputStream(bytes))
+            } catch (_: IOException) {
+                null
+            }
+
+    }
+
+}
@@ -17,13 +17,24 @@
  */
 package top.chiloven.lukosbot2.core
 
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import top.chiloven.lukosbot2.core.model.message.media.*
 import top.chiloven.lukosbot2.platform.PlatformFileLoader
 import java.io.IOException
+import java.nio.file.Files
+import java.time.Duration
 
-class MediaRefLoader(
+/**
+ * Reads [MediaRef] payloads. With a [cache], platform files and URLs are loaded once and reused by
+ * later reads of the same media (cave adds, kemono hash lookups, forwards); URL entries are reused
+ * for [urlTtl], platform file IDs for as long as they stay cached.
+ */
+class MediaRefLoader @JvmOverloads constructor(
     private val platformFileLoaders: List<PlatformFileLoader>,
-    private val urlMediaLoader: IUrlMediaLoader
+    private val urlMediaLoader: IUrlMediaLoader,
+    private val cache: MediaCache? = null,
+    private val urlTtl: Duration = DEFAULT_URL_TTL,
 ) {
 
     @Throws(IOException::class)
@@ -35,16 +46,102 @@ class MediaRefLoader(
                 ref.mime()
             )
 
-            is UrlRef -> urlMediaLoader.load(ref)
-            is PlatformFileRef -> loadPlatform(ref)
+            is FileRef -> loadFile(ref)
+            is UrlRef -> cached(ref) { urlMediaLoader.load(ref) }
+            is PlatformFileRef -> cached(ref) { loadPlatform(ref) }
             null -> throw IOException("不支持的媒体类型，无法读取。")
         }
     }
 
-    private suspend fun loadPlatform(ref: PlatformFileRef): LoadedPlatformMedia {
-        return platformFileLoaders.firstOrNull { it.supports(ref.platform()) }
-                ?.load(ref)
+    /**
+     * Passes the media to [consumer] one chunk at a time, so callers that only digest or inspect the
+     * content never hold it in memory. Throwing from [consumer] aborts the transfer.
+     */
+    @Throws(IOException::class)
+    suspend fun stream(ref: MediaRef?, consumer: (chunk: ByteArray, length: Int) -> Unit) {
+        when (ref) {
+            is BytesRef -> ref.bytes().let { consumer(it, it.size) }
+            is FileRef -> streamFile(ref, consumer)
+            is UrlRef -> streamCached(ref, consumer) { urlMediaLoader.stream(ref, it) }
+            is PlatformFileRef -> streamCached(ref, consumer) { platformLoader(ref).stream(ref, it) }
+            null -> throw IOException("不支持的媒体类型，无法读取。")
+        }
+    }
+
+    fun cacheStats(): MediaCache.Stats? = cache?.stats()
+
+    private suspend fun cached(
+        ref: MediaRef,
+        loader: suspend () -> LoadedPlatformMedia,
+    ): LoadedPlatformMedia {
+        val cache = cache ?: return loader()
+        return cache.getOrLoad(cacheKey(ref), ttlMs(ref), loader)
+    }
+
+    private suspend fun streamCached(
+        ref: MediaRef,
+        consumer: (chunk: ByteArray, length: Int) -> Unit,
+        source: suspend (consumer: (chunk: ByteArray, length: Int) -> Unit) -> Unit,
+    ) {
+        val cache = cache ?: return source(consumer)
+        cache.stream(
+            cacheKey(ref),
+            ttlMs(ref),
+            consumer,
+            source
+        )
+    }
+
+    private fun cacheKey(ref: MediaRef): String = when (ref) {
+        is PlatformFileRef -> "pf:${ref.platform()}:${ref.fileId()}"
+        is UrlRef -> "url:${ref.url()}"
+        else -> error("Not cacheable: $ref")
+    }
+
+    private fun ttlMs(ref: MediaRef): Long? = if (ref is UrlRef) urlTtl.toMillis() else null
+
+    /**
+     * Reads a local file into memory. Senders stream [FileRef] media directly; this path is only
+     * for callers that need the bytes, and it leaves owned files in place.
+     */
+    private suspend fun loadFile(ref: FileRef): LoadedPlatformMedia = withContext(Dispatchers.IO) {
+        if (!Files.isRegularFile(ref.path())) {
+            throw IOException("媒体文件不存在：${ref.fileName()}")
+        }
+        LoadedPlatformMedia(
+            Files.readAllBytes(ref.path()),
+            ref.fileName(),
+            ref.mime() ?: Files.probeContentType(ref.path())
+        )
+    }
+
+    private suspend fun loadPlatform(ref: PlatformFileRef): LoadedPlatformMedia =
+        platformLoader(ref).load(ref)
+
+    private fun platformLoader(ref: PlatformFileRef): PlatformFileLoader =
+        platformFileLoaders.firstOrNull { it.supports(ref.platform()) }
             ?: throw IOException("当前平台不支持读取该媒体。")
+
+    private suspend fun streamFile(
+        ref: FileRef,
+        consumer: (chunk: ByteArray, length: Int) -> Unit,
+    ) = withContext(Dispatchers.IO) {
+        Files.newInputStream(ref.path()).use { input ->
+            val buffer = ByteArray(CHUNK_SIZE)
+            while (true) {
+                val read = input.read(buffer)
+                if (read == -1) break
+                consumer(buffer, read)
+            }
+        }
+    }
+
+    private companion object {
+
+        const val CHUNK_SIZE = 64 * 1024
+
+        val DEFAULT_URL_TTL: Duration = Duration.ofMinutes(10)
+
     }
 
 }
@@ -27,6 +27,7 @@ import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
 import top.chiloven.lukosbot2.platform.ChatPlatform
 import top.chiloven.lukosbot2.platform.ISender
 import top.chiloven.lukosbot2.util.message.MessageIoLog
+import top.chiloven.lukosbot2.util.message.OutboundPartUtils
 import java.util.concurrent.ConcurrentHashMap
 
 /**
@@ -39,6 +40,8 @@ import java.util.concurrent.ConcurrentHashMap
  * [BotCoroutineRuntime] scope. The sender is snapshotted at enqueue time, so re-registering a platform
  * sender does not affect already queued messages. On shutdown all lanes are closed and drained before
  * returning (orderly shutdown), then the runtime scope is cancelled by Spring destroy ordering.</p>
+ *
+ * <p>Files of owned {@code FileRef} media are deleted once their message was sent, failed or dropped.</p>
  */
 class MessageSenderHub(
     private val runtime: BotCoroutineRuntime,
@@ -52,14 +55,16 @@ class MessageSenderHub(
 
     private val workers = lanes.mapIndexed { index, lane ->
         runtime.launch("send-lane-" + index.toString().padStart(2, '0')) {
-            for ((message, sender, key) in lane) {
-                MessageIoLog.outbound(message)
+            for ((messages, sender, key) in lane) {
+                messages.forEach(MessageIoLog::outbound)
                 try {
-                    sender.send(message)
+                    if (messages.size == 1) sender.send(messages[0]) else sender.sendBatch(messages)
                 } catch (e: CancellationException) {
                     throw e
                 } catch (e: Exception) {
                     log.warn("Failed to send outbound message to ${key}: ${e.message}", e)
+                } finally {
+                    messages.forEach { OutboundPartUtils.releaseOwnedMedia(it.parts()) }
                 }
             }
         }
@@ -77,28 +82,45 @@ class MessageSenderHub(
         log.info("Unregistered sender for platform {}", platform)
     }
 
+    /**
+     * Enqueues [outs] in order. Consecutive messages for the same chat are handed to the sender as
+     * one [ISender.sendBatch] call, so it can combine their media into fewer platform requests.
+     */
     fun sendBatch(outs: List<OutboundMessage>?) {
         if (outs.isNullOrEmpty()) return
+        var run = ArrayList<OutboundMessage>()
         for (o in outs) {
-            send(o)
+            if (run.isNotEmpty() && chatKey(run[0].addr()) != chatKey(o.addr())) {
+                enqueue(run)
+                run = ArrayList()
+            }
+            run += o
         }
+        enqueue(run)
     }
 
     fun send(out: OutboundMessage?) {
         if (out == null) return
-        val platform = out.addr().platform()
+        enqueue(listOf(out))
+    }
+
+    private fun enqueue(messages: List<OutboundMessage>) {
+        val addr = messages[0].addr()
+        val platform = addr.platform()
 
         val sender = senders[platform]
         if (sender == null) {
             log.warn("No sender registered for platform ${platform}, dropping outbound message.")
+            messages.forEach { OutboundPartUtils.releaseOwnedMedia(it.parts()) }
             return
         }
 
-        val key = chatKey(out.addr())
+        val key = chatKey(addr)
         val lane = lanes[indexFor(key)]
-        val result = lane.trySend(PendingSend(out, sender, key))
+        val result = lane.trySend(PendingSend(messages, sender, key))
         if (result.isFailure) {
             log.warn("Send queue for $key is closed; dropping outbound message.")
+            messages.forEach { OutboundPartUtils.releaseOwnedMedia(it.parts()) }
         }
     }
 
@@ -125,7 +147,7 @@ class MessageSenderHub(
     }
 
     private data class PendingSend(
-        val message: OutboundMessage,
+        val messages: List<OutboundMessage>,
         val sender: ISender,
         val key: String,
     )
@@ -0,0 +1,188 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.core
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.yield
+import org.junit.jupiter.api.Test
+import top.chiloven.lukosbot2.core.model.message.media.LoadedPlatformMedia
+import top.chiloven.lukosbot2.util.PathUtils
+import java.io.ByteArrayOutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+class MediaCacheTest {
+
+    @Test
+    fun `concurrent loads of one key share a single download`() = runTest {
+        val cache = MediaCache()
+        val loads = AtomicInteger()
+        val gate = CompletableDeferred<Unit>()
+        val media = media(100)
+
+        val results = List(5) {
+            async {
+                cache.getOrLoad("pf:telegram:a", null) {
+                    loads.incrementAndGet()
+                    gate.await()
+                    media
+                }
+            }
+        }
+        // Let every caller reach the cache before the download finishes.
+        yield()
+        gate.complete(Unit)
+
+        results.awaitAll().forEach { assertSame(media, it) }
+        assertSame(media.bytes(), cache.getOrLoad("pf:telegram:a", null) { error("not cached") }.bytes())
+        assertEquals(1, loads.get())
+        val stats = cache.stats()
+        assertEquals(1, stats.misses)
+        assertEquals(4, stats.coalesced)
+        assertEquals(1, stats.hits)
+    }
+
+    @Test
+    fun `url entries expire after their ttl`() = runTest {
+        var now = 0L
+        val cache = MediaCache(clock = { now })
+        val loads = AtomicInteger()
+
+        repeat(2) { cache.getOrLoad("url:x", 1_000) { loads.incrementAndGet(); media(10) } }
+        now = 1_000
+        cache.getOrLoad("url:x", 1_000) { loads.incrementAndGet(); media(10) }
+
+        assertEquals(2, loads.get())
+    }
+
+    @Test
+    fun `evicted and oversized entries spill to disk`() = withDir { dir ->
+        runTest {
+            val cache = MediaCache(
+                maxMemoryBytes = 800,
+                diskDir = dir,
+                maxDiskBytes = 10_000
+            )
+            for (i in 0 until 8) cache.getOrLoad("k$i", null) { media(100, seed = i) }
+            cache.getOrLoad("big", null) { media(500) }
+
+            val stats = cache.stats()
+            assertEquals(8, stats.memoryEntries)
+            assertEquals(1, stats.diskEntries)
+            cache.getOrLoad("k9", null) { media(100, seed = 9) }
+            assertEquals(2, cache.stats().diskEntries)
+
+            // k0 was evicted from memory, but is still served from disk with its metadata.
+            val reloaded = cache.getOrLoad("k0", null) { error("not cached") }
+            assertContentEquals(media(100, seed = 0).bytes(), reloaded.bytes())
+            assertEquals("m.bin", reloaded.name())
+            assertEquals(1, cache.stats().diskHits)
+        }
+    }
+
+    @Test
+    fun `streamed media is captured for later reads`() = withDir { dir ->
+        runTest {
+            val cache = MediaCache(
+                maxMemoryBytes = 800,
+                diskDir = dir,
+                maxDiskBytes = 10_000
+            )
+            val payload = media(2_000).bytes()
+            var sourced = 0
+
+            repeat(2) {
+                val out = ByteArrayOutputStream()
+                cache.stream("url:big", null, { chunk, length -> out.write(chunk, 0, length) }) { consumer ->
+                    sourced++
+                    payload.asList().chunked(300).forEach { consumer(it.toByteArray(), it.size) }
+                }
+                assertContentEquals(payload, out.toByteArray())
+            }
+
+            assertEquals(1, sourced)
+            assertEquals(1, cache.stats().diskHits)
+        }
+    }
+
+    @Test
+    fun `a load after a stream is served from the capture`() = runTest {
+        val cache = MediaCache()
+        val payload = png(500)
+
+        cache.stream("pf:telegram:p", null, { _, _ -> }) { consumer -> consumer(payload, payload.size) }
+        val loaded = cache.getOrLoad("pf:telegram:p", null) { error("not cached") }
+
+        assertContentEquals(payload, loaded.bytes())
+        // The capture has no name; its MIME type comes from the content.
+        assertEquals(null, loaded.name())
+        assertEquals("image/png", loaded.mime())
+        assertEquals(1, cache.stats().misses)
+    }
+
+    @Test
+    fun `a load waits for a running stream instead of downloading again`() = runTest {
+        val cache = MediaCache()
+        val payload = png(500)
+        val gate = CompletableDeferred<Unit>()
+
+        val streaming = async {
+            cache.stream("pf:telegram:p", null, { _, _ -> }) { consumer ->
+                gate.await()
+                consumer(payload, payload.size)
+            }
+        }
+        yield()
+        val loading = async { cache.getOrLoad("pf:telegram:p", null) { error("downloaded twice") } }
+        yield()
+        gate.complete(Unit)
+
+        streaming.await()
+        assertContentEquals(payload, loading.await().bytes())
+        val stats = cache.stats()
+        assertEquals(1, stats.misses)
+        assertEquals(1, stats.coalesced)
+    }
+
+    private fun media(size: Int, seed: Int = 0): LoadedPlatformMedia = LoadedPlatformMedia(
+        ByteArray(size) { (it * 31 + seed).toByte() },
+        "m.bin",
+        "application/octet-stream"
+    )
+
+    private fun png(size: Int): ByteArray =
+        byteArrayOf(0x89.toByte(), 'P'.code.toByte(), 'N'.code.toByte(), 'G'.code.toByte(), 0x0D, 0x0A, 0x1A, 0x0A) +
+            ByteArray(size)
+
+    private fun withDir(block: (Path) -> Unit) {
+        val dir = Files.createTempDirectory("media-cache-test-")
+        try {
+            block(dir)
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+}
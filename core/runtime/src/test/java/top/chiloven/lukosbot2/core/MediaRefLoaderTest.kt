@@ -21,11 +21,14 @@ import kotlinx.coroutines.test.runTest
 import org.junit.jupiter.api.Assertions.*
 import org.junit.jupiter.api.Test
 import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
 import top.chiloven.lukosbot2.core.model.message.media.LoadedPlatformMedia
 import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
 import top.chiloven.lukosbot2.core.model.message.media.UrlRef
 import top.chiloven.lukosbot2.platform.PlatformFileLoader
+import java.io.ByteArrayOutputStream
 import java.io.IOException
+import java.nio.file.Files
 
 class MediaRefLoaderTest {
 
@@ -97,6 +100,70 @@ class MediaRefLoaderTest {
         assertArrayEquals(byteArrayOf(1, 2, 3), loaded.bytes())
     }
 
+    @Test
+    fun `file ref is read from disk and left in place`() = runTest {
+        val loader = MediaRefLoader(
+            listOf(),
+            StubUrlMediaLoader(
+                LoadedPlatformMedia(
+                    byteArrayOf(0),
+                    null,
+                    null
+                )
+            )
+        )
+        val path = Files.createTempFile("media-ref-", ".bin")
+        try {
+            Files.write(path, byteArrayOf(4, 5, 6))
+
+            val loaded = loader.load(
+                FileRef(
+                    path,
+                    "d.bin",
+                    "application/octet-stream",
+                    true
+                )
+            )
+
+            assertEquals("d.bin", loaded.name())
+            assertArrayEquals(byteArrayOf(4, 5, 6), loaded.bytes())
+            assertTrue(Files.exists(path))
+        } finally {
+            Files.deleteIfExists(path)
+        }
+    }
+
+    @Test
+    fun `stream passes file content in chunks`() = runTest {
+        val loader = MediaRefLoader(
+            listOf(),
+            StubUrlMediaLoader(
+                LoadedPlatformMedia(
+                    byteArrayOf(0),
+                    null,
+                    null
+                )
+            )
+        )
+        val data = ByteArray(150_000) { it.toByte() }
+        val path = Files.createTempFile("media-ref-", ".bin")
+        try {
+            Files.write(path, data)
+
+            val received = ByteArrayOutputStream()
+            var chunks = 0
+            loader.stream(FileRef(path)) { chunk, length ->
+                received.write(chunk, 0, length)
+                chunks++
+            }
+
+            assertArrayEquals(data, received.toByteArray())
+            assertTrue(chunks > 1)
+        } finally {
+            Files.deleteIfExists(path)
+        }
+    }
+
     @Test
     fun `platform file ref delegates to matching platform file loader`() = runTest {
         val expected = LoadedPlatformMedia(
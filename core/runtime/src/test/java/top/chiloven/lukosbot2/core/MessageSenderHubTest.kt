@@ -21,12 +21,16 @@ import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.test.runTest
 import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
 import org.junit.jupiter.api.Test
 import top.chiloven.lukosbot2.core.model.message.Address
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
+import top.chiloven.lukosbot2.core.model.message.outbound.OutFile
 import top.chiloven.lukosbot2.core.model.message.outbound.OutText
 import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
 import top.chiloven.lukosbot2.platform.ChatPlatform
 import top.chiloven.lukosbot2.platform.ISender
+import java.nio.file.Files
 import java.util.concurrent.CopyOnWriteArrayList
 import kotlin.math.max
 import kotlin.time.Duration.Companion.milliseconds
@@ -143,6 +147,42 @@ class MessageSenderHubTest {
         runtime.destroy()
     }
 
+    @Test
+    fun `batch hands consecutive same chat messages to the sender together`() = runTest {
+        val runtime = BotCoroutineRuntime(
+            kotlinx.coroutines.test.StandardTestDispatcher(testScheduler),
+            { testScheduler.currentTime },
+        )
+        val hub = MessageSenderHub(runtime)
+        val batches = CopyOnWriteArrayList<List<String>>()
+        hub.register(ChatPlatform.TELEGRAM, object : ISender {
+
+            override suspend fun send(out: OutboundMessage) {
+                sendBatch(listOf(out))
+            }
+
+            override suspend fun sendBatch(outs: List<OutboundMessage>) {
+                batches += outs.map { (it.parts()!![0] as OutText).text() }
+            }
+
+        })
+
+        hub.sendBatch(
+            listOf(
+                out(1, "a1"),
+                out(1, "a2"),
+                out(2, "b1"),
+                out(1, "a3")
+            )
+        )
+
+        testScheduler.advanceUntilIdle()
+        assertEquals(setOf(listOf("a1", "a2"), listOf("b1"), listOf("a3")), batches.toSet())
+        assertEquals(listOf("a1", "a2", "a3"), batches.flatten().filter { it.startsWith("a") })
+
+        runtime.destroy()
+    }
+
     @Test
     fun `sender is snapshotted at enqueue time`() = runTest {
         val runtime = BotCoroutineRuntime(
@@ -180,6 +220,52 @@ class MessageSenderHubTest {
         runtime.destroy()
     }
 
+    @Test
+    fun `owned file media is deleted after it was sent or dropped`() = runTest {
+        val runtime = BotCoroutineRuntime(
+            kotlinx.coroutines.test.StandardTestDispatcher(testScheduler),
+            { testScheduler.currentTime },
+        )
+        val hub = MessageSenderHub(runtime)
+        val seen = CopyOnWriteArrayList<Boolean>()
+        hub.register(ChatPlatform.TELEGRAM, object : ISender {
+            override suspend fun send(out: OutboundMessage) {
+                val ref = (out.parts()!![0] as OutFile).ref() as FileRef
+                seen += Files.exists(ref.path())
+            }
+        })
+
+        fun fileOut(id: Long): Pair<OutboundMessage, FileRef> {
+            val ref = FileRef(
+                Files.createTempFile("hub-test-", ".zip"),
+                "a.zip",
+                null,
+                true
+            )
+            val file = OutFile(
+                ref,
+                null,
+                "a.zip",
+                null
+            )
+            return OutboundMessage(chatAddr(id), listOf(file)) to ref
+        }
+
+        val (sent, sentRef) = fileOut(1)
+        hub.send(sent)
+        testScheduler.advanceUntilIdle()
+
+        assertEquals(listOf(true), seen)
+        assertFalse(Files.exists(sentRef.path()))
+
+        hub.unregister(ChatPlatform.TELEGRAM)
+        val (dropped, droppedRef) = fileOut(2)
+        hub.send(dropped)
+        assertFalse(Files.exists(droppedRef.path()))
+
+        runtime.destroy()
+    }
+
     @Test
     fun `destroy drains the queue before returning`() {
         val runtime = BotCoroutineRuntime()
@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.config
+
+import org.springframework.boot.context.properties.ConfigurationProperties
+import top.chiloven.lukosbot2.util.DownloadCache
+import top.chiloven.lukosbot2.util.DownloadGovernor
+
+/**
+ * Process-wide download limits and the local download cache.
+ *
+ * Properties are read from `lukos.download.*` (application.yml / application.properties).
+ */
+@ConfigurationProperties(prefix = "lukos.download")
+data class DownloadConfigProp(
+    var maxConnections: Int = DownloadGovernor.DEFAULT_MAX_CONNECTIONS,
+    var maxConnectionsPerHost: Int = DownloadGovernor.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+    var maxBytesPerSecond: Long = 0,
+    var cache: Cache = Cache(),
+) {
+
+    data class Cache(
+        /**
+         * Whether finished downloads are kept on disk and reused, default is true.
+         */
+        var enabled: Boolean = true,
+
+        /**
+         * Cache directory, relative to the working directory.
+         */
+        var dir: String = "data/cache/downloads",
+
+        /**
+         * Size limit; least recently used files are evicted beyond it.
+         */
+        var maxBytes: Long = DownloadCache.DEFAULT_MAX_BYTES,
+    )
+
+}
@@ -20,6 +20,7 @@ package top.chiloven.lukosbot2.http
 import io.ktor.client.call.*
 import io.ktor.client.statement.*
 import io.ktor.http.*
+import io.ktor.utils.io.*
 import top.chiloven.lukosbot2.util.HttpStatusException
 import top.chiloven.lukosbot2.util.PathUtils
 import java.net.URLDecoder
@@ -83,6 +84,21 @@ suspend fun HttpResponse.readBytePayload(): BytePayload {
     return BytePayload(bytes = bytes, mime = mime, fileName = fileName)
 }
 
+/**
+ * Passes the body to [consumer] one chunk at a time without buffering it. Use it inside
+ * `prepareGet(...).execute { }`; a plain `get` has already read the whole body into memory.
+ */
+suspend fun HttpResponse.readChunks(consumer: (chunk: ByteArray, length: Int) -> Unit) {
+    requireSuccess()
+    val channel = bodyAsChannel()
+    val buffer = ByteArray(CHUNK_SIZE)
+    while (true) {
+        val read = channel.readAvailable(buffer, 0, buffer.size)
+        if (read == -1) break
+        if (read > 0) consumer(buffer, read)
+    }
+}
+
 private fun parseFileName(contentDisposition: String?): String? {
     if (contentDisposition.isNullOrBlank()) return null
     val parts = contentDisposition.split(';')
@@ -104,3 +120,5 @@ private fun parseFileName(contentDisposition: String?): String? {
     }
     return null
 }
+
+private const val CHUNK_SIZE = 64 * 1024
@@ -19,6 +19,7 @@ package top.chiloven.lukosbot2.http
 
 import io.ktor.client.*
 import io.ktor.client.request.*
+import io.ktor.client.statement.*
 import top.chiloven.lukosbot2.core.IUrlMediaLoader
 import top.chiloven.lukosbot2.core.model.message.media.LoadedPlatformMedia
 import top.chiloven.lukosbot2.core.model.message.media.UrlRef
@@ -38,4 +39,9 @@ class HttpUrlMediaLoader(
         )
     }
 
+    @Throws(IOException::class)
+    override suspend fun stream(ref: UrlRef, consumer: (chunk: ByteArray, length: Int) -> Unit) {
+        http.prepareGet(ref.url()).execute { it.readChunks(consumer) }
+    }
+
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.apache.logging.log4j.LogManager
+import java.io.IOException
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.io.path.isRegularFile
+
+/**
+ * On-disk, content-addressed cache for downloaded files.
+ *
+ * Files are stored once under their SHA-256 (`objects/ab/<sha256>`). A URL whose path already names
+ * the content hash (kemono's `/data/ab/cd/<sha256>.ext`) is looked up directly. Any other URL is
+ * remembered together with its validator (ETag or Last-Modified) in `urls/`, and [DownloadClient]
+ * revalidates it with a conditional request before reusing the stored file.
+ *
+ * - Entries are evicted least recently used first once the cache grows past [maxBytes]. Recency is
+ *   kept in the file modification time, so it survives restarts.
+ * - Reused files are hard-linked into the target directory when the file system allows it and
+ *   copied otherwise.
+ * - Every reuse hashes the stored file again. A hard-linked target that was modified in place also
+ *   changes the cached copy; such entries fail verification and are dropped.
+ */
+class DownloadCache(
+    val root: Path,
+    val maxBytes: Long = DEFAULT_MAX_BYTES,
+) {
+
+    private val objectsDir = root.resolve("objects")
+    private val urlsDir = root.resolve("urls")
+
+    private val lock = Any()
+    private val entries = LinkedHashMap<String, Long>(16, 0.75f, true)
+    private var totalBytes = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val corrupt = AtomicLong()
+    private val bytesServed = AtomicLong()
+
+    init {
+        Files.createDirectories(objectsDir)
+        Files.createDirectories(urlsDir)
+        loadIndex()
+    }
+
+    /**
+     * Remembered validator of a URL and the content it pointed to.
+     */
+    data class UrlEntry(
+        val url: String,
+        val validator: String,
+        val sha256: String,
+    )
+
+    /**
+     * Snapshot of cache usage.
+     */
+    data class Stats(
+        val entries: Int,
+        val bytes: Long,
+        val maxBytes: Long,
+        val hits: Long,
+        val misses: Long,
+        val corrupt: Long,
+        val bytesServed: Long,
+    )
+
+    fun contains(sha256: String): Boolean = synchronized(lock) { entries.containsKey(sha256) }
+
+    /**
+     * Places the cached file with [sha256] at [target] after verifying it.
+     *
+     * @return `false` on a miss or when the stored file no longer matches its hash
+     */
+    @Throws(IOException::class)
+    fun materialize(sha256: String, target: Path): Boolean {
+        val blob = objectPath(sha256)
+        val size = synchronized(lock) { entries[sha256] }
+        if (size == null || !blob.isRegularFile()) {
+            misses.incrementAndGet()
+            return false
+        }
+
+        if (Files.size(blob) != size || hashFile(blob) != sha256) {
+            log.warn("[DL-CACHE] dropping corrupt entry {}", sha256)
+            corrupt.incrementAndGet()
+            misses.incrementAndGet()
+            remove(sha256)
+            return false
+        }
+
+        target.parent?.let(Files::createDirectories)
+        val tmp = PathUtils.tempSiblingPath(target, ".cache")
+        try {
+            linkOrCopy(blob, tmp)
+            PathUtils.moveReplace(tmp, target)
+        } finally {
+            PathUtils.deleteIfExistsQuietly(tmp)
+        }
+
+        runCatching { Files.setLastModifiedTime(blob, FileTime.fromMillis(System.currentTimeMillis())) }
+        hits.incrementAndGet()
+        bytesServed.addAndGet(size)
+        log.debug("[DL-CACHE] hit {} -> {}", sha256, target)
+        return true
+    }
+
+    /**
+     * Adds the finished download at [file] to the cache and returns its SHA-256.
+     *
+     * The file is hard-linked into the cache when possible, so storing does not copy the data.
+     */
+    @Throws(IOException::class)
+    fun store(file: Path): String {
+        val sha256 = hashFile(file)
+        val size = Files.size(file)
+        val blob = objectPath(sha256)
+
+        if (synchronized(lock) { entries.containsKey(sha256) } && blob.isRegularFile()) {
+            return sha256
+        }
+
+        Files.createDirectories(blob.parent)
+        val tmp = PathUtils.tempSiblingPath(blob)
+        try {
+            linkOrCopy(file, tmp)
+            PathUtils.moveReplace(tmp, blob)
+        } finally {
+            PathUtils.deleteIfExistsQuietly(tmp)
+        }
+
+        synchronized(lock) {
+            val previous = entries.put(sha256, size)
+            totalBytes += size - (previous ?: 0L)
+        }
+        evict(keep = sha256)
+        return sha256
+    }
+
+    /**
+     * Returns the remembered entry for [url], or `null` if there is none or its content was evicted.
+     */
+    fun urlEntry(url: URI): UrlEntry? {
+        val path = urlPath(url)
+        if (!path.isRegularFile()) return null
+
+        val entry = try {
+            JsonUtils.readFile(path, UrlEntry::class.java)
+        } catch (ex: Exception) {
+            log.debug("[DL-CACHE] ignoring unreadable url entry {}: {}", path, ex.toString())
+            null
+        }
+        if (entry == null || entry.url != url.toString() || !contains(entry.sha256)) {
+            PathUtils.deleteIfExistsQuietly(path)
+            return null
+        }
+        return entry
+    }
+
+    @Throws(IOException::class)
+    fun recordUrl(
+        url: URI,
+        validator: String,
+        sha256: String,
+    ) {
+        JsonUtils.writeFile(urlPath(url), UrlEntry(url.toString(), validator, sha256))
+    }
+
+    fun stats(): Stats = synchronized(lock) {
+        Stats(
+            entries = entries.size,
+            bytes = totalBytes,
+            maxBytes = maxBytes,
+            hits = hits.get(),
+            misses = misses.get(),
+            corrupt = corrupt.get(),
+            bytesServed = bytesServed.get()
+        )
+    }
+
+    private fun evict(keep: String) {
+        val victims = mutableListOf<String>()
+        synchronized(lock) {
+            val iterator = entries.entries.iterator()
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                val (sha256, size) = iterator.next()
+                if (sha256 == keep) continue
+                iterator.remove()
+                totalBytes -= size
+                victims += sha256
+            }
+        }
+        victims.forEach { PathUtils.deleteIfExistsQuietly(objectPath(it)) }
+        if (victims.isNotEmpty()) {
+            log.debug("[DL-CACHE] evicted {} entries, size={}", victims.size, totalBytes)
+        }
+    }
+
+    private fun remove(sha256: String) {
+        synchronized(lock) {
+            entries.remove(sha256)?.let { totalBytes -= it }
+        }
+        PathUtils.deleteIfExistsQuietly(objectPath(sha256))
+    }
+
+    private fun loadIndex() {
+        val blobs = Files.walk(objectsDir).use { stream ->
+            stream
+                .filter { it.isRegularFile() && isSha256(it.fileName.toString()) }
+                .map { it to Files.getLastModifiedTime(it) }
+                .toList()
+        }
+
+        synchronized(lock) {
+            blobs.sortedBy { it.second }.forEach { (path, _) ->
+                val size = Files.size(path)
+                entries[path.fileName.toString()] = size
+                totalBytes += size
+            }
+        }
+        log.debug("[DL-CACHE] loaded {} entries, size={}", entries.size, totalBytes)
+        evict(keep = "")
+    }
+
+    private fun objectPath(sha256: String): Path = objectsDir.resolve(sha256.substring(0, 2)).resolve(sha256)
+
+    private fun urlPath(url: URI): Path = urlsDir.resolve(hashText(url.toString()) + ".json")
+
+    companion object {
+
+        private val log = LogManager.getLogger(DownloadCache::class.java)
+
+        const val DEFAULT_MAX_BYTES: Long = 2L * 1024 * 1024 * 1024
+
+        private val SHA256_HEX = Regex("[0-9a-fA-F]{64}")
+
+        /**
+         * SHA-256 named by the last path segment of [url] (with any extension removed), if any.
+         */
+        @JvmStatic
+        fun contentHashOf(url: URI): String? {
+            val name = url.path?.substringAfterLast('/')?.substringBefore('.') ?: return null
+            return name.takeIf(::isSha256)?.lowercase(Locale.ROOT)
+        }
+
+        private fun isSha256(value: String): Boolean = SHA256_HEX.matches(value)
+
+        private fun linkOrCopy(source: Path, target: Path) {
+            try {
+                Files.createLink(target, source)
+            } catch (_: IOException) {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING)
+            } catch (_: UnsupportedOperationException) {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING)
+            }
+        }
+
+        private fun hashText(text: String): String = ShaUtils.hashSha256ToHex(text)
+
+        @Throws(IOException::class)
+        private fun hashFile(path: Path): String = ShaUtils.hashSha256ToHex(path)
+
+    }
+
+}
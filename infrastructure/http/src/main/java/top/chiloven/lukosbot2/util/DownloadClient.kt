@@ -18,6 +18,7 @@
 package top.chiloven.lukosbot2.util
 
 import top.chiloven.lukosbot2.config.ProxyConfigProp
+import top.chiloven.lukosbot2.util.concurrent.Coroutines
 import top.chiloven.lukosbot2.util.download.*
 import java.io.IOException
 import java.net.URI
@@ -26,16 +27,33 @@ import java.nio.file.Path
 
 /**
  * Service for resilient HTTP downloads.
+ *
+ * Every operation has a suspending variant (suffix `Suspend`) that never parks a thread while
+ * waiting for response headers or retry backoff, and can be cancelled with the calling coroutine.
+ * The plain methods are blocking bridges kept for Java callers and non-coroutine code.
+ *
+ * All traffic is subject to [governor], or to the process-wide [DownloadGovernor.current] if none is
+ * given. Each call runs as one [DownloadGovernor.DownloadJob], so a batch competes fairly with
+ * single-file downloads of other users.
+ *
+ * With a [cache], files that were downloaded before are placed from local disk instead of being
+ * fetched again; see [DownloadCache] for how entries are keyed and verified.
  */
-class DownloadClient(
+class DownloadClient @JvmOverloads constructor(
     private val proxyConfig: ProxyConfigProp? = null,
+    private val governor: DownloadGovernor? = null,
+    private val cache: DownloadCache? = null,
 ) {
 
-    private val http = DownloadHttp(proxyProvider = { proxyConfig })
+    private val http = DownloadHttp(
+        proxyProvider = { proxyConfig },
+        governorProvider = ::activeGovernor
+    )
     private val retryPolicyFactory: (Int) -> RetryPolicy = { RetryPolicy.default(it) }
     private val singleFileDownloader = SingleFileDownloader(http, retryPolicyFactory)
     private val rangeDownloader = RangeDownloader(http, singleFileDownloader, retryPolicyFactory)
-    private val batchDownloader = BatchDownloader(singleFileDownloader, rangeDownloader)
+    private val cachedFetcher = CachedFetcher(http, cache)
+    private val batchDownloader = BatchDownloader(singleFileDownloader, rangeDownloader, cachedFetcher)
 
     @Throws(IOException::class)
     fun downloadAllToDir(
@@ -43,14 +61,16 @@ class DownloadClient(
         dir: Path,
         headers: Map<String, String>?,
         timeoutMs: Int,
-    ): DownloadUtils.BatchResult = batchDownloader.download(
-        items = items,
-        dir = dir,
-        headers = headers,
-        timeoutMs = timeoutMs,
-        namingMode = BatchDownloader.BatchNamingMode.FLAT_FILES,
-        options = BatchDownloader.BatchDownloadOptions()
-    )
+    ): DownloadUtils.BatchResult = Coroutines.runBlockingIo {
+        downloadAllToDirConcurrentSuspend(
+            items = items,
+            dir = dir,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            maxConcurrentFiles = 1,
+            chunkThreadsPerFile = 1
+        )
+    }
 
     @JvmOverloads
     @Throws(IOException::class)
@@ -62,19 +82,48 @@ class DownloadClient(
         maxConcurrentFiles: Int = DownloadDefaults.DEFAULT_MAX_CONCURRENT_FILES,
         chunkThreadsPerFile: Int = 1,
         maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
-    ): DownloadUtils.BatchResult = batchDownloader.download(
-        items = items,
-        dir = dir,
-        headers = headers,
-        timeoutMs = timeoutMs,
-        namingMode = BatchDownloader.BatchNamingMode.FLAT_FILES,
-        options = BatchDownloader.BatchDownloadOptions(
-            maxConcurrentFiles,
-            chunkThreadsPerFile,
-            maxRetries
+    ): DownloadUtils.BatchResult = Coroutines.runBlockingIo {
+        downloadAllToDirConcurrentSuspend(
+            items = items,
+            dir = dir,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            maxConcurrentFiles = maxConcurrentFiles,
+            chunkThreadsPerFile = chunkThreadsPerFile,
+            maxRetries = maxRetries
         )
-    )
+    }
+
+    @Throws(IOException::class)
+    suspend fun downloadAllToDirConcurrentSuspend(
+        items: List<DownloadUtils.NamedUrl?>?,
+        dir: Path,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        maxConcurrentFiles: Int = DownloadDefaults.DEFAULT_MAX_CONCURRENT_FILES,
+        chunkThreadsPerFile: Int = 1,
+        maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
+    ): DownloadUtils.BatchResult = activeGovernor().withJob("batch:$dir") {
+        batchDownloader.download(
+            items = items,
+            dir = dir,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            namingMode = BatchDownloader.BatchNamingMode.FLAT_FILES,
+            options = BatchDownloader.BatchDownloadOptions(
+                maxConcurrentFiles,
+                chunkThreadsPerFile,
+                maxRetries
+            )
+        )
+    }
 
+    /**
+     * Downloads [items] to paths relative to [dir].
+     *
+     * [onItemDone] is called from worker threads as soon as each item finished, which lets callers
+     * consume files while the rest of the batch is still downloading.
+     */
     @JvmOverloads
     @Throws(IOException::class)
     fun downloadNamedUrlsToDirConcurrent(
@@ -85,18 +134,45 @@ class DownloadClient(
         maxConcurrentFiles: Int = DownloadDefaults.DEFAULT_MAX_CONCURRENT_FILES,
         chunkThreadsPerFile: Int = DownloadDefaults.DEFAULT_CHUNK_THREADS,
         maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
-    ): DownloadUtils.BatchResult = batchDownloader.download(
-        items = items,
-        dir = dir,
-        headers = headers,
-        timeoutMs = timeoutMs,
-        namingMode = BatchDownloader.BatchNamingMode.RELATIVE_PATHS,
-        options = BatchDownloader.BatchDownloadOptions(
-            maxConcurrentFiles,
-            chunkThreadsPerFile,
-            maxRetries
+        onItemDone: ((DownloadUtils.ItemResult) -> Unit)? = null,
+    ): DownloadUtils.BatchResult = Coroutines.runBlockingIo {
+        downloadNamedUrlsToDirConcurrentSuspend(
+            items = items,
+            dir = dir,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            maxConcurrentFiles = maxConcurrentFiles,
+            chunkThreadsPerFile = chunkThreadsPerFile,
+            maxRetries = maxRetries,
+            onItemDone = onItemDone
         )
-    )
+    }
+
+    @Throws(IOException::class)
+    suspend fun downloadNamedUrlsToDirConcurrentSuspend(
+        items: List<DownloadUtils.NamedUrl?>?,
+        dir: Path,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        maxConcurrentFiles: Int = DownloadDefaults.DEFAULT_MAX_CONCURRENT_FILES,
+        chunkThreadsPerFile: Int = DownloadDefaults.DEFAULT_CHUNK_THREADS,
+        maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
+        onItemDone: ((DownloadUtils.ItemResult) -> Unit)? = null,
+    ): DownloadUtils.BatchResult = activeGovernor().withJob("batch:$dir") {
+        batchDownloader.download(
+            items = items,
+            dir = dir,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            namingMode = BatchDownloader.BatchNamingMode.RELATIVE_PATHS,
+            options = BatchDownloader.BatchDownloadOptions(
+                maxConcurrentFiles,
+                chunkThreadsPerFile,
+                maxRetries
+            ),
+            onItemDone = onItemDone
+        )
+    }
 
     @JvmOverloads
     @Throws(IOException::class)
@@ -106,8 +182,23 @@ class DownloadClient(
         headers: Map<String, String>?,
         timeoutMs: Int,
         maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
+    ) = Coroutines.runBlockingIo {
+        downloadToFileSuspend(url, targetFile, headers, timeoutMs, maxRetries)
+    }
+
+    @Throws(IOException::class)
+    suspend fun downloadToFileSuspend(
+        url: URI,
+        targetFile: Path,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
     ) {
-        singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
+        activeGovernor().withJob(url.toString()) {
+            cachedFetcher.fetch(url, targetFile, headers, timeoutMs) {
+                singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
+            }
+        }
     }
 
     @JvmOverloads
@@ -119,10 +210,22 @@ class DownloadClient(
         headers: Map<String, String>?,
         timeoutMs: Int,
         maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
+    ): Path = Coroutines.runBlockingIo {
+        downloadToDirSuspend(url, dir, fileName, headers, timeoutMs, maxRetries)
+    }
+
+    @Throws(IOException::class)
+    suspend fun downloadToDirSuspend(
+        url: URI,
+        dir: Path,
+        fileName: String,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
     ): Path {
         Files.createDirectories(dir)
         val target = DownloadNaming.resolveFlatTarget(dir, fileName)
-        downloadToFile(url, target, headers, timeoutMs, maxRetries)
+        downloadToFileSuspend(url, target, headers, timeoutMs, maxRetries)
         return target
     }
 
@@ -137,8 +240,8 @@ class DownloadClient(
         minSizeForChunking: Long = DownloadDefaults.DEFAULT_MIN_SIZE_FOR_CHUNKING_BYTES,
         minPartSizeBytes: Long = DownloadDefaults.DEFAULT_MIN_PART_SIZE_BYTES,
         maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
-    ) {
-        rangeDownloader.downloadToFileFast(
+    ) = Coroutines.runBlockingIo {
+        downloadToFileFastSuspend(
             url = url,
             targetFile = targetFile,
             headers = headers,
@@ -150,6 +253,33 @@ class DownloadClient(
         )
     }
 
+    @Throws(IOException::class)
+    suspend fun downloadToFileFastSuspend(
+        url: URI,
+        targetFile: Path,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        chunkThreads: Int = DownloadDefaults.DEFAULT_CHUNK_THREADS,
+        minSizeForChunking: Long = DownloadDefaults.DEFAULT_MIN_SIZE_FOR_CHUNKING_BYTES,
+        minPartSizeBytes: Long = DownloadDefaults.DEFAULT_MIN_PART_SIZE_BYTES,
+        maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
+    ) {
+        activeGovernor().withJob(url.toString()) {
+            cachedFetcher.fetch(url, targetFile, headers, timeoutMs) {
+                rangeDownloader.downloadToFileFast(
+                    url = url,
+                    targetFile = targetFile,
+                    headers = headers,
+                    timeoutMs = timeoutMs,
+                    chunkThreads = chunkThreads,
+                    minSizeForChunking = minSizeForChunking,
+                    minPartSizeBytes = minPartSizeBytes,
+                    maxRetries = maxRetries
+                )
+            }
+        }
+    }
+
     @JvmOverloads
     @Throws(IOException::class)
     fun downloadToDirFast(
@@ -160,10 +290,23 @@ class DownloadClient(
         timeoutMs: Int,
         chunkThreads: Int = DownloadDefaults.DEFAULT_CHUNK_THREADS,
         maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
+    ): Path = Coroutines.runBlockingIo {
+        downloadToDirFastSuspend(url, dir, fileName, headers, timeoutMs, chunkThreads, maxRetries)
+    }
+
+    @Throws(IOException::class)
+    suspend fun downloadToDirFastSuspend(
+        url: URI,
+        dir: Path,
+        fileName: String,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        chunkThreads: Int = DownloadDefaults.DEFAULT_CHUNK_THREADS,
+        maxRetries: Int = DownloadDefaults.DEFAULT_MAX_RETRIES,
     ): Path {
         Files.createDirectories(dir)
         val target = DownloadNaming.resolveFlatTarget(dir, fileName)
-        downloadToFileFast(
+        downloadToFileFastSuspend(
             url = url,
             targetFile = target,
             headers = headers,
@@ -176,4 +319,16 @@ class DownloadClient(
         return target
     }
 
+    /**
+     * Utilization of the governor this client reports to.
+     */
+    fun governorStats(): DownloadGovernor.Stats = activeGovernor().stats()
+
+    /**
+     * Usage of the download cache, or `null` if this client has none.
+     */
+    fun cacheStats(): DownloadCache.Stats? = cache?.stats()
+
+    private fun activeGovernor(): DownloadGovernor = governor ?: DownloadGovernor.current()
+
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.suspendCancellableCoroutine
+import kotlinx.coroutines.withContext
+import org.apache.logging.log4j.LogManager
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Process-wide limits for download traffic.
+ *
+ * Batch and ranged downloads choose their own concurrency, so several large jobs at once could open
+ * hundreds of connections and starve platform API calls. Every HTTP exchange of [DownloadClient]
+ * first takes a connection slot here, and every body chunk takes tokens from a shared byte-rate
+ * bucket.
+ *
+ * - [maxConnections] caps open download connections across the process.
+ * - [maxConnectionsPerHost] caps connections to a single host.
+ * - [maxBytesPerSecond] caps the combined body rate; `0` disables the bucket.
+ *
+ * Free slots go to the waiting [DownloadJob] that currently holds the fewest connections, so a job
+ * that arrives late still gets an equal share instead of queueing behind a large batch.
+ *
+ * The process-wide instance is available through [current]; the application installs a configured
+ * governor on startup.
+ */
+class DownloadGovernor(
+    val maxConnections: Int = DEFAULT_MAX_CONNECTIONS,
+    val maxConnectionsPerHost: Int = DEFAULT_MAX_CONNECTIONS_PER_HOST,
+    val maxBytesPerSecond: Long = 0,
+    private val nanoTime: () -> Long = System::nanoTime,
+) : AutoCloseable {
+
+    private val lock = Any()
+    private val waiters = ArrayDeque<Waiter>()
+    private val hostConnections = HashMap<String, Int>()
+    private val jobs = HashSet<DownloadJob>()
+    private var activeConnections = 0
+
+    private var tokens = maxBytesPerSecond.toDouble()
+    private var lastRefillNs = nanoTime()
+
+    private val granted = AtomicLong()
+    private val totalWaitNs = AtomicLong()
+    private val maxWaitNs = AtomicLong()
+    private val bytesTransferred = AtomicLong()
+    private val throttledNs = AtomicLong()
+    private val busyStartNs = nanoTime()
+    private var busyNs = 0L
+    private var busySinceNs = 0L
+
+    /**
+     * One logical download (a file or a whole batch). Connections are shared fairly between jobs.
+     */
+    class DownloadJob(
+        val name: String,
+    ) : AbstractCoroutineContextElement(DownloadJob) {
+
+        internal var connections = 0
+
+        override fun toString(): String = "DownloadJob($name)"
+
+        companion object Key : CoroutineContext.Key<DownloadJob>
+
+    }
+
+    /**
+     * Snapshot of governor utilization.
+     */
+    data class Stats(
+        val maxConnections: Int,
+        val maxConnectionsPerHost: Int,
+        val maxBytesPerSecond: Long,
+        val activeConnections: Int,
+        val waitingConnections: Int,
+        val activeJobs: Int,
+        val connectionsByHost: Map<String, Int>,
+        val granted: Long,
+        val avgWaitMs: Double,
+        val maxWaitMs: Double,
+        val bytesTransferred: Long,
+        val throttledMs: Double,
+        val connectionUtilization: Double,
+        val busyRatio: Double,
+    )
+
+    /**
+     * Runs [block] as part of the job [name], unless the caller already runs inside a job.
+     */
+    suspend fun <T> withJob(name: String, block: suspend () -> T): T =
+        if (currentCoroutineContext()[DownloadJob] != null) block() else withContext(DownloadJob(name)) { block() }
+
+    /**
+     * Holds one connection slot for [host] while [block] runs.
+     *
+     * The slot is charged to the [DownloadJob] of the calling coroutine, or to a job of its own.
+     */
+    suspend fun <T> withConnection(host: String, block: suspend () -> T): T {
+        val job = currentCoroutineContext()[DownloadJob] ?: DownloadJob(host)
+        acquire(job, host)
+        try {
+            return block()
+        } finally {
+            release(job, host)
+        }
+    }
+
+    /**
+     * Takes [bytes] tokens from the byte-rate bucket, suspending while the bucket is in debt.
+     */
+    suspend fun acquireBytes(bytes: Int) {
+        bytesTransferred.addAndGet(bytes.toLong())
+        if (maxBytesPerSecond <= 0 || bytes <= 0) return
+
+        val waitNs = synchronized(lock) {
+            val now = nanoTime()
+            tokens = min(
+                maxBytesPerSecond.toDouble(),
+                tokens + (now - lastRefillNs) * maxBytesPerSecond / 1e9
+            )
+            lastRefillNs = now
+            tokens -= bytes
+            if (tokens >= 0) 0L else (-tokens * 1e9 / maxBytesPerSecond).toLong()
+        }
+        if (waitNs > 0) {
+            throttledNs.addAndGet(waitNs)
+            delay(waitNs.nanoseconds)
+        }
+    }
+
+    fun stats(): Stats = synchronized(lock) {
+        val now = nanoTime()
+        val count = granted.get()
+        val busy = busyNs + if (activeConnections > 0) now - busySinceNs else 0L
+        Stats(
+            maxConnections = maxConnections,
+            maxConnectionsPerHost = maxConnectionsPerHost,
+            maxBytesPerSecond = maxBytesPerSecond,
+            activeConnections = activeConnections,
+            waitingConnections = waiters.size,
+            activeJobs = jobs.size,
+            connectionsByHost = HashMap(hostConnections),
+            granted = count,
+            avgWaitMs = if (count == 0L) 0.0 else totalWaitNs.get() / count / 1_000_000.0,
+            maxWaitMs = maxWaitNs.get() / 1_000_000.0,
+            bytesTransferred = bytesTransferred.get(),
+            throttledMs = throttledNs.get() / 1_000_000.0,
+            connectionUtilization = activeConnections.toDouble() / max(1, maxConnections),
+            busyRatio = busy.toDouble() / max(1L, now - busyStartNs),
+        )
+    }
+
+    /**
+     * Logs final statistics and removes this governor if it is the installed one.
+     */
+    override fun close() {
+        val stats = stats()
+        log.info(
+            "Download governor stats: granted={}, avgWait={}ms, maxWait={}ms, bytes={}, throttled={}ms, busy={}%",
+            stats.granted,
+            "%.1f".format(stats.avgWaitMs),
+            "%.1f".format(stats.maxWaitMs),
+            stats.bytesTransferred,
+            "%.0f".format(stats.throttledMs),
+            "%.1f".format(stats.busyRatio * 100)
+        )
+        uninstall(this)
+    }
+
+    private suspend fun acquire(job: DownloadJob, host: String) {
+        val enqueuedNs = nanoTime()
+        suspendCancellableCoroutine { cont ->
+            val ready = synchronized(lock) {
+                val waiter = Waiter(job, host, cont, enqueuedNs)
+                waiters.addLast(waiter)
+                cont.invokeOnCancellation {
+                    synchronized(lock) { waiters.remove(waiter) }
+                }
+                dispatchLocked()
+            }
+            resumeAll(ready)
+        }
+    }
+
+    private fun release(job: DownloadJob, host: String) {
+        val ready = synchronized(lock) {
+            activeConnections--
+            if (activeConnections == 0) busyNs += nanoTime() - busySinceNs
+
+            val left = (hostConnections[host] ?: 1) - 1
+            if (left <= 0) hostConnections.remove(host) else hostConnections[host] = left
+
+            job.connections--
+            if (job.connections == 0) jobs.remove(job)
+
+            dispatchLocked()
+        }
+        resumeAll(ready)
+    }
+
+    /**
+     * Grants free slots to eligible waiters, job with the fewest connections first, then FIFO.
+     */
+    private fun dispatchLocked(): List<Waiter> {
+        val ready = mutableListOf<Waiter>()
+        while (activeConnections < maxConnections) {
+            val next = waiters
+                    .filter { (hostConnections[it.host] ?: 0) < maxConnectionsPerHost }
+                    .minByOrNull { it.job.connections }
+                ?: break
+
+            waiters.remove(next)
+            if (activeConnections == 0) busySinceNs = nanoTime()
+            activeConnections++
+            hostConnections.merge(next.host, 1, Int::plus)
+            next.job.connections++
+            jobs += next.job
+            ready += next
+        }
+        return ready
+    }
+
+    private fun resumeAll(ready: List<Waiter>) {
+        val now = nanoTime()
+        for (waiter in ready) {
+            val waitNs = now - waiter.enqueuedNs
+            granted.incrementAndGet()
+            totalWaitNs.addAndGet(waitNs)
+            maxWaitNs.accumulateAndGet(waitNs) { a, b -> max(a, b) }
+
+            // A waiter cancelled after being granted hands its slot straight back.
+            waiter.cont.resume(Unit) { _, _, _ -> release(waiter.job, waiter.host) }
+        }
+    }
+
+    private class Waiter(
+        val job: DownloadJob,
+        val host: String,
+        val cont: CancellableContinuation<Unit>,
+        val enqueuedNs: Long,
+    )
+
+    companion object {
+
+        private val log = LogManager.getLogger(DownloadGovernor::class.java)
+
+        const val DEFAULT_MAX_CONNECTIONS = 64
+        const val DEFAULT_MAX_CONNECTIONS_PER_HOST = 32
+
+        @Volatile
+        private var installed: DownloadGovernor? = null
+
+        private val fallback: DownloadGovernor by lazy { DownloadGovernor() }
+
+        /**
+         * Returns the installed governor, or a lazily created default one.
+         */
+        @JvmStatic
+        fun current(): DownloadGovernor = installed ?: fallback
+
+        @JvmStatic
+        fun install(governor: DownloadGovernor) {
+            installed = governor
+        }
+
+        @JvmStatic
+        fun uninstall(governor: DownloadGovernor) {
+            if (installed === governor) {
+                installed = null
+            }
+        }
+
+    }
+
+}
@@ -167,4 +167,21 @@ object DownloadUtils {
 
     }
 
+    /**
+     * Outcome of one batch item, reported as soon as the item finishes.
+     *
+     * [index] is the position in the submitted list and [file] is `null` if the item failed.
+     */
+    data class ItemResult(
+        val index: Int,
+        val entryName: String,
+        val file: Path?,
+    ) {
+
+        fun index(): Int = index
+        fun entryName(): String = entryName
+        fun file(): Path? = file
+
+    }
+
 }
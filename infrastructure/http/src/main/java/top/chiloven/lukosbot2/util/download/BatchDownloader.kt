@@ -17,6 +17,7 @@
  */
 package top.chiloven.lukosbot2.util.download
 
+import kotlinx.coroutines.CancellationException
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.util.DownloadUtils
 import top.chiloven.lukosbot2.util.concurrent.Coroutines
@@ -29,18 +30,26 @@ import kotlin.math.max
 internal class BatchDownloader(
     private val singleFileDownloader: SingleFileDownloader,
     private val rangeDownloader: RangeDownloader,
+    private val cachedFetcher: CachedFetcher,
 ) {
 
     private val log = LogManager.getLogger(BatchDownloader::class.java)
 
+    /**
+     * Downloads [items] into [dir].
+     *
+     * [onItemDone] is called from the worker coroutines as soon as each item succeeded or failed; the
+     * reported index counts only non-null items. An exception thrown by it aborts the whole batch.
+     */
     @Throws(IOException::class)
-    fun download(
+    suspend fun download(
         items: List<DownloadUtils.NamedUrl?>?,
         dir: Path,
         headers: Map<String, String>?,
         timeoutMs: Int,
         namingMode: BatchNamingMode,
         options: BatchDownloadOptions,
+        onItemDone: ((DownloadUtils.ItemResult) -> Unit)? = null,
     ): DownloadUtils.BatchResult {
         Files.createDirectories(dir)
 
@@ -64,18 +73,19 @@ internal class BatchDownloader(
         )
         actualItems.forEach { log.debug("{} item={}", namingMode.logTag, it) }
 
-        val results = Coroutines.runBlockingIo {
-            Coroutines.mapLimited(actualItems, options.normalizedMaxConcurrentFiles) { item ->
-                downloadItem(
-                    item = item,
-                    dir = dir,
-                    headers = headers,
-                    timeoutMs = timeoutMs,
-                    namingMode = namingMode,
-                    options = options,
-                    usedNames = usedNames
-                )
-            }
+        val results = Coroutines.mapLimited(
+            actualItems.withIndex(),
+            options.normalizedMaxConcurrentFiles
+        ) { (index, item) ->
+            downloadItem(
+                item = item,
+                dir = dir,
+                headers = headers,
+                timeoutMs = timeoutMs,
+                namingMode = namingMode,
+                options = options,
+                usedNames = usedNames
+            ).also { onItemDone?.invoke(DownloadUtils.ItemResult(index, it.name, it.file)) }
         }
 
         val ok = results.count { it.success }
@@ -87,7 +97,7 @@ internal class BatchDownloader(
         return DownloadUtils.BatchResult(ok, failed)
     }
 
-    private fun downloadItem(
+    private suspend fun downloadItem(
         item: DownloadUtils.NamedUrl,
         dir: Path,
         headers: Map<String, String>?,
@@ -98,21 +108,21 @@ internal class BatchDownloader(
     ): BatchItemResult {
         val requestedName = item.name.trim()
         if (requestedName.isEmpty()) {
-            return BatchItemResult(DownloadDefaults.INVALID_BATCH_NAME, false)
+            return BatchItemResult(DownloadDefaults.INVALID_BATCH_NAME, null)
         }
 
         return try {
             val startNs = System.nanoTime()
-            val loggedName = when (namingMode) {
+            val (loggedName, target) = when (namingMode) {
                 BatchNamingMode.FLAT_FILES -> {
-                    downloadItemToFlatDir(
+                    val target = downloadItemToFlatDir(
                         item = item,
                         dir = dir,
                         headers = headers,
                         timeoutMs = timeoutMs,
                         options = options
                     )
-                    requestedName
+                    requestedName to target
                 }
 
                 BatchNamingMode.RELATIVE_PATHS -> {
@@ -120,7 +130,7 @@ internal class BatchDownloader(
                         entryName = requestedName,
                         usedNames = checkNotNull(usedNames)
                     )
-                    downloadItemToNamedTarget(
+                    val target = downloadItemToNamedTarget(
                         item = item,
                         dir = dir,
                         entryName = uniqueEntryName,
@@ -128,17 +138,19 @@ internal class BatchDownloader(
                         timeoutMs = timeoutMs,
                         options = options
                     )
-                    uniqueEntryName
+                    uniqueEntryName to target
                 }
             }
 
             val costMs = (System.nanoTime() - startNs) / 1_000_000
             log.debug("{} OK name={}, url={}, cost={}ms", namingMode.logTag, loggedName, item.url, costMs)
-            BatchItemResult(loggedName, true)
+            BatchItemResult(loggedName, target)
+        } catch (ex: CancellationException) {
+            throw ex
         } catch (_: InterruptedException) {
             Thread.currentThread().interrupt()
             log.warn("{} Download interrupted: name={}, url={}", namingMode.logTag, requestedName, item.url)
-            BatchItemResult(requestedName, false)
+            BatchItemResult(requestedName, null)
         } catch (ex: Exception) {
             log.warn(
                 "{} Download failed: name={}, url={}, err={}",
@@ -147,70 +159,78 @@ internal class BatchDownloader(
                 item.url,
                 ex.toString()
             )
-            BatchItemResult(requestedName, false)
+            BatchItemResult(requestedName, null)
         }
     }
 
     @Throws(IOException::class)
-    private fun downloadItemToFlatDir(
+    private suspend fun downloadItemToFlatDir(
         item: DownloadUtils.NamedUrl,
         dir: Path,
         headers: Map<String, String>?,
         timeoutMs: Int,
         options: BatchDownloadOptions,
-    ) {
+    ): Path {
         val target = DownloadNaming.resolveFlatTarget(dir, item.name)
-        if (options.normalizedChunkThreadsPerFile > 1) {
-            rangeDownloader.downloadToFileFast(
-                url = item.url,
-                targetFile = target,
-                headers = headers,
-                timeoutMs = timeoutMs,
-                chunkThreads = options.normalizedChunkThreadsPerFile,
-                minSizeForChunking = DownloadDefaults.DEFAULT_MIN_SIZE_FOR_CHUNKING_BYTES,
-                minPartSizeBytes = DownloadDefaults.DEFAULT_MIN_PART_SIZE_BYTES,
-                maxRetries = options.normalizedMaxRetries
-            )
-        } else {
-            singleFileDownloader.downloadToFile(
-                url = item.url,
-                targetFile = target,
-                headers = headers,
-                timeoutMs = timeoutMs,
-                maxRetries = options.normalizedMaxRetries
-            )
-        }
+        downloadItemToTarget(
+            item = item,
+            target = target,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            options = options
+        )
+        return target
     }
 
     @Throws(IOException::class)
-    private fun downloadItemToNamedTarget(
+    private suspend fun downloadItemToNamedTarget(
         item: DownloadUtils.NamedUrl,
         dir: Path,
         entryName: String,
         headers: Map<String, String>?,
         timeoutMs: Int,
         options: BatchDownloadOptions,
-    ) {
+    ): Path {
         val target = DownloadNaming.resolveRelativeTarget(dir, entryName)
-        if (options.normalizedChunkThreadsPerFile > 1) {
-            rangeDownloader.downloadToFileFast(
-                url = item.url,
-                targetFile = target,
-                headers = headers,
-                timeoutMs = timeoutMs,
-                chunkThreads = options.normalizedChunkThreadsPerFile,
-                minSizeForChunking = DownloadDefaults.DEFAULT_MIN_SIZE_FOR_CHUNKING_BYTES,
-                minPartSizeBytes = DownloadDefaults.DEFAULT_MIN_PART_SIZE_BYTES,
-                maxRetries = options.normalizedMaxRetries
-            )
-        } else {
-            singleFileDownloader.downloadToFile(
-                url = item.url,
-                targetFile = target,
-                headers = headers,
-                timeoutMs = timeoutMs,
-                maxRetries = options.normalizedMaxRetries
-            )
+        downloadItemToTarget(
+            item = item,
+            target = target,
+            headers = headers,
+            timeoutMs = timeoutMs,
+            options = options
+        )
+        return target
+    }
+
+    @Throws(IOException::class)
+    private suspend fun downloadItemToTarget(
+        item: DownloadUtils.NamedUrl,
+        target: Path,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        options: BatchDownloadOptions,
+    ) {
+        cachedFetcher.fetch(item.url, target, headers, timeoutMs) {
+            if (options.normalizedChunkThreadsPerFile > 1) {
+                rangeDownloader.downloadToFileFast(
+                    url = item.url,
+                    targetFile = target,
+                    headers = headers,
+                    timeoutMs = timeoutMs,
+                    chunkThreads = options.normalizedChunkThreadsPerFile,
+                    minSizeForChunking = DownloadDefaults.DEFAULT_MIN_SIZE_FOR_CHUNKING_BYTES,
+                    minPartSizeBytes = DownloadDefaults.DEFAULT_MIN_PART_SIZE_BYTES,
+                    maxRetries = options.normalizedMaxRetries
+                )
+            } else {
+                singleFileDownloader.downloadToFile(
+                    url = item.url,
+                    targetFile = target,
+                    headers = headers,
+                    timeoutMs = timeoutMs,
+                    maxRetries = options.normalizedMaxRetries
+                )
+            }
         }
     }
 
@@ -237,7 +257,11 @@ internal class BatchDownloader(
 
     private data class BatchItemResult(
         val name: String,
-        val success: Boolean,
-    )
+        val file: Path?,
+    ) {
+
+        val success: Boolean get() = file != null
+
+    }
 
 }
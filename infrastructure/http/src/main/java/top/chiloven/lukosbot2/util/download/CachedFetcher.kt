@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.download
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import org.apache.logging.log4j.LogManager
+import top.chiloven.lukosbot2.util.DownloadCache
+import java.io.IOException
+import java.net.URI
+import java.nio.file.Path
+
+/**
+ * Serves downloads from a [DownloadCache] when possible and feeds finished downloads back into it.
+ *
+ * URLs that name their content hash are answered from the cache without any request. Other URLs
+ * are reused only after a conditional `HEAD` confirms the remembered validator with a 304.
+ */
+internal class CachedFetcher(
+    private val http: DownloadHttp,
+    private val cache: DownloadCache?,
+) {
+
+    private val log = LogManager.getLogger(CachedFetcher::class.java)
+
+    /**
+     * Places [url] at [targetFile], calling [download] on a cache miss.
+     *
+     * [download] returns the validator of the downloaded entity, or `null` if the server sent none.
+     */
+    @Throws(IOException::class)
+    suspend fun fetch(
+        url: URI,
+        targetFile: Path,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        download: suspend () -> String?,
+    ) {
+        val cache = cache ?: run {
+            download()
+            return
+        }
+
+        val contentHash = DownloadCache.contentHashOf(url)
+        if (contentHash != null) {
+            if (withContext(Dispatchers.IO) { cache.materialize(contentHash, targetFile) }) return
+
+            download()
+            val stored = storeQuietly(cache, targetFile) ?: return
+            if (stored != contentHash) {
+                log.warn("[DL-CACHE] content hash mismatch for {}: url names {}, got {}", url, contentHash, stored)
+            }
+            return
+        }
+
+        val entry = cache.urlEntry(url)
+        if (entry != null &&
+            isNotModified(url, headers, timeoutMs, entry.validator) &&
+            withContext(Dispatchers.IO) { cache.materialize(entry.sha256, targetFile) }
+        ) {
+            return
+        }
+
+        val validator = download() ?: return
+        val stored = storeQuietly(cache, targetFile) ?: return
+        try {
+            cache.recordUrl(url, validator, stored)
+        } catch (ex: IOException) {
+            log.debug("[DL-CACHE] failed to record url {}: {}", url, ex.toString())
+        }
+    }
+
+    /**
+     * Caching is best effort; a full or read-only cache directory must not fail the download.
+     */
+    private suspend fun storeQuietly(cache: DownloadCache, file: Path): String? =
+        try {
+            withContext(Dispatchers.IO) { cache.store(file) }
+        } catch (ex: IOException) {
+            log.warn("[DL-CACHE] failed to store {}: {}", file, ex.toString())
+            null
+        }
+
+    private suspend fun isNotModified(
+        url: URI,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        validator: String,
+    ): Boolean {
+        val conditional = if (validator.startsWith("\"") || validator.startsWith("W/")) {
+            "If-None-Match" to validator
+        } else {
+            "If-Modified-Since" to validator
+        }
+
+        return try {
+            http.exchange(http.buildHead(url, headers.orEmpty() + conditional), timeoutMs) { response ->
+                http.debugResponseSummary(url, response.code, response.headers, false, 0)
+                response.code == 304
+            }
+        } catch (ex: CancellationException) {
+            throw ex
+        } catch (ex: Exception) {
+            log.debug("[DL-CACHE] revalidation failed for {}: {}", url, ex.toString())
+            false
+        }
+    }
+
+}
@@ -29,6 +29,8 @@ internal object DownloadDefaults {
     const val DEFAULT_RETRY_AFTER_CAP_MS: Long = 30_000
     const val DEFAULT_PROGRESS_LOG_INTERVAL_MS: Long = 1_000
     const val BUFFER_SIZE: Int = 64 * 1024
+    const val MIN_STEAL_BYTES: Long = 128L * 1024
+    const val RANGE_SAMPLE_INTERVAL_MS: Long = 500
     const val INVALID_BATCH_NAME: String = "file"
 
 }
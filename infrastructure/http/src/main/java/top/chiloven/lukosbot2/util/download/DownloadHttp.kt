@@ -17,38 +17,98 @@
  */
 package top.chiloven.lukosbot2.util.download
 
-import okhttp3.Headers
-import okhttp3.OkHttpClient
-import okhttp3.Request
-import okhttp3.Response
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.awaitCancellation
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.*
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.Constants
 import top.chiloven.lukosbot2.config.ProxyConfigProp
+import top.chiloven.lukosbot2.util.DownloadGovernor
 import top.chiloven.lukosbot2.util.HttpStatusException
 import top.chiloven.lukosbot2.util.OkHttpUtils
 import java.io.IOException
 import java.net.URI
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.resumeWithException
 import kotlin.math.max
 
 internal class DownloadHttp(
     proxyProvider: () -> ProxyConfigProp? = { null },
+    private val governorProvider: () -> DownloadGovernor = DownloadGovernor::current,
 ) {
 
     private val log = LogManager.getLogger(DownloadHttp::class.java)
     private val clientCache = OkHttpUtils.ProxyAwareOkHttpClientCache(
         connectTimeoutMs = 20_000,
         proxyProvider = proxyProvider,
+        configureBuilder = {
+            // Concurrency is bounded by the batch options; OkHttp's default of 5 async calls per
+            // host would silently serialize batch downloads from a single CDN.
+            dispatcher(Dispatcher().apply {
+                maxRequests = MAX_ASYNC_REQUESTS
+                maxRequestsPerHost = MAX_ASYNC_REQUESTS
+            })
+        }
     )
 
     @Volatile
     private var timeoutClientCache: TimeoutClientCache? = null
 
+    /**
+     * Sends [request] asynchronously and passes the response to [block], closing it afterwards.
+     *
+     * Waiting for the response does not hold a caller thread. If the calling coroutine is cancelled,
+     * the OkHttp call is cancelled too, which also aborts a body read that is blocked on the socket.
+     * The whole exchange holds one connection slot of the [DownloadGovernor].
+     */
     @Throws(IOException::class)
-    fun execute(request: Request, timeoutMs: Int): Response =
-        clientFor(timeoutMs)
-                .newCall(request)
-                .execute()
+    suspend fun <T> exchange(
+        request: Request,
+        timeoutMs: Int,
+        block: suspend (Response) -> T
+    ): T = governorProvider().withConnection(request.url.host) {
+        exchangeDirect(request, timeoutMs, block)
+    }
+
+    /**
+     * Takes [bytes] from the governor's byte-rate budget; call once per body chunk read.
+     */
+    suspend fun throttle(bytes: Int) {
+        governorProvider().acquireBytes(bytes)
+    }
+
+    private suspend fun <T> exchangeDirect(
+        request: Request,
+        timeoutMs: Int,
+        block: suspend (Response) -> T
+    ): T {
+        val call = clientFor(timeoutMs).newCall(request)
+        val response = call.await()
+
+        return response.use {
+            coroutineScope {
+                val finished = AtomicBoolean(false)
+                val canceller = launch(start = CoroutineStart.UNDISPATCHED) {
+                    try {
+                        awaitCancellation()
+                    } finally {
+                        if (!finished.get()) call.cancel()
+                    }
+                }
+
+                try {
+                    block(response)
+                } finally {
+                    finished.set(true)
+                    canceller.cancel()
+                }
+            }
+        }
+    }
 
     fun buildGet(
         url: URI,
@@ -134,6 +194,22 @@ internal class DownloadHttp(
         return total.toLongOrNull() ?: -1L
     }
 
+    private suspend fun Call.await(): Response =
+        suspendCancellableCoroutine { cont ->
+            cont.invokeOnCancellation { cancel() }
+            enqueue(object : Callback {
+
+                override fun onResponse(call: Call, response: Response) {
+                    cont.resume(response) { _, _, _ -> response.close() }
+                }
+
+                override fun onFailure(call: Call, e: IOException) {
+                    if (!cont.isCancelled) cont.resumeWithException(e)
+                }
+
+            })
+        }
+
     private fun clientFor(timeoutMs: Int): OkHttpClient {
         val baseClient = clientCache.client
         val normalizedTimeout = max(1, timeoutMs)
@@ -200,6 +276,12 @@ internal class DownloadHttp(
         return builder.build()
     }
 
+    private companion object {
+
+        const val MAX_ASYNC_REQUESTS = 256
+
+    }
+
     private class TimeoutClientCache(
         val baseClient: OkHttpClient,
     ) {
@@ -17,10 +17,10 @@
  */
 package top.chiloven.lukosbot2.util.download
 
+import kotlinx.coroutines.*
 import okhttp3.Response
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.util.PathUtils
-import top.chiloven.lukosbot2.util.concurrent.Coroutines
 import java.io.IOException
 import java.io.RandomAccessFile
 import java.net.URI
@@ -30,6 +30,7 @@ import java.nio.file.FileSystemException
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.StandardOpenOption
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.math.max
 import kotlin.math.min
 
@@ -41,8 +42,11 @@ internal class RangeDownloader(
 
     private val log = LogManager.getLogger(RangeDownloader::class.java)
 
+    /**
+     * @return the validator (ETag or Last-Modified) of the downloaded entity, if the server sent one
+     */
     @Throws(IOException::class)
-    fun downloadToFileFast(
+    suspend fun downloadToFileFast(
         url: URI,
         targetFile: Path,
         headers: Map<String, String>?,
@@ -51,25 +55,25 @@ internal class RangeDownloader(
         minSizeForChunking: Long,
         minPartSizeBytes: Long,
         maxRetries: Int,
-    ) {
+    ): String? {
         val threads = max(1, chunkThreads)
         if (threads == 1) {
             log.debug("[DL-FAST] chunkThreads<=1, fallback to single: url={}", url)
-            singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
-            return
+            return singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
         }
 
         val probeStartNs = System.nanoTime()
         val meta = try {
             probeRangeMeta(url, headers, timeoutMs)
+        } catch (ex: CancellationException) {
+            throw ex
         } catch (ex: Exception) {
             log.debug(
                 "[DL-FAST] Range probe failed, fallback to single: url={}, err={}",
                 url,
                 ex.toString()
             )
-            singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
-            return
+            return singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
         } finally {
             val probeMs = (System.nanoTime() - probeStartNs) / 1_000_000
             log.debug("[DL-FAST] probe cost={}ms, url={}", probeMs, url)
@@ -91,8 +95,7 @@ internal class RangeDownloader(
                 minSizeForChunking,
                 url
             )
-            singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
-            return
+            return singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
         }
 
         val total = meta.length
@@ -102,11 +105,10 @@ internal class RangeDownloader(
             minPartSizeBytes = minPartSizeBytes
         )
         if (partPlan.size < 2) {
-            singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
-            return
+            return singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
         }
 
-        downloadPartsOrFallback(
+        return downloadPartsOrFallback(
             url = url,
             targetFile = targetFile,
             headers = headers,
@@ -119,42 +121,46 @@ internal class RangeDownloader(
     }
 
     @Throws(IOException::class)
-    fun probeRangeMeta(
+    suspend fun probeRangeMeta(
         url: URI,
         headers: Map<String, String>?,
         timeoutMs: Int,
     ): RangeMeta {
         try {
-            http.execute(http.buildHead(url, headers), timeoutMs).use { response ->
+            val headMeta = http.exchange(http.buildHead(url, headers), timeoutMs) { response ->
                 val code = response.code
                 http.debugResponseSummary(url, code, response.headers, false, 0)
-                if (code < 400) {
-                    val len = response.header("Content-Length")?.toLongOrNull() ?: -1L
-                    val accept = response.header("Accept-Ranges")
-                            ?.contains("bytes", ignoreCase = true) == true
-                    val token = http.pickIfRangeToken(response.headers)
-                    if (accept && len > 0) {
-                        log.debug(
-                            "[DL-PROBE] HEAD says acceptRanges=true len={} url={}",
-                            DownloadFormatting.displayBytes(len),
-                            url
-                        )
-                        return RangeMeta(len, true, token)
-                    }
+                if (code >= 400) return@exchange null
 
+                val len = response.header("Content-Length")?.toLongOrNull() ?: -1L
+                val accept = response.header("Accept-Ranges")
+                        ?.contains("bytes", ignoreCase = true) == true
+                val token = http.pickIfRangeToken(response.headers)
+                if (accept && len > 0) {
                     log.debug(
-                        "[DL-PROBE] HEAD insufficient (acceptRanges={}, len={}) url={}",
-                        accept,
-                        if (len > 0) DownloadFormatting.displayBytes(len) else "unknown",
+                        "[DL-PROBE] HEAD says acceptRanges=true len={} url={}",
+                        DownloadFormatting.displayBytes(len),
                         url
                     )
+                    return@exchange RangeMeta(len, true, token)
                 }
+
+                log.debug(
+                    "[DL-PROBE] HEAD insufficient (acceptRanges={}, len={}) url={}",
+                    accept,
+                    if (len > 0) DownloadFormatting.displayBytes(len) else "unknown",
+                    url
+                )
+                null
             }
+            if (headMeta != null) return headMeta
+        } catch (e: CancellationException) {
+            throw e
         } catch (_: Exception) {
             log.debug("[DL-PROBE] HEAD failed, will try Range probe: url={}", url)
         }
 
-        http.execute(
+        return http.exchange(
             http.buildRangeGet(
                 url = url,
                 headers = headers,
@@ -162,7 +168,7 @@ internal class RangeDownloader(
                 rangeEnd = 0L
             ),
             timeoutMs
-        ).use { response ->
+        ) { response ->
             val code = response.code
             http.debugResponseSummary(url, code, response.headers, true, 0)
             if (code == 206) {
@@ -175,15 +181,15 @@ internal class RangeDownloader(
                         DownloadFormatting.displayBytes(total),
                         url
                     )
-                    return RangeMeta(total, true, token)
+                    return@exchange RangeMeta(total, true, token)
                 }
 
                 log.debug("[DL-PROBE] Range probe OK but total unknown: url={}", url)
-                return RangeMeta(-1L, true, token)
+                return@exchange RangeMeta(-1L, true, token)
             }
 
             log.debug("[DL-PROBE] Range probe not supported (code={}): url={}", code, url)
-            return RangeMeta(-1L, false, null)
+            RangeMeta(-1L, false, null)
         }
     }
 
@@ -216,7 +222,7 @@ internal class RangeDownloader(
     }
 
     @Throws(IOException::class)
-    private fun downloadPartsOrFallback(
+    private suspend fun downloadPartsOrFallback(
         url: URI,
         targetFile: Path,
         headers: Map<String, String>?,
@@ -225,38 +231,53 @@ internal class RangeDownloader(
         total: Long,
         parts: List<RangePart>,
         ifRangeToken: String?,
-    ) {
+    ): String? {
         targetFile.parent?.let(Files::createDirectories)
-        val tmp = PathUtils.tempSiblingPath(targetFile)
+        val tmp = RangeManifest.dataPath(targetFile)
+        val manifestPath = RangeManifest.manifestPath(targetFile)
         var chunkOk = false
+        var keepProgress = false
         val fileStartNs = System.nanoTime()
 
+        val manifest = openManifest(tmp, manifestPath, total, ifRangeToken)
+        val plan = manifest
+                ?.takeIf { it.completedBytes() > 0 }
+                ?.let { planMissingParts(it.missingRanges(), parts) }
+            ?: parts
+
         try {
-            PathUtils.deleteIfExistsQuietly(tmp)
-            RandomAccessFile(tmp.toFile(), "rw").use { it.setLength(total) }
+            if (plan === parts) {
+                PathUtils.deleteIfExistsQuietly(tmp)
+                RandomAccessFile(tmp.toFile(), "rw").use { it.setLength(total) }
+            }
 
-            val partSize = parts.firstOrNull()?.let { it.end - it.start + 1 } ?: 0L
+            val partSize = plan.firstOrNull()?.let { it.end - it.start + 1 } ?: 0L
             log.debug(
-                "[DL-FAST] plan url={}, total={}, parts={}, partSize~={}, tmp={}",
+                "[DL-FAST] plan url={}, total={}, resumed={}, parts={}, partSize~={}, tmp={}",
                 url,
                 DownloadFormatting.displayBytes(total),
-                parts.size,
+                DownloadFormatting.displayBytes(total - plan.sumOf { it.end - it.start + 1 }),
+                plan.size,
                 DownloadFormatting.displayBytes(partSize),
                 tmp
             )
 
-            Coroutines.runBlockingIo {
-                Coroutines.mapLimited(parts, parts.size) { part ->
-                    downloadRangeToFile(
-                        url = url,
-                        tmpFile = tmp,
-                        part = part,
-                        headers = headers,
-                        timeoutMs = timeoutMs,
-                        maxRetries = maxRetries,
-                        ifRangeToken = ifRangeToken
-                    )
-                }
+            val scheduler = RangeScheduler(total, plan, manifest)
+            transferRanges(
+                url = url,
+                tmpFile = tmp,
+                headers = headers,
+                timeoutMs = timeoutMs,
+                maxRetries = maxRetries,
+                ifRangeToken = ifRangeToken,
+                scheduler = scheduler,
+                maxConnections = parts.size,
+                checkpoint = { manifest?.let { saveManifest(it, manifestPath) } }
+            )
+            if (!scheduler.isComplete()) {
+                throw IOException(
+                    "Range bytes mismatch: expected=$total, got=${scheduler.bytesCommitted}"
+                )
             }
 
             PathUtils.moveReplace(tmp, targetFile)
@@ -272,9 +293,16 @@ internal class RangeDownloader(
                 DownloadFormatting.formatSpeed(total, System.nanoTime() - fileStartNs)
             )
         } catch (ex: FileSystemException) {
-            PathUtils.deleteIfExistsQuietly(tmp)
+            throw ex
+        } catch (ex: ValidatorChangedException) {
+            log.warn("[DL-FAST] {}, restart with single download: url={}", ex.message, url)
+        } catch (ex: CancellationException) {
+            keepProgress = manifest != null
             throw ex
         } catch (ex: IOException) {
+            keepProgress = manifest != null
+            currentCoroutineContext().ensureActive()
+
             val costMs = (System.nanoTime() - fileStartNs) / 1_000_000
             log.warn(
                 "[DL-FAST] chunked download failed after {}ms, will fallback to single: url={}, err={}",
@@ -283,99 +311,274 @@ internal class RangeDownloader(
                 ex.toString()
             )
         } finally {
-            if (!chunkOk) PathUtils.deleteIfExistsQuietly(tmp)
+            if (keepProgress) {
+                saveManifest(checkNotNull(manifest), manifestPath)
+            } else if (!chunkOk) {
+                PathUtils.deleteIfExistsQuietly(tmp)
+            }
+            if (chunkOk || !keepProgress) PathUtils.deleteIfExistsQuietly(manifestPath)
         }
 
-        if (!chunkOk) {
-            singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
+        if (chunkOk) return ifRangeToken
+
+        val validator = singleFileDownloader.downloadToFile(url, targetFile, headers, timeoutMs, maxRetries)
+        // The single download replaced the target, so the partial ranges are obsolete.
+        PathUtils.deleteIfExistsQuietly(tmp)
+        PathUtils.deleteIfExistsQuietly(manifestPath)
+        return validator
+    }
+
+    /**
+     * Loads the manifest of an earlier run if it still describes the same entity, or starts a new one.
+     *
+     * Without a validator a resumed file could silently mix two versions, so no manifest is kept.
+     */
+    private fun openManifest(
+        tmp: Path,
+        manifestPath: Path,
+        total: Long,
+        validator: String?,
+    ): RangeManifest? {
+        if (validator == null) {
+            PathUtils.deleteIfExistsQuietly(manifestPath)
+            return null
+        }
+
+        val existing = RangeManifest.load(manifestPath)
+        val tmpSize = runCatching { Files.size(tmp) }.getOrDefault(-1L)
+        if (existing != null && existing.matches(validator, total) && tmpSize == total) {
+            log.debug(
+                "[DL-RESUME] resuming {} with {} already downloaded",
+                tmp,
+                DownloadFormatting.displayBytes(existing.completedBytes())
+            )
+            return existing
+        }
+
+        if (existing != null) {
+            log.debug("[DL-RESUME] discarding stale manifest {}", manifestPath)
+        }
+        PathUtils.deleteIfExistsQuietly(manifestPath)
+        return RangeManifest.create(validator, total)
+    }
+
+    private fun saveManifest(manifest: RangeManifest, path: Path) {
+        try {
+            manifest.save(path)
+        } catch (ex: IOException) {
+            log.debug("[DL-RESUME] failed to save manifest {}: {}", path, ex.toString())
         }
     }
 
+    /**
+     * Splits the missing ranges of a resumed download into parts no larger than the planned ones.
+     */
+    fun planMissingParts(
+        missing: List<LongRange>,
+        planned: List<RangePart>,
+    ): List<RangePart> {
+        val maxPart = planned.maxOfOrNull { it.end - it.start + 1 } ?: Long.MAX_VALUE
+        val result = mutableListOf<RangePart>()
+        for (range in missing) {
+            var start = range.first
+            while (start <= range.last) {
+                val end = min(range.last, start + maxPart - 1)
+                result += RangePart(
+                    index = result.size + 1,
+                    start = start,
+                    end = end
+                )
+                start = end + 1
+            }
+        }
+        return result
+    }
+
+    /**
+     * Downloads all ranges of [scheduler] with a connection count tuned by [ConnectionTuner].
+     *
+     * Workers pull segments until the scheduler has nothing left to hand out or split. A sampler
+     * adds workers while per-connection throughput holds and lets them retire when it drops.
+     */
     @Throws(IOException::class)
-    private fun downloadRangeToFile(
+    private suspend fun transferRanges(
         url: URI,
         tmpFile: Path,
-        part: RangePart,
         headers: Map<String, String>?,
         timeoutMs: Int,
         maxRetries: Int,
         ifRangeToken: String?,
-    ) {
-        val expected = part.end - part.start + 1
-        if (expected <= 0) return
+        scheduler: RangeScheduler,
+        maxConnections: Int,
+        checkpoint: () -> Unit,
+    ) = coroutineScope {
+        val tuner = ConnectionTuner(
+            maxConnections = maxConnections,
+            initialConnections = max(2, maxConnections / 2)
+        )
+        val live = AtomicInteger()
+        val drained = CompletableDeferred<Unit>()
+
+        fun tryRetire(): Boolean {
+            while (true) {
+                val current = live.get()
+                if (current <= tuner.target) return false
+                if (live.compareAndSet(current, current - 1)) return true
+            }
+        }
+
+        fun spawnWorker() {
+            live.incrementAndGet()
+            launch {
+                var retired = false
+                try {
+                    var lastRate = 0.0
+                    while (true) {
+                        if (tryRetire()) {
+                            retired = true
+                            break
+                        }
+                        val segment = scheduler.next(lastRate) ?: break
+                        lastRate = downloadSegment(
+                            url = url,
+                            tmpFile = tmpFile,
+                            segment = segment,
+                            scheduler = scheduler,
+                            headers = headers,
+                            timeoutMs = timeoutMs,
+                            maxRetries = maxRetries,
+                            ifRangeToken = ifRangeToken
+                        )
+                        scheduler.finish(segment)
+                    }
+                } finally {
+                    if (!retired && live.decrementAndGet() == 0) drained.complete(Unit)
+                }
+            }
+        }
+
+        repeat(tuner.target) { spawnWorker() }
+
+        val sampler = launch {
+            var lastBytes = scheduler.bytesCommitted
+            var lastNs = System.nanoTime()
+            while (true) {
+                delay(DownloadDefaults.RANGE_SAMPLE_INTERVAL_MS)
+
+                val now = System.nanoTime()
+                val bytes = scheduler.bytesCommitted
+                val connections = live.get()
+                val rate = (bytes - lastBytes) * 1e9 / max(1L, now - lastNs)
+                val target = tuner.onSample(rate, connections)
+                while (live.get() < target && scheduler.hasWork()) spawnWorker()
+
+                log.debug(
+                    "[DL-FAST] sample url={}, connections={}, target={}, speed={}, done={}",
+                    url,
+                    connections,
+                    target,
+                    DownloadFormatting.formatSpeed(bytes - lastBytes, now - lastNs),
+                    DownloadFormatting.displayBytes(bytes)
+                )
+                lastBytes = bytes
+                lastNs = now
+                checkpoint()
+            }
+        }
+
+        drained.await()
+        sampler.cancel()
+        log.debug("[DL-FAST] ranges done url={}, steals={}", url, scheduler.stealCount)
+    }
 
+    /**
+     * Downloads [segment] until it is complete or its tail has been stolen.
+     *
+     * @return this worker's throughput on the segment in bytes per second
+     */
+    @Throws(IOException::class)
+    private suspend fun downloadSegment(
+        url: URI,
+        tmpFile: Path,
+        segment: RangeScheduler.Segment,
+        scheduler: RangeScheduler,
+        headers: Map<String, String>?,
+        timeoutMs: Int,
+        maxRetries: Int,
+        ifRangeToken: String?,
+    ): Double {
         val retryPolicy = retryPolicyFactory(maxRetries)
         val maxAttempts = retryPolicy.maxAttempts()
+        val startedNs = System.nanoTime()
+        var written = 0L
 
         for (attempt in 1..maxAttempts) {
-            val startedNs = System.nanoTime()
+            val range = scheduler.remainingRange(segment) ?: break
             try {
-                logPartStart(part, expected, attempt, maxAttempts, url)
+                logPartStart(segment.index, range, attempt, maxAttempts, url)
 
-                http.execute(
+                http.exchange(
                     http.buildRangeGet(
                         url = url,
                         headers = headers,
-                        rangeStart = part.start,
-                        rangeEnd = part.end,
+                        rangeStart = range.first,
+                        rangeEnd = range.last,
                         ifRangeToken = ifRangeToken
                     ),
                     timeoutMs
-                ).use { response ->
+                ) { response ->
                     val code = response.code
-                    http.debugResponseSummary(url, code, response.headers, true, part.start)
+                    http.debugResponseSummary(url, code, response.headers, true, range.first)
 
                     if (code >= 400) {
                         throw response.toHttpStatusException()
                     }
+                    if (code == 200 && ifRangeToken != null) {
+                        throw ValidatorChangedException(ifRangeToken)
+                    }
                     if (code != 206) {
                         throw IOException("Expected HTTP 206, got HTTP $code")
                     }
 
-                    val written = writePartBody(
+                    written += writeSegmentBody(
                         response = response,
                         tmpFile = tmpFile,
-                        start = part.start
+                        segment = segment,
+                        scheduler = scheduler
                     )
-
-                    if (written != expected) {
-                        throw IOException(
-                            "Range bytes mismatch: expected=$expected, got=$written, range=${part.start}-${part.end}"
-                        )
-                    }
                 }
 
-                val elapsedNs = System.nanoTime() - startedNs
-                log.debug(
-                    "[DL-PART] done part#{} range {}-{}, bytes={}, cost={}ms, avgSpeed={}",
-                    part.index,
-                    part.start,
-                    part.end,
-                    DownloadFormatting.displayBytes(expected),
-                    elapsedNs / 1_000_000,
-                    DownloadFormatting.formatSpeed(expected, elapsedNs)
-                )
-                return
+                scheduler.remainingRange(segment)?.let { left ->
+                    throw IOException(
+                        "Range bytes mismatch: body ended with ${left.last - left.first + 1} bytes left, " +
+                                "range=${left.first}-${left.last}"
+                    )
+                }
+                break
             } catch (e: IOException) {
-                val willRetry = attempt < maxAttempts && retryPolicy.shouldRetry(e)
+                currentCoroutineContext().ensureActive()
+
+                val willRetry = attempt < maxAttempts &&
+                        e !is ValidatorChangedException &&
+                        retryPolicy.shouldRetry(e)
                 val delayMs = if (willRetry) retryPolicy.delayMs(e, attempt) else 0L
                 if (willRetry) {
                     log.warn(
                         "[DL-PART] part#{} attempt {}/{} failed, retry in {}ms: url={}, err={}",
-                        part.index,
+                        segment.index,
                         attempt,
                         maxAttempts,
                         delayMs,
                         url,
                         e.toString()
                     )
-                    RetryPolicy.sleepMs(delayMs)
+                    RetryPolicy.backoff(delayMs)
                     continue
                 }
 
                 log.warn(
                     "[DL-PART] part#{} failed (no more retries): url={}, err={}",
-                    part.index,
+                    segment.index,
                     url,
                     e.toString()
                 )
@@ -383,12 +586,22 @@ internal class RangeDownloader(
             }
         }
 
-        throw IOException("Part download failed unexpectedly (should not reach here)")
+        val elapsedNs = System.nanoTime() - startedNs
+        log.debug(
+            "[DL-PART] done part#{} range {}-{}, bytes={}, cost={}ms, avgSpeed={}",
+            segment.index,
+            segment.start,
+            segment.end,
+            DownloadFormatting.displayBytes(written),
+            elapsedNs / 1_000_000,
+            DownloadFormatting.formatSpeed(written, elapsedNs)
+        )
+        return if (elapsedNs > 0) written * 1e9 / elapsedNs else 0.0
     }
 
     private fun logPartStart(
-        part: RangePart,
-        expected: Long,
+        index: Int,
+        range: LongRange,
         attempt: Int,
         maxAttempts: Int,
         url: URI,
@@ -396,45 +609,64 @@ internal class RangeDownloader(
         if (!log.isDebugEnabled) return
         log.debug(
             "[DL-PART] start part#{} range {}-{} ({}), attempt {}/{} url={}",
-            part.index,
-            part.start,
-            part.end,
-            DownloadFormatting.displayBytes(expected),
+            index,
+            range.first,
+            range.last,
+            DownloadFormatting.displayBytes(range.last - range.first + 1),
             attempt,
             maxAttempts,
             url
         )
     }
 
+    /**
+     * Writes the response body at the segment's position, stopping early once the remaining bytes
+     * have been handed to another worker.
+     */
     @Throws(IOException::class)
-    private fun writePartBody(
+    private suspend fun writeSegmentBody(
         response: Response,
         tmpFile: Path,
-        start: Long,
-    ): Long {
+        segment: RangeScheduler.Segment,
+        scheduler: RangeScheduler,
+    ): Long = withContext(Dispatchers.IO) {
         var written = 0L
         val buffer = ByteArray(DownloadDefaults.BUFFER_SIZE)
         response.body.byteStream().use { input ->
             FileChannel.open(tmpFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE)
                     .use { channel ->
-                        var pos = start
                         while (true) {
+                            ensureActive()
                             val read = input.read(buffer)
                             if (read == -1) break
+                            http.throttle(read)
 
-                            val bb = ByteBuffer.wrap(buffer, 0, read)
+                            val allowed = scheduler.reserve(segment, read)
+                            val bb = ByteBuffer.wrap(buffer, 0, allowed)
+                            var pos = segment.position
                             while (bb.hasRemaining()) {
                                 val count = channel.write(bb, pos)
                                 if (count <= 0) throw IOException("FileChannel write returned $count")
                                 pos += count
-                                written += count
                             }
+                            scheduler.commit(segment, allowed)
+                            written += allowed
+
+                            if (allowed < read || scheduler.remainingRange(segment) == null) break
                         }
                     }
         }
-        return written
+        written
     }
 
+    /**
+     * The server answered an `If-Range` request with the full entity: the file changed since the
+     * validator was taken.
+     */
+    private class ValidatorChangedException(
+        validator: String,
+    ) : IOException("Validator $validator no longer matches")
+
     internal data class RangeMeta(
         val length: Long,
         val acceptRanges: Boolean,
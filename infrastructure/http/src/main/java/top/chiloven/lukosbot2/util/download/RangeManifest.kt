@@ -0,0 +1,173 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.download
+
+import org.apache.logging.log4j.LogManager
+import top.chiloven.lukosbot2.util.JsonUtils
+import top.chiloven.lukosbot2.util.PathUtils
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Progress record of a ranged download, persisted next to its temp file.
+ *
+ * The file is split into fixed blocks and a block is marked complete once every byte of it has been
+ * written, so a restarted download only fetches missing blocks. The [validator] (ETag or
+ * Last-Modified) is compared with a fresh probe and sent as `If-Range`, which makes the server answer
+ * with the full entity instead of a stale range if the file changed.
+ */
+internal class RangeManifest private constructor(
+    val validator: String,
+    val total: Long,
+    val blockSize: Long,
+    private val completed: BitSet,
+) {
+
+    private val blockCount = ((total + blockSize - 1) / blockSize).toInt()
+    private val writtenInBlock = LongArray(blockCount)
+    private var dirty = true
+
+    fun matches(validator: String?, total: Long): Boolean =
+        validator != null && validator == this.validator && total == this.total
+
+    /**
+     * Records [length] bytes written at [start]. Each byte must be recorded once per run.
+     */
+    @Synchronized
+    fun record(start: Long, length: Long) {
+        var pos = start
+        var left = length
+        while (left > 0) {
+            val block = (pos / blockSize).toInt()
+            val count = min(left, (block + 1) * blockSize - pos)
+            writtenInBlock[block] += count
+            if (writtenInBlock[block] >= blockLength(block) && !completed[block]) {
+                completed.set(block)
+                dirty = true
+            }
+            pos += count
+            left -= count
+        }
+    }
+
+    @Synchronized
+    fun completedBytes(): Long {
+        var bytes = 0L
+        var block = completed.nextSetBit(0)
+        while (block in 0 until blockCount) {
+            bytes += blockLength(block)
+            block = completed.nextSetBit(block + 1)
+        }
+        return bytes
+    }
+
+    /**
+     * Byte ranges that are not complete yet, with adjacent blocks merged.
+     */
+    @Synchronized
+    fun missingRanges(): List<LongRange> {
+        val ranges = mutableListOf<LongRange>()
+        var block = completed.nextClearBit(0)
+        while (block < blockCount) {
+            val endBlock = min(blockCount, completed.nextSetBit(block).takeIf { it >= 0 } ?: blockCount)
+            ranges += block * blockSize..min(total, endBlock * blockSize) - 1
+            block = completed.nextClearBit(endBlock)
+        }
+        return ranges
+    }
+
+    /**
+     * Writes the manifest if a block was completed since the last save.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun save(path: Path) {
+        if (!dirty) return
+        JsonUtils.writeFile(
+            path,
+            Snapshot(
+                version = VERSION,
+                validator = validator,
+                total = total,
+                blockSize = blockSize,
+                completed = Base64.getEncoder().encodeToString(completed.toByteArray())
+            )
+        )
+        dirty = false
+    }
+
+    private fun blockLength(block: Int): Long = min(blockSize, total - block * blockSize)
+
+    internal data class Snapshot(
+        val version: Int,
+        val validator: String,
+        val total: Long,
+        val blockSize: Long,
+        val completed: String,
+    )
+
+    companion object {
+
+        private val log = LogManager.getLogger(RangeManifest::class.java)
+
+        private const val VERSION = 1
+        private const val MIN_BLOCK_SIZE: Long = 1024L * 1024
+        private const val MAX_BLOCKS: Long = 1L shl 16
+
+        const val DATA_SUFFIX = ".ranges.part"
+        const val MANIFEST_SUFFIX = ".ranges.json"
+
+        fun dataPath(targetFile: Path): Path = PathUtils.tempSiblingPath(targetFile, DATA_SUFFIX)
+
+        fun manifestPath(targetFile: Path): Path = PathUtils.tempSiblingPath(targetFile, MANIFEST_SUFFIX)
+
+        fun create(validator: String, total: Long): RangeManifest {
+            val blockSize = max(MIN_BLOCK_SIZE, (total + MAX_BLOCKS - 1) / MAX_BLOCKS)
+            return RangeManifest(validator, total, blockSize, BitSet())
+        }
+
+        /**
+         * Loads a manifest, or returns `null` if it is missing, unreadable or from another version.
+         */
+        fun load(path: Path): RangeManifest? {
+            if (!Files.isRegularFile(path)) return null
+            return try {
+                val snapshot = JsonUtils.readFile(path, Snapshot::class.java)
+                if (snapshot.version != VERSION || snapshot.total <= 0 || snapshot.blockSize <= 0) {
+                    null
+                } else {
+                    RangeManifest(
+                        validator = snapshot.validator,
+                        total = snapshot.total,
+                        blockSize = snapshot.blockSize,
+                        completed = BitSet.valueOf(Base64.getDecoder().decode(snapshot.completed))
+                    ).also { it.dirty = false }
+                }
+            } catch (ex: Exception) {
+                log.debug("[DL-RESUME] ignoring unreadable manifest {}: {}", path, ex.toString())
+                null
+            }
+        }
+
+    }
+
+}
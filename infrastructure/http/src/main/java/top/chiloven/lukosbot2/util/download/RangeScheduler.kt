@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.download
+
+import org.apache.logging.log4j.LogManager
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Hands out byte ranges of one file to a changing set of download workers.
+ *
+ * Planned parts are queued and taken in order. Once the queue is empty, an idle worker steals the
+ * tail of the segment expected to finish last, sized so that both connections finish at about the
+ * same time. A single slow connection therefore no longer decides the total download time.
+ *
+ * Bytes are reserved before they are written and committed afterwards. A split never moves a
+ * segment's end below `position + BUFFER_SIZE`, so the owner's in-flight write and the thief's range
+ * can never overlap.
+ */
+internal class RangeScheduler(
+    private val total: Long,
+    parts: List<RangeDownloader.RangePart>,
+    private val manifest: RangeManifest? = null,
+    private val minStealBytes: Long = DownloadDefaults.MIN_STEAL_BYTES,
+    private val nanoTime: () -> Long = System::nanoTime,
+) {
+
+    private val log = LogManager.getLogger(RangeScheduler::class.java)
+
+    private val lock = Any()
+    private val pending = ArrayDeque<Segment>()
+    private val active = mutableListOf<Segment>()
+    private var nextIndex: Int
+    private var committed = 0L
+    private var steals = 0
+
+    init {
+        parts.forEach { pending.addLast(Segment(it.index, it.start, it.end)) }
+        nextIndex = (parts.maxOfOrNull { it.index } ?: 0) + 1
+        // Bytes outside the parts are already on disk from an earlier run.
+        committed = total - parts.sumOf { it.end - it.start + 1 }
+    }
+
+    val bytesCommitted: Long
+        get() = synchronized(lock) { committed }
+
+    val stealCount: Int
+        get() = synchronized(lock) { steals }
+
+    fun isComplete(): Boolean = synchronized(lock) {
+        committed == total && pending.isEmpty() && active.isEmpty()
+    }
+
+    fun hasWork(): Boolean = synchronized(lock) {
+        pending.isNotEmpty() || active.any(::splittable)
+    }
+
+    /**
+     * Returns the next segment for a worker, or `null` if nothing is left to take or split.
+     *
+     * @param workerRate the worker's throughput on its previous segment in bytes per second, or `0`
+     * if unknown; used to size a stolen range
+     */
+    fun next(workerRate: Double = 0.0): Segment? = synchronized(lock) {
+        pending.removeFirstOrNull()?.let { return activate(it) }
+
+        val now = nanoTime()
+        val victim = active
+                .filter(::splittable)
+                .maxWithOrNull(compareBy({ !it.inGrace(now) }, { it.etaNs(now) }))
+            ?: return null
+
+        val remaining = victim.remaining
+        val victimRate = victim.rate(now)
+        val keepShare = if (victimRate > 0 && workerRate > 0) {
+            victimRate / (victimRate + workerRate)
+        } else {
+            0.5
+        }
+        val keep = (remaining * keepShare).toLong()
+                .coerceIn(RESERVED_BYTES, remaining - minStealBytes)
+
+        val split = victim.position + keep
+        val stolen = Segment(nextIndex++, split, victim.end)
+        victim.end = split - 1
+        steals++
+
+        log.debug(
+            "[DL-STEAL] part#{} gives {}-{} ({}) to part#{}, keeps {}",
+            victim.index,
+            stolen.start,
+            stolen.end,
+            DownloadFormatting.displayBytes(stolen.remaining),
+            stolen.index,
+            DownloadFormatting.displayBytes(keep)
+        )
+        return activate(stolen)
+    }
+
+    /**
+     * Remaining range of [segment] as of now, or `null` if it is done.
+     */
+    fun remainingRange(segment: Segment): LongRange? = synchronized(lock) {
+        if (segment.remaining > 0) segment.position..segment.end else null
+    }
+
+    /**
+     * Reserves up to [length] bytes at the segment's current position for writing.
+     *
+     * @return the number of bytes the owner may write; less than [length] if the tail was stolen
+     */
+    fun reserve(segment: Segment, length: Int): Int = synchronized(lock) {
+        min(length.toLong(), max(0L, segment.remaining)).toInt()
+    }
+
+    fun commit(segment: Segment, length: Int) = synchronized(lock) {
+        manifest?.record(segment.position, length.toLong())
+        segment.position += length
+        committed += length
+    }
+
+    fun finish(segment: Segment) = synchronized(lock) {
+        check(segment.remaining <= 0) { "part#${segment.index} finished with ${segment.remaining} bytes left" }
+        active.remove(segment)
+    }
+
+    private fun activate(segment: Segment): Segment {
+        segment.activatedNs = nanoTime()
+        segment.activatedAt = segment.position
+        active += segment
+        return segment
+    }
+
+    private fun splittable(segment: Segment): Boolean =
+        segment.remaining >= RESERVED_BYTES + minStealBytes
+
+    internal class Segment(
+        val index: Int,
+        val start: Long,
+        end: Long,
+    ) {
+
+        @Volatile
+        var end: Long = end
+            internal set
+
+        /**
+         * Next byte to write. Only the owning worker advances it.
+         */
+        @Volatile
+        var position: Long = start
+            internal set
+
+        internal var activatedNs = 0L
+        internal var activatedAt = start
+
+        val remaining: Long
+            get() = end - position + 1
+
+        internal fun inGrace(now: Long): Boolean = now - activatedNs < GRACE_NS
+
+        internal fun rate(now: Long): Double {
+            if (inGrace(now)) return 0.0
+            return (position - activatedAt) * 1e9 / (now - activatedNs)
+        }
+
+        internal fun etaNs(now: Long): Double {
+            val rate = rate(now)
+            return if (rate > 0) remaining / rate * 1e9 else Double.MAX_VALUE
+        }
+
+    }
+
+    private companion object {
+
+        /**
+         * Bytes past the position that the owner may already be writing.
+         */
+        const val RESERVED_BYTES: Long = DownloadDefaults.BUFFER_SIZE.toLong()
+
+        /**
+         * Connections younger than this have no meaningful throughput yet.
+         */
+        const val GRACE_NS: Long = 250_000_000
+
+    }
+
+}
+
+/**
+ * Chooses the number of connections for one ranged download from sampled throughput.
+ *
+ * A connection is added while the previous one paid off, i.e. the total rate grew by at least half of
+ * what a single connection delivered before. That points at a per-connection limit on the server
+ * side. Once an added connection brings less, the link is shared, so one connection is given back
+ * and growth stops.
+ */
+internal class ConnectionTuner(
+    private val maxConnections: Int,
+    initialConnections: Int,
+) {
+
+    @Volatile
+    var target: Int = initialConnections.coerceIn(1, max(1, maxConnections))
+        private set
+
+    private var lastRate = 0.0
+    private var lastConnections = 0
+    private var saturated = false
+
+    fun onSample(bytesPerSecond: Double, connections: Int): Int {
+        if (connections <= 0 || bytesPerSecond <= 0) return target
+
+        if (!saturated && lastConnections in 1 until connections) {
+            val perConnectionBefore = lastRate / lastConnections
+            if (bytesPerSecond - lastRate < perConnectionBefore * MIN_MARGINAL_GAIN) {
+                saturated = true
+                target = max(1, connections - 1)
+            }
+        }
+        if (!saturated) target = min(maxConnections, connections + 1)
+
+        lastRate = bytesPerSecond
+        lastConnections = connections
+        return target
+    }
+
+    private companion object {
+
+        const val MIN_MARGINAL_GAIN = 0.5
+
+    }
+
+}
@@ -17,6 +17,7 @@
  */
 package top.chiloven.lukosbot2.util.download
 
+import kotlinx.coroutines.delay
 import top.chiloven.lukosbot2.util.HttpStatusException
 import java.io.IOException
 import java.nio.file.FileSystemException
@@ -60,15 +61,11 @@ internal data class RetryPolicy(
             retryAfterCapMs = DownloadDefaults.DEFAULT_RETRY_AFTER_CAP_MS
         )
 
-        @Throws(IOException::class)
-        fun sleepMs(ms: Long) {
-            if (ms <= 0) return
-            try {
-                Thread.sleep(ms)
-            } catch (ie: InterruptedException) {
-                Thread.currentThread().interrupt()
-                throw IOException("Sleep interrupted", ie)
-            }
+        /**
+         * Waits [ms] without holding a thread; cancelling the caller ends the wait immediately.
+         */
+        suspend fun backoff(ms: Long) {
+            if (ms > 0) delay(ms)
         }
 
     }
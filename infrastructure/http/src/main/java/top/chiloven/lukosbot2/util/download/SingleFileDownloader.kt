@@ -17,6 +17,10 @@
  */
 package top.chiloven.lukosbot2.util.download
 
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.withContext
 import okhttp3.Response
 import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.util.PathUtils
@@ -38,14 +42,17 @@ internal class SingleFileDownloader(
 
     private val log = LogManager.getLogger(SingleFileDownloader::class.java)
 
+    /**
+     * @return the validator (ETag or Last-Modified) of the downloaded entity, if the server sent one
+     */
     @Throws(IOException::class)
-    fun downloadToFile(
+    suspend fun downloadToFile(
         url: URI,
         targetFile: Path,
         headers: Map<String, String>?,
         timeoutMs: Int,
         maxRetries: Int,
-    ) {
+    ): String? {
         val retryPolicy = retryPolicyFactory(maxRetries)
         val maxAttempts = retryPolicy.maxAttempts()
 
@@ -92,7 +99,7 @@ internal class SingleFileDownloader(
                             )
                         }
 
-                        http.execute(request, timeoutMs).use { response ->
+                        http.exchange(request, timeoutMs) exchange@{ response ->
                             val code = response.code
                             http.pickIfRangeToken(response.headers)?.let { ifRangeToken = it }
                             http.debugResponseSummary(
@@ -113,7 +120,7 @@ internal class SingleFileDownloader(
                                 usedRange = false
                                 finalResumeFrom = 0L
                                 restart = true
-                                return@use
+                                return@exchange
                             }
 
                             if (usedRange && code == 200) {
@@ -150,9 +157,12 @@ internal class SingleFileDownloader(
                             targetFile = targetFile,
                             totalStartNs = totalStartNs
                         )
-                        return
+                        return ifRangeToken
                     }
                 } catch (e: IOException) {
+                    // A cancelled call surfaces as IOException; do not treat it as a retryable failure.
+                    currentCoroutineContext().ensureActive()
+
                     val willRetry = attempt < maxAttempts && retryPolicy.shouldRetry(e)
                     val delayMs = if (willRetry) retryPolicy.delayMs(e, attempt) else 0L
 
@@ -166,7 +176,7 @@ internal class SingleFileDownloader(
                             targetFile,
                             e.toString()
                         )
-                        RetryPolicy.sleepMs(delayMs)
+                        RetryPolicy.backoff(delayMs)
                         continue
                     }
 
@@ -205,7 +215,7 @@ internal class SingleFileDownloader(
     }
 
     @Throws(IOException::class)
-    private fun writeResponseBody(
+    private suspend fun writeResponseBody(
         response: Response,
         code: Int,
         url: URI,
@@ -231,68 +241,72 @@ internal class SingleFileDownloader(
         var lastLogBytes = finalResumeFrom
         val buffer = ByteArray(DownloadDefaults.BUFFER_SIZE)
 
-        response.body.byteStream().use { input ->
-            FileChannel.open(tmp, *options).use { channel ->
-                var pos = finalResumeFrom
-                while (true) {
-                    val read = input.read(buffer)
-                    if (read == -1) break
-
-                    val bb = ByteBuffer.wrap(buffer, 0, read)
-                    while (bb.hasRemaining()) {
-                        val written = channel.write(bb, pos)
-                        if (written <= 0) throw IOException("FileChannel write returned $written")
-                        pos += written
-                        writtenThisAttempt += written
-                    }
+        withContext(Dispatchers.IO) {
+            response.body.byteStream().use { input ->
+                FileChannel.open(tmp, *options).use { channel ->
+                    var pos = finalResumeFrom
+                    while (true) {
+                        ensureActive()
+                        val read = input.read(buffer)
+                        if (read == -1) break
+                        http.throttle(read)
+
+                        val bb = ByteBuffer.wrap(buffer, 0, read)
+                        while (bb.hasRemaining()) {
+                            val written = channel.write(bb, pos)
+                            if (written <= 0) throw IOException("FileChannel write returned $written")
+                            pos += written
+                            writtenThisAttempt += written
+                        }
 
-                    if (log.isDebugEnabled) {
-                        val now = System.nanoTime()
-                        val intervalNs = Duration.ofMillis(
-                            DownloadDefaults.DEFAULT_PROGRESS_LOG_INTERVAL_MS
-                        ).toNanos()
-                        if (now - lastLogNs >= intervalNs) {
-                            val deltaBytes = pos - lastLogBytes
-                            val deltaNs = now - lastLogNs
-                            val pct = if (totalSize > 0) {
-                                String.format(Locale.ROOT, "%.1f%%", pos * 100.0 / totalSize)
-                            } else {
-                                "?"
-                            }
+                        if (log.isDebugEnabled) {
+                            val now = System.nanoTime()
+                            val intervalNs = Duration.ofMillis(
+                                DownloadDefaults.DEFAULT_PROGRESS_LOG_INTERVAL_MS
+                            ).toNanos()
+                            if (now - lastLogNs >= intervalNs) {
+                                val deltaBytes = pos - lastLogBytes
+                                val deltaNs = now - lastLogNs
+                                val pct = if (totalSize > 0) {
+                                    String.format(Locale.ROOT, "%.1f%%", pos * 100.0 / totalSize)
+                                } else {
+                                    "?"
+                                }
 
-                            log.debug(
-                                "[DL] progress {} -> {}: {} / {} ({}), instSpeed={}",
-                                url,
-                                targetFile,
-                                DownloadFormatting.displayBytes(pos),
-                                if (totalSize > 0) DownloadFormatting.displayBytes(totalSize) else "?",
-                                pct,
-                                DownloadFormatting.formatSpeed(deltaBytes, deltaNs)
-                            )
+                                log.debug(
+                                    "[DL] progress {} -> {}: {} / {} ({}), instSpeed={}",
+                                    url,
+                                    targetFile,
+                                    DownloadFormatting.displayBytes(pos),
+                                    if (totalSize > 0) DownloadFormatting.displayBytes(totalSize) else "?",
+                                    pct,
+                                    DownloadFormatting.formatSpeed(deltaBytes, deltaNs)
+                                )
 
-                            lastLogBytes = pos
-                            lastLogNs = now
+                                lastLogBytes = pos
+                                lastLogNs = now
+                            }
                         }
                     }
-                }
 
-                if (expectedBodyLen > 0 && writtenThisAttempt != expectedBodyLen) {
-                    throw IOException("Body length mismatch: expected=$expectedBodyLen, got=$writtenThisAttempt")
-                }
+                    if (expectedBodyLen > 0 && writtenThisAttempt != expectedBodyLen) {
+                        throw IOException("Body length mismatch: expected=$expectedBodyLen, got=$writtenThisAttempt")
+                    }
 
-                if (totalSize > 0 && pos != totalSize) {
-                    throw IOException("Final size mismatch: expectedTotal=$totalSize, got=$pos")
-                }
+                    if (totalSize > 0 && pos != totalSize) {
+                        throw IOException("Final size mismatch: expectedTotal=$totalSize, got=$pos")
+                    }
 
-                val attemptMs = (System.nanoTime() - attemptStartNs) / 1_000_000
-                log.debug(
-                    "[DL] done url={} -> {}, bytes={}, cost={}ms, avgSpeed={}",
-                    url,
-                    targetFile,
-                    DownloadFormatting.displayBytes(pos),
-                    attemptMs,
-                    DownloadFormatting.formatSpeed(pos, System.nanoTime() - attemptStartNs)
-                )
+                    val attemptMs = (System.nanoTime() - attemptStartNs) / 1_000_000
+                    log.debug(
+                        "[DL] done url={} -> {}, bytes={}, cost={}ms, avgSpeed={}",
+                        url,
+                        targetFile,
+                        DownloadFormatting.displayBytes(pos),
+                        attemptMs,
+                        DownloadFormatting.formatSpeed(pos, System.nanoTime() - attemptStartNs)
+                    )
+                }
             }
         }
     }
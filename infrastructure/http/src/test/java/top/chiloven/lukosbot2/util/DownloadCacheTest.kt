@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.Test
+import java.net.URI
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import kotlin.io.path.readText
+import kotlin.io.path.writeText
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class DownloadCacheTest {
+
+    @Test
+    fun `stored files are materialized into other directories`() = withDir { dir ->
+        val cache = DownloadCache(dir.resolve("cache"))
+        val source = dir.resolve("a/file.txt").also { Files.createDirectories(it.parent) }
+        source.writeText("payload")
+
+        val sha = cache.store(source)
+        val target = dir.resolve("b/copy.txt")
+
+        assertTrue(cache.materialize(sha, target))
+        assertEquals("payload", target.readText())
+        assertEquals(1, cache.stats().hits)
+    }
+
+    @Test
+    fun `least recently used entries are evicted first`() = withDir { dir ->
+        val cache = DownloadCache(dir.resolve("cache"), maxBytes = 250)
+        val first = cache.store(file(dir, "1", 100))
+        val second = cache.store(file(dir, "2", 100))
+
+        // Touch the first entry so the second becomes the eviction candidate.
+        assertTrue(cache.materialize(first, dir.resolve("touched")))
+        cache.store(file(dir, "3", 100))
+
+        assertTrue(cache.contains(first))
+        assertFalse(cache.contains(second))
+        assertEquals(200, cache.stats().bytes)
+
+        val reloaded = DownloadCache(dir.resolve("cache"), maxBytes = 250)
+        assertEquals(2, reloaded.stats().entries)
+    }
+
+    @Test
+    fun `modified entries fail verification and are dropped`() = withDir { dir ->
+        val cache = DownloadCache(dir.resolve("cache"))
+        val source = file(dir, "src", 64)
+        val sha = cache.store(source)
+
+        // The cache may share the inode with the source, so writing it in place corrupts the entry.
+        Files.write(source, ByteArray(64) { 7 }, StandardOpenOption.TRUNCATE_EXISTING)
+        val blob = Files.walk(dir.resolve("cache/objects")).use { paths ->
+            paths.filter { it.fileName.toString() == sha }.findFirst().get()
+        }
+        Files.write(blob, ByteArray(64) { 7 }, StandardOpenOption.TRUNCATE_EXISTING)
+
+        assertFalse(cache.materialize(sha, dir.resolve("out")))
+        assertFalse(cache.contains(sha))
+        assertEquals(1, cache.stats().corrupt)
+    }
+
+    @Test
+    fun `url entries point at stored content`() = withDir { dir ->
+        val cache = DownloadCache(dir.resolve("cache"))
+        val url = URI.create("https://example.com/file.bin")
+        val sha = cache.store(file(dir, "src", 10))
+
+        cache.recordUrl(url, "\"v1\"", sha)
+
+        val entry = assertNotNull(cache.urlEntry(url))
+        assertEquals("\"v1\"", entry.validator)
+        assertEquals(sha, entry.sha256)
+        assertNull(cache.urlEntry(URI.create("https://example.com/other.bin")))
+    }
+
+    @Test
+    fun `content hash is read from the last path segment`() {
+        val sha = "a".repeat(32) + "B".repeat(32)
+
+        assertEquals(
+            sha.lowercase(),
+            DownloadCache.contentHashOf(URI.create("https://kemono.cr/data/aa/aa/$sha.jpg?f=x.jpg"))
+        )
+        assertNull(DownloadCache.contentHashOf(URI.create("https://example.com/files/photo.jpg")))
+        assertNull(DownloadCache.contentHashOf(URI.create("https://example.com/$sha/photo.jpg")))
+    }
+
+    private fun file(dir: Path, name: String, size: Int): Path {
+        val path = dir.resolve(name)
+        Files.write(path, ByteArray(size) { (it + name.hashCode()).toByte() })
+        return path
+    }
+
+    private fun withDir(block: (Path) -> Unit) {
+        val dir = Files.createTempDirectory("download-cache-test-")
+        try {
+            block(dir)
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+}
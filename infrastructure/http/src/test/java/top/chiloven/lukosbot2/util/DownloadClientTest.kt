@@ -19,20 +19,31 @@ package top.chiloven.lukosbot2.util
 
 import com.sun.net.httpserver.HttpExchange
 import com.sun.net.httpserver.HttpServer
+import kotlinx.coroutines.*
 import org.junit.jupiter.api.Test
+import java.io.IOException
 import java.net.InetSocketAddress
 import java.net.URI
 import java.nio.charset.StandardCharsets
 import java.nio.file.Files
+import java.nio.file.Path
 import java.time.ZonedDateTime
 import java.time.format.DateTimeFormatter
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import kotlin.io.path.readText
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
 import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertTrue
+import kotlin.time.Duration.Companion.seconds
+import kotlin.time.measureTime
 
 class DownloadClientTest {
 
@@ -132,29 +143,213 @@ class DownloadClientTest {
         }
     }
 
+    @Test
+    fun `downloadToFileFast steals the tail of a throttled connection`() = withServer { server ->
+        val data = ByteArray(2 * 1024 * 1024) { (it % 251).toByte() }
+        val slowRate = 64 * 1024
+        val rangeGets = AtomicInteger()
+        server.context("/throttled") { exchange ->
+            when (exchange.requestMethod.uppercase()) {
+                "HEAD" -> {
+                    exchange.responseHeaders.add("Accept-Ranges", "bytes")
+                    exchange.responseHeaders.add("Content-Length", data.size.toString())
+                    exchange.sendResponseHeaders(200, -1)
+                    exchange.close()
+                }
+
+                else -> {
+                    val range = exchange.requestHeaders.getFirst("Range")
+                    rangeGets.incrementAndGet()
+                    // Only the connection that starts at byte 0 is slow, like one bad route to a CDN.
+                    val throttle = if (range.startsWith("bytes=0-")) slowRate else 0
+                    exchange.sendRange(data, range, throttle)
+                }
+            }
+        }
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val target = dir.resolve("throttled.bin")
+            val elapsed = measureTime {
+                DownloadUtils.downloadToFileFast(
+                    url = server.uri("/throttled"),
+                    targetFile = target,
+                    headers = null,
+                    timeoutMs = 30_000,
+                    chunkThreads = 4,
+                    minSizeForChunking = 1,
+                    minPartSizeBytes = 1,
+                    maxRetries = 0
+                )
+            }
+
+            // Fixed parts would wait for the whole 512 KiB first part at 64 KiB/s, i.e. 8 seconds.
+            val fixedPartsTime = (data.size / 4 / slowRate).seconds
+            assertTrue(Files.readAllBytes(target).contentEquals(data))
+            assertTrue(rangeGets.get() > 4, "expected stolen ranges, got ${rangeGets.get()} range requests")
+            assertTrue(
+                elapsed < fixedPartsTime / 2,
+                "download took $elapsed, fixed parts would need at least $fixedPartsTime"
+            )
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    @Test
+    fun `ranged download resumes only missing blocks after a failed run`() = withServer { server ->
+        val site = VersionedFile(server, "/resume", ByteArray(4 * 1024 * 1024) { (it % 253).toByte() }, "\"v1\"")
+        val half = site.data.size / 2
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val target = dir.resolve("resume.bin")
+            site.failFrom = half
+            assertFailsWith<IOException> { site.download(target) }
+
+            assertTrue(Files.exists(PathUtils.tempSiblingPath(target, ".ranges.json")))
+            assertTrue(Files.exists(PathUtils.tempSiblingPath(target, ".ranges.part")))
+
+            site.failFrom = Int.MAX_VALUE
+            site.rangeStarts.clear()
+            site.download(target)
+
+            assertTrue(Files.readAllBytes(target).contentEquals(site.data))
+            assertTrue(site.rangeStarts.isNotEmpty())
+            assertTrue(site.rangeStarts.all { it >= half }, "refetched ${site.rangeStarts}")
+            assertFalse(Files.exists(PathUtils.tempSiblingPath(target, ".ranges.json")))
+            assertFalse(Files.exists(PathUtils.tempSiblingPath(target, ".ranges.part")))
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    @Test
+    fun `ranged download discards progress when the validator changed`() = withServer { server ->
+        val site = VersionedFile(server, "/changed", ByteArray(4 * 1024 * 1024) { (it % 253).toByte() }, "\"v1\"")
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val target = dir.resolve("changed.bin")
+            site.failFrom = site.data.size / 2
+            assertFailsWith<IOException> { site.download(target) }
+
+            site.data = ByteArray(site.data.size) { (it % 241).toByte() }
+            site.etag = "\"v2\""
+            site.failFrom = Int.MAX_VALUE
+            site.rangeStarts.clear()
+            site.download(target)
+
+            assertTrue(Files.readAllBytes(target).contentEquals(site.data))
+            assertTrue(0L in site.rangeStarts, "expected a fresh download, got ${site.rangeStarts}")
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    @Test
+    fun `repeat downloads of a content-addressed URL come from the cache`() = withServer { server ->
+        val data = ByteArray(300_000) { (it % 251).toByte() }
+        val sha = ShaUtils.hashSha256ToHex(data)
+        val calls = AtomicInteger()
+        server.context("/data/${sha.substring(0, 2)}/${sha.substring(2, 4)}/$sha.bin") { exchange ->
+            calls.incrementAndGet()
+            exchange.sendBytes(200, data)
+        }
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val client = DownloadClient(cache = DownloadCache(dir.resolve("cache")))
+            val url = server.uri("/data/${sha.substring(0, 2)}/${sha.substring(2, 4)}/$sha.bin?f=a.bin")
+            repeat(2) { run ->
+                val result = client.downloadNamedUrlsToDirConcurrent(
+                    items = listOf(DownloadUtils.NamedUrl("post/a.bin", url)),
+                    dir = dir.resolve("archive-$run"),
+                    headers = null,
+                    timeoutMs = 10_000,
+                    chunkThreadsPerFile = 1,
+                    maxRetries = 0
+                )
+                assertEquals(1, result.ok())
+            }
+
+            assertEquals(1, calls.get())
+            assertTrue(data.contentEquals(Files.readAllBytes(dir.resolve("archive-1/post/a.bin"))))
+            assertEquals(1, client.cacheStats()?.hits)
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    @Test
+    fun `cached URL entries are reused only while the validator matches`() = withServer { server ->
+        val version = AtomicReference("first" to "\"v1\"")
+        val bodies = AtomicInteger()
+        server.context("/etag") { exchange ->
+            val (body, etag) = version.get()
+            exchange.responseHeaders.add("ETag", etag)
+            if (exchange.requestHeaders.getFirst("If-None-Match") == etag) {
+                exchange.sendResponseHeaders(304, -1)
+                exchange.close()
+            } else {
+                if (exchange.requestMethod == "GET") bodies.incrementAndGet()
+                exchange.sendText(200, body)
+            }
+        }
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val client = DownloadClient(cache = DownloadCache(dir.resolve("cache")))
+            val target = dir.resolve("file.txt")
+
+            client.downloadToFile(server.uri("/etag"), target, null, 10_000, maxRetries = 0)
+            Files.delete(target)
+            client.downloadToFile(server.uri("/etag"), target, null, 10_000, maxRetries = 0)
+            assertEquals("first", target.readText())
+            assertEquals(1, bodies.get())
+
+            version.set("second" to "\"v2\"")
+            client.downloadToFile(server.uri("/etag"), target, null, 10_000, maxRetries = 0)
+            assertEquals("second", target.readText())
+            assertEquals(2, bodies.get())
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
     @Test
     fun `named batch preserves relative paths and deduplicates duplicate entries`() = withServer { server ->
         server.respondBytes("/ok", "x".toByteArray(StandardCharsets.UTF_8))
 
         val dir = Files.createTempDirectory("download-client-test-")
         try {
-            val result = DownloadUtils.downloadNamedUrlsToDirConcurrent(
+            val reported = ConcurrentHashMap<Int, DownloadUtils.ItemResult>()
+            val result = DownloadClient().downloadNamedUrlsToDirConcurrent(
                 items = listOf(
                     DownloadUtils.NamedUrl("a/b/file.txt", server.uri("/ok")),
-                    DownloadUtils.NamedUrl("a/b/file.txt", server.uri("/ok"))
+                    DownloadUtils.NamedUrl("a/b/file.txt", server.uri("/ok")),
+                    DownloadUtils.NamedUrl("c/missing.txt", server.uri("/missing"))
                 ),
                 dir = dir,
                 headers = null,
                 timeoutMs = 10_000,
                 maxConcurrentFiles = 2,
                 chunkThreadsPerFile = 1,
-                maxRetries = 0
+                maxRetries = 0,
+                onItemDone = { reported[it.index] = it }
             )
 
             assertEquals(2, result.ok())
-            assertTrue(result.failed().isEmpty())
+            assertEquals(listOf("c/missing.txt"), result.failed())
             assertTrue(Files.exists(dir.resolve("a/b/file.txt")))
             assertTrue(Files.exists(dir.resolve("a/b/file (2).txt")))
+            assertEquals(setOf(0, 1, 2), reported.keys)
+            assertEquals(
+                setOf("a/b/file.txt", "a/b/file (2).txt"),
+                setOf(reported.getValue(0).entryName, reported.getValue(1).entryName)
+            )
+            assertNotNull(reported.getValue(0).file)
+            assertEquals(null, reported.getValue(2).file)
         } finally {
             PathUtils.deleteRecursively(dir)
         }
@@ -184,12 +379,160 @@ class DownloadClientTest {
         }
     }
 
+    @Test
+    fun `suspend downloads do not hold threads during retry backoff`() = withServer { server ->
+        val calls = AtomicInteger()
+        val seen = ConcurrentHashMap.newKeySet<String>()
+        val throttled = CountDownLatch(50)
+        server.context("/busy") { exchange ->
+            calls.incrementAndGet()
+            val first = exchange.requestURI.query?.let { seen.add(it) } ?: false
+            if (first) {
+                exchange.responseHeaders.add("Retry-After", "1")
+                exchange.sendText(503, "busy")
+                throttled.countDown()
+            } else {
+                exchange.sendText(200, "ok")
+            }
+        }
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val client = DownloadClient()
+            runBlocking {
+                val jobs = (1..50).map { i ->
+                    launch(Dispatchers.IO) {
+                        client.downloadToFileSuspend(
+                            url = server.uri("/busy?$i"),
+                            targetFile = dir.resolve("$i.txt"),
+                            headers = null,
+                            timeoutMs = 10_000,
+                            maxRetries = 1
+                        )
+                    }
+                }
+
+                assertTrue(runInterruptible { throttled.await(10, TimeUnit.SECONDS) })
+                delay(300)
+                val parked = downloadThreads()
+                jobs.joinAll()
+
+                assertTrue(parked <= 5, "$parked threads were parked in the download engine during backoff")
+            }
+
+            assertEquals(100, calls.get())
+            (1..50).forEach { assertEquals("ok", dir.resolve("$it.txt").readText()) }
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    @Test
+    fun `cancelling a suspend download stops the transfer and removes the part file`() = withServer { server ->
+        val started = CountDownLatch(1)
+        server.context("/stall") { exchange ->
+            exchange.responseHeaders.add("Content-Length", (1 shl 20).toString())
+            exchange.sendResponseHeaders(200, (1 shl 20).toLong())
+            exchange.responseBody.write(ByteArray(1024))
+            exchange.responseBody.flush()
+            started.countDown()
+            runCatching { Thread.sleep(30_000) }
+            exchange.close()
+        }
+
+        val dir = Files.createTempDirectory("download-client-test-")
+        try {
+            val target = dir.resolve("stall.bin")
+            runBlocking {
+                val job = launch(Dispatchers.IO) {
+                    DownloadClient().downloadToFileSuspend(server.uri("/stall"), target, null, 60_000, maxRetries = 3)
+                }
+
+                assertTrue(runInterruptible { started.await(10, TimeUnit.SECONDS) })
+                val cancelTime = measureTime { job.cancelAndJoin() }
+
+                assertTrue(cancelTime < 2.seconds, "cancellation took $cancelTime")
+            }
+
+            assertFalse(Files.exists(target))
+            assertFalse(Files.exists(PathUtils.tempSiblingPath(target)))
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    private fun downloadThreads(): Int = Thread.getAllStackTraces().values.count { frames ->
+        frames.any { it.className.startsWith("top.chiloven.lukosbot2.util.download.") }
+    }
+
     private fun withServer(block: (TestHttpServer) -> Unit) {
         TestHttpServer().use { server ->
             block(server)
         }
     }
 
+    /**
+     * Range-capable file with an ETag that honors `If-Range` and can fail every request from a byte
+     * offset on, including plain GETs.
+     */
+    private class VersionedFile(
+        server: TestHttpServer,
+        private val path: String,
+        @Volatile var data: ByteArray,
+        @Volatile var etag: String,
+    ) {
+
+        private val uri = server.uri(path)
+
+        @Volatile
+        var failFrom = Int.MAX_VALUE
+        val rangeStarts: MutableList<Long> = Collections.synchronizedList(mutableListOf())
+
+        init {
+            server.context(path) { exchange ->
+                exchange.responseHeaders.add("ETag", etag)
+                val range = exchange.requestHeaders.getFirst("Range")
+                val start = range?.removePrefix("bytes=")?.substringBefore('-')?.toInt() ?: 0
+                val ifRange = exchange.requestHeaders.getFirst("If-Range")
+                when {
+                    exchange.requestMethod.equals("HEAD", ignoreCase = true) -> {
+                        exchange.responseHeaders.add("Accept-Ranges", "bytes")
+                        exchange.responseHeaders.add("Content-Length", data.size.toString())
+                        exchange.sendResponseHeaders(200, -1)
+                        exchange.close()
+                    }
+
+                    start >= failFrom || range == null && failFrom != Int.MAX_VALUE -> {
+                        // Let the healthy parts finish first so the failed run leaves progress behind.
+                        Thread.sleep(1_000)
+                        exchange.sendText(500, "broken")
+                    }
+
+                    range == null || ifRange != null && ifRange != etag -> exchange.sendBytes(200, data)
+
+                    else -> {
+                        rangeStarts += start.toLong()
+                        exchange.sendRange(data, range)
+                    }
+                }
+            }
+        }
+
+        fun download(target: Path) {
+            DownloadUtils.downloadToFileFast(
+                url = uri,
+                targetFile = target,
+                headers = null,
+                timeoutMs = 10_000,
+                chunkThreads = 2,
+                minSizeForChunking = 1,
+                minPartSizeBytes = 1,
+                maxRetries = 0
+            )
+        }
+
+    }
+
     private class TestHttpServer : AutoCloseable {
 
         private val server: HttpServer = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
@@ -235,7 +578,11 @@ private fun HttpExchange.sendBytes(code: Int, bytes: ByteArray) {
     responseBody.use { it.write(bytes) }
 }
 
-private fun HttpExchange.sendRange(data: ByteArray, range: String) {
+private fun HttpExchange.sendRange(
+    data: ByteArray,
+    range: String,
+    bytesPerSecond: Int = 0,
+) {
     val normalized = range.removePrefix("bytes=")
     val start = normalized.substringBefore('-').toInt()
     val end = normalized.substringAfter('-', data.lastIndex.toString()).toInt()
@@ -246,5 +593,20 @@ private fun HttpExchange.sendRange(data: ByteArray, range: String) {
     responseHeaders.add("Content-Range", "bytes $start-$actualEnd/${data.size}")
     responseHeaders.add("Content-Length", bytes.size.toString())
     sendResponseHeaders(206, bytes.size.toLong())
-    responseBody.use { it.write(bytes) }
+    if (bytesPerSecond <= 0) {
+        responseBody.use { it.write(bytes) }
+        return
+    }
+
+    // The client hangs up once the tail of a slow range is taken over by another connection.
+    runCatching {
+        responseBody.use { output ->
+            for (offset in bytes.indices step 4096) {
+                val count = minOf(4096, bytes.size - offset)
+                output.write(bytes, offset, count)
+                output.flush()
+                Thread.sleep(count * 1000L / bytesPerSecond)
+            }
+        }
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import kotlinx.coroutines.*
+import org.junit.jupiter.api.Test
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.measureTime
+
+class DownloadGovernorTest {
+
+    @Test
+    fun `global and per-host connection caps hold`() = runBlocking {
+        val governor = DownloadGovernor(maxConnections = 4, maxConnectionsPerHost = 3)
+        val total = AtomicInteger()
+        val peakTotal = AtomicInteger()
+        val perHost = mapOf("a" to AtomicInteger(), "b" to AtomicInteger())
+        val peakPerHost = AtomicInteger()
+
+        (1..20).map { i ->
+            launch(Dispatchers.Default) {
+                val host = if (i % 4 == 0) "b" else "a"
+                governor.withConnection(host) {
+                    peakTotal.accumulateAndGet(total.incrementAndGet(), ::maxOf)
+                    peakPerHost.accumulateAndGet(perHost.getValue(host).incrementAndGet(), ::maxOf)
+                    delay(20)
+                    perHost.getValue(host).decrementAndGet()
+                    total.decrementAndGet()
+                }
+            }
+        }.joinAll()
+
+        assertEquals(4, peakTotal.get())
+        assertEquals(3, peakPerHost.get())
+        val stats = governor.stats()
+        assertEquals(20, stats.granted)
+        assertEquals(0, stats.activeConnections)
+        assertEquals(0, stats.waitingConnections)
+    }
+
+    @Test
+    fun `late job gets freed slots before a large batch`() = runBlocking {
+        val governor = DownloadGovernor(maxConnections = 4, maxConnectionsPerHost = 4)
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        val gate = CompletableDeferred<Unit>()
+
+        val batch = launch {
+            governor.withJob("batch") {
+                coroutineScope {
+                    repeat(10) { i ->
+                        launch {
+                            governor.withConnection("cdn") {
+                                order += "batch-$i"
+                                if (i < 4) gate.await() else delay(10)
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        while (governor.stats().waitingConnections < 6) delay(5)
+
+        val single = launch {
+            governor.withJob("single") {
+                governor.withConnection("cdn") { order += "single" }
+            }
+        }
+        while (governor.stats().waitingConnections < 7) delay(5)
+
+        gate.complete(Unit)
+        joinAll(batch, single)
+
+        // The first freed slot goes to the job without any connection.
+        assertEquals("single", order[4], "order was $order")
+    }
+
+    @Test
+    fun `byte bucket limits the combined rate`() = runBlocking {
+        val governor = DownloadGovernor(maxBytesPerSecond = 1_000_000)
+
+        val elapsed = measureTime {
+            (1..4).map {
+                launch(Dispatchers.Default) {
+                    // 4 x 375 kB = 1.5 MB: the first 1 MB is the burst, the rest takes ~0.5 s.
+                    repeat(6) { governor.acquireBytes(62_500) }
+                }
+            }.joinAll()
+        }
+
+        assertTrue(elapsed >= 400.milliseconds, "elapsed $elapsed")
+        val stats = governor.stats()
+        assertEquals(1_500_000, stats.bytesTransferred)
+        assertTrue(stats.throttledMs > 0)
+    }
+
+    @Test
+    fun `cancelled waiter does not leak a slot`() = runBlocking {
+        val governor = DownloadGovernor(maxConnections = 1)
+        val gate = CompletableDeferred<Unit>()
+
+        val holder = launch { governor.withConnection("a") { gate.await() } }
+        while (governor.stats().activeConnections < 1) delay(5)
+        val waiter = launch { governor.withConnection("a") { } }
+        while (governor.stats().waitingConnections < 1) delay(5)
+
+        waiter.cancelAndJoin()
+        gate.complete(Unit)
+        holder.join()
+
+        assertEquals(0, governor.stats().activeConnections)
+        withTimeout(1_000) { governor.withConnection("a") { } }
+    }
+
+}
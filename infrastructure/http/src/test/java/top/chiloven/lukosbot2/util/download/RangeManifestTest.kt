@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.download
+
+import org.junit.jupiter.api.Test
+import top.chiloven.lukosbot2.util.PathUtils
+import java.nio.file.Files
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class RangeManifestTest {
+
+    @Test
+    fun `blocks complete only when every byte was recorded`() {
+        val manifest = RangeManifest.create("\"v1\"", 3 * MB + 100)
+
+        manifest.record(0, MB - 1)
+        assertEquals(0, manifest.completedBytes())
+
+        // Two writers finish block 0 and block 2 from opposite ends.
+        manifest.record(MB - 1, 1)
+        manifest.record(2 * MB + MB / 2, MB / 2 + 100)
+        manifest.record(2 * MB, MB / 2)
+
+        assertEquals(2 * MB + 100, manifest.completedBytes())
+        assertEquals(listOf(MB..2 * MB - 1), manifest.missingRanges())
+    }
+
+    @Test
+    fun `manifest survives a round trip and rejects other entities`() {
+        val dir = Files.createTempDirectory("range-manifest-test-")
+        try {
+            val path = dir.resolve("file.bin.ranges.json")
+            val manifest = RangeManifest.create("\"v1\"", 4 * MB)
+            manifest.record(MB, 2 * MB)
+            manifest.save(path)
+
+            val loaded = assertNotNull(RangeManifest.load(path))
+            assertTrue(loaded.matches("\"v1\"", 4 * MB))
+            assertFalse(loaded.matches("\"v2\"", 4 * MB))
+            assertFalse(loaded.matches("\"v1\"", 5 * MB))
+            assertFalse(loaded.matches(null, 4 * MB))
+            assertEquals(listOf(0..MB - 1, 3 * MB..4 * MB - 1), loaded.missingRanges())
+
+            Files.writeString(path, "{ broken")
+            assertNull(RangeManifest.load(path))
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    private companion object {
+
+        const val MB = 1024L * 1024
+
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.download
+
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class RangeSchedulerTest {
+
+    private var now = 0L
+
+    @Test
+    fun `idle worker steals the tail of the lagging part`() {
+        val scheduler = scheduler(total = 2 * MB, parts = 2)
+        val slow = assertNotNull(scheduler.next())
+        val fast = assertNotNull(scheduler.next())
+
+        now += 1_000_000_000
+        write(scheduler, slow, 64 * KB)
+        write(scheduler, fast, MB)
+        scheduler.finish(fast)
+
+        val stolen = assertNotNull(scheduler.next(workerRate = MB.toDouble()))
+
+        // The slow part runs at 1/16 of the thief's speed, so it keeps only the reserved window.
+        assertEquals(128 * KB, stolen.start)
+        assertEquals(MB - 1, stolen.end)
+        assertEquals(stolen.start - 1, slow.end)
+        assertEquals(1, scheduler.stealCount)
+
+        // An in-flight buffer larger than what is left gets clipped at the new end.
+        assertEquals(64 * KB.toInt(), scheduler.reserve(slow, 96 * KB.toInt()))
+    }
+
+    @Test
+    fun `parts are split in half while throughput is unknown`() {
+        val scheduler = scheduler(total = MB, parts = 1)
+        val part = assertNotNull(scheduler.next())
+
+        val stolen = assertNotNull(scheduler.next())
+
+        assertEquals(512 * KB, stolen.start)
+        assertEquals(512 * KB - 1, part.end)
+    }
+
+    @Test
+    fun `small remainders are not split and all bytes complete once`() {
+        val scheduler = scheduler(total = 256 * KB, parts = 2)
+        val first = assertNotNull(scheduler.next())
+        val second = assertNotNull(scheduler.next())
+
+        assertNull(scheduler.next())
+        write(scheduler, first, first.remaining)
+        write(scheduler, second, second.remaining)
+        scheduler.finish(first)
+        scheduler.finish(second)
+
+        assertTrue(scheduler.isComplete())
+        assertEquals(256 * KB, scheduler.bytesCommitted)
+    }
+
+    @Test
+    fun `tuner grows on per-connection limits and backs off on a shared link`() {
+        val tuner = ConnectionTuner(maxConnections = 8, initialConnections = 2)
+
+        assertEquals(3, tuner.onSample(bytesPerSecond = 2.0 * MB, connections = 2))
+        assertEquals(4, tuner.onSample(bytesPerSecond = 3.0 * MB, connections = 3))
+        // A fourth connection brought almost nothing: the link is saturated.
+        assertEquals(3, tuner.onSample(bytesPerSecond = 3.2 * MB, connections = 4))
+        assertEquals(3, tuner.onSample(bytesPerSecond = 3.2 * MB, connections = 3))
+    }
+
+    private fun scheduler(total: Long, parts: Int): RangeScheduler {
+        val size = total / parts
+        val planned = (0 until parts).map { i ->
+            RangeDownloader.RangePart(i + 1, i * size, if (i == parts - 1) total - 1 else (i + 1) * size - 1)
+        }
+        return RangeScheduler(total, planned, minStealBytes = 128 * KB, nanoTime = { now })
+    }
+
+    private fun write(
+        scheduler: RangeScheduler,
+        segment: RangeScheduler.Segment,
+        bytes: Long,
+    ) {
+        var left = bytes
+        while (left > 0) {
+            val allowed = scheduler.reserve(segment, minOf(left, 64 * KB).toInt())
+            scheduler.commit(segment, allowed)
+            left -= allowed
+        }
+    }
+
+    private companion object {
+
+        const val KB = 1024L
+        const val MB = 1024 * KB
+
+    }
+
+}
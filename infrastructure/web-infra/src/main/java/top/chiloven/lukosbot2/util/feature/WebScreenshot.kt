@@ -26,14 +26,16 @@ import org.openqa.selenium.edge.EdgeOptions
 import top.chiloven.lukosbot2.Constants
 import top.chiloven.lukosbot2.config.ProxyConfigProp
 import top.chiloven.lukosbot2.core.model.ContentData
-import top.chiloven.lukosbot2.util.ImageUtils
+import top.chiloven.lukosbot2.util.ImageEncoder
 import top.chiloven.lukosbot2.util.JsoupHttp
 import top.chiloven.lukosbot2.util.PathUtils.sanitizeFileName
+import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.IOException
 import java.nio.charset.StandardCharsets
 import java.nio.file.Paths
 import java.time.Duration
+import javax.imageio.ImageIO
 
 class WebScreenshot(
     private val proxyConfig: ProxyConfigProp,
@@ -85,16 +87,24 @@ class WebScreenshot(
     /**
      * Wikipedia intro screenshot (delegates to MediaWiki core).
      */
+    @JvmOverloads
     @Throws(Exception::class)
-    fun screenshotWikipedia(url: String): ContentData =
-        screenshotMediaWiki(url, defaultFileBase = "wikipedia")
+    fun screenshotWikipedia(
+        url: String,
+        target: ImageEncoder.Target = ImageEncoder.Target.GENERIC
+    ): ContentData =
+        screenshotMediaWiki(url, defaultFileBase = "wikipedia", target = target)
 
     /**
      * Minecraft Wiki intro screenshot (delegates to MediaWiki core).
      */
+    @JvmOverloads
     @Throws(Exception::class)
-    fun screenshotMcWiki(url: String): ContentData =
-        screenshotMediaWiki(url, defaultFileBase = "mcwiki")
+    fun screenshotMcWiki(
+        url: String,
+        target: ImageEncoder.Target = ImageEncoder.Target.GENERIC
+    ): ContentData =
+        screenshotMediaWiki(url, defaultFileBase = "mcwiki", target = target)
 
     /**
      * Core intro screenshot for MediaWiki-family sites (e.g., Wikipedia, Minecraft Wiki).
@@ -102,10 +112,15 @@ class WebScreenshot(
      *
      * @param url             target article URL
      * @param defaultFileBase default filename base when title cannot be fetched (e.g., "wikipedia" / "mcwiki")
-     * @return ContentData containing JPEG bytes, mime, and a safe filename
+     * @param target          platform the screenshot is sent to; selects the encoder settings
+     * @return ContentData containing the encoded image bytes, mime, and a safe filename
      */
     @Throws(Exception::class)
-    private fun screenshotMediaWiki(url: String, defaultFileBase: String): ContentData {
+    private fun screenshotMediaWiki(
+        url: String,
+        defaultFileBase: String,
+        target: ImageEncoder.Target
+    ): ContentData {
         log.info("Starting MediaWiki intro screenshot: {}", url)
 
         createDriver().useDriver { driver ->
@@ -146,13 +161,14 @@ class WebScreenshot(
             }
 
             val png = (driver as TakesScreenshot).getScreenshotAs(OutputType.BYTES)
-            val jpg = ImageUtils.pngToJpg(png)
+            val image = requireNotNull(ImageIO.read(ByteArrayInputStream(png))) { "Invalid screenshot image" }
+            val encoded = ImageEncoder.encode(image, ImageEncoder.ContentKind.SCREENSHOT, target)
 
             val title = fetchMediaWikiTitle(url, defaultFileBase)
-            val filename = "${sanitizeFileName(title, fallback = defaultFileBase)}.jpg"
+            val filename = "${sanitizeFileName(title, fallback = defaultFileBase)}.${encoded.extension}"
 
             log.info("MediaWiki intro screenshot completed.")
-            return ContentData(filename, "image/jpeg", jpg)
+            return ContentData(filename, encoded.mime, encoded.bytes)
         }
     }
 
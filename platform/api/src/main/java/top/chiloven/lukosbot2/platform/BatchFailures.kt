@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform
+
+import kotlinx.coroutines.CancellationException
+
+/**
+ * Collects the failures of a batch send, so one failing message does not stop the others.
+ *
+ * @see ISender.sendBatch
+ */
+class BatchFailures {
+
+    private var first: Exception? = null
+
+    val isEmpty: Boolean
+        get() = first == null
+
+    /**
+     * Runs [block], recording an exception instead of throwing it. Cancellation is rethrown.
+     *
+     * @return whether [block] completed normally
+     */
+    suspend fun attempt(block: suspend () -> Unit): Boolean = try {
+        block()
+        true
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        add(e)
+        false
+    }
+
+    fun add(e: Exception) {
+        val current = first
+        if (current == null) first = e else if (current !== e) current.addSuppressed(e)
+    }
+
+    fun throwIfAny() {
+        first?.let { throw it }
+    }
+
+}
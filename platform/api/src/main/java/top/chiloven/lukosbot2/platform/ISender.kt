@@ -36,4 +36,22 @@ interface ISender {
      */
     suspend fun send(out: OutboundMessage)
 
+    /**
+     * Send several messages for the same chat, in order.
+     *
+     * <p>Platforms may combine consecutive media into fewer API calls. A failing message must not
+     * stop the others: every message is attempted, and the first failure is rethrown afterwards
+     * with the rest attached as suppressed exceptions. The default sends the messages one by
+     * one.</p>
+     *
+     * @param outs outbound messages, all addressed to the same chat
+     */
+    suspend fun sendBatch(outs: List<OutboundMessage>) {
+        val failures = BatchFailures()
+        for (out in outs) {
+            failures.attempt { send(out) }
+        }
+        failures.throwIfAny()
+    }
+
 }
@@ -28,4 +28,15 @@ interface PlatformFileLoader {
     @Throws(IOException::class)
     suspend fun load(ref: PlatformFileRef): LoadedPlatformMedia
 
+    /**
+     * Passes the file to [consumer] one chunk at a time; the chunk array may be reused between
+     * calls. Throwing from [consumer] aborts the transfer. The default implementation loads the
+     * whole file first.
+     */
+    @Throws(IOException::class)
+    suspend fun stream(ref: PlatformFileRef, consumer: (chunk: ByteArray, length: Int) -> Unit) {
+        val bytes = load(ref).bytes()
+        consumer(bytes, bytes.size)
+    }
+
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import org.apache.logging.log4j.LogManager
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.Consumer
+
+/**
+ * Hands messages to [sink] in arrival order per channel, even when they finish building out of order
+ * (e.g. one waits for a quoted message to be fetched).
+ *
+ * The sink runs on whichever thread completes the message, outside any lock.
+ * A failing message or sink call is logged and does not hold back later messages of its channel.
+ */
+internal class DiscordChannelDeliveries<T>(
+    private val sink: Consumer<T>,
+) {
+
+    private val log = LogManager.getLogger(DiscordChannelDeliveries::class.java)
+
+    /** Completes once the newest message of each channel has been handed over; removed when idle. */
+    private val tails = ConcurrentHashMap<Long, CompletableFuture<Void?>>()
+
+    /**
+     * Hands [message] to the sink once it is complete, after every earlier message of [channelId].
+     * A message that is already complete with nothing pending ahead of it is handed over right away
+     * on the calling thread.
+     */
+    fun deliver(channelId: Long, message: CompletableFuture<T>) {
+        val delivered = CompletableFuture<Void?>()
+        val previous = tails.put(channelId, delivered)
+
+        val ready = previous?.thenCompose { message } ?: message
+        ready.whenComplete { value, error ->
+            try {
+                if (error != null) {
+                    log.warn("Discord message for channel {} failed: {}", channelId, error.message, error)
+                } else {
+                    sink.accept(value)
+                }
+            } catch (e: Exception) {
+                log.warn("Discord message handling failed for channel {}: {}", channelId, e.message, e)
+            } finally {
+                delivered.complete(null)
+                tails.remove(channelId, delivered)
+            }
+        }
+    }
+
+}
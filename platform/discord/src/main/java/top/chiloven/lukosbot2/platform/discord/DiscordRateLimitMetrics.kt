@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import net.dv8tion.jda.api.requests.Response
+import net.dv8tion.jda.api.requests.RestRateLimiter
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Queue wait and 429 counters for Discord REST requests, per route.
+ *
+ * JDA holds a request in its rate limiter until the route's bucket has room; [wrap] measures that
+ * time, from enqueue (or the previous attempt after a 429) until the request is executed.
+ */
+class DiscordRateLimitMetrics @JvmOverloads constructor(
+    private val nanoTime: () -> Long = System::nanoTime,
+) {
+
+    private val routes = ConcurrentHashMap<String, Counters>()
+
+    /**
+     * Snapshot of one route.
+     */
+    data class Stats(
+        val route: String,
+        val requests: Long,
+        val rateLimited: Long,
+        val avgWaitMs: Double,
+        val maxWaitMs: Double,
+    )
+
+    /**
+     * Wraps [limiter] so every request it runs is recorded here.
+     */
+    fun wrap(limiter: RestRateLimiter): RestRateLimiter = TimedLimiter(limiter)
+
+    fun stats(): List<Stats> = routes.entries
+        .sortedBy { it.key }
+        .map { (route, counters) -> counters.snapshot(route) }
+
+    private inner class TimedLimiter(
+        private val delegate: RestRateLimiter,
+    ) : RestRateLimiter by delegate {
+
+        override fun enqueue(task: RestRateLimiter.Work) = delegate.enqueue(TimedWork(task))
+
+    }
+
+    private inner class TimedWork(
+        private val work: RestRateLimiter.Work,
+    ) : RestRateLimiter.Work by work {
+
+        private val counters = work.route.baseRoute.let { route ->
+            routes.computeIfAbsent("${route.method} ${route.route}") { Counters() }
+        }
+
+        @Volatile
+        private var waitingSince = nanoTime()
+
+        override fun execute(): Response? {
+            counters.waited(nanoTime() - waitingSince)
+            try {
+                val response = work.execute()
+                if (response?.code == 429) counters.limited()
+                return response
+            } finally {
+                waitingSince = nanoTime()
+            }
+        }
+
+    }
+
+    private class Counters {
+
+        private val requests = AtomicLong()
+        private val limited = AtomicLong()
+        private val totalNs = AtomicLong()
+        private val maxNs = AtomicLong()
+
+        fun waited(elapsedNs: Long) {
+            requests.incrementAndGet()
+            totalNs.addAndGet(elapsedNs)
+            maxNs.accumulateAndGet(elapsedNs, ::maxOf)
+        }
+
+        fun limited() {
+            limited.incrementAndGet()
+        }
+
+        fun snapshot(route: String): Stats {
+            val count = requests.get()
+            return Stats(
+                route = route,
+                requests = count,
+                rateLimited = limited.get(),
+                avgWaitMs = if (count == 0L) 0.0 else totalNs.get() / count / 1_000_000.0,
+                maxWaitMs = maxNs.get() / 1_000_000.0
+            )
+        }
+
+    }
+
+}
@@ -51,6 +51,12 @@ class DiscordReceiver(
 
     override val messages: Flow<InboundMessage> = channel.receiveAsFlow()
 
+    /**
+     * Rate-limit waits of the REST requests made through this receiver's JDA instance.
+     */
+    val rateLimitMetrics: DiscordRateLimitMetrics
+        get() = stack.rateLimits
+
     override suspend fun start() {
         withContext(blockingDispatcher) {
             stack.ensureStarted()
@@ -70,6 +76,6 @@ class DiscordReceiver(
         }
     }
 
-    fun sender(): ISender = DiscordSender(stack, blockingDispatcher)
+    fun sender(): ISender = DiscordSender(stack)
 
 }
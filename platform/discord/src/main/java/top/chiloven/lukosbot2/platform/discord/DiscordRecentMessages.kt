@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import top.chiloven.lukosbot2.core.model.message.inbound.QuotedMessage
+
+/**
+ * Recently received messages, kept in a small ring buffer per channel so replies to them can be
+ * quoted without a REST call.
+ *
+ * Only the last [perChannel] messages of the [maxChannels] most recently active channels are kept.
+ * All methods are thread-safe.
+ */
+internal class DiscordRecentMessages @JvmOverloads constructor(
+    private val perChannel: Int = DEFAULT_PER_CHANNEL,
+    private val maxChannels: Int = DEFAULT_MAX_CHANNELS,
+) {
+
+    private val channels = object : LinkedHashMap<Long, Ring>(16, 0.75f, true) {
+
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, Ring>?): Boolean {
+            return size > maxChannels
+        }
+
+    }
+
+    fun add(channelId: Long, message: QuotedMessage) {
+        synchronized(channels) {
+            channels.getOrPut(channelId) { Ring(perChannel) }.add(message)
+        }
+    }
+
+    fun get(channelId: Long, messageId: String): QuotedMessage? = synchronized(channels) {
+        channels[channelId]?.find(messageId)
+    }
+
+    /**
+     * Replaces a kept message after it was edited; messages that are not kept are ignored.
+     */
+    fun update(channelId: Long, message: QuotedMessage) {
+        synchronized(channels) {
+            channels[channelId]?.replace(message.messageId(), message)
+        }
+    }
+
+    fun remove(channelId: Long, messageId: String) {
+        synchronized(channels) {
+            channels[channelId]?.replace(messageId, null)
+        }
+    }
+
+    private class Ring(capacity: Int) {
+
+        private val items = arrayOfNulls<QuotedMessage>(capacity)
+        private var next = 0
+
+        fun add(message: QuotedMessage) {
+            items[next] = message
+            next = (next + 1) % items.size
+        }
+
+        fun find(messageId: String): QuotedMessage? = items.firstOrNull { it?.messageId() == messageId }
+
+        fun replace(messageId: String, message: QuotedMessage?) {
+            val i = items.indexOfFirst { it?.messageId() == messageId }
+            if (i >= 0) items[i] = message
+        }
+
+    }
+
+    companion object {
+
+        const val DEFAULT_PER_CHANNEL: Int = 64
+        const val DEFAULT_MAX_CHANNELS: Int = 512
+
+    }
+
+}
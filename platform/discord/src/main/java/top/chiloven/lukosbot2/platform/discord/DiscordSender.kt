@@ -17,20 +17,26 @@
  */
 package top.chiloven.lukosbot2.platform.discord
 
-import kotlinx.coroutines.CoroutineDispatcher
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.future.await
 import net.dv8tion.jda.api.EmbedBuilder
 import net.dv8tion.jda.api.entities.MessageEmbed
+import net.dv8tion.jda.api.entities.channel.concrete.PrivateChannel
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel
 import net.dv8tion.jda.api.utils.FileUpload
+import org.apache.logging.log4j.LogManager
 import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
+import top.chiloven.lukosbot2.core.model.message.media.MediaRef
 import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
 import top.chiloven.lukosbot2.core.model.message.media.UrlRef
 import top.chiloven.lukosbot2.core.model.message.outbound.*
+import top.chiloven.lukosbot2.platform.BatchFailures
 import top.chiloven.lukosbot2.platform.ISender
 import top.chiloven.lukosbot2.util.message.OutboundPartUtils
 import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.nio.file.Files
 
 /**
  * Discord sender that translates [OutboundMessage] into Discord API calls.
@@ -38,59 +44,251 @@ import java.io.ByteArrayInputStream
  * <p>Discord does not have a true "caption" concept for images like Telegram does. To preserve
  * the ordering semantics of {@link OutboundMessage#parts()}, this sender sends parts sequentially: each
  * [OutText], [OutImage], [OutFile] is sent as one Discord message (or a small sequence if the text is
- * too long).</p>
+ * too long). The exception are runs of consecutive uploads, packed into one message with up to 10
+ * attachments, and runs of consecutive image URLs, packed into one message with up to 10 embeds.
+ * Uploads and URLs never share a message, because Discord shows attachments above embeds.</p>
+ *
+ * <p>REST actions are submitted and awaited instead of completed, so a send does not hold a thread
+ * while JDA waits for Discord or for a rate-limit bucket. Parts are still sent strictly in order, and
+ * {@code MessageSenderHub} keeps messages of one chat in order. DM channels are kept in a bounded
+ * cache, so repeated DMs to a user skip opening the channel again.</p>
  */
 internal class DiscordSender(
     private val stack: DiscordStack,
-    private val blockingDispatcher: CoroutineDispatcher = Dispatchers.IO,
 ) : ISender {
 
+    private val log = LogManager.getLogger(DiscordSender::class.java)
+
+    private val privateChannels = object : LinkedHashMap<Long, PrivateChannel>(16, 0.75f, true) {
+
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, PrivateChannel>?): Boolean {
+            return size > MAX_PRIVATE_CHANNELS
+        }
+
+    }
+
     private companion object {
 
         const val MAX_CONTENT = 2000
 
+        /**
+         * Discord allows up to 10 attachments and 10 embeds per message.
+         */
+        const val MAX_PACKED_UPLOADS = 10
+        const val MAX_PACKED_EMBEDS = 10
+
+        /**
+         * Combined upload size of one packed message; the limit for servers without boosts.
+         */
+        const val MAX_PACKED_BYTES = 10L * 1024 * 1024
+
+        const val MAX_PRIVATE_CHANNELS = 1024
+
+    }
+
+    override suspend fun send(out: OutboundMessage) = sendBatch(listOf(out))
+
+    override suspend fun sendBatch(outs: List<OutboundMessage>) {
+        if (outs.isEmpty()) return
+        val items = outs.flatMapIndexed { index, out ->
+            OutboundPartUtils.mergeAdjacentTextParts(out.parts().orEmpty()).map { Item(index, it) }
+        }
+        if (items.isEmpty()) return
+
+        val addr = outs[0].addr()
+        if (addr.group()) {
+            val ch = stack.jda.getTextChannelById(addr.chatId())
+                ?: return
+            sendItems(ch, items)
+            return
+        }
+
+        val userId = addr.chatId()
+        val pc = privateChannel(userId)
+            ?: return
+        try {
+            sendItems(pc, items)
+        } catch (e: Exception) {
+            // The channel may be unusable now, e.g. the user left every shared server; reopen next time.
+            synchronized(privateChannels) { privateChannels.remove(userId) }
+            throw e
+        }
     }
 
-    override suspend fun send(out: OutboundMessage) {
-        withContext(blockingDispatcher) {
-            val parts = out.parts().orEmpty()
-            if (parts.isEmpty()) return@withContext
+    /**
+     * The DM channel with [userId], or `null` if it cannot be opened.
+     */
+    private suspend fun privateChannel(userId: Long): PrivateChannel? {
+        synchronized(privateChannels) { privateChannels[userId] }?.let { return it }
+        val pc = try {
+            stack.jda.openPrivateChannelById(userId).submit().await()
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            // ignore errors opening DMs
+            log.debug("Failed to open Discord DM with {}: {}", userId, e.message)
+            return null
+        }
+        synchronized(privateChannels) { privateChannels[userId] = pc }
+        return pc
+    }
 
-            val normalized = OutboundPartUtils.mergeAdjacentTextParts(parts)
+    /**
+     * Sends [items] in order. Runs of consecutive uploads or image URLs are packed into one message;
+     * only the first of them may carry a caption, which becomes the message content. A pack that
+     * fails is retried item by item, and a failed message skips its remaining parts.
+     */
+    private suspend fun sendItems(ch: MessageChannel, items: List<Item>) {
+        val failures = BatchFailures()
+        val failed = HashSet<Int>()
 
-            if (out.addr().group()) {
-                val ch = stack.jda.getTextChannelById(out.addr().chatId())
-                    ?: return@withContext
-                sendParts(ch, normalized)
-                return@withContext
+        var i = 0
+        while (i < items.size) {
+            val item = items[i]
+            if (item.message in failed) {
+                i++
+                continue
             }
 
-            val userId = out.addr().chatId()
-            try {
-                val u = stack.jda.retrieveUserById(userId).complete()
-                    ?: return@withContext
-                val pc = u.openPrivateChannel().complete()
-                    ?: return@withContext
-                sendParts(pc, normalized)
-            } catch (_: Exception) {
-                // ignore errors opening DMs
+            val pack = packAt(items, i, failed)
+            if (pack.size > 1) {
+                try {
+                    sendPack(ch, pack)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    log.debug("Discord packed message failed, sending {} parts one by one: {}", pack.size, e.message)
+                    pack.forEach { sendItem(ch, it, failures, failed) }
+                }
+                i += pack.size
+                continue
             }
+
+            sendItem(ch, item, failures, failed)
+            i++
         }
+        failures.throwIfAny()
     }
 
-    private fun sendParts(ch: MessageChannel?, parts: List<OutPart>) {
-        if (ch == null || parts.isEmpty()) return
-
-        parts.forEach { p ->
-            when (p) {
+    private suspend fun sendItem(
+        ch: MessageChannel,
+        item: Item,
+        failures: BatchFailures,
+        failed: MutableSet<Int>,
+    ) {
+        if (item.message in failed) return
+        val ok = failures.attempt {
+            when (val p = item.part) {
                 is OutText -> sendTextChunks(ch, OutboundPartUtils.safeText(p.text()))
                 is OutImage -> sendImagePart(ch, p)
                 is OutFile -> sendFilePart(ch, p)
             }
         }
+        if (!ok) failed += item.message
     }
 
-    private fun sendTextChunks(ch: MessageChannel, text: String) {
+    private fun packAt(
+        items: List<Item>,
+        start: Int,
+        failed: Set<Int>,
+    ): List<Item> {
+        val pack = ArrayList<Item>()
+        var embedPack = false
+        var bytes = 0L
+        var i = start
+        while (i < items.size) {
+            val item = items[i]
+            val part = item.part
+            if (item.message in failed) break
+            if (pack.isNotEmpty() && captionOf(part).isNotBlank()) break
+
+            val ref = packableRef(part) ?: break
+            if (pack.isEmpty()) {
+                embedPack = ref is UrlRef
+            } else if ((ref is UrlRef) != embedPack) {
+                // Discord renders attachments before embeds; mixing them would reorder the media.
+                break
+            }
+
+            if (embedPack) {
+                if (pack.size == MAX_PACKED_EMBEDS) break
+            } else {
+                val size = uploadSize(ref)
+                if (pack.size == MAX_PACKED_UPLOADS || bytes + size > MAX_PACKED_BYTES) break
+                bytes += size
+            }
+            pack += item
+            i++
+        }
+        return pack
+    }
+
+    private suspend fun sendPack(ch: MessageChannel, pack: List<Item>) {
+        val uploads = ArrayList<FileUpload>()
+        val embeds = ArrayList<MessageEmbed>()
+        pack.forEach { item ->
+            when (val part = item.part) {
+                is OutImage -> when (val ref = part.ref()) {
+                    is UrlRef -> embeds += EmbedBuilder().setImage(ref.url()).build()
+                    else -> uploads += toUpload(
+                        ref,
+                        part.name(),
+                        part.mime(),
+                        true
+                    )
+                }
+
+                is OutFile -> uploads += toUpload(
+                    part.ref(),
+                    part.name(),
+                    part.mime(),
+                    false
+                )
+
+                is OutText -> error("Text parts are not packed")
+            }
+        }
+        sendWithOptionalUpload(
+            ch,
+            captionOf(pack[0].part),
+            uploads,
+            embeds
+        )
+    }
+
+    /**
+     * The media of [part] if it can share a message with other media: uploads and image URLs.
+     */
+    private fun packableRef(part: OutPart): MediaRef? = when (part) {
+        is OutImage -> part.ref()?.takeIf { it is BytesRef || it is FileRef || it is UrlRef }
+        is OutFile -> part.ref()?.takeIf { it is BytesRef || it is FileRef }
+        is OutText -> null
+    }
+
+    private fun captionOf(part: OutPart): String = when (part) {
+        is OutImage -> OutboundPartUtils.safeText(part.caption())
+        is OutFile -> OutboundPartUtils.safeText(part.caption())
+        is OutText -> ""
+    }
+
+    private fun uploadSize(ref: MediaRef): Long = when (ref) {
+        is BytesRef -> ref.bytes().size.toLong()
+        is FileRef -> try {
+            Files.size(ref.path())
+        } catch (_: IOException) {
+            // Unknown size: never pack it with anything else.
+            MAX_PACKED_BYTES
+        }
+
+        else -> 0
+    }
+
+    private class Item(
+        val message: Int,
+        val part: OutPart,
+    )
+
+    private suspend fun sendTextChunks(ch: MessageChannel, text: String) {
         if (text.isBlank()) return
 
         // Discord content limit: 2000 chars. Split into chunks.
@@ -98,37 +296,26 @@ internal class DiscordSender(
         while (i < text.length) {
             val end = minOf(text.length, i + MAX_CONTENT)
             val chunk = text.substring(i, end)
-            ch.sendMessage(chunk).complete()
+            ch.sendMessage(chunk).submit().await()
             i = end
         }
     }
 
-    private fun sendImagePart(ch: MessageChannel, img: OutImage?) {
+    private suspend fun sendImagePart(ch: MessageChannel, img: OutImage?) {
         if (img?.ref() == null) return
 
         val caption = OutboundPartUtils.safeText(img.caption())
         when (val ref = img.ref()) {
-            is BytesRef -> {
-                val upload = FileUpload.fromData(
-                    ByteArrayInputStream(ref.bytes()),
-                    OutboundPartUtils.pickMediaName(
-                        img.name(),
-                        ref.name(),
-                        img.mime(),
-                        true
-                    ),
+            is BytesRef, is FileRef -> sendUpload(
+                ch,
+                caption,
+                toUpload(
+                    ref,
+                    img.name(),
+                    img.mime(),
+                    true
                 )
-                if (caption.isBlank()) {
-                    ch.sendFiles(upload).complete()
-                } else {
-                    sendWithOptionalUpload(
-                        ch,
-                        caption,
-                        listOf(upload),
-                        emptyList()
-                    )
-                }
-            }
+            )
 
             is UrlRef -> {
                 val embed = EmbedBuilder().setImage(ref.url()).build()
@@ -147,32 +334,21 @@ internal class DiscordSender(
         }
     }
 
-    private fun sendFilePart(ch: MessageChannel, f: OutFile?) {
+    private suspend fun sendFilePart(ch: MessageChannel, f: OutFile?) {
         if (f?.ref() == null) return
 
         val caption = OutboundPartUtils.safeText(f.caption())
         when (val ref = f.ref()) {
-            is BytesRef -> {
-                val upload = FileUpload.fromData(
-                    ByteArrayInputStream(ref.bytes()),
-                    OutboundPartUtils.pickMediaName(
-                        f.name(),
-                        ref.name(),
-                        f.mime(),
-                        false
-                    ),
+            is BytesRef, is FileRef -> sendUpload(
+                ch,
+                caption,
+                toUpload(
+                    ref,
+                    f.name(),
+                    f.mime(),
+                    false
                 )
-                if (caption.isBlank()) {
-                    ch.sendFiles(upload).complete()
-                } else {
-                    sendWithOptionalUpload(
-                        ch,
-                        caption,
-                        listOf(upload),
-                        emptyList()
-                    )
-                }
-            }
+            )
 
             is UrlRef -> {
                 val msg = if (caption.isBlank()) ref.url() else "$caption\n${ref.url()}"
@@ -190,7 +366,53 @@ internal class DiscordSender(
         }
     }
 
-    private fun sendWithOptionalUpload(
+    private suspend fun sendUpload(
+        ch: MessageChannel,
+        caption: String,
+        upload: FileUpload,
+    ) {
+        if (caption.isBlank()) {
+            ch.sendFiles(upload).submit().await()
+        } else {
+            sendWithOptionalUpload(
+                ch,
+                caption,
+                listOf(upload),
+                emptyList()
+            )
+        }
+    }
+
+    private fun toUpload(
+        ref: MediaRef,
+        name: String?,
+        mime: String?,
+        imageDefault: Boolean,
+    ): FileUpload = when (ref) {
+        is FileRef -> FileUpload.fromData(
+            ref.path(),
+            OutboundPartUtils.pickMediaName(
+                name,
+                ref.fileName(),
+                mime,
+                imageDefault
+            ),
+        )
+
+        is BytesRef -> FileUpload.fromData(
+            ByteArrayInputStream(ref.bytes()),
+            OutboundPartUtils.pickMediaName(
+                name,
+                ref.name(),
+                mime,
+                imageDefault
+            ),
+        )
+
+        else -> throw IllegalArgumentException("Not an uploadable media reference: $ref")
+    }
+
+    private suspend fun sendWithOptionalUpload(
         ch: MessageChannel,
         content: String,
         uploads: List<FileUpload>,
@@ -208,7 +430,7 @@ internal class DiscordSender(
         val hasEmbeds = embeds.isNotEmpty()
 
         if (!hasUploads && !hasEmbeds) {
-            if (c.isNotBlank()) ch.sendMessage(c).complete()
+            if (c.isNotBlank()) ch.sendMessage(c).submit().await()
             return
         }
 
@@ -219,12 +441,12 @@ internal class DiscordSender(
             if (hasEmbeds) {
                 action.setEmbeds(embeds)
             }
-            action.complete()
+            action.submit().await()
             return
         }
 
         // embeds only
-        ch.sendMessage(c.ifBlank { "" }).setEmbeds(embeds).complete()
+        ch.sendMessage(c.ifBlank { "" }).setEmbeds(embeds).submit().await()
     }
 
 }
@@ -22,10 +22,13 @@ import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.requests.SequentialRestRateLimiter;
 import top.chiloven.lukosbot2.commands.IBotCommand;
 import top.chiloven.lukosbot2.config.ProxyConfigProp;
 import top.chiloven.lukosbot2.core.command.bot.CommandRegistry;
@@ -36,6 +39,7 @@ import top.chiloven.lukosbot2.platform.ChatPlatform;
 import top.chiloven.lukosbot2.util.OkHttpUtils;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import lombok.extern.log4j.Log4j2;
 
@@ -45,10 +49,14 @@ final class DiscordStack implements AutoCloseable {
     private final String token;
     private final ProxyConfigProp proxyConfigProp;
     private final CommandRegistry commandRegistry;
+    final DiscordRateLimitMetrics rateLimits = new DiscordRateLimitMetrics();
+    private final DiscordRecentMessages recentMessages = new DiscordRecentMessages();
 
     JDA jda;
     private Consumer<InboundMessage> sink = _ -> {
     };
+    private final DiscordChannelDeliveries<InboundMessage> deliveries =
+            new DiscordChannelDeliveries<>(message -> sink.accept(message));
 
     DiscordStack(
             String token,
@@ -82,6 +90,7 @@ final class DiscordStack implements AutoCloseable {
                 .createLight(token, intents)
                 .addEventListeners(new Listener());
         builder.setHttpClientBuilder(OkHttpUtils.newBuilder(proxyConfigProp));
+        builder.setRateLimiterFactory(config -> rateLimits.wrap(new SequentialRestRateLimiter(config)));
         jda = builder.build().awaitReady();
 
         if (commandRegistry != null) {
@@ -166,7 +175,7 @@ final class DiscordStack implements AutoCloseable {
             List<InPart> parts = new ArrayList<>();
             parts.add(new InText(text));
 
-            sink.accept(new InboundMessage(
+            deliveries.deliver(e.getChannel().getIdLong(), CompletableFuture.completedFuture(new InboundMessage(
                     addr,
                     sender,
                     chat,
@@ -174,7 +183,7 @@ final class DiscordStack implements AutoCloseable {
                     parts,
                     buildExtForSlash(e),
                     null
-            ));
+            )));
 
             e.reply("（推荐直接发送消息）").queue();
         }
@@ -226,16 +235,38 @@ final class DiscordStack implements AutoCloseable {
                 return;
             }
 
-            var quoted = resolveQuoted(e);
-            sink.accept(new InboundMessage(
+            var ext = buildExtForMessage(e);
+            var channelId = e.getChannel().getIdLong();
+            recentMessages.add(channelId, new QuotedMessage(msgId, userId, parts));
+            deliveries.deliver(channelId, resolveQuoted(e).thenApply(quoted -> new InboundMessage(
                     addr,
                     sender,
                     chat,
                     meta,
                     parts,
-                    buildExtForMessage(e),
+                    ext,
                     quoted
-            ));
+            )));
+        }
+
+        @Override
+        public void onMessageUpdate(MessageUpdateEvent e) {
+            var message = e.getMessage();
+            Long senderId = null;
+            try {
+                senderId = message.getAuthor().getIdLong();
+            } catch (Exception _) {
+            }
+
+            recentMessages.update(
+                    e.getChannel().getIdLong(),
+                    new QuotedMessage(message.getId(), senderId, extractParts(message))
+            );
+        }
+
+        @Override
+        public void onMessageDelete(MessageDeleteEvent e) {
+            recentMessages.remove(e.getChannel().getIdLong(), e.getMessageId());
         }
 
         private List<InPart> extractParts(Message message) {
@@ -280,7 +311,12 @@ final class DiscordStack implements AutoCloseable {
             return parts;
         }
 
-        private QuotedMessage resolveQuoted(MessageReceivedEvent e) {
+        /**
+         * Resolves the message that {@code e} replies to without blocking the event thread: from the
+         * gateway payload, then from recently seen messages, and only then through an asynchronous
+         * REST lookup. Completes with {@code null} when there is no quote or it cannot be loaded.
+         */
+        private CompletableFuture<QuotedMessage> resolveQuoted(MessageReceivedEvent e) {
             Message referenced = null;
 
             try {
@@ -288,23 +324,35 @@ final class DiscordStack implements AutoCloseable {
             } catch (Exception _) {
             }
 
-            if (referenced == null) {
-                try {
-                    if (e.getMessage().getMessageReference() != null) {
-                        var id = e.getMessage().getMessageReference().getMessageId();
-                        if (!id.isBlank()) {
-                            referenced = e.getChannel().retrieveMessageById(id).complete();
-                        }
-                    }
-                } catch (Exception ex) {
-                    log.debug("Failed to resolve quoted Discord message: {}", ex.getMessage());
-                }
+            if (referenced != null) {
+                return CompletableFuture.completedFuture(toQuoted(referenced));
             }
 
-            if (referenced == null) {
-                return null;
+            try {
+                var reference = e.getMessage().getMessageReference();
+                if (reference == null || reference.getMessageId().isBlank()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                var id = reference.getMessageId();
+                var cached = recentMessages.get(reference.getChannelIdLong(), id);
+                if (cached != null) {
+                    return CompletableFuture.completedFuture(cached);
+                }
+
+                return e.getChannel().retrieveMessageById(id).submit()
+                        .thenApply(this::toQuoted)
+                        .exceptionally(ex -> {
+                            log.debug("Failed to resolve quoted Discord message: {}", ex.getMessage());
+                            return null;
+                        });
+            } catch (Exception ex) {
+                log.debug("Failed to resolve quoted Discord message: {}", ex.getMessage());
+                return CompletableFuture.completedFuture(null);
             }
+        }
 
+        private QuotedMessage toQuoted(Message referenced) {
             Long senderId = null;
             try {
                 senderId = referenced.getAuthor().getIdLong();
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.assertEquals
+
+class DiscordChannelDeliveriesTest {
+
+    @Test
+    fun `a pending quote holds back later messages of its channel only`() {
+        val received = CopyOnWriteArrayList<String>()
+        val deliveries = DiscordChannelDeliveries<String> { received.add(it) }
+        val quoted = CompletableFuture<String>()
+
+        deliveries.deliver(1, quoted)
+        deliveries.deliver(1, CompletableFuture.completedFuture("second"))
+        deliveries.deliver(2, CompletableFuture.completedFuture("other channel"))
+        assertEquals(listOf("other channel"), received.toList())
+
+        quoted.complete("with quote")
+        assertEquals(listOf("other channel", "with quote", "second"), received.toList())
+
+        deliveries.deliver(1, CompletableFuture.completedFuture("third"))
+        assertEquals("third", received.last())
+    }
+
+    @Test
+    fun `failed messages and sink errors do not stop the channel`() {
+        val received = CopyOnWriteArrayList<String>()
+        val deliveries = DiscordChannelDeliveries<String> { message ->
+            if (message == "boom") error("sink rejected $message")
+            received.add(message)
+        }
+
+        deliveries.deliver(1, CompletableFuture.failedFuture(IllegalStateException("fetch failed")))
+        deliveries.deliver(1, CompletableFuture.completedFuture("boom"))
+        deliveries.deliver(1, CompletableFuture.completedFuture("after"))
+
+        assertEquals(listOf("after"), received.toList())
+    }
+
+    @Test
+    fun `the sink may deliver to its own channel`() {
+        val received = CopyOnWriteArrayList<String>()
+        lateinit var deliveries: DiscordChannelDeliveries<String>
+        deliveries = DiscordChannelDeliveries { message ->
+            received.add(message)
+            if (message == "first") {
+                deliveries.deliver(1, CompletableFuture.completedFuture("reply"))
+            }
+        }
+
+        deliveries.deliver(1, CompletableFuture.completedFuture("first"))
+        deliveries.deliver(1, CompletableFuture.completedFuture("next"))
+
+        assertEquals(listOf("first", "reply", "next"), received.toList())
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import net.dv8tion.jda.api.requests.Response
+import net.dv8tion.jda.api.requests.RestRateLimiter
+import net.dv8tion.jda.internal.requests.Route
+import org.junit.jupiter.api.Test
+import java.lang.reflect.Proxy
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+
+class DiscordRateLimitMetricsTest {
+
+    @Test
+    fun `waits run from enqueue or the last 429 and 429s are counted per route`() {
+        var now = 0L
+        val metrics = DiscordRateLimitMetrics { now }
+        val queued = mutableListOf<RestRateLimiter.Work>()
+        val limiter = metrics.wrap(proxy { name, args ->
+            when (name) {
+                "enqueue" -> {
+                    queued += args[0] as RestRateLimiter.Work
+                    null
+                }
+
+                else -> unsupported(name)
+            }
+        })
+
+        val answers = ArrayDeque(listOf(rateLimited(), null))
+        limiter.enqueue(work(Route.Messages.SEND_MESSAGE.compile("1")) { answers.removeFirst() })
+        now += millis(30)
+        limiter.enqueue(work(Route.Messages.EDIT_MESSAGE.compile("1", "2")) { null })
+
+        now += millis(20)
+        assertEquals(429, queued[0].execute()?.code)
+        now += millis(100)
+        queued[0].execute()
+        queued[1].execute()
+
+        assertEquals(
+            listOf(
+                DiscordRateLimitMetrics.Stats(
+                    route = "PATCH channels/{channel_id}/messages/{message_id}",
+                    requests = 1,
+                    rateLimited = 0,
+                    avgWaitMs = 120.0,
+                    maxWaitMs = 120.0
+                ),
+                // 50 ms from enqueue to the first attempt, then 100 ms from the 429 to the retry.
+                DiscordRateLimitMetrics.Stats(
+                    route = "POST channels/{channel_id}/messages",
+                    requests = 2,
+                    rateLimited = 1,
+                    avgWaitMs = 75.0,
+                    maxWaitMs = 100.0
+                )
+            ),
+            metrics.stats()
+        )
+    }
+
+    private fun millis(ms: Long) = TimeUnit.MILLISECONDS.toNanos(ms)
+
+    private fun rateLimited() = Response(
+        null,
+        429,
+        "Too Many Requests",
+        1000,
+        emptySet()
+    )
+
+    private fun work(
+        route: Route.CompiledRoute,
+        execute: () -> Response?
+    ): RestRateLimiter.Work = proxy { name, _ ->
+        when (name) {
+            "getRoute" -> route
+            "execute" -> execute()
+            else -> unsupported(name)
+        }
+    }
+
+    private companion object {
+
+        inline fun <reified T : Any> proxy(crossinline handler: (name: String, args: Array<Any?>) -> Any?): T =
+            Proxy.newProxyInstance(T::class.java.classLoader, arrayOf(T::class.java)) { _, method, args ->
+                handler(method.name, args ?: emptyArray())
+            } as T
+
+        fun unsupported(name: String): Nothing = throw UnsupportedOperationException(name)
+
+    }
+
+}
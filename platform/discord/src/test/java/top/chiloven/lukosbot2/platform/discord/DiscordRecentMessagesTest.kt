@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import org.junit.jupiter.api.Test
+import top.chiloven.lukosbot2.core.model.message.inbound.InText
+import top.chiloven.lukosbot2.core.model.message.inbound.QuotedMessage
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class DiscordRecentMessagesTest {
+
+    @Test
+    fun `each channel keeps only its latest messages`() {
+        val recent = DiscordRecentMessages(perChannel = 2, maxChannels = 2)
+        recent.add(1, quoted("a"))
+        recent.add(1, quoted("b"))
+        recent.add(1, quoted("c"))
+        recent.add(2, quoted("a"))
+
+        assertNull(recent.get(1, "a"))
+        assertEquals("c", recent.get(1, "c")?.messageId())
+        assertEquals("a", recent.get(2, "a")?.messageId())
+
+        // Channel 1 was used more recently than channel 2, so channel 2 is dropped.
+        recent.get(1, "b")
+        recent.add(3, quoted("x"))
+        assertNull(recent.get(2, "a"))
+        assertEquals("b", recent.get(1, "b")?.messageId())
+    }
+
+    @Test
+    fun `edits replace and deletes drop kept messages`() {
+        val recent = DiscordRecentMessages()
+        recent.add(1, quoted("a", "old"))
+
+        recent.update(1, quoted("a", "new"))
+        recent.update(1, quoted("unknown", "ignored"))
+        assertEquals(listOf(InText("new")), recent.get(1, "a")?.parts())
+        assertNull(recent.get(1, "unknown"))
+
+        recent.remove(1, "a")
+        assertNull(recent.get(1, "a"))
+    }
+
+    private fun quoted(id: String, text: String = id) = QuotedMessage(id, 7L, listOf(InText(text)))
+
+}
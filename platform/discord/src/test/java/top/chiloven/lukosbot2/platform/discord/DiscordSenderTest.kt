@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.discord
+
+import kotlinx.coroutines.test.runTest
+import net.dv8tion.jda.api.JDA
+import net.dv8tion.jda.api.entities.MessageEmbed
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel
+import net.dv8tion.jda.api.requests.restaction.MessageCreateAction
+import net.dv8tion.jda.api.utils.FileUpload
+import org.junit.jupiter.api.Test
+import top.chiloven.lukosbot2.core.model.message.Address
+import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.UrlRef
+import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
+import top.chiloven.lukosbot2.core.model.message.outbound.OutPart
+import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
+import top.chiloven.lukosbot2.platform.ChatPlatform
+import java.lang.reflect.Proxy
+import java.util.concurrent.CompletableFuture
+import kotlin.test.assertEquals
+
+class DiscordSenderTest {
+
+    @Test
+    fun `uploads and image urls do not share a message`() = runTest {
+        val channel = FakeChannel()
+
+        sender(channel).send(message(upload("a.png"), url("b"), upload("c.png")))
+
+        assertEquals(
+            listOf(
+                Sent(uploads = listOf("a.png")),
+                Sent(embeds = listOf(urlOf("b"))),
+                Sent(uploads = listOf("c.png"))
+            ),
+            channel.sent
+        )
+    }
+
+    @Test
+    fun `runs of uploads and runs of urls are packed separately`() = runTest {
+        val channel = FakeChannel()
+
+        sender(channel).sendBatch(
+            listOf(
+                message(upload("a.png"), upload("b.png")),
+                message(url("c"), url("d"), upload("e.png"))
+            )
+        )
+
+        assertEquals(
+            listOf(
+                Sent(uploads = listOf("a.png", "b.png")),
+                Sent(embeds = listOf(urlOf("c"), urlOf("d"))),
+                Sent(uploads = listOf("e.png"))
+            ),
+            channel.sent
+        )
+    }
+
+    @Test
+    fun `a failed pack is sent one part at a time`() = runTest {
+        val channel = FakeChannel(fails = { it.uploads.size > 1 })
+
+        sender(channel).send(message(upload("a.png"), upload("b.png")))
+
+        assertEquals(
+            listOf(
+                Sent(uploads = listOf("a.png")),
+                Sent(uploads = listOf("b.png"))
+            ),
+            channel.sent
+        )
+    }
+
+    private fun sender(channel: FakeChannel): DiscordSender {
+        val stack = DiscordStack("token", null, null)
+        stack.jda = proxy<JDA> { name, _ ->
+            if (name == "getTextChannelById") channel.textChannel else unsupported(name)
+        }
+        return DiscordSender(stack)
+    }
+
+    private fun message(vararg parts: OutPart) = OutboundMessage(
+        Address(
+            ChatPlatform.DISCORD,
+            1L,
+            true
+        ),
+        parts.toList()
+    )
+
+    private fun upload(name: String) = OutImage(
+        BytesRef(byteArrayOf(1, 2, 3)),
+        null,
+        name,
+        "image/png"
+    )
+
+    private fun url(id: String) = OutImage(
+        UrlRef(urlOf(id)),
+        null,
+        null,
+        null
+    )
+
+    private fun urlOf(id: String) = "https://example.com/$id.png"
+
+    private data class Sent(
+        val content: String = "",
+        val uploads: List<String> = emptyList(),
+        val embeds: List<String> = emptyList(),
+    )
+
+    /**
+     * Text channel that records every message submitted to it; messages matching [fails] are rejected.
+     */
+    private class FakeChannel(
+        private val fails: (Sent) -> Boolean = { false },
+    ) {
+
+        val sent = mutableListOf<Sent>()
+
+        val textChannel: TextChannel = proxy { name, args ->
+            when (name) {
+                "sendMessage" -> action(Sent(content = args[0].toString()))
+                "sendFiles" -> action(Sent(uploads = filesOf(args[0]).map { it.name }))
+                else -> unsupported(name)
+            }
+        }
+
+        private fun action(initial: Sent): MessageCreateAction {
+            var message = initial
+            lateinit var self: MessageCreateAction
+            self = proxy { name, args ->
+                when (name) {
+                    "setContent" -> self.also {
+                        message = message.copy(content = args[0]?.toString().orEmpty())
+                    }
+
+                    "setEmbeds" -> self.also {
+                        message = message.copy(embeds = embedsOf(args[0]).map { it.image!!.url!! })
+                    }
+
+                    "submit" -> if (fails(message)) {
+                        CompletableFuture.failedFuture<Any>(IllegalStateException("rejected"))
+                    } else {
+                        sent += message
+                        CompletableFuture.completedFuture<Any?>(null)
+                    }
+
+                    else -> unsupported(name)
+                }
+            }
+            return self
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        private fun filesOf(arg: Any?): List<FileUpload> =
+            (arg as? Collection<FileUpload>)?.toList() ?: (arg as Array<FileUpload>).toList()
+
+        @Suppress("UNCHECKED_CAST")
+        private fun embedsOf(arg: Any?): List<MessageEmbed> =
+            (arg as? Collection<MessageEmbed>)?.toList() ?: (arg as Array<MessageEmbed>).toList()
+
+    }
+
+    private companion object {
+
+        inline fun <reified T : Any> proxy(crossinline handler: (name: String, args: Array<Any?>) -> Any?): T =
+            Proxy.newProxyInstance(T::class.java.classLoader, arrayOf(T::class.java)) { _, method, args ->
+                handler(method.name, args ?: emptyArray())
+            } as T
+
+        fun unsupported(name: String): Nothing = throw UnsupportedOperationException(name)
+
+    }
+
+}
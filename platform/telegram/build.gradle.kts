@@ -32,6 +32,7 @@ dependencies {
 
     implementation(libs.telegrambots.longpolling)
     implementation(libs.telegrambots.client)
+    implementation(libs.okhttp)
     implementation(libs.kotlinx.coroutines.core)
     implementation(libs.ktor.client.core)
 
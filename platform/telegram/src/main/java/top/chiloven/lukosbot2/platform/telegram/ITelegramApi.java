@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram;
+
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.objects.message.Message;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous Bot API calls made by {@link TelegramSender}. Futures complete with the same
+ * exceptions as the blocking calls of {@link TelegramStack}, which implements this interface.
+ */
+interface ITelegramApi {
+
+    <T extends Serializable, M extends BotApiMethod<T>> CompletableFuture<T> executeAsync(M method);
+
+    CompletableFuture<Message> executeAsync(SendPhoto method);
+
+    CompletableFuture<Message> executeAsync(SendDocument method);
+
+    CompletableFuture<List<Message>> executeAsync(SendMediaGroup method);
+
+}
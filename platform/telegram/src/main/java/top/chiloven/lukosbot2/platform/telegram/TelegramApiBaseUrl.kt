@@ -0,0 +1,56 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import java.net.URI
+
+/**
+ * Validates the configured Bot API base URL for both the SDK client and [TelegramFileLoader], so
+ * calls and file downloads accept exactly the same values.
+ */
+internal object TelegramApiBaseUrl {
+
+    /**
+     * Parses a base URL such as `http://127.0.0.1:8081/` into `scheme://host[:port]`.
+     *
+     * @throws IllegalArgumentException if [raw] has no scheme or host, or has a path; the SDK
+     * cannot address a Bot API server behind a path prefix
+     */
+    @JvmStatic
+    fun parse(raw: String): URI {
+        val uri = try {
+            URI.create(raw.trim())
+        } catch (e: IllegalArgumentException) {
+            throw IllegalArgumentException(invalid(raw), e)
+        }
+        val path = uri.path
+        require(uri.scheme != null && uri.host != null && (path.isNullOrEmpty() || path == "/")) { invalid(raw) }
+        return URI(
+            uri.scheme,
+            null,
+            uri.host,
+            uri.port,
+            null,
+            null,
+            null
+        )
+    }
+
+    private fun invalid(raw: String) = "Telegram API base URL must be scheme://host[:port]: $raw"
+
+}
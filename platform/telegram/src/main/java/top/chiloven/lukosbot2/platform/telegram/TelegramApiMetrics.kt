@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import kotlinx.coroutines.CancellationException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Latency and failure counters for Telegram Bot API calls, per method.
+ */
+class TelegramApiMetrics {
+
+    private val methods = ConcurrentHashMap<String, Counters>()
+
+    /**
+     * Snapshot of one API method.
+     */
+    data class Stats(
+        val method: String,
+        val calls: Long,
+        val failed: Long,
+        val avgMs: Double,
+        val maxMs: Double,
+    )
+
+    /**
+     * Runs [block] and records its duration under [method]; exceptions count as failures,
+     * cancellation is not recorded.
+     */
+    suspend fun <T> record(method: String, block: suspend () -> T): T {
+        val counters = methods.computeIfAbsent(method) { Counters() }
+        val start = System.nanoTime()
+        try {
+            val result = block()
+            counters.add(System.nanoTime() - start, failed = false)
+            return result
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            counters.add(System.nanoTime() - start, failed = true)
+            throw e
+        }
+    }
+
+    fun stats(): List<Stats> = methods.entries
+        .sortedBy { it.key }
+        .map { (method, counters) -> counters.snapshot(method) }
+
+    private class Counters {
+
+        private val calls = AtomicLong()
+        private val failed = AtomicLong()
+        private val totalNs = AtomicLong()
+        private val maxNs = AtomicLong()
+
+        fun add(elapsedNs: Long, failed: Boolean) {
+            calls.incrementAndGet()
+            if (failed) this.failed.incrementAndGet()
+            totalNs.addAndGet(elapsedNs)
+            maxNs.accumulateAndGet(elapsedNs, ::maxOf)
+        }
+
+        fun snapshot(method: String): Stats {
+            val count = calls.get()
+            return Stats(
+                method = method,
+                calls = count,
+                failed = failed.get(),
+                avgMs = if (count == 0L) 0.0 else totalNs.get() / count / 1_000_000.0,
+                maxMs = maxNs.get() / 1_000_000.0
+            )
+        }
+
+    }
+
+}
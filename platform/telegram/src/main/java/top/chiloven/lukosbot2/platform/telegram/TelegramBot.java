@@ -17,7 +17,7 @@
  */
 package top.chiloven.lukosbot2.platform.telegram;
 
-import org.telegram.telegrambots.longpolling.util.LongPollingSingleThreadUpdateConsumer;
+import org.telegram.telegrambots.longpolling.interfaces.LongPollingUpdateConsumer;
 import org.telegram.telegrambots.meta.api.objects.Document;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.User;
@@ -34,15 +34,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
-final class TelegramBot implements LongPollingSingleThreadUpdateConsumer {
+/**
+ * Long-polling consumer that turns updates into {@link InboundMessage}s.
+ *
+ * <p>Each batch of updates is split by chat. Chats are handled in parallel on a bounded pool, while
+ * the updates of one chat are handed over strictly in order, also across batches. A burst in one
+ * large group therefore no longer delays every other chat.</p>
+ */
+final class TelegramBot implements LongPollingUpdateConsumer, AutoCloseable {
 
     private final String username;
+    private final TelegramUpdateLanes lanes;
+    private final TelegramUpdateLag lag;
 
     private Consumer<InboundMessage> sink = _ -> {
     };
 
-    public TelegramBot(String username) {
+    TelegramBot(
+            String username,
+            int updateThreads,
+            TelegramUpdateLag lag
+    ) {
         this.username = username;
+        this.lanes = new TelegramUpdateLanes(updateThreads);
+        this.lag = lag;
     }
 
     /**
@@ -56,7 +71,32 @@ final class TelegramBot implements LongPollingSingleThreadUpdateConsumer {
     }
 
     @Override
-    public void consume(Update u) {
+    public void consume(List<Update> updates) {
+        long receivedAt = System.nanoTime();
+
+        Map<Long, List<Update>> byChat = new LinkedHashMap<>();
+        for (Update u : updates) {
+            if (u == null || u.getMessage() == null) continue;
+            byChat.computeIfAbsent(u.getMessage().getChatId(), _ -> new ArrayList<>()).add(u);
+        }
+
+        byChat.forEach((chatId, chatUpdates) -> lanes.submit(chatId, () -> {
+            for (Update u : chatUpdates) {
+                consume(u);
+                lag.record(System.nanoTime() - receivedAt);
+            }
+        }));
+    }
+
+    /**
+     * Stops handling new updates; updates that were already received are still handed over.
+     */
+    @Override
+    public void close() {
+        lanes.close();
+    }
+
+    void consume(Update u) {
         if (u == null) return;
         Message m = u.getMessage();
         if (m == null) return;
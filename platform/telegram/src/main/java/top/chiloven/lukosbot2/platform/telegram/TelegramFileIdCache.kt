@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import org.apache.logging.log4j.LogManager
+import top.chiloven.lukosbot2.core.state.Scope
+import top.chiloven.lukosbot2.core.state.store.IStateStore
+import top.chiloven.lukosbot2.util.JsonUtils.MAPPER
+import top.chiloven.lukosbot2.util.ShaUtils
+
+/**
+ * Remembers the `file_id` Telegram assigned to uploaded content, so sending the same bytes again
+ * references the stored file instead of uploading it.
+ *
+ * Entries are keyed by content SHA-256 and kind; documents also include the file name, because a
+ * reused document keeps the name it was uploaded with. They are persisted in [IStateStore] and
+ * bounded to [maxEntries], least recently used first out. Usage times are written back at most once
+ * per [TOUCH_INTERVAL_MS], so a hit rarely costs a store write.
+ */
+class TelegramFileIdCache @JvmOverloads constructor(
+    private val store: IStateStore,
+    private val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    private val clock: () -> Long = System::currentTimeMillis,
+) {
+
+    enum class Kind {
+        PHOTO,
+        DOCUMENT
+    }
+
+    data class Entry(
+        val fileId: String = "",
+        val lastUsed: Long = 0,
+    )
+
+    private val lock = Any()
+    private var entries: LinkedHashMap<String, Entry>? = null
+
+    fun key(
+        kind: Kind,
+        bytes: ByteArray,
+        name: String?,
+    ): String {
+        val hasher = ShaUtils.Hasher()
+        hasher.update(bytes, 0, bytes.size)
+        if (kind == Kind.DOCUMENT) {
+            val nameBytes = name.orEmpty().toByteArray()
+            hasher.update(byteArrayOf(0), 0, 1)
+            hasher.update(nameBytes, 0, nameBytes.size)
+        }
+        return kind.name.lowercase() + ":" + hasher.hex()
+    }
+
+    fun get(key: String): String? = synchronized(lock) {
+        val map = loaded()
+        val entry = map[key] ?: return null
+        val now = clock()
+        if (now - entry.lastUsed >= TOUCH_INTERVAL_MS) {
+            val touched = entry.copy(lastUsed = now)
+            map[key] = touched
+            write(key, touched)
+        }
+        entry.fileId
+    }
+
+    fun put(key: String, fileId: String) {
+        if (fileId.isBlank()) return
+        synchronized(lock) {
+            val map = loaded()
+            val entry = Entry(fileId, clock())
+            map[key] = entry
+            write(key, entry)
+            val iterator = map.keys.iterator()
+            while (map.size > maxEntries && iterator.hasNext()) {
+                val eldest = iterator.next()
+                iterator.remove()
+                store.delete(SCOPE, NAMESPACE, eldest)
+            }
+        }
+    }
+
+    /**
+     * Drops [key], for example after Telegram rejected its `file_id`.
+     */
+    fun remove(key: String) {
+        synchronized(lock) {
+            if (loaded().remove(key) != null) store.delete(SCOPE, NAMESPACE, key)
+        }
+    }
+
+    fun size(): Int = synchronized(lock) { loaded().size }
+
+    private fun loaded(): LinkedHashMap<String, Entry> {
+        entries?.let { return it }
+        val map = LinkedHashMap<String, Entry>(16, 0.75f, true)
+        store.getNamespaceJson(SCOPE, NAMESPACE)
+            .mapNotNull { (key, json) ->
+                try {
+                    key to MAPPER.readValue(json, Entry::class.java)
+                } catch (e: Exception) {
+                    log.warn("telegram file_id entry parse failed key={}", key, e)
+                    null
+                }
+            }
+            .sortedBy { it.second.lastUsed }
+            .forEach { (key, entry) -> map[key] = entry }
+        entries = map
+        return map
+    }
+
+    private fun write(key: String, entry: Entry) {
+        store.upsertJson(
+            SCOPE,
+            NAMESPACE,
+            key,
+            MAPPER.writeValueAsString(entry),
+            null
+        )
+    }
+
+    companion object {
+
+        private val log = LogManager.getLogger(TelegramFileIdCache::class.java)
+
+        private const val NAMESPACE = "telegram.file_id"
+        private val SCOPE: Scope = Scope.global()
+
+        const val DEFAULT_MAX_ENTRIES: Int = 5_000
+
+        /**
+         * Minimum time between persisted usage updates of one entry.
+         */
+        const val TOUCH_INTERVAL_MS: Long = 60L * 60 * 1000
+
+    }
+
+}
@@ -21,20 +21,52 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties
 import io.ktor.client.*
 import io.ktor.client.request.*
 import io.ktor.client.statement.*
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
 import top.chiloven.lukosbot2.config.AppProperties
 import top.chiloven.lukosbot2.core.model.message.media.LoadedPlatformMedia
 import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
 import top.chiloven.lukosbot2.http.readBytePayload
+import top.chiloven.lukosbot2.http.readChunks
 import top.chiloven.lukosbot2.http.requireSuccess
 import top.chiloven.lukosbot2.platform.PlatformFileLoader
+import top.chiloven.lukosbot2.util.HttpStatusException
 import top.chiloven.lukosbot2.util.JsonUtils
 import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.InvalidPathException
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
 
-class TelegramFileLoader(
+/**
+ * Downloads Telegram media by `file_id`.
+ *
+ * `getFile` results are cached for [FILE_PATH_TTL_MS]; Telegram keeps a `file_path` valid for at
+ * least an hour, so repeated reads of the same media skip the API round trip. Concurrent lookups
+ * of one `file_id` share a single `getFile` call.
+ *
+ * A self-hosted Bot API server running with `--local` returns absolute `file_path`s instead of
+ * download paths; those files are read straight from disk, which requires the server's working
+ * directory to be visible to the bot under the same path.
+ */
+class TelegramFileLoader @JvmOverloads constructor(
     private val appProperties: AppProperties,
-    private val http: HttpClient
+    private val http: HttpClient,
+    private val clock: () -> Long = System::currentTimeMillis,
 ) : PlatformFileLoader {
 
+    private val filePaths = ConcurrentHashMap<String, ResolvedFile>()
+    private val pending = ConcurrentHashMap<String, Deferred<ResolvedFile?>>()
+
+    private class ResolvedFile(
+        val filePath: String,
+        val fileSize: Long?,
+        val expiresAt: Long,
+    )
+
     @JsonIgnoreProperties(ignoreUnknown = true)
     private data class TelegramGetFileResponse(
         val ok: Boolean = false,
@@ -58,13 +90,118 @@ class TelegramFileLoader(
 
     @Throws(IOException::class)
     override suspend fun load(ref: PlatformFileRef): LoadedPlatformMedia {
-        val token = appProperties.telegram.botToken.trim()
-        if (token.isBlank()) {
-            throw IOException("Telegram 配置不完整，无法读取图片。")
+        localFile(ref)?.let { path ->
+            return withContext(Dispatchers.IO) {
+                LoadedPlatformMedia(
+                    Files.readAllBytes(path),
+                    path.fileName?.toString(),
+                    Files.probeContentType(path)
+                )
+            }
+        }
+
+        val fileUrl = resolveFileUrl(ref)
+        val payload = try {
+            http.get(fileUrl).readBytePayload()
+        } catch (e: HttpStatusException) {
+            if (e.statusCode != 404) throw e
+            // The cached file_path expired early; look it up once more.
+            filePaths.remove(ref.fileId())
+            http.get(resolveFileUrl(ref)).readBytePayload()
+        }
+        return LoadedPlatformMedia(
+            payload.bytes,
+            payload.fileName ?: fileUrl.substringAfterLast('/').ifBlank { null },
+            payload.mime
+        )
+    }
+
+    @Throws(IOException::class)
+    override suspend fun stream(ref: PlatformFileRef, consumer: (chunk: ByteArray, length: Int) -> Unit) {
+        localFile(ref)?.let { path ->
+            withContext(Dispatchers.IO) {
+                Files.newInputStream(path).use { input ->
+                    val buffer = ByteArray(LOCAL_CHUNK_SIZE)
+                    while (true) {
+                        val read = input.read(buffer)
+                        if (read == -1) break
+                        consumer(buffer, read)
+                    }
+                }
+            }
+            return
+        }
+
+        try {
+            http.prepareGet(resolveFileUrl(ref)).execute { it.readChunks(consumer) }
+        } catch (e: HttpStatusException) {
+            if (e.statusCode != 404) throw e
+            // The cached file_path expired early; look it up once more. The status is checked
+            // before the first chunk, so nothing has been consumed yet.
+            filePaths.remove(ref.fileId())
+            http.prepareGet(resolveFileUrl(ref)).execute { it.readChunks(consumer) }
         }
+    }
+
+    /**
+     * Size reported by `getFile`, if known; resolves and caches the file path as a side effect.
+     */
+    @Throws(IOException::class)
+    suspend fun fileSize(ref: PlatformFileRef): Long? = resolveFile(ref.fileId()).fileSize
 
-        val getFileResponse = http.get("https://api.telegram.org/bot$token/getFile") {
-            parameter("file_id", ref.fileId())
+    /**
+     * The file on disk if the Bot API server runs in local mode, `null` for a download path.
+     */
+    private suspend fun localFile(ref: PlatformFileRef): Path? {
+        val filePath = resolveFile(ref.fileId()).filePath
+        val path = try {
+            Path.of(filePath)
+        } catch (_: InvalidPathException) {
+            return null
+        }
+        if (!path.isAbsolute) return null
+        if (!Files.isReadable(path)) {
+            throw IOException("无法读取 Telegram Bot API 本地文件：$filePath")
+        }
+        return path
+    }
+
+    private suspend fun resolveFileUrl(ref: PlatformFileRef): String =
+        "${apiBaseUrl()}/file/bot${token()}/${resolveFile(ref.fileId()).filePath}"
+
+    private suspend fun resolveFile(fileId: String): ResolvedFile {
+        while (true) {
+            filePaths[fileId]?.takeIf { it.expiresAt > clock() }?.let { return it }
+
+            val mine = CompletableDeferred<ResolvedFile?>()
+            val running = pending.putIfAbsent(fileId, mine)
+            if (running != null) {
+                // null means the resolving caller was cancelled; try again, possibly as the resolver.
+                running.await()?.let { return it }
+                continue
+            }
+
+            try {
+                val resolved = fetchFile(fileId)
+                if (filePaths.size >= MAX_CACHED_PATHS) evictExpired()
+                filePaths[fileId] = resolved
+                mine.complete(resolved)
+                return resolved
+            } catch (e: CancellationException) {
+                mine.complete(null)
+                throw e
+            } catch (e: Throwable) {
+                mine.completeExceptionally(e)
+                throw e
+            } finally {
+                pending.remove(fileId, mine)
+            }
+        }
+    }
+
+    private suspend fun fetchFile(fileId: String): ResolvedFile {
+        val getFileResponse = http.get("${apiBaseUrl()}/bot${token()}/getFile") {
+            parameter("file_id", fileId)
         }.requireSuccess()
 
         val text = getFileResponse.bodyAsText()
@@ -72,16 +209,43 @@ class TelegramFileLoader(
             text,
             TelegramGetFileResponse::class.java
         )
-        val filePath = getFileResult.result?.filePath?.takeIf { it.isNotBlank() }
+        val file = getFileResult.result
+        val filePath = file?.filePath?.takeIf { it.isNotBlank() }
             ?: throw IOException("Telegram 未返回文件路径：${getFileResult.description ?: "未知错误"}")
-
-        val payload = http.get("https://api.telegram.org/file/bot$token/$filePath")
-                .readBytePayload()
-        return LoadedPlatformMedia(
-            payload.bytes,
-            payload.fileName ?: filePath.substringAfterLast('/').ifBlank { null },
-            payload.mime
+        return ResolvedFile(
+            filePath,
+            file.fileSize,
+            clock() + FILE_PATH_TTL_MS
         )
     }
 
+    private fun evictExpired() {
+        val now = clock()
+        filePaths.values.removeIf { it.expiresAt <= now }
+        if (filePaths.size >= MAX_CACHED_PATHS) filePaths.clear()
+    }
+
+    private fun token(): String = appProperties.telegram.botToken.trim().ifBlank {
+        throw IOException("Telegram 配置不完整，无法读取图片。")
+    }
+
+    private fun apiBaseUrl(): String = try {
+        TelegramApiBaseUrl.parse(appProperties.telegram.apiBaseUrl).toString()
+    } catch (e: IllegalArgumentException) {
+        throw IOException("Telegram Bot API 地址配置无效：${appProperties.telegram.apiBaseUrl}", e)
+    }
+
+    companion object {
+
+        /**
+         * How long a `file_path` is reused; Telegram guarantees at least one hour.
+         */
+        const val FILE_PATH_TTL_MS: Long = 50L * 60 * 1000
+
+        private const val MAX_CACHED_PATHS = 10_000
+
+        private const val LOCAL_CHUNK_SIZE = 64 * 1024
+
+    }
+
 }
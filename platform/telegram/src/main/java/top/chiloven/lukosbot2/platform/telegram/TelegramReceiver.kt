@@ -31,18 +31,42 @@ import top.chiloven.lukosbot2.platform.ISender
 
 /**
  * Telegram receiver: bridges the blocking Telegram SDK update consumer into a coroutine [Flow].
+ *
+ * Updates are received by long polling, or through an embedded webhook endpoint when [webhook] is
+ * given.
  */
 class TelegramReceiver(
     token: String,
     username: String,
     private val blockingDispatcher: CoroutineDispatcher = Dispatchers.IO,
+    private val fileIds: TelegramFileIdCache? = null,
+    updateThreads: Int = DEFAULT_UPDATE_THREADS,
+    webhook: TelegramWebhookServer.Options? = null,
+    apiBaseUrl: String,
 ) : IReceiver {
 
     private val log = LogManager.getLogger(TelegramReceiver::class.java)
 
-    private val stack = TelegramStack(token, username)
+    /**
+     * Delay between receiving updates and handing them to [messages].
+     */
+    val updateLag = TelegramUpdateLag()
+
+    private val stack = TelegramStack(
+        token,
+        username,
+        updateThreads,
+        updateLag,
+        webhook,
+        apiBaseUrl
+    )
     private val channel = Channel<InboundMessage>(Channel.UNLIMITED)
 
+    /**
+     * Call latency and failures of the Bot API requests made by [sender].
+     */
+    val apiMetrics = TelegramApiMetrics()
+
     override val platform: ChatPlatform
         get() = ChatPlatform.TELEGRAM
 
@@ -74,6 +98,17 @@ class TelegramReceiver(
         }
     }
 
-    fun sender(): ISender = TelegramSender(stack, blockingDispatcher)
+    fun sender(): ISender = TelegramSender(
+        stack,
+        blockingDispatcher,
+        fileIds,
+        apiMetrics
+    )
+
+    companion object {
+
+        const val DEFAULT_UPDATE_THREADS: Int = 4
+
+    }
 
 }
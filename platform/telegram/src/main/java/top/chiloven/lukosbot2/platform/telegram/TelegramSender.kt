@@ -17,14 +17,21 @@
  */
 package top.chiloven.lukosbot2.platform.telegram
 
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.future.await
 import kotlinx.coroutines.withContext
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument
+import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage
 import org.telegram.telegrambots.meta.api.methods.send.SendPhoto
+import org.apache.logging.log4j.LogManager
 import org.telegram.telegrambots.meta.api.objects.InputFile
+import org.telegram.telegrambots.meta.api.objects.media.InputMediaPhoto
+import org.telegram.telegrambots.meta.api.objects.message.Message
 import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.FileRef
 import top.chiloven.lukosbot2.core.model.message.media.MediaRef
 import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
 import top.chiloven.lukosbot2.core.model.message.media.UrlRef
@@ -32,9 +39,13 @@ import top.chiloven.lukosbot2.core.model.message.outbound.OutFile
 import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
 import top.chiloven.lukosbot2.core.model.message.outbound.OutText
 import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
+import top.chiloven.lukosbot2.platform.BatchFailures
 import top.chiloven.lukosbot2.platform.ISender
+import top.chiloven.lukosbot2.util.HttpStatusException
 import top.chiloven.lukosbot2.util.message.OutboundPartUtils
 import java.io.ByteArrayInputStream
+import java.io.UncheckedIOException
+import java.util.concurrent.CompletableFuture
 
 /**
  * Telegram sender that translates [OutboundMessage] into Telegram API calls.
@@ -42,104 +53,325 @@ import java.io.ByteArrayInputStream
  * <p>Supports ordered, mixed content via {@link OutboundMessage#parts()}:
  * text, image and file. When {@code DeliveryHints.preferCaption()} is enabled, the sender will try to merge an adjacent
  * text part into a media caption for a better user experience.</p>
+ *
+ * <p>API calls use the asynchronous client and suspend until Telegram answers, so a send does not
+ * hold a thread for its round trips. Parts of one message are still sent strictly in order, and
+ * {@code MessageSenderHub} keeps messages of one chat in order while other chats proceed. The
+ * client runs up to {@code TelegramStack.MAX_CONCURRENT_REQUESTS} calls at once, more than the hub's
+ * 32 lanes, so parallel chats are not serialized inside OkHttp.</p>
+ *
+ * <p>With a {@link TelegramFileIdCache}, in-memory media that was uploaded before is sent by its
+ * {@code file_id} instead of being uploaded again.</p>
  */
 internal class TelegramSender(
-    private val stack: TelegramStack,
+    private val api: ITelegramApi,
     private val blockingDispatcher: CoroutineDispatcher = Dispatchers.IO,
+    private val fileIds: TelegramFileIdCache? = null,
+    private val metrics: TelegramApiMetrics = TelegramApiMetrics(),
 ) : ISender {
 
-    override suspend fun send(out: OutboundMessage) {
-        withContext(blockingDispatcher) {
-            val chatId = out.addr().chatId().toString()
-            val parts = out.parts().orEmpty()
-            if (parts.isEmpty()) return@withContext
+    private val log = LogManager.getLogger(TelegramSender::class.java)
+
+    override suspend fun send(out: OutboundMessage) = sendBatch(listOf(out))
 
-            val normalized = OutboundPartUtils.mergeAdjacentTextParts(parts)
+    /**
+     * Sends [outs] in order, with runs of consecutive photos (also across messages) combined into
+     * `sendMediaGroup` calls of up to [MAX_MEDIA_GROUP]. A group that fails is retried photo by
+     * photo, so a failure affects the same messages as on the one-by-one path; a failed message
+     * skips its remaining parts.
+     */
+    override suspend fun sendBatch(outs: List<OutboundMessage>) {
+        val steps = outs.flatMapIndexed { index, out -> plan(index, out) }
+        val failures = BatchFailures()
+        val failed = HashSet<Int>()
+
+        var i = 0
+        while (i < steps.size) {
+            val step = steps[i]
+            if (step.message in failed) {
+                i++
+                continue
+            }
 
-            val preferCaption = out.hints() != null && out.hints().preferCaption()
+            val group = photoGroupAt(steps, i, failed)
+            if (group.size > 1) {
+                try {
+                    sendPhotoGroup(group)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    log.debug("Telegram media group failed, sending {} photos one by one: {}", group.size, e.message)
+                    group.forEach { runStep(it, failures, failed) }
+                }
+                i += group.size
+                continue
+            }
+
+            runStep(step, failures, failed)
+            i++
+        }
+        failures.throwIfAny()
+    }
 
-            var i = 0
-            while (i < normalized.size) {
-                when (val p = normalized[i]) {
-                    is OutText -> {
-                        val text = OutboundPartUtils.safeText(p.text())
-                        if (text.isBlank()) {
-                            i++
+    /**
+     * Translates one message into API calls, merging a text into the caption of the following media
+     * when the message prefers captions.
+     */
+    private fun plan(index: Int, out: OutboundMessage): List<Step> {
+        val chatId = out.addr().chatId().toString()
+        val parts = out.parts().orEmpty()
+        if (parts.isEmpty()) return emptyList()
+
+        val normalized = OutboundPartUtils.mergeAdjacentTextParts(parts)
+
+        val preferCaption = out.hints() != null && out.hints().preferCaption()
+
+        val steps = ArrayList<Step>()
+        var i = 0
+        while (i < normalized.size) {
+            when (val p = normalized[i]) {
+                is OutText -> {
+                    val text = OutboundPartUtils.safeText(p.text())
+                    if (text.isBlank()) {
+                        i++
+                        continue
+                    }
+
+                    // If next part is media and prefers caption, try to attach this text as caption.
+                    if (preferCaption && i + 1 < normalized.size) {
+                        val next = normalized[i + 1]
+                        if (next is OutImage && (next.caption().isNullOrBlank())) {
+                            steps += Step.Photo(index, chatId, next, text)
+                            i += 2 // consume next
                             continue
                         }
 
-                        // If next part is media and prefers caption, try to attach this text as caption.
-                        if (preferCaption && i + 1 < normalized.size) {
-                            val next = normalized[i + 1]
-                            if (next is OutImage && (next.caption().isNullOrBlank())) {
-                                sendPhoto(chatId, next, text)
-                                i += 2 // consume next
-                                continue
-                            }
-
-                            if (next is OutFile && next.caption().isNullOrBlank()) {
-                                sendDocument(chatId, next, text)
-                                i += 2 // consume next
-                                continue
-                            }
+                        if (next is OutFile && next.caption().isNullOrBlank()) {
+                            steps += Step.Document(index, chatId, next, text)
+                            i += 2 // consume next
+                            continue
                         }
-
-                        sendText(chatId, text)
                     }
 
-                    is OutImage -> sendPhoto(
-                        chatId,
-                        p,
-                        OutboundPartUtils.safeText(p.caption())
-                    )
-                    is OutFile -> sendDocument(
-                        chatId,
-                        p,
-                        OutboundPartUtils.safeText(p.caption())
-                    )
+                    steps += Step.Text(index, chatId, text)
                 }
-                i++
+
+                is OutImage -> steps += Step.Photo(
+                    index,
+                    chatId,
+                    p,
+                    OutboundPartUtils.safeText(p.caption())
+                )
+                is OutFile -> steps += Step.Document(
+                    index,
+                    chatId,
+                    p,
+                    OutboundPartUtils.safeText(p.caption())
+                )
+            }
+            i++
+        }
+        return steps
+    }
+
+    private suspend fun runStep(
+        step: Step,
+        failures: BatchFailures,
+        failed: MutableSet<Int>
+    ) {
+        if (step.message in failed) return
+        val ok = failures.attempt {
+            when (step) {
+                is Step.Text -> sendText(step.chatId, step.text)
+                is Step.Photo -> sendPhoto(step.chatId, step.image, step.caption)
+                is Step.Document -> sendDocument(step.chatId, step.file, step.caption)
+            }
+        }
+        if (!ok) failed += step.message
+    }
+
+    private fun photoGroupAt(
+        steps: List<Step>,
+        start: Int,
+        failed: Set<Int>
+    ): List<Step.Photo> {
+        val first = steps[start] as? Step.Photo ?: return emptyList()
+        val group = ArrayList<Step.Photo>()
+        var i = start
+        while (i < steps.size && group.size < MAX_MEDIA_GROUP) {
+            val step = steps[i] as? Step.Photo ?: break
+            if (step.chatId != first.chatId || step.message in failed || step.image.ref() == null) break
+            group += step
+            i++
+        }
+        return group
+    }
+
+    private suspend fun sendPhotoGroup(group: List<Step.Photo>) {
+        val cache = fileIds
+        val keys = arrayOfNulls<String>(group.size)
+        val medias = group.mapIndexed { index, step ->
+            val ref = step.image.ref()
+            val cachedFileId = if (cache != null && ref is BytesRef) {
+                val key = cache.key(
+                    TelegramFileIdCache.Kind.PHOTO,
+                    ref.bytes(),
+                    null
+                )
+                keys[index] = key
+                withContext(blockingDispatcher) { cache.get(key) }
+            } else {
+                null
             }
+            toInputMediaPhoto(
+                index,
+                step,
+                cachedFileId
+            )
+        }
+
+        val sm = SendMediaGroup.builder()
+                .chatId(group[0].chatId)
+                .medias(medias)
+                .build()
+        val messages = call("sendMediaGroup") { api.executeAsync(sm) }
+
+        if (cache == null) return
+        messages.zip(keys.asList()).forEach { (message, key) ->
+            val fileId = message.photo?.lastOrNull()?.fileId
+            if (key != null && fileId != null) withContext(blockingDispatcher) { cache.put(key, fileId) }
         }
     }
 
-    private fun sendPhoto(
+    private fun toInputMediaPhoto(
+        index: Int,
+        step: Step.Photo,
+        cachedFileId: String?
+    ): InputMediaPhoto {
+        val caption = step.caption.ifBlank { null }
+        fun existing(media: String) = InputMediaPhoto.builder()
+                .media(media)
+                .caption(caption)
+                .build()
+
+        if (cachedFileId != null) return existing(cachedFileId)
+        val img = step.image
+        // Attachment names must be unique within one request.
+        return when (val ref = img.ref()) {
+            is BytesRef -> existing("attach://photo$index").apply {
+                setMedia(ByteArrayInputStream(ref.bytes()), "$index-" + bytesName(ref, img.name(), img.mime()))
+            }
+
+            is FileRef -> existing("attach://photo$index").apply {
+                setMedia(ref.path().toFile(), "$index-" + ref.fileName())
+            }
+
+            is UrlRef -> existing(ref.url())
+            is PlatformFileRef -> existing(ref.fileId())
+            null -> throw IllegalArgumentException("Photo without media reference")
+        }
+    }
+
+    private suspend fun sendPhoto(
         chatId: String,
         img: OutImage?,
         caption: String
     ) {
         if (img == null) return
-        val sp = SendPhoto.builder()
-                .chatId(chatId)
-                .photo(toInputFile(img.ref(), img.name(), img.mime()))
-                .caption(caption.ifBlank { null })
-                .build()
-        stack.execute(sp)
+        sendMedia(
+            img.ref(),
+            img.name(),
+            img.mime(),
+            TelegramFileIdCache.Kind.PHOTO,
+            { it.photo?.lastOrNull()?.fileId }
+        ) { input ->
+            val sp = SendPhoto.builder()
+                    .chatId(chatId)
+                    .photo(input)
+                    .caption(caption.ifBlank { null })
+                    .build()
+            call("sendPhoto") { api.executeAsync(sp) }
+        }
     }
 
-    private fun sendDocument(
+    private suspend fun sendDocument(
         chatId: String,
         f: OutFile?,
         caption: String
     ) {
         if (f == null) return
-        val sd = SendDocument.builder()
-                .chatId(chatId)
-                .document(toInputFile(f.ref(), f.name(), f.mime()))
-                .caption(caption.ifBlank { null })
-                .build()
-        stack.execute(sd)
+        sendMedia(
+            f.ref(),
+            f.name(),
+            f.mime(),
+            TelegramFileIdCache.Kind.DOCUMENT,
+            { it.document?.fileId }
+        ) { input ->
+            val sd = SendDocument.builder()
+                    .chatId(chatId)
+                    .document(input)
+                    .caption(caption.ifBlank { null })
+                    .build()
+            call("sendDocument") { api.executeAsync(sd) }
+        }
+    }
+
+    /**
+     * Sends [ref] through [execute], reusing a known `file_id` for [BytesRef] content and recording
+     * the one Telegram assigns to a new upload.
+     */
+    private suspend fun sendMedia(
+        ref: MediaRef?,
+        name: String?,
+        mime: String?,
+        kind: TelegramFileIdCache.Kind,
+        fileIdOf: (Message) -> String?,
+        execute: suspend (InputFile) -> Message?,
+    ) {
+        val cache = fileIds
+        if (cache == null || ref !is BytesRef) {
+            execute(toInputFile(ref, name, mime))
+            return
+        }
+
+        val key = cache.key(
+            kind,
+            ref.bytes(),
+            bytesName(ref, name, mime)
+        )
+        // The cache is backed by the blocking state store.
+        withContext(blockingDispatcher) { cache.get(key) }?.let { fileId ->
+            try {
+                execute(InputFile(fileId))
+                return
+            } catch (e: UncheckedIOException) {
+                // Telegram answers 400 for a file_id it no longer accepts; upload the bytes instead.
+                if ((e.cause as? HttpStatusException)?.statusCode != 400) throw e
+                log.debug("Cached Telegram file_id rejected, uploading again: {}", e.message)
+                withContext(blockingDispatcher) { cache.remove(key) }
+            }
+        }
+
+        execute(toInputFile(ref, name, mime))
+            ?.let(fileIdOf)
+            ?.let { withContext(blockingDispatcher) { cache.put(key, it) } }
     }
 
-    private fun sendText(chatId: String, text: String) {
+    private suspend fun sendText(chatId: String, text: String) {
         if (text.isBlank()) return
         val sm = SendMessage.builder()
                 .chatId(chatId)
                 .text(text)
                 .build()
-        stack.execute(sm)
+        call("sendMessage") { api.executeAsync(sm) }
     }
 
+    /**
+     * Awaits an asynchronous Bot API call without holding a thread, recording it in [metrics].
+     */
+    private suspend fun <T> call(method: String, request: () -> CompletableFuture<T>): T =
+        metrics.record(method) { request().await() }
+
     private fun toInputFile(
         ref: MediaRef?,
         name: String?,
@@ -147,14 +379,17 @@ internal class TelegramSender(
     ): InputFile {
         return when (ref) {
             null -> InputFile("about:blank")
-            is BytesRef -> {
+            is BytesRef -> InputFile(ByteArrayInputStream(ref.bytes()), bytesName(ref, name, mime))
+
+            is FileRef -> {
                 val n = OutboundPartUtils.pickMediaName(
                     name,
-                    ref.name(),
+                    ref.fileName(),
                     mime,
                     true
                 )
-                InputFile(ByteArrayInputStream(ref.bytes()), n)
+                // Streamed from disk by the multipart upload, so large files never sit in memory.
+                InputFile(ref.path().toFile(), n)
             }
 
             is UrlRef -> InputFile(ref.url())
@@ -165,4 +400,55 @@ internal class TelegramSender(
         }
     }
 
+    private fun bytesName(
+        ref: BytesRef,
+        name: String?,
+        mime: String?
+    ): String = OutboundPartUtils.pickMediaName(
+        name,
+        ref.name(),
+        mime,
+        true
+    )
+
+
+    /**
+     * One Bot API call planned for message number [message] of a batch.
+     */
+    private sealed interface Step {
+
+        val message: Int
+        val chatId: String
+
+        class Text(
+            override val message: Int,
+            override val chatId: String,
+            val text: String,
+        ) : Step
+
+        class Photo(
+            override val message: Int,
+            override val chatId: String,
+            val image: OutImage,
+            val caption: String,
+        ) : Step
+
+        class Document(
+            override val message: Int,
+            override val chatId: String,
+            val file: OutFile,
+            val caption: String,
+        ) : Step
+
+    }
+
+    private companion object {
+
+        /**
+         * Largest album Telegram accepts in one `sendMediaGroup` call.
+         */
+        const val MAX_MEDIA_GROUP = 10
+
+    }
+
 }
@@ -17,41 +17,94 @@
  */
 package top.chiloven.lukosbot2.platform.telegram;
 
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.telegram.telegrambots.client.AbstractTelegramClient;
 import org.telegram.telegrambots.client.okhttp.OkHttpTelegramClient;
 import org.telegram.telegrambots.longpolling.TelegramBotsLongPollingApplication;
+import org.telegram.telegrambots.longpolling.util.DefaultGetUpdatesGenerator;
+import org.telegram.telegrambots.meta.TelegramUrl;
 import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod;
+import org.telegram.telegrambots.meta.api.methods.updates.DeleteWebhook;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup;
 import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
 import org.telegram.telegrambots.meta.api.objects.message.Message;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import top.chiloven.lukosbot2.util.HttpStatusException;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.io.UncheckedIOException;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-final class TelegramStack implements AutoCloseable {
+final class TelegramStack implements ITelegramApi, AutoCloseable {
+
+    /**
+     * Concurrent Bot API calls OkHttp may run; at least the number of chats {@code MessageSenderHub}
+     * sends to in parallel, so sends are not queued inside OkHttp behind its default of 5 per host.
+     */
+    static final int MAX_CONCURRENT_REQUESTS = 64;
 
     final String token, username;
     final AbstractTelegramClient client;
+    private final TelegramUrl telegramUrl;
+
+    private final int updateThreads;
+    private final TelegramUpdateLag updateLag;
+    /**
+     * Webhook endpoint settings, or {@code null} to receive updates by long polling.
+     */
+    private final TelegramWebhookServer.Options webhook;
 
     TelegramBot bot;
     private TelegramBotsLongPollingApplication app;
+    private TelegramWebhookServer webhookServer;
 
-    TelegramStack(String token, String username) {
+    TelegramStack(
+            String token,
+            String username,
+            int updateThreads,
+            TelegramUpdateLag updateLag,
+            TelegramWebhookServer.Options webhook,
+            String apiBaseUrl
+    ) {
         this.token = token;
         this.username = username;
-        this.client = new OkHttpTelegramClient(token);
+        this.telegramUrl = telegramUrl(apiBaseUrl);
+        this.client = new OkHttpTelegramClient(httpClient(), token, telegramUrl);
+        this.updateThreads = updateThreads;
+        this.updateLag = updateLag;
+        this.webhook = webhook;
     }
 
-    synchronized void ensureStarted() throws TelegramApiException {
-        if (bot != null && app != null) return;
+    synchronized void ensureStarted() throws TelegramApiException, IOException {
+        if (bot != null && (app != null || webhookServer != null)) return;
+
+        if (webhook != null) {
+            startWebhook();
+            return;
+        }
+
+        // getUpdates is refused while a webhook is set, e.g. after switching back from webhook mode.
+        try {
+            client.execute(DeleteWebhook.builder().build());
+        } catch (TelegramApiException _) {
+        }
 
         TelegramBotsLongPollingApplication newApp = new TelegramBotsLongPollingApplication();
-        TelegramBot newBot = new TelegramBot(username);
+        TelegramBot newBot = new TelegramBot(username, updateThreads, updateLag);
         try {
-            newApp.registerBot(token, newBot);
+            newApp.registerBot(
+                    token,
+                    () -> telegramUrl,
+                    new DefaultGetUpdatesGenerator(),
+                    newBot
+            );
             app = newApp;
             bot = newBot;
         } catch (TelegramApiException e) {
@@ -59,6 +112,31 @@ final class TelegramStack implements AutoCloseable {
                 newApp.stop();
             } catch (Exception _) {
             }
+            newBot.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Serves the webhook endpoint and feeds its updates into the same {@link TelegramBot} path as
+     * long polling; registers the webhook with Telegram when a public URL is configured.
+     */
+    private void startWebhook() throws TelegramApiException, IOException {
+        TelegramBot newBot = new TelegramBot(username, updateThreads, updateLag);
+        TelegramWebhookServer server = new TelegramWebhookServer(webhook, update -> newBot.consume(List.of(update)));
+        try {
+            server.start();
+            if (!webhook.getPublicUrl().isBlank()) {
+                client.execute(SetWebhook.builder()
+                        .url(webhook.getPublicUrl())
+                        .secretToken(webhook.getSecretToken())
+                        .build());
+            }
+            webhookServer = server;
+            bot = newBot;
+        } catch (TelegramApiException | IOException | RuntimeException e) {
+            server.close();
+            newBot.close();
             throw e;
         }
     }
@@ -66,11 +144,24 @@ final class TelegramStack implements AutoCloseable {
     @Override
     public synchronized void close() throws TelegramApiException {
         TelegramBotsLongPollingApplication oldApp = app;
+        TelegramWebhookServer oldServer = webhookServer;
+        TelegramBot oldBot = bot;
         app = null;
+        webhookServer = null;
         bot = null;
 
-        if (oldApp != null) {
-            oldApp.stop();
+        try {
+            if (oldApp != null) {
+                oldApp.stop();
+            }
+            if (oldServer != null) {
+                // The webhook stays registered: other instances may still be serving it.
+                oldServer.close();
+            }
+        } finally {
+            if (oldBot != null) {
+                oldBot.close();
+            }
         }
     }
 
@@ -82,6 +173,35 @@ final class TelegramStack implements AutoCloseable {
         }
     }
 
+    private static OkHttpClient httpClient() {
+        var dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_CONCURRENT_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_CONCURRENT_REQUESTS);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /**
+     * Splits a Bot API base URL such as {@code http://127.0.0.1:8081} into the parts the SDK expects;
+     * a self-hosted {@code telegram-bot-api} server is addressed the same way as the public one.
+     *
+     * @throws IllegalArgumentException if the URL is rejected by {@link TelegramApiBaseUrl#parse}
+     */
+    static TelegramUrl telegramUrl(String apiBaseUrl) {
+        var uri = TelegramApiBaseUrl.parse(apiBaseUrl);
+        var scheme = uri.getScheme();
+
+        var port = (uri.getPort() != -1)
+                ? uri.getPort()
+                : ("http".equalsIgnoreCase(scheme) ? 80 : 443);
+        return TelegramUrl.builder()
+                .schema(scheme)
+                .host(uri.getHost())
+                .port(port)
+                .build();
+    }
+
     private static RuntimeException wrapTelegramApiException(TelegramApiException e) {
         Integer statusCode = reflectInt(e, "getErrorCode", "getStatusCode", "getStatus");
         if (statusCode == null) {
@@ -135,6 +255,65 @@ final class TelegramStack implements AutoCloseable {
         return e.getMessage();
     }
 
+    @Override
+    public <T extends Serializable, M extends BotApiMethod<T>> CompletableFuture<T> executeAsync(M method) {
+        try {
+            return unwrapAsync(client.executeAsync(method));
+        } catch (Exception e) {
+            return failedAsync(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendPhoto method) {
+        try {
+            return unwrapAsync(client.executeAsync(method));
+        } catch (Exception e) {
+            return failedAsync(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Message> executeAsync(SendDocument method) {
+        try {
+            return unwrapAsync(client.executeAsync(method));
+        } catch (Exception e) {
+            return failedAsync(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Message>> executeAsync(SendMediaGroup method) {
+        try {
+            return unwrapAsync(client.executeAsync(method).thenApply(messages -> List.copyOf(messages)));
+        } catch (Exception e) {
+            return failedAsync(e);
+        }
+    }
+
+    /**
+     * Completes with the same exceptions as the blocking {@code execute} methods, without the
+     * {@link CompletionException} wrapper.
+     */
+    private static <T> CompletableFuture<T> unwrapAsync(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause()
+                    : error;
+            result.completeExceptionally(cause instanceof TelegramApiException e ? wrapTelegramApiException(e) : cause);
+        });
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> failedAsync(Exception e) {
+        return CompletableFuture.failedFuture(e instanceof TelegramApiException t ? wrapTelegramApiException(t) : e);
+    }
+
     Message execute(SendPhoto method) {
         try {
             return client.execute(method);
@@ -0,0 +1,53 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Time from receiving a batch of updates from Telegram until each update is handed to the
+ * dispatcher.
+ */
+class TelegramUpdateLag {
+
+    private val updates = AtomicLong()
+    private val totalNs = AtomicLong()
+    private val maxNs = AtomicLong()
+
+    data class Stats(
+        val updates: Long,
+        val avgMs: Double,
+        val maxMs: Double,
+    )
+
+    fun record(lagNs: Long) {
+        updates.incrementAndGet()
+        totalNs.addAndGet(lagNs)
+        maxNs.accumulateAndGet(lagNs, ::maxOf)
+    }
+
+    fun stats(): Stats {
+        val count = updates.get()
+        return Stats(
+            updates = count,
+            avgMs = if (count == 0L) 0.0 else totalNs.get() / count / 1_000_000.0,
+            maxMs = maxNs.get() / 1_000_000.0
+        )
+    }
+
+}
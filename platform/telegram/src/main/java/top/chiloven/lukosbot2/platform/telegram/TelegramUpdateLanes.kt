@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import org.apache.logging.log4j.LogManager
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.max
+
+/**
+ * Runs update handling on a bounded pool: tasks of one chat run strictly in submission order,
+ * tasks of different chats run in parallel.
+ *
+ * Each busy chat owns one pool task that drains the chat's queue, a few tasks per turn; a lane only
+ * exists while it has work, so idle chats cost nothing.
+ */
+internal class TelegramUpdateLanes(
+    threads: Int,
+) : AutoCloseable {
+
+    private val log = LogManager.getLogger(TelegramUpdateLanes::class.java)
+
+    private val threadIndex = AtomicInteger()
+    private val executor = Executors.newFixedThreadPool(max(1, threads)) { runnable ->
+        Thread(runnable, "lukos-telegram-updates-${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+    }
+
+    /** Pending tasks per chat; guarded by itself. A present key means the chat's drain task is scheduled. */
+    private val lanes = HashMap<Long, ArrayDeque<Runnable>>()
+    private var closed = false
+
+    /**
+     * Runs [task] after every task submitted earlier for [chatId]. A failing task is logged and
+     * does not stop its lane. Tasks submitted after [close] are dropped.
+     */
+    fun submit(chatId: Long, task: Runnable) {
+        synchronized(lanes) {
+            if (closed) {
+                log.warn("Telegram update lanes are closed; dropping update for chat {}", chatId)
+                return
+            }
+            val queue = lanes[chatId]
+            if (queue != null) {
+                queue.addLast(task)
+                return
+            }
+            lanes[chatId] = ArrayDeque<Runnable>().apply { addLast(task) }
+            executor.execute { drain(chatId) }
+        }
+    }
+
+    /**
+     * Stops accepting tasks and waits up to [CLOSE_TIMEOUT_SECONDS] for the queued ones to finish.
+     */
+    override fun close() {
+        synchronized(lanes) {
+            closed = true
+        }
+        executor.shutdown()
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("Telegram update lanes did not drain within {}s", CLOSE_TIMEOUT_SECONDS)
+            }
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    /**
+     * Runs up to [MAX_TASKS_PER_TURN] tasks of [chatId], then puts the lane back at the end of the
+     * pool's queue, so a busy chat cannot hold a thread while other chats wait.
+     */
+    private fun drain(chatId: Long) {
+        while (true) {
+            repeat(MAX_TASKS_PER_TURN) {
+                val task = synchronized(lanes) {
+                    val queue = lanes.getValue(chatId)
+                    queue.removeFirstOrNull() ?: run {
+                        lanes.remove(chatId)
+                        null
+                    }
+                } ?: return
+                try {
+                    task.run()
+                } catch (e: Exception) {
+                    log.warn("Telegram update handling failed for chat {}: {}", chatId, e.message, e)
+                }
+            }
+            try {
+                executor.execute { drain(chatId) }
+                return
+            } catch (_: RejectedExecutionException) {
+                // Closing: the pool takes no new tasks, so finish the lane on this thread.
+            }
+        }
+    }
+
+    companion object {
+
+        private const val CLOSE_TIMEOUT_SECONDS = 10L
+
+        /**
+         * Tasks one chat may run before yielding its pool thread.
+         */
+        private const val MAX_TASKS_PER_TURN = 32
+
+    }
+
+}
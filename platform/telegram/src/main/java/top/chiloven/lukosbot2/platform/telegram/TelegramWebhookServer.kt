@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import org.apache.logging.log4j.LogManager
+import org.telegram.telegrambots.meta.api.objects.Update
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.security.MessageDigest
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Consumer
+
+/**
+ * Embedded HTTP endpoint that receives Telegram webhook updates.
+ *
+ * Only `POST` requests to [Options.path] that carry the configured secret in the
+ * `X-Telegram-Bot-Api-Secret-Token` header are accepted; everything else is rejected before the
+ * body is read. An accepted update is handed to [consumer] and answered with `200` right away, so
+ * Telegram does not wait for the update to be handled.
+ */
+class TelegramWebhookServer(
+    private val options: Options,
+    private val consumer: Consumer<Update>,
+) : AutoCloseable {
+
+    private val log = LogManager.getLogger(TelegramWebhookServer::class.java)
+
+    private var server: HttpServer? = null
+    private var executor: ExecutorService? = null
+
+    /**
+     * Endpoint settings.
+     *
+     * @param publicUrl URL registered with Telegram's setWebhook, or blank to leave registration
+     *                  to someone else
+     */
+    data class Options(
+        val host: String,
+        val port: Int,
+        val path: String,
+        val secretToken: String,
+        val publicUrl: String,
+    ) {
+
+        init {
+            require(path.startsWith("/")) { "Webhook path must start with '/': $path" }
+            require(SECRET_TOKEN.matches(secretToken)) {
+                "Webhook secret token must be 1-256 characters of A-Z, a-z, 0-9, '_' and '-'"
+            }
+        }
+
+    }
+
+    /**
+     * The port the endpoint listens on; differs from [Options.port] when that is 0.
+     */
+    val port: Int
+        get() = server?.address?.port ?: options.port
+
+    @Synchronized
+    @Throws(IOException::class)
+    fun start() {
+        if (server != null) return
+
+        val threadIndex = AtomicInteger()
+        val pool = Executors.newFixedThreadPool(THREADS) { runnable ->
+            Thread(runnable, "lukos-telegram-webhook-${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+        }
+        try {
+            val s = HttpServer.create(InetSocketAddress(options.host, options.port), 0)
+            s.createContext(options.path, ::handle)
+            s.executor = pool
+            s.start()
+            server = s
+            executor = pool
+            log.info("Telegram webhook listening on {}:{}{}", options.host, port, options.path)
+        } catch (e: IOException) {
+            pool.shutdown()
+            throw e
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        server?.stop(0)
+        executor?.shutdown()
+        server = null
+        executor = null
+    }
+
+    private fun handle(exchange: HttpExchange) {
+        exchange.use {
+            val status = try {
+                receive(it)
+            } catch (e: Exception) {
+                log.warn("Telegram webhook request failed: {}", e.message, e)
+                500
+            }
+            it.sendResponseHeaders(status, -1)
+        }
+    }
+
+    private fun receive(exchange: HttpExchange): Int {
+        // The context matches by prefix, so "/telegram/webhook/x" would land here as well.
+        if (exchange.requestURI.path != options.path) return 404
+        if (exchange.requestMethod != "POST") return 405
+        if (!secretMatches(exchange.requestHeaders.getFirst(SECRET_HEADER))) return 401
+
+        val body = exchange.requestBody.readNBytes(MAX_BODY_BYTES + 1)
+        if (body.size > MAX_BODY_BYTES) return 413
+
+        val update = try {
+            MAPPER.readValue(body, Update::class.java)
+        } catch (e: IOException) {
+            log.debug("Ignoring malformed Telegram webhook update: {}", e.message)
+            return 400
+        }
+        consumer.accept(update)
+        return 200
+    }
+
+    private fun secretMatches(header: String?): Boolean =
+        header != null && MessageDigest.isEqual(
+            header.toByteArray(Charsets.UTF_8),
+            options.secretToken.toByteArray(Charsets.UTF_8)
+        )
+
+    companion object {
+
+        const val SECRET_HEADER: String = "X-Telegram-Bot-Api-Secret-Token"
+
+        private const val THREADS = 4
+
+        /**
+         * Updates are a few KiB; anything far beyond that is not from Telegram.
+         */
+        private const val MAX_BODY_BYTES = 1024 * 1024
+
+        private val SECRET_TOKEN = Regex("[A-Za-z0-9_-]{1,256}")
+
+        private val MAPPER = ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class TelegramApiMetricsTest {
+
+    @Test
+    fun `calls and failures are counted per method`() = runTest {
+        val metrics = TelegramApiMetrics()
+
+        repeat(3) { metrics.record("sendMessage") { "ok" } }
+        assertFailsWith<IOException> {
+            metrics.record("sendPhoto") { throw IOException("boom") }
+        }
+
+        val stats = metrics.stats().associateBy { it.method }
+        assertEquals(listOf("sendMessage", "sendPhoto"), stats.keys.toList())
+        assertEquals(3, stats.getValue("sendMessage").calls)
+        assertEquals(0, stats.getValue("sendMessage").failed)
+        assertEquals(1, stats.getValue("sendPhoto").calls)
+        assertEquals(1, stats.getValue("sendPhoto").failed)
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import org.junit.jupiter.api.Test
+import top.chiloven.lukosbot2.core.state.Scope
+import top.chiloven.lukosbot2.core.state.ScopeType
+import top.chiloven.lukosbot2.core.state.store.IStateStore
+import java.time.Instant
+import java.util.*
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
+
+class TelegramFileIdCacheTest {
+
+    internal class MapStateStore : IStateStore {
+
+        val values = LinkedHashMap<String, String>()
+
+        override fun getJson(
+            scope: Scope,
+            namespace: String,
+            key: String
+        ): Optional<String> = Optional.ofNullable(values["$namespace/$key"])
+
+        override fun getNamespaceJson(
+            scope: Scope,
+            namespace: String
+        ): Map<String, String> = values
+            .filterKeys { it.startsWith("$namespace/") }
+            .mapKeys { it.key.removePrefix("$namespace/") }
+
+        override fun upsertJson(
+            scope: Scope,
+            namespace: String,
+            key: String,
+            json: String,
+            expiresAtOrNull: Instant?
+        ) {
+            values["$namespace/$key"] = json
+        }
+
+        override fun delete(
+            scope: Scope,
+            namespace: String,
+            key: String
+        ) {
+            values.remove("$namespace/$key")
+        }
+
+        override fun scanByScopeTypeAndNamespace(
+            type: ScopeType,
+            namespace: String
+        ): Map<String, Map<String, String>> = emptyMap()
+
+    }
+
+    @Test
+    fun `least recently used entries are evicted and survive a reload`() {
+        val store = MapStateStore()
+        var now = 0L
+        val cache = TelegramFileIdCache(store, maxEntries = 2) { now }
+
+        cache.put("a", "id-a")
+        now = 1
+        cache.put("b", "id-b")
+        now = TelegramFileIdCache.TOUCH_INTERVAL_MS
+        assertEquals("id-a", cache.get("a"))
+        now++
+        cache.put("c", "id-c")
+
+        assertNull(cache.get("b"))
+        assertEquals(2, store.values.size)
+
+        // A new instance restores the recency order from the persisted usage times.
+        val reloaded = TelegramFileIdCache(store, maxEntries = 2) { now }
+        reloaded.put("d", "id-d")
+        assertNull(reloaded.get("a"))
+        assertEquals("id-c", reloaded.get("c"))
+    }
+
+    @Test
+    fun `document keys include the file name but photo keys do not`() {
+        val cache = TelegramFileIdCache(MapStateStore())
+        val bytes = byteArrayOf(1, 2, 3)
+
+        assertEquals(
+            cache.key(TelegramFileIdCache.Kind.PHOTO, bytes, "a.png"),
+            cache.key(TelegramFileIdCache.Kind.PHOTO, bytes, "b.png")
+        )
+        assertNotEquals(
+            cache.key(TelegramFileIdCache.Kind.DOCUMENT, bytes, "a.txt"),
+            cache.key(TelegramFileIdCache.Kind.DOCUMENT, bytes, "b.txt")
+        )
+        assertNotEquals(
+            cache.key(TelegramFileIdCache.Kind.PHOTO, bytes, null),
+            cache.key(TelegramFileIdCache.Kind.DOCUMENT, bytes, null)
+        )
+    }
+
+}
@@ -20,11 +20,21 @@ package top.chiloven.lukosbot2.platform.telegram
 import io.ktor.client.*
 import io.ktor.client.engine.mock.*
 import io.ktor.http.*
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.awaitCancellation
 import kotlinx.coroutines.test.runTest
+import kotlinx.coroutines.yield
 import org.junit.jupiter.api.Test
 import top.chiloven.lukosbot2.config.AppProperties
 import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertIs
 import kotlin.test.assertNotNull
 
 class TelegramFileLoaderTest {
@@ -82,4 +92,151 @@ class TelegramFileLoaderTest {
         assertEquals("photo_1.jpg", media.name())
     }
 
+    @Test
+    fun `file paths are cached per file id and resolved once for concurrent loads`() = runTest {
+        var getFileCalls = 0
+        val client = HttpClient(MockEngine) {
+            engine {
+                addHandler { request ->
+                    assertEquals("bot-api.local", request.url.host)
+                    when (request.url.encodedPath) {
+                        "/botmock_token/getFile" -> {
+                            getFileCalls++
+                            respond(
+                                content = """{"ok":true,"result":{"file_path":"documents/a.bin","file_size":3}}""",
+                                status = HttpStatusCode.OK,
+                                headers = headersOf(HttpHeaders.ContentType, "application/json")
+                            )
+                        }
+
+                        "/file/botmock_token/documents/a.bin" -> respond(
+                            content = byteArrayOf(7, 8, 9),
+                            status = HttpStatusCode.OK
+                        )
+
+                        else -> error("Unexpected url: ${request.url.encodedPath}")
+                    }
+                }
+            }
+        }
+        val appProps = AppProperties().apply {
+            telegram.botToken = "mock_token"
+            telegram.apiBaseUrl = "http://bot-api.local/"
+        }
+        var now = 0L
+        val loader = TelegramFileLoader(appProps, client) { now }
+        val ref = PlatformFileRef("telegram", "file_a")
+
+        List(3) { async { loader.load(ref) } }.awaitAll()
+        assertEquals(3L, loader.fileSize(ref))
+        assertEquals(1, getFileCalls)
+
+        now += TelegramFileLoader.FILE_PATH_TTL_MS
+        loader.load(ref)
+        assertEquals(2, getFileCalls)
+    }
+
+    @Test
+    fun `a base url with a path is rejected before any request`() = runTest {
+        val client = HttpClient(MockEngine) {
+            engine {
+                addHandler { request -> error("Unexpected url: ${request.url}") }
+            }
+        }
+        val appProps = AppProperties().apply {
+            telegram.botToken = "mock_token"
+            telegram.apiBaseUrl = "http://proxy.local/telegram"
+        }
+
+        val error = assertFailsWith<IOException> {
+            TelegramFileLoader(appProps, client).load(PlatformFileRef("telegram", "file_a"))
+        }
+        assertIs<IllegalArgumentException>(error.cause)
+    }
+
+    @Test
+    fun `a cancelled lookup lets a waiting caller resolve the file path`() = runTest {
+        var getFileCalls = 0
+        val firstCallStarted = CompletableDeferred<Unit>()
+        val client = HttpClient(MockEngine) {
+            engine {
+                addHandler { request ->
+                    when (request.url.encodedPath) {
+                        "/botmock_token/getFile" -> {
+                            if (++getFileCalls == 1) {
+                                firstCallStarted.complete(Unit)
+                                awaitCancellation()
+                            }
+                            respond(
+                                content = """{"ok":true,"result":{"file_path":"documents/a.bin","file_size":3}}""",
+                                status = HttpStatusCode.OK,
+                                headers = headersOf(HttpHeaders.ContentType, "application/json")
+                            )
+                        }
+
+                        else -> error("Unexpected url: ${request.url.encodedPath}")
+                    }
+                }
+            }
+        }
+        val appProps = AppProperties().apply {
+            telegram.botToken = "mock_token"
+        }
+        val loader = TelegramFileLoader(appProps, client)
+        val ref = PlatformFileRef("telegram", "file_a")
+
+        val first = async { loader.fileSize(ref) }
+        firstCallStarted.await()
+        val second = async { loader.fileSize(ref) }
+        // Let the second caller start waiting for the first one's lookup.
+        yield()
+        first.cancel()
+
+        assertEquals(3L, second.await())
+        assertEquals(2, getFileCalls)
+    }
+
+    @Test
+    fun `stream looks the file path up again after a 404`() = runTest {
+        var getFileCalls = 0
+        val client = HttpClient(MockEngine) {
+            engine {
+                addHandler { request ->
+                    when (request.url.encodedPath) {
+                        "/botmock_token/getFile" -> {
+                            val path = if (++getFileCalls == 1) "documents/old.bin" else "documents/new.bin"
+                            respond(
+                                content = """{"ok":true,"result":{"file_path":"$path"}}""",
+                                status = HttpStatusCode.OK,
+                                headers = headersOf(HttpHeaders.ContentType, "application/json")
+                            )
+                        }
+
+                        "/file/botmock_token/documents/old.bin" -> respond(
+                            content = "gone",
+                            status = HttpStatusCode.NotFound
+                        )
+
+                        "/file/botmock_token/documents/new.bin" -> respond(
+                            content = byteArrayOf(4, 5, 6),
+                            status = HttpStatusCode.OK
+                        )
+
+                        else -> error("Unexpected url: ${request.url.encodedPath}")
+                    }
+                }
+            }
+        }
+        val appProps = AppProperties().apply {
+            telegram.botToken = "mock_token"
+        }
+        val loader = TelegramFileLoader(appProps, client)
+        val out = ByteArrayOutputStream()
+
+        loader.stream(PlatformFileRef("telegram", "file_a")) { chunk, length -> out.write(chunk, 0, length) }
+
+        assertContentEquals(byteArrayOf(4, 5, 6), out.toByteArray())
+        assertEquals(2, getFileCalls)
+    }
+
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import io.ktor.client.*
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Test
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage
+import top.chiloven.lukosbot2.config.AppProperties
+import top.chiloven.lukosbot2.core.model.message.media.PlatformFileRef
+import top.chiloven.lukosbot2.util.PathUtils
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.nio.file.Files
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+/**
+ * Talks to a stub Bot API server on localhost, the way a self-hosted `telegram-bot-api` is used.
+ */
+class TelegramLocalBotApiTest {
+
+    @Test
+    fun `api calls go to the configured server`() = withStub { stub ->
+        stub.respond("/bot$TOKEN/sendMessage") {
+            """{"ok":true,"result":{"message_id":7,"date":1760000000,"chat":{"id":42,"type":"private"},"text":"hi"}}"""
+        }
+        val stack = TelegramStack(
+            TOKEN,
+            "lukos_bot",
+            1,
+            TelegramUpdateLag(),
+            null,
+            stub.baseUrl
+        )
+
+        val sent = stack.execute(SendMessage.builder().chatId("42").text("hi").build())
+
+        assertEquals(7, sent.messageId)
+        assertEquals(listOf("/bot$TOKEN/sendMessage"), stub.requests)
+        assertTrue(stub.bodies.single().contains("\"hi\""))
+    }
+
+    @Test
+    fun `files are downloaded from the configured server`() = runBlocking {
+        withStub { stub ->
+            stub.respond("/bot$TOKEN/getFile") { getFile("documents/file_3.bin") }
+            stub.respond("/file/bot$TOKEN/documents/file_3.bin") { "payload" }
+
+            val media = loader(stub).load(PlatformFileRef("telegram", "f1"))
+
+            assertContentEquals("payload".toByteArray(), media.bytes())
+            assertEquals(listOf("/bot$TOKEN/getFile", "/file/bot$TOKEN/documents/file_3.bin"), stub.requests)
+        }
+    }
+
+    @Test
+    fun `local mode file paths are read from disk`() = runBlocking {
+        val dir = Files.createTempDirectory("telegram-local-")
+        try {
+            withStub { stub ->
+                val file = dir.resolve("videos").resolve("file_9.mp4")
+                val data = ByteArray(200_000) { (it % 251).toByte() }
+                Files.createDirectories(file.parent)
+                Files.write(file, data)
+                stub.respond("/bot$TOKEN/getFile") { getFile(file.toAbsolutePath().toString()) }
+                val loader = loader(stub)
+                val ref = PlatformFileRef("telegram", "f9")
+
+                val media = loader.load(ref)
+                assertContentEquals(data, media.bytes())
+                assertEquals("file_9.mp4", media.name())
+
+                val streamed = ByteArrayOutputStream()
+                loader.stream(ref) { chunk, length -> streamed.write(chunk, 0, length) }
+                assertContentEquals(data, streamed.toByteArray())
+
+                Files.delete(file)
+                assertFailsWith<IOException> { loader.load(ref) }
+
+                // One cached getFile lookup; nothing was downloaded over HTTP.
+                assertEquals(listOf("/bot$TOKEN/getFile"), stub.requests)
+            }
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+    @Test
+    fun `base urls are split into scheme host and port`() {
+        val remote = TelegramStack.telegramUrl("https://api.telegram.org/")
+        assertEquals(listOf("https", "api.telegram.org", 443), listOf(remote.schema, remote.host, remote.port))
+
+        val local = TelegramStack.telegramUrl("http://127.0.0.1:8081")
+        assertEquals(listOf("http", "127.0.0.1", 8081), listOf(local.schema, local.host, local.port))
+
+        assertFailsWith<IllegalArgumentException> { TelegramStack.telegramUrl("http://proxy.local/telegram") }
+    }
+
+    private fun loader(stub: BotApiStub) = TelegramFileLoader(
+        AppProperties().apply {
+            telegram.botToken = TOKEN
+            telegram.apiBaseUrl = stub.baseUrl
+        },
+        HttpClient()
+    )
+
+    private fun getFile(filePath: String): String =
+        """{"ok":true,"result":{"file_id":"f","file_path":${jsonString(filePath)},"file_size":1}}"""
+
+    private fun jsonString(value: String): String =
+        "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+
+    private inline fun withStub(block: (BotApiStub) -> Unit) {
+        val stub = BotApiStub()
+        try {
+            block(stub)
+        } finally {
+            stub.close()
+        }
+    }
+
+    private class BotApiStub : AutoCloseable {
+
+        private val server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        private val routes = HashMap<String, () -> String>()
+
+        val requests = CopyOnWriteArrayList<String>()
+        val bodies = CopyOnWriteArrayList<String>()
+
+        val baseUrl: String
+            get() = "http://127.0.0.1:${server.address.port}"
+
+        init {
+            server.createContext("/", ::handle)
+            server.start()
+        }
+
+        fun respond(path: String, body: () -> String) {
+            routes[path] = body
+        }
+
+        private fun handle(exchange: HttpExchange) {
+            exchange.use {
+                val path = it.requestURI.path
+                requests += path
+                bodies += it.requestBody.readAllBytes().decodeToString()
+
+                val route = routes[path]
+                val response = (route?.invoke() ?: """{"ok":false,"error_code":404,"description":"Not Found"}""")
+                    .toByteArray()
+                it.responseHeaders.add("Content-Type", "application/json")
+                it.sendResponseHeaders(if (route == null) 404 else 200, response.size.toLong())
+                it.responseBody.write(response)
+            }
+        }
+
+        override fun close() {
+            server.stop(0)
+        }
+
+    }
+
+    private companion object {
+
+        const val TOKEN = "123:local"
+
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import kotlinx.coroutines.test.runTest
+import org.junit.jupiter.api.Test
+import org.telegram.telegrambots.meta.api.methods.botapimethods.BotApiMethod
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument
+import org.telegram.telegrambots.meta.api.methods.send.SendMediaGroup
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto
+import org.telegram.telegrambots.meta.api.objects.message.Message
+import org.telegram.telegrambots.meta.api.objects.photo.PhotoSize
+import top.chiloven.lukosbot2.core.model.message.Address
+import top.chiloven.lukosbot2.core.model.message.media.BytesRef
+import top.chiloven.lukosbot2.core.model.message.media.UrlRef
+import top.chiloven.lukosbot2.core.model.message.outbound.OutFile
+import top.chiloven.lukosbot2.core.model.message.outbound.OutImage
+import top.chiloven.lukosbot2.core.model.message.outbound.OutPart
+import top.chiloven.lukosbot2.core.model.message.outbound.OutText
+import top.chiloven.lukosbot2.core.model.message.outbound.OutboundMessage
+import top.chiloven.lukosbot2.platform.ChatPlatform
+import top.chiloven.lukosbot2.util.HttpStatusException
+import java.io.Serializable
+import java.io.UncheckedIOException
+import java.util.concurrent.CompletableFuture
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class TelegramSenderTest {
+
+    @Test
+    fun `photos are sent as media groups of at most ten`() = runTest {
+        val api = FakeApi()
+
+        TelegramSender(api).send(message(*Array(12) { photo("p$it") }))
+
+        assertEquals(
+            listOf(
+                "group:" + (0 until 10).joinToString(",") { urlOf("p$it") },
+                "group:" + urlOf("p10") + "," + urlOf("p11")
+            ),
+            api.calls
+        )
+    }
+
+    @Test
+    fun `a failed media group is sent photo by photo`() = runTest {
+        val api = FakeApi(fails = { it.startsWith("group:") })
+
+        TelegramSender(api).sendBatch(
+            listOf(
+                message(photo("a")),
+                message(photo("b"), OutText("done"))
+            )
+        )
+
+        assertEquals(
+            listOf(
+                "photo:" + urlOf("a"),
+                "photo:" + urlOf("b"),
+                "text:done"
+            ),
+            api.calls
+        )
+    }
+
+    @Test
+    fun `a failed part skips the rest of its message only`() = runTest {
+        val api = FakeApi(fails = { it == "photo:" + urlOf("bad") })
+
+        val error = assertFailsWith<IllegalStateException> {
+            TelegramSender(api).sendBatch(
+                listOf(
+                    message(photo("bad"), OutText("skipped"), document("skipped")),
+                    message(OutText("next"))
+                )
+            )
+        }
+
+        assertEquals("rejected photo:" + urlOf("bad"), error.message)
+        assertEquals(listOf("text:next"), api.calls)
+    }
+
+    @Test
+    fun `sending the same bytes again uses the cached file_id`() = runTest {
+        val api = FakeApi()
+        val sender = TelegramSender(api, fileIds = fileIds())
+
+        sender.send(message(bytesPhoto("a")))
+        sender.send(message(bytesPhoto("a")))
+
+        assertEquals(listOf("photo:upload", "photo:file-1"), api.calls)
+    }
+
+    @Test
+    fun `a rejected file_id is dropped and the bytes are uploaded again`() = runTest {
+        val api = FakeApi(
+            fails = { it == "photo:stale" },
+            failure = { UncheckedIOException(HttpStatusException(400)) }
+        )
+        val cache = fileIds()
+        val key = cache.key(
+            TelegramFileIdCache.Kind.PHOTO,
+            bytesOf("a"),
+            null
+        )
+        cache.put(key, "stale")
+
+        TelegramSender(api, fileIds = cache).send(message(bytesPhoto("a")))
+
+        assertEquals(listOf("photo:upload"), api.calls)
+        assertEquals("file-1", cache.get(key))
+    }
+
+    @Test
+    fun `media groups record the file_id of each photo`() = runTest {
+        val api = FakeApi()
+        val cache = fileIds()
+        val sender = TelegramSender(api, fileIds = cache)
+
+        sender.send(message(bytesPhoto("a"), bytesPhoto("b"), photo("url")))
+        assertEquals("file-1", cache.get(cache.key(TelegramFileIdCache.Kind.PHOTO, bytesOf("a"), null)))
+        assertEquals("file-2", cache.get(cache.key(TelegramFileIdCache.Kind.PHOTO, bytesOf("b"), null)))
+        assertEquals(2, cache.size())
+
+        sender.send(message(bytesPhoto("b"), bytesPhoto("a")))
+        assertEquals(
+            listOf(
+                "group:upload,upload," + urlOf("url"),
+                "group:file-2,file-1"
+            ),
+            api.calls
+        )
+    }
+
+    private fun fileIds() = TelegramFileIdCache(TelegramFileIdCacheTest.MapStateStore())
+
+    private fun bytesOf(id: String) = "image $id".toByteArray()
+
+    private fun bytesPhoto(id: String) = OutImage(
+        BytesRef(
+            "$id.png",
+            bytesOf(id),
+            "image/png"
+        ),
+        null,
+        null,
+        null
+    )
+
+    private fun message(vararg parts: OutPart) = OutboundMessage(
+        Address(
+            ChatPlatform.TELEGRAM,
+            1L,
+            false
+        ),
+        parts.toList()
+    )
+
+    private fun photo(id: String) = OutImage(
+        UrlRef(urlOf(id)),
+        null,
+        null,
+        null
+    )
+
+    private fun document(id: String) = OutFile(
+        UrlRef(urlOf(id)),
+        null,
+        null,
+        null
+    )
+
+    private fun urlOf(id: String) = "https://example.com/$id"
+
+    /**
+     * Records successful calls as `kind:payload`, with `upload` as the payload of new uploads; calls
+     * matching [fails] complete exceptionally with [failure]. Every upload is answered with a new
+     * `file-N` id.
+     */
+    private class FakeApi(
+        private val fails: (String) -> Boolean = { false },
+        private val failure: (String) -> Exception = { IllegalStateException("rejected $it") },
+    ) : ITelegramApi {
+
+        val calls = mutableListOf<String>()
+        private var uploads = 0
+
+        @Suppress("UNCHECKED_CAST")
+        override fun <T : Serializable, M : BotApiMethod<T>> executeAsync(method: M): CompletableFuture<T> {
+            val call = when (method) {
+                is SendMessage -> "text:${method.text}"
+                else -> error("Unexpected method $method")
+            }
+            return answer(call) { Message() as T }
+        }
+
+        override fun executeAsync(method: SendPhoto): CompletableFuture<Message> {
+            val photo = method.photo
+            return answer("photo:" + if (photo.isNew) "upload" else photo.attachName) {
+                photoMessage(if (photo.isNew) "file-${++uploads}" else photo.attachName)
+            }
+        }
+
+        override fun executeAsync(method: SendDocument): CompletableFuture<Message> =
+            answer("document:${method.document.attachName}") { Message() }
+
+        override fun executeAsync(method: SendMediaGroup): CompletableFuture<List<Message>> =
+            answer("group:" + method.medias.joinToString(",") { if (it.isNewMedia) "upload" else it.media }) {
+                method.medias.map { photoMessage(if (it.isNewMedia) "file-${++uploads}" else it.media) }
+            }
+
+        private fun <T> answer(call: String, result: () -> T): CompletableFuture<T> {
+            if (fails(call)) return CompletableFuture.failedFuture(failure(call))
+            calls += call
+            return CompletableFuture.completedFuture(result())
+        }
+
+        private fun photoMessage(fileId: String) = Message().apply {
+            photo = listOf(
+                PhotoSize.builder()
+                        .fileId(fileId)
+                        .fileUniqueId(fileId)
+                        .width(1)
+                        .height(1)
+                        .build()
+            )
+        }
+
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import org.junit.jupiter.api.Test
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class TelegramUpdateLanesTest {
+
+    @Test
+    fun `updates of one chat run in order while other chats proceed`() {
+        val seen = Collections.synchronizedMap(HashMap<Long, MutableList<Int>>())
+        val slowChatBlocked = CountDownLatch(1)
+        val done = CountDownLatch(2 * 50 + 1)
+
+        TelegramUpdateLanes(threads = 3).use { lanes ->
+            // Chat 0 is stuck until every other chat has finished.
+            lanes.submit(0) {
+                slowChatBlocked.await(5, TimeUnit.SECONDS)
+                done.countDown()
+            }
+            for (i in 0 until 50) {
+                for (chat in 1L..2L) {
+                    lanes.submit(chat) {
+                        seen.computeIfAbsent(chat) { Collections.synchronizedList(ArrayList()) }.add(i)
+                        done.countDown()
+                    }
+                }
+            }
+
+            // Both other chats complete while chat 0 is still blocked.
+            assertTrue(waitFor { done.count == 1L })
+            slowChatBlocked.countDown()
+            assertTrue(done.await(5, TimeUnit.SECONDS))
+        }
+
+        assertEquals((0 until 50).toList(), seen[1L]?.toList())
+        assertEquals((0 until 50).toList(), seen[2L]?.toList())
+    }
+
+    @Test
+    fun `a busy chat does not keep other chats off a single thread`() {
+        val order = Collections.synchronizedList(ArrayList<Long>())
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(1)
+
+        TelegramUpdateLanes(threads = 1).use { lanes ->
+            lanes.submit(1) { release.await(5, TimeUnit.SECONDS) }
+            repeat(500) {
+                lanes.submit(1) { order.add(1) }
+            }
+            lanes.submit(2) { order.add(2) }
+            lanes.submit(1) { done.countDown() }
+
+            release.countDown()
+            assertTrue(done.await(5, TimeUnit.SECONDS))
+        }
+
+        val other = order.indexOf(2L)
+        assertTrue(other in 0 until 100, "chat 2 ran after $other updates of chat 1")
+        assertEquals(500, order.count { it == 1L })
+    }
+
+    @Test
+    fun `a failing update does not stop its chat`() {
+        val ran = CountDownLatch(1)
+
+        TelegramUpdateLanes(threads = 1).use { lanes ->
+            lanes.submit(1) { error("boom") }
+            lanes.submit(1) { ran.countDown() }
+            assertTrue(ran.await(5, TimeUnit.SECONDS))
+        }
+    }
+
+    @Test
+    fun `close runs the tasks still queued and drops later ones`() {
+        val seen = Collections.synchronizedList(ArrayList<Int>())
+        val started = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val lanes = TelegramUpdateLanes(threads = 1)
+
+        lanes.submit(1) {
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+            seen.add(0)
+        }
+        for (i in 1..5) {
+            lanes.submit(1) { seen.add(i) }
+            lanes.submit(2) { seen.add(100 + i) }
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+
+        val closer = Thread { lanes.close() }.apply { start() }
+        Thread.sleep(50)
+        release.countDown()
+        closer.join(TimeUnit.SECONDS.toMillis(5))
+        lanes.submit(1) { seen.add(-1) }
+
+        assertEquals(false, closer.isAlive)
+        assertEquals((0..5).toList(), seen.filter { it < 100 })
+        assertEquals((101..105).toList(), seen.filter { it >= 100 })
+    }
+
+    private fun waitFor(condition: () -> Boolean): Boolean {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (!condition()) {
+            if (System.nanoTime() > deadline) return false
+            Thread.sleep(5)
+        }
+        return true
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.platform.telegram
+
+import org.junit.jupiter.api.Test
+import org.telegram.telegrambots.meta.api.objects.Update
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class TelegramWebhookServerTest {
+
+    private val http = HttpClient.newHttpClient()
+
+    @Test
+    fun `recorded update is accepted with the secret token`() = withServer { server, received ->
+        val status = post(server, recordedUpdate(), SECRET)
+
+        assertEquals(200, status)
+        val update = received.single()
+        assertEquals(918273645, update.updateId)
+        assertEquals("/ping", update.message.text)
+        assertEquals(-1001234567890, update.message.chatId)
+    }
+
+    @Test
+    fun `requests without the right secret or method are rejected`() = withServer { server, received ->
+        assertEquals(401, post(server, recordedUpdate(), null))
+        assertEquals(401, post(server, recordedUpdate(), "not-the-secret"))
+        assertEquals(405, send(HttpRequest.newBuilder(uri(server)).GET()))
+        assertEquals(404, post(server, recordedUpdate(), SECRET, "$PATH/other"))
+        assertEquals(400, post(server, "{not json", SECRET))
+        assertTrue(received.isEmpty())
+    }
+
+    @Test
+    fun `invalid secret tokens are refused up front`() {
+        assertFailsWith<IllegalArgumentException> { options(secretToken = "") }
+        assertFailsWith<IllegalArgumentException> { options(secretToken = "has spaces") }
+    }
+
+    private fun withServer(block: (TelegramWebhookServer, List<Update>) -> Unit) {
+        val received = CopyOnWriteArrayList<Update>()
+        TelegramWebhookServer(options()) { received.add(it) }.use { server ->
+            server.start()
+            block(server, received)
+        }
+    }
+
+    private fun post(
+        server: TelegramWebhookServer,
+        body: String,
+        secret: String?,
+        path: String = PATH,
+    ): Int {
+        val request = HttpRequest.newBuilder(uri(server, path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+        if (secret != null) request.header(TelegramWebhookServer.SECRET_HEADER, secret)
+        return send(request)
+    }
+
+    private fun send(request: HttpRequest.Builder): Int = http.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode()
+
+    private fun uri(server: TelegramWebhookServer, path: String = PATH): URI =
+        URI.create("http://127.0.0.1:${server.port}$path")
+
+    private fun recordedUpdate(): String =
+        checkNotNull(javaClass.getResourceAsStream("/webhook/update-text-message.json")).use {
+            it.readAllBytes().decodeToString()
+        }
+
+    private fun options(secretToken: String = SECRET) = TelegramWebhookServer.Options(
+        "127.0.0.1",
+        0,
+        PATH,
+        secretToken,
+        ""
+    )
+
+    private companion object {
+
+        const val PATH = "/telegram/webhook"
+        const val SECRET = "local-test_secret"
+
+    }
+
+}
@@ -38,6 +38,7 @@ data class AppProperties(
     var image: Image = Image(),
     var security: Security = Security(),
     var policy: Policy = Policy(),
+    var media: Media = Media(),
 ) {
 
     data class Telegram(
@@ -55,7 +56,72 @@ data class AppProperties(
          * The bot username, can be empty to let the library fetch it, default is empty.
          */
         var botUsername: String = "",
-    )
+
+        /**
+         * Bot API server used for all API calls and file downloads, default is the public
+         * "https://api.telegram.org". Point it at a self-hosted telegram-bot-api server to lift the
+         * upload and download limits; with --local, files are read from the returned paths on disk.
+         */
+        var apiBaseUrl: String = "https://api.telegram.org",
+
+        /**
+         * Largest file the bot may upload, default is 50 MB (the public Bot API limit).
+         */
+        var maxUploadBytes: Long = 50L * 1000 * 1000,
+
+        /**
+         * How many uploaded photos and documents remember their file_id, so identical content is
+         * sent without uploading it again; 0 disables reuse. Default is 5000.
+         */
+        var fileIdCacheSize: Int = 5000,
+
+        /**
+         * Threads that turn received updates into messages. Updates of one chat stay in order,
+         * different chats are handled in parallel. Default is 4.
+         */
+        var updateThreads: Int = 4,
+
+        /**
+         * How updates are received: "polling" (long polling, default) or "webhook".
+         */
+        var mode: String = "polling",
+
+        /**
+         * Embedded endpoint used when [mode] is "webhook".
+         */
+        var webhook: Webhook = Webhook(),
+    ) {
+
+        data class Webhook(
+            /**
+             * Address the endpoint listens on, default is all interfaces.
+             */
+            var host: String = "0.0.0.0",
+
+            /**
+             * Port the endpoint listens on, default is 8443.
+             */
+            var port: Int = 8443,
+
+            /**
+             * Path Telegram posts updates to, default is "/telegram/webhook".
+             */
+            var path: String = "/telegram/webhook",
+
+            /**
+             * Secret Telegram sends in the X-Telegram-Bot-Api-Secret-Token header; required.
+             * 1-256 characters of A-Z, a-z, 0-9, "_" and "-".
+             */
+            var secretToken: String = "",
+
+            /**
+             * Public HTTPS URL of the endpoint, registered with setWebhook on start; leave empty if
+             * the webhook is registered elsewhere, e.g. when several instances share one URL.
+             */
+            var publicUrl: String = "",
+        )
+
+    }
 
     data class Discord(
         /**
@@ -67,6 +133,11 @@ data class AppProperties(
          * The bot token provided by Discord Developer Portal, default is empty.
          */
         var token: String = "",
+
+        /**
+         * Largest file the bot may upload, default is 10 MiB (the limit for servers without boosts).
+         */
+        var maxUploadBytes: Long = 10L * 1024 * 1024,
     )
 
     data class Cli(
@@ -109,6 +180,41 @@ data class AppProperties(
 
     }
 
+    data class Media(
+        var cache: Cache = Cache(),
+    ) {
+
+        data class Cache(
+            /**
+             * Whether loaded media (platform files and URLs) is cached, default is true.
+             */
+            var enabled: Boolean = true,
+
+            /**
+             * Payload budget of the in-memory tier, default is 64 MiB.
+             */
+            var memoryBytes: Long = 64L * 1024 * 1024,
+
+            /**
+             * Spill directory for entries that do not fit in memory; empty keeps the cache in memory only.
+             * It is cleared on startup.
+             */
+            var dir: String = "data/cache/media",
+
+            /**
+             * Payload budget of the disk tier, default is 512 MiB.
+             */
+            var diskBytes: Long = 512L * 1024 * 1024,
+
+            /**
+             * How long media loaded from a URL is reused, default is 10 minutes. Platform file IDs
+             * never change their content and do not expire.
+             */
+            var urlTtlSeconds: Long = 600,
+        )
+
+    }
+
     data class Security(
         /**
          * Bootstrap bot admins defined in config.
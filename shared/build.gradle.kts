@@ -31,6 +31,10 @@ dependencies {
     implementation(libs.kotlinx.coroutines.core)
     implementation(libs.zip4j)
 
+    testImplementation(libs.junit.jupiter)
+    testImplementation(libs.kotlin.test.junit)
+    testRuntimeOnly(libs.junit.platform.launcher)
+
     compileOnly(libs.lombok)
     annotationProcessor(libs.lombok)
 }
@@ -31,15 +31,38 @@ import java.util.zip.ZipOutputStream
 /**
  * Compressing related utils for creating zip files. More format support can be implemented in future.
  *
+ * By default archives are built with [Mode.AUTO]: entries are compressed in parallel and media that
+ * is already compressed is stored instead of deflated. [Mode.DEFLATE] keeps the previous single
+ * threaded zip4j output where every entry is deflated.
+ *
  * @author Chiloven945
  */
 object CompressUtils {
 
     private val log = LogManager.getLogger(CompressUtils::class.java)
 
+    enum class Mode {
+
+        /**
+         * STORE or DEFLATE per entry based on its content, compressed in parallel.
+         */
+        AUTO,
+
+        /**
+         * DEFLATE every entry at normal level on the calling thread.
+         */
+        DEFLATE
+
+    }
+
     @JvmStatic
+    @JvmOverloads
     @Throws(IOException::class)
-    fun zipDirectory(dir: Path, zipFile: Path) {
+    fun zipDirectory(
+        dir: Path,
+        zipFile: Path,
+        mode: Mode = Mode.AUTO,
+    ) {
         if (!Files.isDirectory(dir)) {
             throw IOException("Not a directory: $dir")
         }
@@ -53,13 +76,19 @@ object CompressUtils {
                 .toList()
         }
 
-        zipNamedPaths(files, zipFile)
-        log.debug("Zip created with zip4j: {} <- {}", zipFile, dir)
+        zipNamedPaths(files, zipFile, mode)
+        log.debug("Zip created ({}): {} <- {}", mode, zipFile, dir)
     }
 
     @JvmStatic
+    @JvmOverloads
     @Throws(IOException::class)
-    fun zipFiles(baseDir: Path, files: List<Path?>, zipFile: Path) {
+    fun zipFiles(
+        baseDir: Path,
+        files: List<Path?>,
+        zipFile: Path,
+        mode: Mode = Mode.AUTO,
+    ) {
         PathUtils.ensureParentDirectories(zipFile)
         Files.deleteIfExists(zipFile)
 
@@ -69,13 +98,18 @@ object CompressUtils {
             .map { file -> NamedPath(baseDir.relativize(file).toString().replace('\\', '/'), file) }
             .toList()
 
-        zipNamedPaths(items, zipFile)
-        log.debug("Zip created with zip4j: {} <- {} file(s)", zipFile, items.size)
+        zipNamedPaths(items, zipFile, mode)
+        log.debug("Zip created ({}): {} <- {} file(s)", mode, zipFile, items.size)
     }
 
     @JvmStatic
+    @JvmOverloads
     @Throws(IOException::class)
-    fun zipFilesWithNames(items: List<NamedPath?>, zipFile: Path) {
+    fun zipFilesWithNames(
+        items: List<NamedPath?>,
+        zipFile: Path,
+        mode: Mode = Mode.AUTO,
+    ) {
         PathUtils.ensureParentDirectories(zipFile)
         Files.deleteIfExists(zipFile)
 
@@ -84,17 +118,26 @@ object CompressUtils {
             .filter { Files.isRegularFile(it.path) }
             .toList()
 
-        zipNamedPaths(actualItems, zipFile)
-        log.debug("Zip created with zip4j: {} <- {} named file(s)", zipFile, actualItems.size)
+        zipNamedPaths(actualItems, zipFile, mode)
+        log.debug("Zip created ({}): {} <- {} named file(s)", mode, zipFile, actualItems.size)
     }
 
     @Throws(IOException::class)
-    private fun zipNamedPaths(items: List<NamedPath>, zipFile: Path) {
+    private fun zipNamedPaths(
+        items: List<NamedPath>,
+        zipFile: Path,
+        mode: Mode,
+    ) {
         if (items.isEmpty()) {
             createEmptyZip(zipFile)
             return
         }
 
+        if (mode == Mode.AUTO) {
+            ParallelZipWriter().write(items, zipFile)
+            return
+        }
+
         val zip = ZipFile(zipFile.toFile())
         val usedNames = LinkedHashSet<String>()
 
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import java.io.OutputStream
+
+/**
+ * Output stream that counts the bytes passed to [delegate].
+ */
+internal class CountingOutputStream(
+    private val delegate: OutputStream,
+) : OutputStream() {
+
+    var count = 0L
+        private set
+
+    override fun write(b: Int) {
+        delegate.write(b)
+        count++
+    }
+
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        delegate.write(b, off, len)
+        count += len
+    }
+
+    override fun flush() = delegate.flush()
+
+    override fun close() = delegate.close()
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import java.awt.Rectangle
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import javax.imageio.ImageIO
+import javax.imageio.ImageReader
+import javax.imageio.stream.ImageInputStream
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.roundToInt
+
+/**
+ * Image decoding helpers that decode close to the size the image is drawn at.
+ *
+ * `ImageIO.read` always decodes the full raster, so a 1500 px preview that ends up as a 220 px card
+ * allocates and converts every source pixel. [readCover] instead asks the [ImageReader] for only the
+ * region that stays visible after a cover crop and subsamples it while decoding.
+ *
+ * ImageIO's disk cache is disabled on first use; all inputs here are in-memory byte arrays.
+ *
+ * @author Chiloven945
+ */
+object ImageDecodeUtils {
+
+    init {
+        ImageIO.setUseCache(false)
+    }
+
+    /**
+     * Decoded image together with the original source dimensions.
+     */
+    data class Decoded(
+        val image: BufferedImage,
+        val sourceWidth: Int,
+        val sourceHeight: Int
+    )
+
+    /**
+     * Decodes [bytes] for drawing with cover semantics into a [targetWidth] x [targetHeight] box.
+     *
+     * Only the centered region that survives the cover crop is decoded, and whole-pixel subsampling is
+     * applied as long as the result stays at least as large as the target. The returned image has the
+     * target's aspect ratio, so it can be passed to [ModernImageDraw.imageCoverRounded] unchanged.
+     *
+     * @return the decoded image, or `null` when no reader supports the format (same as `ImageIO.read`)
+     * @throws IOException if the data is corrupt
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun readCover(
+        bytes: ByteArray,
+        targetWidth: Int,
+        targetHeight: Int
+    ): BufferedImage? = readCoverDetailed(bytes, targetWidth, targetHeight)?.image
+
+    /**
+     * Same as [readCover] but also reports the source dimensions.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun readCoverDetailed(
+        bytes: ByteArray,
+        targetWidth: Int,
+        targetHeight: Int
+    ): Decoded? {
+        require(targetWidth > 0 && targetHeight > 0) { "Target size must be positive" }
+
+        val input = ImageIO.createImageInputStream(ByteArrayInputStream(bytes)) ?: return null
+        input.use { stream ->
+            val reader = firstReader(stream) ?: return null
+            try {
+                reader.setInput(stream, true, true)
+
+                val srcW = reader.getWidth(0)
+                val srcH = reader.getHeight(0)
+                val param = reader.defaultReadParam
+
+                val region = coverRegion(srcW, srcH, targetWidth, targetHeight)
+                if (region.width != srcW || region.height != srcH) {
+                    param.sourceRegion = region
+                }
+
+                val step = subsampling(region.width, region.height, targetWidth, targetHeight)
+                if (step > 1) {
+                    param.setSourceSubsampling(step, step, 0, 0)
+                }
+
+                return Decoded(reader.read(0, param), srcW, srcH)
+            } finally {
+                reader.dispose()
+            }
+        }
+    }
+
+    /**
+     * Centered source region with the aspect ratio of the target box.
+     */
+    internal fun coverRegion(
+        srcW: Int,
+        srcH: Int,
+        targetWidth: Int,
+        targetHeight: Int
+    ): Rectangle {
+        val scale = max(targetWidth / srcW.toDouble(), targetHeight / srcH.toDouble())
+        val w = (targetWidth / scale).roundToInt().coerceIn(1, srcW)
+        val h = (targetHeight / scale).roundToInt().coerceIn(1, srcH)
+        return Rectangle((srcW - w) / 2, (srcH - h) / 2, w, h)
+    }
+
+    /**
+     * Largest whole-pixel step that keeps the decoded region at least as large as the target.
+     */
+    internal fun subsampling(
+        regionW: Int,
+        regionH: Int,
+        targetWidth: Int,
+        targetHeight: Int
+    ): Int = max(1, min(regionW / targetWidth, regionH / targetHeight))
+
+    private fun firstReader(stream: ImageInputStream): ImageReader? {
+        val readers = ImageIO.getImageReaders(stream)
+        return if (readers.hasNext()) readers.next() else null
+    }
+
+}
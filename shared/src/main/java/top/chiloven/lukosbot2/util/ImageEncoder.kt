@@ -0,0 +1,318 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.awt.image.IndexColorModel
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+
+/**
+ * Encodes rendered images with settings chosen per content kind and target platform.
+ *
+ * - Flat UI cards (help pages) are written as palette PNGs when they have at most 256 distinct colors,
+ *   which is smaller than the default PNG at the same speed. Cards with gradients or anti-aliased text
+ *   usually have more colors and stay truecolor, so the palette never changes a pixel.
+ * - Photo grids are JPEG on Telegram, which re-encodes photos anyway. Elsewhere they stay lossless
+ *   with deflate level 1, which is much faster than the JDK default level 4 and only a few percent
+ *   larger on photo content.
+ * - Page screenshots are JPEG everywhere.
+ *
+ * Use [select] to get the [Spec] for a call site and [encode] to write it.
+ *
+ * @author Chiloven945
+ */
+object ImageEncoder {
+
+    /**
+     * What the image shows; decides between palette PNG, truecolor PNG and JPEG.
+     */
+    enum class ContentKind {
+
+        /** Text and flat shapes, e.g. usage cards. */
+        UI,
+
+        /** UI chrome around photographic thumbnails, e.g. search grids. */
+        PHOTO_GRID,
+
+        /** Browser screenshots of web pages. */
+        SCREENSHOT
+
+    }
+
+    /**
+     * Platform the image is sent to.
+     */
+    enum class Target {
+
+        TELEGRAM,
+        DISCORD,
+        GENERIC;
+
+        companion object {
+
+            /**
+             * Maps a platform name (e.g. `ChatPlatform.name()`) to a target, defaulting to [GENERIC].
+             */
+            @JvmStatic
+            fun of(platform: String?): Target =
+                entries.firstOrNull { it.name.equals(platform?.trim(), ignoreCase = true) } ?: GENERIC
+
+        }
+
+    }
+
+    /**
+     * JPEG quality presets.
+     */
+    enum class JpegPreset(val quality: Float) {
+
+        HIGH(0.92f),
+        STANDARD(0.85f),
+        COMPACT(0.75f)
+
+    }
+
+    /**
+     * Output settings.
+     */
+    sealed interface Spec {
+
+        val mime: String
+        val extension: String
+
+        /**
+         * PNG with deflate level 0-9. When [paletteColors] is greater than 0, an image with at most that
+         * many distinct colors (2-256) is written with an exact indexed palette; anything with more
+         * colors stays truecolor.
+         */
+        data class Png(
+            val deflateLevel: Int = 4,
+            val paletteColors: Int = 0
+        ) : Spec {
+
+            init {
+                require(deflateLevel in 0..9) { "Deflate level must be in 0..9" }
+                require(paletteColors == 0 || paletteColors in 2..256) { "Palette must have 2..256 colors" }
+            }
+
+            override val mime: String get() = "image/png"
+            override val extension: String get() = "png"
+
+        }
+
+        /**
+         * Baseline JPEG; transparent areas are flattened onto [background].
+         */
+        data class Jpeg(
+            val quality: Float = JpegPreset.HIGH.quality,
+            val background: Color = Color.WHITE
+        ) : Spec {
+
+            init {
+                require(quality in 0f..1f) { "JPEG quality must be in 0..1" }
+            }
+
+            override val mime: String get() = "image/jpeg"
+            override val extension: String get() = "jpg"
+
+        }
+
+    }
+
+    data class Encoded(
+        val bytes: ByteArray,
+        val mime: String,
+        val extension: String
+    ) {
+
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Encoded) return false
+            return bytes.contentEquals(other.bytes) && mime == other.mime && extension == other.extension
+        }
+
+        override fun hashCode(): Int {
+            var result = bytes.contentHashCode()
+            result = 31 * result + mime.hashCode()
+            result = 31 * result + extension.hashCode()
+            return result
+        }
+
+    }
+
+    /**
+     * Returns the encoding settings for [kind] sent to [target].
+     */
+    @JvmStatic
+    fun select(kind: ContentKind, target: Target = Target.GENERIC): Spec = when (kind) {
+        ContentKind.UI -> Spec.Png(deflateLevel = 4, paletteColors = 256)
+        ContentKind.PHOTO_GRID -> when (target) {
+            Target.TELEGRAM -> Spec.Jpeg(JpegPreset.HIGH.quality)
+            Target.DISCORD, Target.GENERIC -> Spec.Png(deflateLevel = 1)
+        }
+
+        ContentKind.SCREENSHOT -> when (target) {
+            Target.TELEGRAM -> Spec.Jpeg(JpegPreset.STANDARD.quality)
+            Target.DISCORD, Target.GENERIC -> Spec.Jpeg(JpegPreset.HIGH.quality)
+        }
+    }
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun encode(
+        image: BufferedImage,
+        kind: ContentKind,
+        target: Target = Target.GENERIC
+    ): Encoded = encode(image, select(kind, target))
+
+    @JvmStatic
+    @Throws(IOException::class)
+    fun encode(image: BufferedImage, spec: Spec): Encoded {
+        val bytes = when (spec) {
+            is Spec.Png -> writePng(image, spec)
+            is Spec.Jpeg -> writeJpeg(image, spec)
+        }
+        return Encoded(bytes, spec.mime, spec.extension)
+    }
+
+    private fun writePng(image: BufferedImage, spec: Spec.Png): ByteArray {
+        val source = if (spec.paletteColors > 0) {
+            IndexedPalette.of(image, spec.paletteColors) ?: image
+        } else {
+            image
+        }
+
+        // The JDK PNG writer maps compression quality q to deflate level round(9 * (1 - q)).
+        return write(source, "png") { param ->
+            param.compressionMode = ImageWriteParam.MODE_EXPLICIT
+            param.compressionQuality = 1f - spec.deflateLevel / 9f
+        }
+    }
+
+    private fun writeJpeg(image: BufferedImage, spec: Spec.Jpeg): ByteArray {
+        val rgb = if (image.type == BufferedImage.TYPE_INT_RGB) {
+            image
+        } else {
+            BufferedImage(image.width, image.height, BufferedImage.TYPE_INT_RGB).also { flat ->
+                val g = flat.createGraphics()
+                try {
+                    g.color = spec.background
+                    g.fillRect(0, 0, flat.width, flat.height)
+                    g.drawImage(image, 0, 0, null)
+                } finally {
+                    g.dispose()
+                }
+            }
+        }
+
+        return write(rgb, "jpg") { param ->
+            param.compressionMode = ImageWriteParam.MODE_EXPLICIT
+            param.compressionQuality = spec.quality
+        }
+    }
+
+    private fun write(
+        image: BufferedImage,
+        format: String,
+        configure: (ImageWriteParam) -> Unit
+    ): ByteArray {
+        val writers = ImageIO.getImageWritersByFormatName(format)
+        if (!writers.hasNext()) throw IOException("No ImageIO writer for $format")
+        val writer = writers.next()
+
+        try {
+            ByteArrayOutputStream().use { baos ->
+                ImageIO.createImageOutputStream(baos).use { ios ->
+                    writer.output = ios
+                    val param = writer.defaultWriteParam
+                    if (param.canWriteCompressed()) {
+                        configure(param)
+                    }
+                    writer.write(null, IIOImage(image, null, null), param)
+                }
+                return baos.toByteArray()
+            }
+        } finally {
+            writer.dispose()
+        }
+    }
+
+    /**
+     * Exact palette conversion for images that already have few colors.
+     *
+     * There is no lossy fallback: an image with more colors than the palette allows is left as it is,
+     * so gradients and anti-aliased edges never band.
+     */
+    internal object IndexedPalette {
+
+        /**
+         * @return an indexed copy of [image], or `null` when it has more than [maxColors] distinct colors
+         */
+        fun of(image: BufferedImage, maxColors: Int): BufferedImage? {
+            val w = image.width
+            val h = image.height
+            val pixels = image.getRGB(0, 0, w, h, null, 0, w)
+
+            val index = HashMap<Int, Int>(maxColors * 2)
+            for (argb in pixels) {
+                val key = normalize(argb)
+                if (key !in index) {
+                    if (index.size >= maxColors) return null
+                    index[key] = index.size
+                }
+            }
+
+            val palette = IntArray(index.size)
+            for ((color, i) in index) {
+                palette[i] = color
+            }
+
+            val model = IndexColorModel(
+                8,
+                palette.size,
+                ByteArray(palette.size) { (palette[it] shr 16).toByte() },
+                ByteArray(palette.size) { (palette[it] shr 8).toByte() },
+                ByteArray(palette.size) { palette[it].toByte() },
+                ByteArray(palette.size) { (palette[it] ushr 24).toByte() }
+            )
+            val out = BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED, model)
+            val raster = out.raster
+            val row = IntArray(w)
+            for (y in 0 until h) {
+                val offset = y * w
+                for (x in 0 until w) {
+                    row[x] = index.getValue(normalize(pixels[offset + x]))
+                }
+                raster.setSamples(0, y, w, 1, 0, row)
+            }
+            return out
+        }
+
+        /**
+         * Fully transparent pixels all map to one entry regardless of their color bits.
+         */
+        private fun normalize(argb: Int): Int = if (argb ushr 24 == 0) 0 else argb
+
+    }
+
+}
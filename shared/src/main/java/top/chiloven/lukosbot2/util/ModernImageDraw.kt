@@ -31,6 +31,9 @@ import kotlin.math.max
  */
 object ModernImageDraw {
 
+    private const val SHADOW_BLUR = 12
+    private val SHADOW_COLOR = Color(15, 23, 42)
+
     enum class ThemeMode {
 
         LIGHT,
@@ -186,6 +189,12 @@ object ModernImageDraw {
         height: Int,
         palette: Palette = defaultPalette()
     ) {
+        if (ModernImageSprites.canBlit(g) &&
+            ModernImageSprites.background(g, width, height, palette.bgTop, palette.bgBottom)
+        ) {
+            return
+        }
+
         g.paint = GradientPaint(
             0f,
             0f,
@@ -203,22 +212,58 @@ object ModernImageDraw {
         g.paint = null
     }
 
+    /**
+     * Draws a soft drop shadow below a rounded rectangle.
+     *
+     * The blur is emulated by [blur] stacked translucent passes. The result is cached as a nine-patch
+     * sprite keyed by radius, blur and color, so repeated cards only blit the sprite.
+     */
     fun softShadow(
         g: Graphics2D,
         x: Int,
         y: Int,
         width: Int,
         height: Int,
-        radius: Int
+        radius: Int,
+        blur: Int = SHADOW_BLUR,
+        color: Color = SHADOW_COLOR
+    ) {
+        if (ModernImageSprites.canBlit(g) &&
+            ModernImageSprites.shadow(g, x, y, width, height, radius, blur, color)
+        ) {
+            return
+        }
+
+        softShadowDirect(
+            g,
+            x,
+            y,
+            width,
+            height,
+            radius,
+            blur,
+            color
+        )
+    }
+
+    internal fun softShadowDirect(
+        g: Graphics2D,
+        x: Int,
+        y: Int,
+        width: Int,
+        height: Int,
+        radius: Int,
+        blur: Int = SHADOW_BLUR,
+        color: Color = SHADOW_COLOR
     ) {
         val oldComposite = g.composite
-        (12 downTo 1).forEach { i ->
+        (blur downTo 1).forEach { i ->
             val alpha = 0.012f + i * 0.003f
             g.composite = AlphaComposite.getInstance(
                 AlphaComposite.SRC_OVER,
                 alpha.coerceAtMost(0.06f)
             )
-            g.color = Color(15, 23, 42)
+            g.color = color
             g.fillRoundRect(
                 x - i / 2,
                 y + i,
@@ -248,6 +293,13 @@ object ModernImageDraw {
             height,
             radius
         )
+        if (ModernImageSprites.canBlit(g) &&
+            ModernImageSprites.cardBody(g, x, y, width, height, radius, palette.surface, palette.border)
+        ) {
+            g.color = palette.border
+            return
+        }
+
         g.color = palette.surface
         g.fillRoundRect(
             x,
@@ -314,15 +366,17 @@ object ModernImageDraw {
         ) + padX * 2
         val height = fm.height + padY * 2 - 4
 
-        g.color = bg
-        g.fillRoundRect(
-            x,
-            y,
-            width,
-            height,
-            height,
-            height
-        )
+        if (!ModernImageSprites.canBlit(g) || !ModernImageSprites.pill(g, x, y, width, height, bg)) {
+            g.color = bg
+            g.fillRoundRect(
+                x,
+                y,
+                width,
+                height,
+                height,
+                height
+            )
+        }
 
         g.color = fg
         ImageTextUtils.drawStringWithFallback(
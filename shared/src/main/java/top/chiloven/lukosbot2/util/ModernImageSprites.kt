@@ -0,0 +1,439 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import java.awt.*
+import java.awt.geom.AffineTransform
+import java.awt.image.BufferedImage
+
+/**
+ * Pre-rendered nine-patch sprites for [ModernImageDraw].
+ *
+ * Shadows, card bodies, pill capsules and gradient backgrounds only depend on a few style inputs, so
+ * they are rendered once into a small sprite and then stretched to the requested size. Every sprite
+ * keeps a single stretchable center row/column that lies outside all rounded corners, therefore
+ * stretching it with nearest-neighbor sampling reproduces the direct rendering.
+ *
+ * Sprites are only used when the target [Graphics2D] has an integer translation transform,
+ * antialiasing enabled and plain `SRC_OVER` composite. Other targets fall back to direct drawing.
+ */
+internal object ModernImageSprites {
+
+    private const val MAX_SPRITES = 256
+
+    private val sprites = SpriteCache(MAX_SPRITES)
+
+    private data class ShadowKey(
+        val radius: Int,
+        val blur: Int,
+        val rgb: Int
+    )
+
+    private data class CardBodyKey(
+        val radius: Int,
+        val surfaceRgb: Int,
+        val borderRgb: Int
+    )
+
+    private data class PillKey(
+        val height: Int,
+        val rgb: Int
+    )
+
+    private data class BackgroundKey(
+        val height: Int,
+        val topRgb: Int,
+        val bottomRgb: Int
+    )
+
+    /**
+     * A sprite whose pixel column [left] and row [top] are stretched to fill the target size.
+     */
+    private class NinePatch(
+        val image: BufferedImage,
+        val left: Int,
+        val top: Int,
+        val right: Int,
+        val bottom: Int,
+        val offsetX: Int,
+        val offsetY: Int,
+        val extraWidth: Int,
+        val extraHeight: Int,
+        val fixedHeight: Boolean = false
+    ) {
+
+        val minWidth: Int
+            get() = left + right + 1 - extraWidth
+
+        val minHeight: Int
+            get() = top + bottom + 1 - extraHeight
+
+    }
+
+    fun canBlit(g: Graphics2D): Boolean {
+        val tx = g.transform
+        val translationOnly = tx.type == AffineTransform.TYPE_IDENTITY ||
+                (tx.type == AffineTransform.TYPE_TRANSLATION &&
+                        tx.translateX % 1.0 == 0.0 &&
+                        tx.translateY % 1.0 == 0.0)
+        if (!translationOnly) return false
+
+        if (g.getRenderingHint(RenderingHints.KEY_ANTIALIASING) != RenderingHints.VALUE_ANTIALIAS_ON) {
+            return false
+        }
+
+        val composite = g.composite
+        return composite is AlphaComposite &&
+                composite.rule == AlphaComposite.SRC_OVER &&
+                composite.alpha == 1f
+    }
+
+    /**
+     * Draws a cached shadow. Returns `false` when the target is too small for the nine-patch.
+     */
+    fun shadow(
+        g: Graphics2D,
+        x: Int,
+        y: Int,
+        width: Int,
+        height: Int,
+        radius: Int,
+        blur: Int,
+        color: Color
+    ): Boolean {
+        val key = ShadowKey(radius, blur, color.rgb)
+        val patch = sprites.getOrPut(key) { renderShadow(radius, blur, color) } as NinePatch
+        return blit(g, patch, x, y, width, height)
+    }
+
+    /**
+     * Draws a cached card body (surface fill and 1px border).
+     */
+    fun cardBody(
+        g: Graphics2D,
+        x: Int,
+        y: Int,
+        width: Int,
+        height: Int,
+        radius: Int,
+        surface: Color,
+        border: Color
+    ): Boolean {
+        val key = CardBodyKey(radius, surface.rgb, border.rgb)
+        val patch = sprites.getOrPut(key) { renderCardBody(radius, surface, border) } as NinePatch
+        return blit(g, patch, x, y, width, height)
+    }
+
+    /**
+     * Draws a cached capsule background for pills.
+     */
+    fun pill(
+        g: Graphics2D,
+        x: Int,
+        y: Int,
+        width: Int,
+        height: Int,
+        color: Color
+    ): Boolean {
+        val key = PillKey(height, color.rgb)
+        val patch = sprites.getOrPut(key) { renderPill(height, color) } as NinePatch
+        return blit(g, patch, x, y, width, height)
+    }
+
+    /**
+     * Draws a cached vertical gradient background stretched horizontally over [width].
+     */
+    fun background(
+        g: Graphics2D,
+        width: Int,
+        height: Int,
+        top: Color,
+        bottom: Color
+    ): Boolean {
+        if (width <= 0 || height <= 0) return false
+
+        val key = BackgroundKey(height, top.rgb, bottom.rgb)
+        val strip = sprites.getOrPut(key) { renderBackgroundStrip(height, top, bottom) } as BufferedImage
+        withNearestNeighbor(g) {
+            g.drawImage(strip, 0, 0, width, height, 0, 0, 1, height, null)
+        }
+        return true
+    }
+
+    fun clear() {
+        sprites.clear()
+    }
+
+    fun size(): Int = sprites.size()
+
+    private fun renderShadow(radius: Int, blur: Int, color: Color): NinePatch {
+        // Margin that keeps the stretch column/row clear of every pass' rounded corners.
+        val margin = radius / 2 + blur * 2 + 2
+        val rectSize = margin * 2 + 1
+        val pad = blur
+
+        val image = BufferedImage(
+            rectSize + pad * 2,
+            rectSize + pad * 3,
+            BufferedImage.TYPE_INT_ARGB
+        )
+        val g = image.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            ModernImageDraw.softShadowDirect(
+                g,
+                pad,
+                pad,
+                rectSize,
+                rectSize,
+                radius,
+                blur,
+                color
+            )
+        } finally {
+            g.dispose()
+        }
+
+        return NinePatch(
+            image = image,
+            left = pad + margin,
+            top = pad + margin,
+            right = margin + pad,
+            bottom = margin + pad * 2,
+            offsetX = pad,
+            offsetY = pad,
+            extraWidth = pad * 2,
+            extraHeight = pad * 3
+        )
+    }
+
+    private fun renderCardBody(radius: Int, surface: Color, border: Color): NinePatch {
+        val margin = radius / 2 + 2
+        val rectSize = margin * 2 + 1
+        val pad = 2
+
+        // drawRoundRect covers one extra pixel on the right and bottom edge.
+        val image = BufferedImage(
+            rectSize + pad * 2 + 1,
+            rectSize + pad * 2 + 1,
+            BufferedImage.TYPE_INT_ARGB
+        )
+        val g = image.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            g.color = surface
+            g.fillRoundRect(
+                pad,
+                pad,
+                rectSize,
+                rectSize,
+                radius,
+                radius
+            )
+            ModernImageDraw.roundedBorder(
+                g,
+                pad,
+                pad,
+                rectSize,
+                rectSize,
+                radius,
+                border
+            )
+        } finally {
+            g.dispose()
+        }
+
+        return NinePatch(
+            image = image,
+            left = pad + margin,
+            top = pad + margin,
+            right = margin + pad + 1,
+            bottom = margin + pad + 1,
+            offsetX = pad,
+            offsetY = pad,
+            extraWidth = pad * 2 + 1,
+            extraHeight = pad * 2 + 1
+        )
+    }
+
+    private fun renderPill(height: Int, color: Color): NinePatch {
+        val margin = height / 2 + 1
+        val rectWidth = margin * 2 + 1
+
+        val image = BufferedImage(
+            rectWidth,
+            height.coerceAtLeast(1),
+            BufferedImage.TYPE_INT_ARGB
+        )
+        val g = image.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            g.color = color
+            g.fillRoundRect(
+                0,
+                0,
+                rectWidth,
+                height,
+                height,
+                height
+            )
+        } finally {
+            g.dispose()
+        }
+
+        // Height is never stretched: row 0 maps onto itself and the rest is copied as-is.
+        return NinePatch(
+            image = image,
+            left = margin,
+            top = 0,
+            right = margin,
+            bottom = image.height - 1,
+            offsetX = 0,
+            offsetY = 0,
+            extraWidth = 0,
+            extraHeight = 0,
+            fixedHeight = true
+        )
+    }
+
+    private fun renderBackgroundStrip(height: Int, top: Color, bottom: Color): BufferedImage {
+        val strip = BufferedImage(1, height, BufferedImage.TYPE_INT_ARGB)
+        val g = strip.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            g.paint = GradientPaint(
+                0f,
+                0f,
+                top,
+                0f,
+                height.toFloat(),
+                bottom
+            )
+            g.fillRect(0, 0, 1, height)
+        } finally {
+            g.dispose()
+        }
+        return strip
+    }
+
+    private fun blit(
+        g: Graphics2D,
+        patch: NinePatch,
+        x: Int,
+        y: Int,
+        width: Int,
+        height: Int
+    ): Boolean {
+        if (width < patch.minWidth) return false
+        if (patch.fixedHeight) {
+            if (height != patch.image.height) return false
+        } else if (height < patch.minHeight) {
+            return false
+        }
+
+        val dx = x - patch.offsetX
+        val dy = y - patch.offsetY
+        val dw = width + patch.extraWidth
+        val dh = height + patch.extraHeight
+
+        val sw = patch.image.width
+        val sh = patch.image.height
+
+        val srcCols = intArrayOf(0, patch.left, patch.left + 1, sw)
+        val dstCols = intArrayOf(dx, dx + patch.left, dx + dw - patch.right, dx + dw)
+        val srcRows = intArrayOf(0, patch.top, patch.top + 1, sh)
+        val dstRows = intArrayOf(dy, dy + patch.top, dy + dh - patch.bottom, dy + dh)
+
+        withNearestNeighbor(g) {
+            for (row in 0 until 3) {
+                if (dstRows[row + 1] <= dstRows[row] || srcRows[row + 1] <= srcRows[row]) continue
+
+                for (col in 0 until 3) {
+                    if (dstCols[col + 1] <= dstCols[col] || srcCols[col + 1] <= srcCols[col]) continue
+
+                    g.drawImage(
+                        patch.image,
+                        dstCols[col],
+                        dstRows[row],
+                        dstCols[col + 1],
+                        dstRows[row + 1],
+                        srcCols[col],
+                        srcRows[row],
+                        srcCols[col + 1],
+                        srcRows[row + 1],
+                        null
+                    )
+                }
+            }
+        }
+        return true
+    }
+
+    private inline fun withNearestNeighbor(g: Graphics2D, block: () -> Unit) {
+        val oldInterpolation = g.getRenderingHint(RenderingHints.KEY_INTERPOLATION)
+        g.setRenderingHint(
+            RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR
+        )
+        try {
+            block()
+        } finally {
+            if (oldInterpolation != null) {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oldInterpolation)
+            }
+        }
+    }
+
+    /**
+     * Small access-ordered LRU shared by all render threads.
+     */
+    private class SpriteCache(
+        private val maxEntries: Int
+    ) {
+
+        private val entries = object : LinkedHashMap<Any, Any>(16, 0.75f, true) {
+
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Any, Any>?): Boolean {
+                return size > maxEntries
+            }
+
+        }
+
+        fun getOrPut(key: Any, create: () -> Any): Any {
+            synchronized(entries) {
+                entries[key]?.let { return it }
+            }
+
+            // Rendering happens outside the lock; a concurrent duplicate render is harmless.
+            val created = create()
+            synchronized(entries) {
+                return entries.putIfAbsent(key, created) ?: created
+            }
+        }
+
+        fun clear() {
+            synchronized(entries) {
+                entries.clear()
+            }
+        }
+
+        fun size(): Int = synchronized(entries) { entries.size }
+
+    }
+
+}
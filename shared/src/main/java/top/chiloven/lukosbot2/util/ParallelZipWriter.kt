@@ -0,0 +1,427 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.apache.logging.log4j.LogManager
+import java.io.BufferedOutputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.CRC32
+import java.util.zip.Deflater
+import java.util.zip.DeflaterOutputStream
+import kotlin.math.max
+
+/**
+ * ZIP writer that compresses entries in parallel and writes them in order.
+ *
+ * `ZipOutputStream` compresses while it writes, so an archive is built on one core. Here every entry
+ * is prepared independently on a bounded pool: already compressed media (see [ZipContent]) only gets
+ * its CRC computed and is stored, everything else is deflated into a buffer that spills to a temp
+ * file beyond [inMemoryLimit]. A deflated entry that did not shrink is stored instead. The writer
+ * thread then copies the prepared entries into the archive in their original order, with at most
+ * `threads * 2` entries prepared ahead.
+ *
+ * Entries are written with sizes in the local header, and ZIP64 records are added when sizes,
+ * offsets or the entry count need them.
+ */
+internal class ParallelZipWriter(
+    private val threads: Int = defaultThreads(),
+    private val level: Int = Deflater.DEFAULT_COMPRESSION,
+    private val inMemoryLimit: Int = DEFAULT_IN_MEMORY_LIMIT,
+) {
+
+    /**
+     * Summary of one archive.
+     */
+    data class Stats(
+        val entries: Int,
+        val storedEntries: Int,
+        val bytesIn: Long,
+        val bytesOut: Long,
+    )
+
+    @Throws(IOException::class)
+    fun write(items: List<CompressUtils.NamedPath>, zipFile: Path): Stats {
+        val usedNames = LinkedHashSet<String>()
+        val named = items.map { it.copy(entryName = PathUtils.uniqueRelativeEntryName(it.entryName, usedNames)) }
+        val spillDir = zipFile.toAbsolutePath().parent
+
+        val threadIndex = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(max(1, threads)) { runnable ->
+            Thread(runnable, "lukos-zip-${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+        }
+        val pending = ArrayDeque<Future<Prepared>>()
+
+        try {
+            var submitted = 0
+            fun submitNext() {
+                val item = named[submitted++]
+                pending.addLast(executor.submit(Callable { prepare(item, spillDir) }))
+            }
+
+            RawZipOutput(BufferedOutputStream(Files.newOutputStream(zipFile), BUFFER_SIZE)).use { zip ->
+                while (submitted < named.size && pending.size < max(1, threads) * 2) submitNext()
+                while (pending.isNotEmpty()) {
+                    val prepared = await(pending.removeFirst())
+                    if (submitted < named.size) submitNext()
+                    try {
+                        zip.writeEntry(prepared)
+                    } finally {
+                        prepared.release()
+                    }
+                }
+                zip.finish()
+                log.debug("Parallel zip created: {} <- {} entries, threads={}", zipFile, named.size, threads)
+                return zip.stats
+            }
+        } finally {
+            // After a failure some entries may be prepared but not written; free their buffers.
+            executor.shutdownNow()
+            executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            pending
+                .filter { it.isDone && !it.isCancelled }
+                .forEach { future -> runCatching { future.get() }.getOrNull()?.release() }
+        }
+    }
+
+    private fun await(future: Future<Prepared>): Prepared =
+        try {
+            future.get()
+        } catch (e: ExecutionException) {
+            throw (e.cause as? IOException) ?: IOException("Failed to compress zip entry", e.cause ?: e)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw IOException("Interrupted while compressing zip entries", e)
+        }
+
+    private fun prepare(item: CompressUtils.NamedPath, spillDir: Path): Prepared {
+        val source = item.path
+        val size = Files.size(source)
+        val modified = Files.getLastModifiedTime(source)
+
+        if (ZipContent.isIncompressible(source, item.entryName)) {
+            return Prepared.stored(item.entryName, source, size, ZipContent.crc32(source), modified)
+        }
+
+        val crc = CRC32()
+        val buffer = SpillBuffer(inMemoryLimit, spillDir)
+        val deflater = Deflater(level, true)
+        try {
+            DeflaterOutputStream(buffer, deflater, BUFFER_SIZE).use { output ->
+                Files.newInputStream(source).use { input ->
+                    val chunk = ByteArray(BUFFER_SIZE)
+                    while (true) {
+                        val read = input.read(chunk)
+                        if (read == -1) break
+                        crc.update(chunk, 0, read)
+                        output.write(chunk, 0, read)
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            buffer.release()
+            throw e
+        } finally {
+            deflater.end()
+        }
+
+        if (buffer.size >= size) {
+            buffer.release()
+            return Prepared.stored(item.entryName, source, size, crc.value, modified)
+        }
+        return Prepared(
+            name = item.entryName,
+            method = METHOD_DEFLATED,
+            crc = crc.value,
+            size = size,
+            compressedSize = buffer.size,
+            modified = modified,
+            source = source,
+            deflated = buffer
+        )
+    }
+
+    private class Prepared(
+        val name: String,
+        val method: Int,
+        val crc: Long,
+        val size: Long,
+        val compressedSize: Long,
+        val modified: FileTime,
+        val source: Path,
+        val deflated: SpillBuffer?,
+    ) {
+
+        fun copyDataTo(output: OutputStream) {
+            if (deflated != null) {
+                deflated.copyTo(output)
+            } else {
+                Files.copy(source, output)
+            }
+        }
+
+        fun release() {
+            deflated?.release()
+        }
+
+        companion object {
+
+            fun stored(
+                name: String,
+                source: Path,
+                size: Long,
+                crc: Long,
+                modified: FileTime,
+            ): Prepared = Prepared(name, METHOD_STORED, crc, size, size, modified, source, null)
+
+        }
+
+    }
+
+    /**
+     * Output buffer that keeps up to [limit] bytes in memory and moves to a temp file beyond that.
+     */
+    private class SpillBuffer(
+        private val limit: Int,
+        private val dir: Path,
+    ) : OutputStream() {
+
+        private var memory: ByteArrayOutputStream? = ByteArrayOutputStream()
+        private var file: Path? = null
+        private var fileOutput: OutputStream? = null
+
+        var size: Long = 0
+            private set
+
+        override fun write(b: Int) {
+            write(byteArrayOf(b.toByte()), 0, 1)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            val inMemory = memory
+            if (inMemory != null && inMemory.size() + len > limit) {
+                val spill = Files.createTempFile(dir, ".zip-", ".deflate")
+                file = spill
+                fileOutput = BufferedOutputStream(Files.newOutputStream(spill), BUFFER_SIZE).also {
+                    inMemory.writeTo(it)
+                }
+                memory = null
+            }
+
+            memory?.write(b, off, len) ?: checkNotNull(fileOutput).write(b, off, len)
+            size += len
+        }
+
+        override fun close() {
+            fileOutput?.close()
+        }
+
+        fun copyTo(output: OutputStream) {
+            memory?.writeTo(output) ?: Files.copy(checkNotNull(file), output)
+        }
+
+        fun release() {
+            runCatching { fileOutput?.close() }
+            PathUtils.deleteIfExistsQuietly(file)
+            memory = null
+        }
+
+    }
+
+    /**
+     * Minimal ZIP container writer for entries whose sizes and CRC are known before writing.
+     */
+    private class RawZipOutput(
+        output: OutputStream,
+    ) : AutoCloseable {
+
+        private val out = CountingOutputStream(output)
+        private val central = ByteArrayOutputStream()
+        private var entries = 0
+        private var storedEntries = 0
+        private var bytesIn = 0L
+
+        val stats: Stats get() = Stats(entries, storedEntries, bytesIn, out.count)
+
+        fun writeEntry(entry: Prepared) {
+            val name = entry.name.toByteArray(StandardCharsets.UTF_8)
+            val offset = out.count
+            val (dosTime, dosDate) = dosDateTime(entry.modified)
+
+            val zip64Sizes = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC
+            val localExtra = if (zip64Sizes) zip64Extra(entry.size, entry.compressedSize) else EMPTY
+            val version = if (zip64Sizes) VERSION_ZIP64 else VERSION_DEFAULT
+
+            out.write(le(30 + name.size + localExtra.size) {
+                putInt(LOCAL_HEADER)
+                putShort(version)
+                putShort(FLAG_UTF8)
+                putShort(entry.method.toShort())
+                putShort(dosTime)
+                putShort(dosDate)
+                putInt(entry.crc.toInt())
+                putInt(if (zip64Sizes) ZIP64_MAGIC.toInt() else entry.compressedSize.toInt())
+                putInt(if (zip64Sizes) ZIP64_MAGIC.toInt() else entry.size.toInt())
+                putShort(name.size.toShort())
+                putShort(localExtra.size.toShort())
+                put(name)
+                put(localExtra)
+            })
+            entry.copyDataTo(out)
+
+            val centralFields = listOfNotNull(
+                entry.size.takeIf { it >= ZIP64_MAGIC },
+                entry.compressedSize.takeIf { it >= ZIP64_MAGIC },
+                offset.takeIf { it >= ZIP64_MAGIC }
+            )
+            val centralExtra = if (centralFields.isEmpty()) EMPTY else zip64Extra(*centralFields.toLongArray())
+            val centralVersion = if (centralFields.isEmpty()) VERSION_DEFAULT else VERSION_ZIP64
+
+            central.write(le(46 + name.size + centralExtra.size) {
+                putInt(CENTRAL_HEADER)
+                putShort(VERSION_ZIP64)
+                putShort(centralVersion)
+                putShort(FLAG_UTF8)
+                putShort(entry.method.toShort())
+                putShort(dosTime)
+                putShort(dosDate)
+                putInt(entry.crc.toInt())
+                putInt(entry.compressedSize.coerceAtMost(ZIP64_MAGIC).toInt())
+                putInt(entry.size.coerceAtMost(ZIP64_MAGIC).toInt())
+                putShort(name.size.toShort())
+                putShort(centralExtra.size.toShort())
+                putShort(0) // comment
+                putShort(0) // disk number
+                putShort(0) // internal attributes
+                putInt(0) // external attributes
+                putInt(offset.coerceAtMost(ZIP64_MAGIC).toInt())
+                put(name)
+                put(centralExtra)
+            })
+
+            entries++
+            bytesIn += entry.size
+            if (entry.method == METHOD_STORED) storedEntries++
+        }
+
+        fun finish() {
+            val centralOffset = out.count
+            central.writeTo(out)
+            val centralSize = out.count - centralOffset
+
+            if (entries >= 0xFFFF || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC) {
+                val zip64EndOffset = out.count
+                out.write(le(56) {
+                    putInt(ZIP64_END)
+                    putLong(44) // size of the remaining record
+                    putShort(VERSION_ZIP64)
+                    putShort(VERSION_ZIP64)
+                    putInt(0) // this disk
+                    putInt(0) // disk with the central directory
+                    putLong(entries.toLong())
+                    putLong(entries.toLong())
+                    putLong(centralSize)
+                    putLong(centralOffset)
+                })
+                out.write(le(20) {
+                    putInt(ZIP64_LOCATOR)
+                    putInt(0)
+                    putLong(zip64EndOffset)
+                    putInt(1)
+                })
+            }
+
+            out.write(le(22) {
+                putInt(END_OF_CENTRAL)
+                putShort(0)
+                putShort(0)
+                putShort(entries.coerceAtMost(0xFFFF).toShort())
+                putShort(entries.coerceAtMost(0xFFFF).toShort())
+                putInt(centralSize.coerceAtMost(ZIP64_MAGIC).toInt())
+                putInt(centralOffset.coerceAtMost(ZIP64_MAGIC).toInt())
+                putShort(0) // comment
+            })
+            out.flush()
+        }
+
+        override fun close() {
+            out.close()
+        }
+
+        private fun zip64Extra(vararg values: Long): ByteArray = le(4 + values.size * 8) {
+            putShort(0x0001)
+            putShort((values.size * 8).toShort())
+            values.forEach { putLong(it) }
+        }
+
+        private fun dosDateTime(time: FileTime): Pair<Short, Short> {
+            val local = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault())
+            if (local.year < 1980) return 0.toShort() to ((1 shl 5) or 1).toShort()
+            val dosTime = (local.hour shl 11) or (local.minute shl 5) or (local.second / 2)
+            val dosDate = ((local.year - 1980) shl 9) or (local.monthValue shl 5) or local.dayOfMonth
+            return dosTime.toShort() to dosDate.toShort()
+        }
+
+        private inline fun le(size: Int, block: ByteBuffer.() -> Unit): ByteArray {
+            val buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+            buffer.block()
+            check(!buffer.hasRemaining()) { "Header size mismatch" }
+            return buffer.array()
+        }
+
+        private fun ByteBuffer.putShort(value: Int): ByteBuffer = putShort(value.toShort())
+
+    }
+
+    companion object {
+
+        private val log = LogManager.getLogger(ParallelZipWriter::class.java)
+
+        const val DEFAULT_IN_MEMORY_LIMIT: Int = 4 * 1024 * 1024
+
+        private const val BUFFER_SIZE = 64 * 1024
+        private const val SHUTDOWN_TIMEOUT_SECONDS = 10L
+        private const val METHOD_STORED = 0
+        private const val METHOD_DEFLATED = 8
+        private const val LOCAL_HEADER = 0x04034b50
+        private const val CENTRAL_HEADER = 0x02014b50
+        private const val ZIP64_END = 0x06064b50
+        private const val ZIP64_LOCATOR = 0x07064b50
+        private const val END_OF_CENTRAL = 0x06054b50
+        private const val VERSION_DEFAULT = 20
+        private const val VERSION_ZIP64 = 45
+        private const val FLAG_UTF8 = 0x0800
+        private const val ZIP64_MAGIC = 0xFFFFFFFFL
+        private val EMPTY = ByteArray(0)
+
+        fun defaultThreads(): Int = max(1, Runtime.getRuntime().availableProcessors())
+
+    }
+
+}
@@ -17,8 +17,15 @@
  */
 package top.chiloven.lukosbot2.util
 
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.ReadableByteChannel
+import java.nio.file.Files
+import java.nio.file.Path
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
+import java.util.*
 
 /**
  * SHA utility class.
@@ -26,13 +33,17 @@ import java.security.NoSuchAlgorithmException
  * Features:
  *
  * 1) SHA-256/512 hashing (byte[]/String)
- * 2) Hexadecimal string output for hashed data
- * 3) Hash validation methods
+ * 2) Incremental hashing of streams, channels and files in constant memory, with an optional size cap
+ * 3) Hexadecimal string output for hashed data
+ * 4) Hash validation methods
  * 
  * @author Chiloven945
  */
 object ShaUtils {
 
+    private const val SHA_256 = "SHA-256"
+    private const val BUFFER_SIZE = 64 * 1024
+
     /**
      * Validate if the given hash matches the expected hash.
      * 
@@ -97,6 +108,57 @@ object ShaUtils {
         return bytesToHex(hashSha512(data))
     }
 
+    /**
+     * Hash everything readable from [input] using SHA-256, reading one buffer at a time. The stream
+     * is not closed.
+     *
+     * @param input    data source
+     * @param maxBytes abort with [SizeLimitExceededException] once more bytes than this were read
+     * @return SHA-256 hashed hexadecimal string
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun hashSha256ToHex(input: InputStream, maxBytes: Long = Long.MAX_VALUE): String {
+        val hasher = Hasher(SHA_256, maxBytes)
+        val buffer = ByteArray(BUFFER_SIZE)
+        while (true) {
+            val read = input.read(buffer)
+            if (read == -1) break
+            hasher.update(buffer, 0, read)
+        }
+        return hasher.hex()
+    }
+
+    /**
+     * Hash everything readable from [channel] using SHA-256. The channel is not closed.
+     *
+     * @param channel  data source
+     * @param maxBytes abort with [SizeLimitExceededException] once more bytes than this were read
+     * @return SHA-256 hashed hexadecimal string
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun hashSha256ToHex(channel: ReadableByteChannel, maxBytes: Long = Long.MAX_VALUE): String {
+        val hasher = Hasher(SHA_256, maxBytes)
+        val buffer = ByteBuffer.allocate(BUFFER_SIZE)
+        while (channel.read(buffer) != -1) {
+            buffer.flip()
+            hasher.update(buffer)
+            buffer.clear()
+        }
+        return hasher.hex()
+    }
+
+    /**
+     * Hash a file using SHA-256 without loading it into memory.
+     *
+     * @param file file to hash
+     * @return SHA-256 hashed hexadecimal string
+     */
+    @Throws(IOException::class)
+    fun hashSha256ToHex(file: Path): String =
+        Files.newByteChannel(file).use { hashSha256ToHex(it) }
+
     /**
      * Convert a byte array to a hexadecimal string.
      * 
@@ -104,7 +166,7 @@ object ShaUtils {
      * @return hexadecimal string representation of the byte array
      */
     private fun bytesToHex(bytes: ByteArray): String {
-        return bytes.joinToString("") { "%02x".format(it) }
+        return HexFormat.of().formatHex(bytes)
     }
 
     /**
@@ -137,4 +199,61 @@ object ShaUtils {
         }
     }
 
+    /**
+     * Incremental hasher for data that arrives in chunks, e.g. from a network response.
+     *
+     * Feeding more than [maxBytes] bytes throws [SizeLimitExceededException], so a caller can abort
+     * a transfer as soon as the input turns out to be too large.
+     *
+     * @param algorithm digest algorithm, SHA-256 by default
+     * @param maxBytes  largest accepted input
+     */
+    class Hasher @JvmOverloads constructor(
+        algorithm: String = SHA_256,
+        private val maxBytes: Long = Long.MAX_VALUE,
+    ) {
+
+        private val digest = getDigest(algorithm)
+
+        var bytes: Long = 0
+            private set
+
+        @JvmOverloads
+        @Throws(SizeLimitExceededException::class)
+        fun update(
+            data: ByteArray,
+            offset: Int = 0,
+            length: Int = data.size,
+        ): Hasher {
+            count(length)
+            digest.update(data, offset, length)
+            return this
+        }
+
+        @Throws(SizeLimitExceededException::class)
+        fun update(buffer: ByteBuffer): Hasher {
+            count(buffer.remaining())
+            digest.update(buffer)
+            return this
+        }
+
+        /**
+         * Completes the hash; the hasher must not be used afterwards.
+         */
+        fun hex(): String = bytesToHex(digest.digest())
+
+        private fun count(length: Int) {
+            bytes += length
+            if (bytes > maxBytes) throw SizeLimitExceededException(maxBytes)
+        }
+
+    }
+
+    /**
+     * Thrown when hashed input exceeds the configured size cap.
+     */
+    class SizeLimitExceededException(
+        val limit: Long,
+    ) : IOException("Input exceeds $limit bytes")
+
 }
@@ -0,0 +1,304 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.apache.logging.log4j.LogManager
+import java.io.BufferedOutputStream
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.*
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * ZIP writer that appends files while they are still being produced, for example by a concurrent
+ * batch download.
+ *
+ * Files are numbered by the caller and written in that order. A file that finishes early waits
+ * until the ones before it are written, but at most [reorderWindow] files wait at once; beyond that
+ * the oldest waiting file is written out of order, so neither memory nor disk usage grows with slow
+ * items. With [deleteAfterAppend] each source file is removed as soon as it is in the archive, so
+ * the payload never exists twice on disk.
+ *
+ * Media that is already compressed is stored instead of deflated; the file header decides, and the
+ * extension is used when the header is not recognized.
+ *
+ * With a positive [volumeBytes] the archive is split into independent ZIP volumes named
+ * `name.part1.zip`, `name.part2.zip` and so on, each at most [volumeBytes] long. A volume is closed
+ * as soon as the next entry would not fit, and [onVolume] receives it right away so it can be sent
+ * while later files are still downloading. An entry that could not fit even into a volume of its
+ * own is left out and listed in [oversized], so no volume ever exceeds the limit. When everything
+ * fits into one volume it is renamed to `zipFile` after all.
+ *
+ * All methods are thread-safe; appends are serialized, and [onVolume] runs under the same lock.
+ *
+ * @author Chiloven945
+ */
+class StreamingZipWriter @JvmOverloads constructor(
+    private val zipFile: Path,
+    private val reorderWindow: Int = DEFAULT_REORDER_WINDOW,
+    private val deleteAfterAppend: Boolean = true,
+    private val volumeBytes: Long = 0,
+    private val onVolume: ((Volume) -> Unit)? = null,
+) : AutoCloseable {
+
+    private lateinit var output: ZipOutputStream
+    private lateinit var counter: CountingOutputStream
+    private lateinit var volumePath: Path
+    private var volumeEntries = 0
+    private var centralBytes = 0L
+    private val waiting = TreeMap<Int, Waiting>()
+    private val writtenAhead = BitSet()
+    private val usedNames = LinkedHashSet<String>()
+    private var next = 0
+    private var closed = false
+
+    var entries: Int = 0
+        private set
+    var storedEntries: Int = 0
+        private set
+    var bytesIn: Long = 0
+        private set
+    var volumes: Int = 0
+        private set
+
+    private val oversizedNames = ArrayList<String>()
+
+    /**
+     * Entry names that were left out because they exceed [volumeBytes] on their own.
+     */
+    val oversized: List<String>
+        @Synchronized get() = oversizedNames.toList()
+
+    init {
+        PathUtils.ensureParentDirectories(zipFile)
+        openVolume()
+    }
+
+    /**
+     * Adds [file] as item number [index] under [entryName].
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun add(
+        index: Int,
+        entryName: String,
+        file: Path,
+    ) {
+        enqueue(index, Waiting(entryName, file))
+    }
+
+    /**
+     * Marks item number [index] as missing, so later items do not wait for it.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun skip(index: Int) {
+        enqueue(index, Waiting(null, null))
+    }
+
+    /**
+     * Writes every waiting file and completes the archive.
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun finish() {
+        if (closed) return
+        while (waiting.isNotEmpty()) {
+            val (_, item) = waiting.pollFirstEntry()
+            write(item)
+        }
+        closed = true
+        output.close()
+        completeVolume(last = true)
+        log.debug(
+            "Streaming zip finished: entries={}, stored={}, bytesIn={}, volumes={}",
+            entries,
+            storedEntries,
+            bytesIn,
+            volumes
+        )
+    }
+
+    /**
+     * Closes the archive without writing files that are still waiting.
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) return
+        closed = true
+        output.close()
+    }
+
+    private fun enqueue(index: Int, item: Waiting) {
+        check(!closed) { "Archive is already closed" }
+        require(index >= next && !writtenAhead[index] && !waiting.containsKey(index)) {
+            "Item $index was already added"
+        }
+
+        waiting[index] = item
+        while (true) {
+            val first = waiting.firstEntry()
+            when {
+                first != null && first.key == next -> {
+                    waiting.pollFirstEntry()
+                    write(first.value)
+                    next++
+                }
+
+                writtenAhead[next] -> {
+                    writtenAhead.clear(next)
+                    next++
+                }
+
+                else -> break
+            }
+        }
+
+        while (waiting.size > reorderWindow) {
+            val (ahead, waitingItem) = waiting.pollFirstEntry()
+            write(waitingItem)
+            writtenAhead.set(ahead)
+        }
+    }
+
+    private fun write(item: Waiting) {
+        val file = item.file ?: return
+        val entryName = PathUtils.uniqueRelativeEntryName(checkNotNull(item.entryName), usedNames)
+        val size = Files.size(file)
+        val nameBytes = entryName.toByteArray(StandardCharsets.UTF_8).size
+        if (volumeBytes > 0 && !fitsEmptyVolume(size, nameBytes)) {
+            log.debug("Zip entry {} ({} bytes) exceeds the volume limit {}; left out", entryName, size, volumeBytes)
+            oversizedNames += checkNotNull(item.entryName)
+            if (deleteAfterAppend) PathUtils.deleteIfExistsQuietly(file)
+            return
+        }
+        if (volumeBytes > 0 && volumeEntries > 0) {
+            val projected = counter.count + centralBytes + maxEntryBytes(size, nameBytes) + END_RECORD_BYTES
+            if (projected > volumeBytes) {
+                output.close()
+                completeVolume(last = false)
+                openVolume()
+            }
+        }
+
+        val entry = ZipEntry(entryName)
+        entry.lastModifiedTime = Files.getLastModifiedTime(file)
+
+        if (ZipContent.isIncompressible(file, entryName)) {
+            // STORED entries need size and CRC up front; the file was just written, so this pass
+            // reads from the page cache.
+            entry.method = ZipEntry.STORED
+            entry.size = size
+            entry.compressedSize = size
+            entry.crc = ZipContent.crc32(file)
+            storedEntries++
+        } else {
+            entry.method = ZipEntry.DEFLATED
+        }
+
+        output.putNextEntry(entry)
+        Files.copy(file, output)
+        output.closeEntry()
+
+        entries++
+        volumeEntries++
+        centralBytes += CENTRAL_HEADER_BYTES + nameBytes
+        bytesIn += size
+        if (deleteAfterAppend) PathUtils.deleteIfExistsQuietly(file)
+    }
+
+    private fun openVolume() {
+        volumes++
+        volumePath = if (volumeBytes > 0) partPath(volumes) else zipFile
+        counter = CountingOutputStream(BufferedOutputStream(Files.newOutputStream(volumePath), BUFFER_SIZE))
+        output = ZipOutputStream(counter, StandardCharsets.UTF_8)
+        volumeEntries = 0
+        centralBytes = 0
+    }
+
+    private fun completeVolume(last: Boolean) {
+        var path = volumePath
+        if (last && volumeEntries == 0 && (volumes > 1 || oversizedNames.isNotEmpty())) {
+            // Everything was flushed into earlier volumes or left out; drop the empty tail.
+            PathUtils.deleteIfExistsQuietly(path)
+            volumes--
+            return
+        }
+        if (last && volumes == 1 && path != zipFile) {
+            path = Files.move(path, zipFile, StandardCopyOption.REPLACE_EXISTING)
+        }
+        onVolume?.invoke(Volume(volumes, path, volumeEntries, !last || volumes > 1))
+    }
+
+    private fun partPath(number: Int): Path {
+        val name = zipFile.fileName.toString()
+        val stem = name.removeSuffix(".zip")
+        return zipFile.resolveSibling("$stem.part$number.zip")
+    }
+
+    /**
+     * Upper bound for the bytes a new entry adds to the current volume: local header, data
+     * descriptor, extended timestamp, and zlib's `deflateBound` for incompressible input.
+     */
+    private fun maxEntryBytes(size: Long, nameBytes: Int): Long =
+        LOCAL_HEADER_BYTES + nameBytes + size + (size shr 12) + (size shr 14) + (size shr 25) + 13
+
+    private fun fitsEmptyVolume(size: Long, nameBytes: Int): Boolean =
+        maxEntryBytes(size, nameBytes) + CENTRAL_HEADER_BYTES + nameBytes + END_RECORD_BYTES <= volumeBytes
+
+    /**
+     * A completed archive volume.
+     *
+     * @param number  1-based volume number
+     * @param path    the volume file
+     * @param entries number of entries in this volume
+     * @param split   whether the archive consists of more than one volume
+     */
+    data class Volume(
+        val number: Int,
+        val path: Path,
+        val entries: Int,
+        val split: Boolean,
+    )
+
+    private class Waiting(
+        val entryName: String?,
+        val file: Path?,
+    )
+
+    companion object {
+
+        private val log = LogManager.getLogger(StreamingZipWriter::class.java)
+
+        const val DEFAULT_REORDER_WINDOW: Int = 16
+
+        private const val BUFFER_SIZE = 64 * 1024
+
+        // Fixed header sizes including the extended timestamp extra field; ZIP64 extras are not
+        // expected, volumes are bounded by platform upload limits far below 4 GiB.
+        private const val LOCAL_HEADER_BYTES = 30 + 16 + 13
+        private const val CENTRAL_HEADER_BYTES = 46 + 9
+        private const val END_RECORD_BYTES = 22
+
+    }
+
+}
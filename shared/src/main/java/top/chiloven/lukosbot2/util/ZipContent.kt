@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.zip.CRC32
+
+/**
+ * Decides whether a file is worth deflating inside a ZIP archive.
+ *
+ * Images, video, audio and archives are already compressed; deflating them costs CPU time and
+ * saves next to nothing. The file header is checked first, so misnamed files are handled correctly,
+ * and the extension is only used when the header is not recognized.
+ */
+internal object ZipContent {
+
+    private const val SNIFF_BYTES = 16
+    private const val BUFFER_SIZE = 64 * 1024
+
+    private val COMPRESSED_EXTENSIONS = setOf(
+        "jpg", "jpeg", "png", "gif", "webp", "avif", "heic", "jxl",
+        "mp4", "m4v", "mov", "webm", "mkv", "avi",
+        "mp3", "m4a", "aac", "ogg", "opus", "flac",
+        "zip", "rar", "7z", "gz", "bz2", "xz", "zst", "cbz", "epub"
+    )
+
+    fun hasCompressedExtension(fileName: String): Boolean {
+        val extension = fileName.substringAfterLast('/').substringAfterLast('.', "")
+        return extension.lowercase(Locale.ROOT) in COMPRESSED_EXTENSIONS
+    }
+
+    /**
+     * Whether [file] should be stored rather than deflated; [entryName] is the fallback hint.
+     */
+    fun isIncompressible(file: Path, entryName: String): Boolean {
+        val header = try {
+            Files.newInputStream(file).use { it.readNBytes(SNIFF_BYTES) }
+        } catch (_: IOException) {
+            return hasCompressedExtension(entryName)
+        }
+        return isCompressedHeader(header) ?: hasCompressedExtension(entryName)
+    }
+
+    /**
+     * `true` for a known compressed format, `false` for a known uncompressed one, `null` otherwise.
+     */
+    fun isCompressedHeader(header: ByteArray): Boolean? = when {
+        header.startsWith(0xFF, 0xD8, 0xFF) -> true // JPEG
+        header.startsWith(0x89, 'P', 'N', 'G') -> true
+        header.startsWith('G', 'I', 'F', '8') -> true
+        header.startsWith('R', 'I', 'F', 'F') && header.matchesAt(8, 'W', 'E', 'B', 'P') -> true
+        header.matchesAt(4, 'f', 't', 'y', 'p') -> true // MP4, MOV, HEIC, AVIF
+        header.startsWith(0x1A, 0x45, 0xDF, 0xA3) -> true // Matroska, WebM
+        header.startsWith('O', 'g', 'g', 'S') -> true
+        header.startsWith('f', 'L', 'a', 'C') -> true
+        header.startsWith('I', 'D', '3') -> true // MP3
+        header.startsWith(0xFF, 0xFB) || header.startsWith(0xFF, 0xF3) -> true // MP3 frame
+        header.startsWith('P', 'K', 0x03, 0x04) -> true // ZIP, CBZ, EPUB, Office
+        header.startsWith('R', 'a', 'r', '!') -> true
+        header.startsWith('7', 'z', 0xBC, 0xAF) -> true
+        header.startsWith(0x1F, 0x8B) -> true // gzip
+        header.startsWith('B', 'Z', 'h') -> true
+        header.startsWith(0xFD, '7', 'z', 'X', 'Z') -> true
+        header.startsWith(0x28, 0xB5, 0x2F, 0xFD) -> true // zstd
+        header.startsWith('%', 'P', 'D', 'F') -> false // object structure still deflates
+        header.startsWith('B', 'M') -> false // BMP
+        header.startsWith('8', 'B', 'P', 'S') -> false // PSD
+        else -> null
+    }
+
+    @Throws(IOException::class)
+    fun crc32(file: Path): Long {
+        val crc = CRC32()
+        val buffer = ByteArray(BUFFER_SIZE)
+        Files.newInputStream(file).use { input ->
+            while (true) {
+                val read = input.read(buffer)
+                if (read == -1) break
+                crc.update(buffer, 0, read)
+            }
+        }
+        return crc.value
+    }
+
+    private fun ByteArray.startsWith(vararg expected: Any): Boolean = matchesAt(0, *expected)
+
+    private fun ByteArray.matchesAt(offset: Int, vararg expected: Any): Boolean {
+        if (size < offset + expected.size) return false
+        return expected.withIndex().all { (i, value) ->
+            val byte = when (value) {
+                is Char -> value.code
+                is Int -> value
+                else -> error("Unsupported header value: $value")
+            }
+            this[offset + i] == byte.toByte()
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.concurrent
+
+import kotlinx.coroutines.suspendCancellableCoroutine
+import org.apache.logging.log4j.LogManager
+import java.util.concurrent.*
+import java.util.concurrent.CancellationException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.math.max
+
+/**
+ * Bounded executor for CPU-bound rendering work (Java2D drawing and image encoding).
+ *
+ * Rendering used to run on `Dispatchers.IO` together with blocking network calls, so a burst of
+ * renders could occupy far more threads than there are cores. This executor keeps a fixed pool sized
+ * to the CPU count with a bounded queue; when the queue is full new tasks are rejected with
+ * [RenderOverloadedException] instead of piling up.
+ *
+ * The process-wide instance is available through [current]. The bot runtime installs its own
+ * executor on startup and removes it on shutdown.
+ */
+class RenderExecutor(
+    val threads: Int = defaultThreads(),
+    val queueCapacity: Int = threads * 8,
+    private val name: String = "lukos-render",
+) {
+
+    private val threadIndex = AtomicInteger()
+
+    private val executor = ThreadPoolExecutor(
+        max(1, threads),
+        max(1, threads),
+        0L,
+        TimeUnit.MILLISECONDS,
+        ArrayBlockingQueue(max(1, queueCapacity)),
+        { runnable ->
+            Thread(runnable, "$name-${threadIndex.incrementAndGet()}").apply {
+                isDaemon = true
+            }
+        },
+        ThreadPoolExecutor.AbortPolicy()
+    )
+
+    private val submitted = AtomicLong()
+    private val completed = AtomicLong()
+    private val failed = AtomicLong()
+    private val rejected = AtomicLong()
+    private val totalQueueWaitNs = AtomicLong()
+    private val maxQueueWaitNs = AtomicLong()
+    private val totalRunNs = AtomicLong()
+
+    /**
+     * Snapshot of executor utilization.
+     */
+    data class Stats(
+        val threads: Int,
+        val queueCapacity: Int,
+        val active: Int,
+        val queued: Int,
+        val submitted: Long,
+        val completed: Long,
+        val failed: Long,
+        val rejected: Long,
+        val avgQueueWaitMs: Double,
+        val maxQueueWaitMs: Double,
+        val avgRunMs: Double,
+    )
+
+    /**
+     * Runs [block] on the render pool and suspends until it finishes.
+     *
+     * Cancelling the caller removes a task that has not started yet; a running render is allowed to
+     * finish because Java2D work is not interruptible.
+     *
+     * @throws RenderOverloadedException when the queue is full.
+     */
+    suspend fun <T> render(task: String, block: () -> T): T =
+        suspendCancellableCoroutine { cont ->
+            val future = submit(task, block) { result ->
+                result.fold(
+                    onSuccess = { cont.resume(it) },
+                    onFailure = { cont.resumeWithException(it) }
+                )
+            }
+            cont.invokeOnCancellation { future.cancel(false) }
+        }
+
+    /**
+     * Blocking variant of [render] for synchronous call sites. The calling thread waits, but the CPU
+     * work itself still runs on the bounded pool.
+     *
+     * @throws RenderOverloadedException when the queue is full.
+     */
+    @Throws(Exception::class)
+    fun <T> renderBlocking(task: String, block: () -> T): T {
+        val result = CompletableFuture<T>()
+        submit(task, block) { outcome ->
+            outcome.fold(
+                onSuccess = { result.complete(it) },
+                onFailure = { result.completeExceptionally(it) }
+            )
+        }
+
+        try {
+            return result.get()
+        } catch (e: ExecutionException) {
+            throw (e.cause as? Exception) ?: e
+        }
+    }
+
+    fun stats(): Stats {
+        val done = completed.get() + failed.get()
+        return Stats(
+            threads = executor.corePoolSize,
+            queueCapacity = queueCapacity,
+            active = executor.activeCount,
+            queued = executor.queue.size,
+            submitted = submitted.get(),
+            completed = completed.get(),
+            failed = failed.get(),
+            rejected = rejected.get(),
+            avgQueueWaitMs = if (done == 0L) 0.0 else totalQueueWaitNs.get() / done / 1_000_000.0,
+            maxQueueWaitMs = maxQueueWaitNs.get() / 1_000_000.0,
+            avgRunMs = if (done == 0L) 0.0 else totalRunNs.get() / done / 1_000_000.0,
+        )
+    }
+
+    /**
+     * Stops the pool. Queued tasks are cancelled so that waiting callers are released.
+     */
+    fun shutdown() {
+        executor.shutdownNow().forEach { (it as? Future<*>)?.cancel(false) }
+    }
+
+    private fun <T> submit(
+        task: String,
+        block: () -> T,
+        onDone: (Result<T>) -> Unit
+    ): Future<T> {
+        val enqueuedAt = System.nanoTime()
+
+        val future = object : FutureTask<T>(Callable { runMeasured(task, enqueuedAt, block) }) {
+
+            override fun done() {
+                val outcome = try {
+                    Result.success(get())
+                } catch (e: CancellationException) {
+                    Result.failure(e)
+                } catch (e: ExecutionException) {
+                    Result.failure(e.cause ?: e)
+                }
+                onDone(outcome)
+            }
+
+        }
+
+        try {
+            executor.execute(future)
+            submitted.incrementAndGet()
+        } catch (_: RejectedExecutionException) {
+            rejected.incrementAndGet()
+            log.warn(
+                "Render task '{}' rejected: {} queued, {} active",
+                task,
+                executor.queue.size,
+                executor.activeCount
+            )
+            throw RenderOverloadedException("Render queue is full, try again later")
+        }
+        return future
+    }
+
+    private fun <T> runMeasured(
+        task: String,
+        enqueuedAt: Long,
+        block: () -> T
+    ): T {
+        val startedAt = System.nanoTime()
+        val waitNs = startedAt - enqueuedAt
+        totalQueueWaitNs.addAndGet(waitNs)
+        maxQueueWaitNs.accumulateAndGet(waitNs) { a, b -> max(a, b) }
+        if (waitNs > SLOW_QUEUE_WAIT_NS) {
+            log.debug("Render task '{}' waited {} ms in queue", task, waitNs / 1_000_000)
+        }
+
+        try {
+            return block().also { completed.incrementAndGet() }
+        } catch (e: Throwable) {
+            failed.incrementAndGet()
+            throw e
+        } finally {
+            totalRunNs.addAndGet(System.nanoTime() - startedAt)
+        }
+    }
+
+    /**
+     * Thrown when the render queue is full.
+     */
+    class RenderOverloadedException(message: String) : RejectedExecutionException(message)
+
+    companion object {
+
+        private val log = LogManager.getLogger(RenderExecutor::class.java)
+
+        private const val SLOW_QUEUE_WAIT_NS = 500_000_000L
+
+        @Volatile
+        private var installed: RenderExecutor? = null
+
+        private val fallback: RenderExecutor by lazy { RenderExecutor() }
+
+        @JvmStatic
+        fun defaultThreads(): Int = max(1, Runtime.getRuntime().availableProcessors())
+
+        /**
+         * Returns the installed executor, or a lazily created default one.
+         */
+        @JvmStatic
+        fun current(): RenderExecutor = installed ?: fallback
+
+        @JvmStatic
+        fun install(executor: RenderExecutor) {
+            installed = executor
+        }
+
+        @JvmStatic
+        fun uninstall(executor: RenderExecutor) {
+            if (installed === executor) {
+                installed = null
+            }
+        }
+
+    }
+
+}
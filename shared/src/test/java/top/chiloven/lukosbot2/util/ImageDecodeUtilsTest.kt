@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.Test
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import javax.imageio.ImageIO
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ImageDecodeUtilsTest {
+
+    @Test
+    fun `large image is decoded close to the target size`() {
+        val bytes = encode(landscape(1600, 1000), "jpg")
+
+        val decoded = assertNotNull(ImageDecodeUtils.readCoverDetailed(bytes, 220, 220))
+
+        assertEquals(1600, decoded.sourceWidth)
+        assertEquals(1000, decoded.sourceHeight)
+        // Centered 1000x1000 region, subsampled by 4.
+        assertEquals(250, decoded.image.width)
+        assertEquals(250, decoded.image.height)
+        assertFalse(ImageIO.getUseCache())
+    }
+
+    @Test
+    fun `cover region keeps the visible center`() {
+        val decoded = assertNotNull(ImageDecodeUtils.readCover(encode(landscape(1600, 1000), "png"), 220, 220))
+
+        // The red and blue sides are cropped away, only the green square stays visible.
+        val center = Color(decoded.getRGB(decoded.width / 2, decoded.height / 2))
+        assertTrue(center.green > 200 && center.red < 50 && center.blue < 50, "center was $center")
+        val edge = Color(decoded.getRGB(2, decoded.height / 2))
+        assertTrue(edge.green > 200, "edge was $edge")
+    }
+
+    @Test
+    fun `small image is not upscaled or subsampled`() {
+        val decoded = assertNotNull(ImageDecodeUtils.readCover(encode(landscape(150, 100), "png"), 220, 220))
+
+        assertEquals(100, decoded.width)
+        assertEquals(100, decoded.height)
+    }
+
+    @Test
+    fun `unsupported data returns null`() {
+        assertNull(ImageDecodeUtils.readCover("not an image".toByteArray(), 220, 220))
+    }
+
+    @Test
+    fun `subsampling never goes below the target`() {
+        assertEquals(1, ImageDecodeUtils.subsampling(439, 439, 220, 220))
+        assertEquals(2, ImageDecodeUtils.subsampling(440, 660, 220, 220))
+        assertEquals(3, ImageDecodeUtils.subsampling(1000, 660, 220, 220))
+    }
+
+    private fun landscape(width: Int, height: Int): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val g = image.createGraphics()
+        try {
+            val side = (width - height) / 2
+            g.color = Color.RED
+            g.fillRect(0, 0, side, height)
+            g.color = Color.GREEN
+            g.fillRect(side, 0, height, height)
+            g.color = Color.BLUE
+            g.fillRect(side + height, 0, side, height)
+        } finally {
+            g.dispose()
+        }
+        return image
+    }
+
+    private fun encode(image: BufferedImage, format: String): ByteArray =
+        ByteArrayOutputStream().use { output ->
+            ImageIO.write(image, format, output)
+            output.toByteArray()
+        }
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.Test
+import java.awt.Color
+import java.awt.Font
+import java.awt.GradientPaint
+import java.awt.image.BufferedImage
+import java.awt.image.IndexColorModel
+import java.io.ByteArrayOutputStream
+import java.util.*
+import javax.imageio.ImageIO
+import kotlin.math.abs
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ImageEncoderTest {
+
+    @Test
+    fun `selection depends on content kind and platform`() {
+        val ui = ImageEncoder.select(ImageEncoder.ContentKind.UI, ImageEncoder.Target.TELEGRAM)
+        assertIs<ImageEncoder.Spec.Png>(ui)
+        assertEquals(256, ui.paletteColors)
+
+        assertIs<ImageEncoder.Spec.Jpeg>(
+            ImageEncoder.select(ImageEncoder.ContentKind.PHOTO_GRID, ImageEncoder.Target.TELEGRAM)
+        )
+        assertIs<ImageEncoder.Spec.Png>(
+            ImageEncoder.select(ImageEncoder.ContentKind.PHOTO_GRID, ImageEncoder.Target.DISCORD)
+        )
+        assertIs<ImageEncoder.Spec.Jpeg>(
+            ImageEncoder.select(ImageEncoder.ContentKind.SCREENSHOT, ImageEncoder.Target.GENERIC)
+        )
+
+        assertEquals(ImageEncoder.Target.DISCORD, ImageEncoder.Target.of("discord"))
+        assertEquals(ImageEncoder.Target.GENERIC, ImageEncoder.Target.of(null))
+    }
+
+    @Test
+    fun `palette png is lossless for flat images`() {
+        val image = flat(480, 320)
+        val encoded = ImageEncoder.encode(image, ImageEncoder.Spec.Png(paletteColors = 256))
+
+        assertEquals("image/png", encoded.mime)
+        val decoded = assertNotNull(ImageIO.read(encoded.bytes.inputStream()))
+        assertIs<IndexColorModel>(decoded.colorModel)
+        for (y in 0 until image.height step 7) {
+            for (x in 0 until image.width step 7) {
+                assertEquals(image.getRGB(x, y), decoded.getRGB(x, y), "pixel ($x, $y)")
+            }
+        }
+    }
+
+    @Test
+    fun `palette is skipped when the image has more colors than it holds`() {
+        assertNull(ImageEncoder.IndexedPalette.of(gradient(256, 256), 256))
+        assertNull(ImageEncoder.IndexedPalette.of(noise(256, 256), 256))
+
+        val indexed = assertNotNull(ImageEncoder.IndexedPalette.of(flat(64, 64), 256))
+        val model = assertIs<IndexColorModel>(indexed.colorModel)
+        assertTrue(model.mapSize <= 5, "palette has ${model.mapSize} entries")
+    }
+
+    @Test
+    fun `gradient cards encode without color error`() {
+        val image = gradientCard(600, 800)
+        val encoded = ImageEncoder.encode(image, ImageEncoder.ContentKind.UI)
+        val decoded = assertNotNull(ImageIO.read(encoded.bytes.inputStream()))
+
+        var maxError = 0
+        var totalError = 0L
+        for (y in 0 until image.height) {
+            for (x in 0 until image.width) {
+                val expected = image.getRGB(x, y)
+                val actual = decoded.getRGB(x, y)
+                for (shift in intArrayOf(0, 8, 16, 24)) {
+                    val error = abs((expected ushr shift and 0xFF) - (actual ushr shift and 0xFF))
+                    maxError = maxOf(maxError, error)
+                    totalError += error
+                }
+            }
+        }
+
+        assertEquals(0, maxError, "mean channel error ${totalError / (image.width * image.height * 4.0)}")
+    }
+
+    @Test
+    fun `jpeg flattens transparency onto the background`() {
+        val image = BufferedImage(32, 32, BufferedImage.TYPE_INT_ARGB)
+        val encoded = ImageEncoder.encode(image, ImageEncoder.Spec.Jpeg())
+
+        assertEquals("image/jpeg", encoded.mime)
+        assertEquals("jpg", encoded.extension)
+        val decoded = assertNotNull(ImageIO.read(encoded.bytes.inputStream()))
+        val pixel = Color(decoded.getRGB(16, 16))
+        assertTrue(pixel.red > 250 && pixel.green > 250 && pixel.blue > 250, "pixel was $pixel")
+    }
+
+    /**
+     * Compares the default `ImageIO.write(png)` output against the selected encoder for every content
+     * kind and target.
+     */
+    @Test
+    fun `selected encoders beat the default png for every content kind`() {
+        val samples = mapOf(
+            ImageEncoder.ContentKind.UI to uiCard(1100, 1600),
+            ImageEncoder.ContentKind.PHOTO_GRID to photoGrid(1260, 900),
+            ImageEncoder.ContentKind.SCREENSHOT to photoGrid(1380, 1200),
+        )
+
+        for ((kind, image) in samples) {
+            val baselineBytes = defaultPng(image)
+
+            for (target in ImageEncoder.Target.entries) {
+                val spec = ImageEncoder.select(kind, target)
+                val encoded = ImageEncoder.encode(image, spec).bytes
+                val indexed = ImageIO.read(encoded.inputStream()).colorModel is IndexColorModel
+
+                // Lossless truecolor output trades a little size for speed; everything else must shrink.
+                val limit = if (spec is ImageEncoder.Spec.Png && !indexed) {
+                    baselineBytes.size * 11 / 10
+                } else {
+                    baselineBytes.size
+                }
+                assertTrue(
+                    encoded.size < limit,
+                    "$kind/$target produced ${encoded.size} bytes, default PNG is ${baselineBytes.size}"
+                )
+            }
+        }
+    }
+
+    private fun defaultPng(image: BufferedImage): ByteArray =
+        ByteArrayOutputStream().use { output ->
+            ImageIO.write(image, "png", output)
+            output.toByteArray()
+        }
+
+    private fun uiCard(width: Int, height: Int): BufferedImage {
+        val palette = ModernImageDraw.lightPalette()
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+        val g = image.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            g.color = palette.bgTop
+            g.fillRect(0, 0, width, height)
+            ModernImageDraw.card(g, 20, 20, width - 40, height - 40, 22, palette)
+            g.color = palette.text
+            g.font = Font(Font.SANS_SERIF, Font.PLAIN, 18)
+            var y = 70
+            while (y < height - 40) {
+                g.drawString("/command <argument> [option] — description of the usage line", 48, y)
+                y += 30
+            }
+        } finally {
+            g.dispose()
+        }
+        return image
+    }
+
+    /**
+     * A card over the gradient page background, with far more than 256 colors.
+     */
+    private fun gradientCard(width: Int, height: Int): BufferedImage {
+        val palette = ModernImageDraw.lightPalette()
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+        val g = image.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            g.paint = GradientPaint(0f, 0f, Color(0x6366F1), width.toFloat(), height.toFloat(), Color(0xF1F5F9))
+            g.fillRect(0, 0, width, height)
+            g.paint = null
+            ModernImageDraw.card(g, 20, 20, width - 40, height - 40, 22, palette)
+            g.color = palette.text
+            g.font = Font(Font.SANS_SERIF, Font.PLAIN, 18)
+            g.drawString("/command <argument> [option] — description of the usage line", 48, 70)
+        } finally {
+            g.dispose()
+        }
+        return image
+    }
+
+    private fun flat(width: Int, height: Int): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+        val g = image.createGraphics()
+        try {
+            val colors = listOf(Color.WHITE, Color(0xF1F5F9), Color(0x0F172A), Color(0x6366F1), Color(0, 0, 0, 0))
+            for (i in 0 until 40) {
+                g.color = colors[i % colors.size]
+                g.fillRect(i * 11 % width, i * 7 % height, 120, 40)
+            }
+        } finally {
+            g.dispose()
+        }
+        return image
+    }
+
+    private fun photoGrid(width: Int, height: Int): BufferedImage {
+        val image = uiCard(width, height)
+        val photo = noise(220, 220)
+        val g = image.createGraphics()
+        try {
+            for (y in 60 until height - 220 step 260) {
+                for (x in 40 until width - 220 step 240) {
+                    g.drawImage(photo, x, y, null)
+                }
+            }
+        } finally {
+            g.dispose()
+        }
+        return image
+    }
+
+    private fun gradient(width: Int, height: Int): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                image.setRGB(x, y, Color(x % 256, y % 256, (x + y) / 2 % 256).rgb)
+            }
+        }
+        return image
+    }
+
+    /**
+     * Smooth color fields with grain, close enough to photo thumbnails for size comparisons.
+     */
+    private fun noise(width: Int, height: Int): BufferedImage {
+        val random = Random(42)
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val grain = random.nextInt(24) - 12
+                val r = (x * 255 / width + grain).coerceIn(0, 255)
+                val gr = (y * 255 / height + grain).coerceIn(0, 255)
+                val b = (128 + grain * 2).coerceIn(0, 255)
+                image.setRGB(x, y, Color(r, gr, b).rgb)
+            }
+        }
+        return image
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import java.awt.AlphaComposite
+import java.awt.Color
+import java.awt.GradientPaint
+import java.awt.Graphics2D
+import java.awt.image.BufferedImage
+import kotlin.math.abs
+import kotlin.math.max
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ModernImageDrawTest {
+
+    private val light = ModernImageDraw.lightPalette()
+    private val dark = ModernImageDraw.darkPalette()
+
+    @BeforeEach
+    fun clearSprites() {
+        ModernImageSprites.clear()
+    }
+
+    @Test
+    fun `cached background matches golden gradient`() {
+        for (palette in listOf(light, dark)) {
+            val actual = render(480, 360) { g -> ModernImageDraw.background(g, 480, 360, palette) }
+            val golden = render(480, 360) { g -> goldenBackground(g, 480, 360, palette) }
+
+            assertPixelsClose(golden, actual)
+        }
+    }
+
+    @Test
+    fun `cached card grid matches golden rendering`() {
+        val sizes = listOf(
+            CardSpec(30, 40, 240, 324, 22),
+            CardSpec(300, 40, 120, 90, 22),
+            CardSpec(30, 400, 640, 180, 16),
+            CardSpec(460, 40, 200, 300, 8),
+            // Too small for the nine-patch, must fall back to direct drawing.
+            CardSpec(700, 400, 24, 24, 22),
+        )
+
+        for (palette in listOf(light, dark)) {
+            val actual = render(800, 640) { g ->
+                ModernImageDraw.background(g, 800, 640, palette)
+                sizes.forEach { ModernImageDraw.card(g, it.x, it.y, it.width, it.height, it.radius, palette) }
+            }
+            val golden = render(800, 640) { g ->
+                goldenBackground(g, 800, 640, palette)
+                sizes.forEach { goldenCard(g, it, palette) }
+            }
+
+            assertPixelsClose(golden, actual)
+        }
+    }
+
+    @Test
+    fun `cached pill capsule matches golden fill`() {
+        val actual = render(200, 60) { g ->
+            g.color = Color.WHITE
+            g.fillRect(0, 0, 200, 60)
+            assertTrue(ModernImageSprites.pill(g, 10, 10, 150, 26, light.pillBg))
+        }
+        val golden = render(200, 60) { g ->
+            g.color = Color.WHITE
+            g.fillRect(0, 0, 200, 60)
+            g.color = light.pillBg
+            g.fillRoundRect(10, 10, 150, 26, 26, 26)
+        }
+
+        assertPixelsClose(golden, actual)
+    }
+
+    @Test
+    fun `sprites are reused across cards with the same style`() {
+        render(800, 800) { g ->
+            for (i in 0 until 20) {
+                ModernImageDraw.card(g, 20 + (i % 4) * 190, 20 + (i / 4) * 150, 170, 130, 22, light)
+            }
+        }
+
+        // One shadow sprite and one card body sprite.
+        assertEquals(2, ModernImageSprites.size())
+    }
+
+    private data class CardSpec(
+        val x: Int,
+        val y: Int,
+        val width: Int,
+        val height: Int,
+        val radius: Int
+    )
+
+    private fun render(
+        width: Int,
+        height: Int,
+        block: (Graphics2D) -> Unit
+    ): BufferedImage {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB)
+        val g = image.createGraphics()
+        try {
+            ModernImageDraw.quality(g)
+            block(g)
+        } finally {
+            g.dispose()
+        }
+        return image
+    }
+
+    /**
+     * Reference implementation of the original per-call rendering.
+     */
+    private fun goldenCard(
+        g: Graphics2D,
+        spec: CardSpec,
+        palette: ModernImageDraw.Palette
+    ) {
+        val oldComposite = g.composite
+        (12 downTo 1).forEach { i ->
+            val alpha = 0.012f + i * 0.003f
+            g.composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, alpha.coerceAtMost(0.06f))
+            g.color = Color(15, 23, 42)
+            g.fillRoundRect(
+                spec.x - i / 2,
+                spec.y + i,
+                spec.width + i,
+                spec.height + i,
+                spec.radius + i,
+                spec.radius + i
+            )
+        }
+        g.composite = oldComposite
+
+        g.color = palette.surface
+        g.fillRoundRect(spec.x, spec.y, spec.width, spec.height, spec.radius, spec.radius)
+        g.color = palette.border
+        g.drawRoundRect(spec.x, spec.y, spec.width, spec.height, spec.radius, spec.radius)
+    }
+
+    private fun goldenBackground(
+        g: Graphics2D,
+        width: Int,
+        height: Int,
+        palette: ModernImageDraw.Palette
+    ) {
+        g.paint = GradientPaint(0f, 0f, palette.bgTop, 0f, height.toFloat(), palette.bgBottom)
+        g.fillRect(0, 0, width, height)
+    }
+
+    /**
+     * Pre-compositing the twelve shadow passes into a sprite rounds differently from compositing them
+     * onto the target one by one, so a few levels of difference are expected in the darkest areas.
+     */
+    private fun assertPixelsClose(
+        expected: BufferedImage,
+        actual: BufferedImage,
+        tolerance: Int = 6
+    ) {
+        assertEquals(expected.width, actual.width)
+        assertEquals(expected.height, actual.height)
+
+        var maxDelta = 0
+        var worst = ""
+        for (y in 0 until expected.height) {
+            for (x in 0 until expected.width) {
+                val delta = channelDelta(expected.getRGB(x, y), actual.getRGB(x, y))
+                if (delta > maxDelta) {
+                    maxDelta = delta
+                    worst = "($x, $y)"
+                }
+            }
+        }
+
+        assertTrue(maxDelta <= tolerance, "max channel delta $maxDelta at $worst exceeds $tolerance")
+    }
+
+    private fun channelDelta(a: Int, b: Int): Int {
+        var delta = 0
+        for (shift in intArrayOf(0, 8, 16, 24)) {
+            delta = max(delta, abs(((a ushr shift) and 0xFF) - ((b ushr shift) and 0xFF)))
+        }
+        return delta
+    }
+
+}
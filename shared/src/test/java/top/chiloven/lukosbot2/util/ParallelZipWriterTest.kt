@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.Test
+import java.io.BufferedOutputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import java.util.zip.ZipOutputStream
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ParallelZipWriterTest {
+
+    @Test
+    fun `entries are written in order with per-entry method`() = withDir { dir ->
+        val items = listOf(
+            named(dir, "a/photo.bin", jpeg(200_000)),
+            named(dir, "a/notes.txt", text(300_000)),
+            named(dir, "b/noise.dat", random(50_000)),
+            named(dir, "a/notes.txt", text(2_000))
+        )
+        val zipPath = dir.resolve("out.zip")
+
+        val stats = ParallelZipWriter(threads = 3, inMemoryLimit = 64 * 1024).write(items, zipPath)
+
+        assertEquals(4, stats.entries)
+        ZipFile(zipPath.toFile()).use { zip ->
+            val entries = zip.entries().toList()
+            assertEquals(listOf("a/photo.bin", "a/notes.txt", "b/noise.dat", "a/notes (2).txt"), entries.map { it.name })
+            // JPEG is detected by its header, random data is stored because deflate did not shrink it.
+            assertEquals(
+                listOf(ZipEntry.STORED, ZipEntry.DEFLATED, ZipEntry.STORED, ZipEntry.DEFLATED),
+                entries.map { it.method }
+            )
+            items.zip(entries).forEach { (item, entry) ->
+                assertContentEquals(Files.readAllBytes(item.path), zip.getInputStream(entry).readAllBytes())
+            }
+        }
+        // 300 KB of text exceeds the in-memory limit, so a spill file was used and removed again.
+        assertTrue(Files.list(dir).use { paths -> paths.noneMatch { it.toString().endsWith(".deflate") } })
+    }
+
+    @Test
+    fun `content sniffing recognizes common formats`() {
+        assertEquals(true, ZipContent.isCompressedHeader(jpeg(32)))
+        assertEquals(true, ZipContent.isCompressedHeader(bytes(0, 0, 0, 0x18) + "ftypmp42".toByteArray()))
+        assertEquals(true, ZipContent.isCompressedHeader("PK\u0003\u0004rest".toByteArray(Charsets.ISO_8859_1)))
+        assertEquals(false, ZipContent.isCompressedHeader("BM........".toByteArray()))
+        assertNull(ZipContent.isCompressedHeader("hello world".toByteArray()))
+        assertTrue(ZipContent.hasCompressedExtension("x/y/clip.MP4"))
+    }
+
+    /**
+     * Compares a single-threaded `ZipOutputStream` that deflates everything with the parallel,
+     * store-aware writer on a small, mostly-media directory.
+     */
+    @Test
+    fun `store-aware archive of mixed media is not larger than deflating everything`() = withDir { dir ->
+        val items = buildList {
+            repeat(6) { add(named(dir, "img/$it.jpg", jpeg(200_000))) }
+            repeat(2) { add(named(dir, "video/$it.mp4", mp4(800_000))) }
+            repeat(4) { add(named(dir, "text/$it.txt", text(100_000))) }
+        }
+
+        val baseline = dir.resolve("baseline.zip")
+        val auto = dir.resolve("auto.zip")
+        deflateAll(items, baseline)
+        ParallelZipWriter().write(items, auto)
+
+        assertTrue(
+            Files.size(auto) <= Files.size(baseline) * 101 / 100,
+            "parallel ${Files.size(auto)} bytes, deflate-all ${Files.size(baseline)} bytes"
+        )
+        ZipFile(auto.toFile()).use { zip -> assertEquals(items.size, zip.size()) }
+    }
+
+    private fun deflateAll(items: List<CompressUtils.NamedPath>, zipPath: Path) {
+        ZipOutputStream(BufferedOutputStream(Files.newOutputStream(zipPath))).use { zip ->
+            for (item in items) {
+                zip.putNextEntry(ZipEntry(item.entryName))
+                Files.copy(item.path, zip)
+                zip.closeEntry()
+            }
+        }
+    }
+
+    private fun named(dir: Path, name: String, data: ByteArray): CompressUtils.NamedPath {
+        val path = dir.resolve("src").resolve(UUID.randomUUID().toString())
+        Files.createDirectories(path.parent)
+        Files.write(path, data)
+        return CompressUtils.NamedPath(name, path)
+    }
+
+    private fun jpeg(size: Int): ByteArray = random(size).also {
+        it[0] = 0xFF.toByte()
+        it[1] = 0xD8.toByte()
+        it[2] = 0xFF.toByte()
+    }
+
+    private fun mp4(size: Int): ByteArray = random(size).also {
+        "\u0000\u0000\u0000\u0018ftypisom".toByteArray(Charsets.ISO_8859_1).copyInto(it)
+    }
+
+    private fun text(size: Int): ByteArray {
+        val line = "The quick brown fox jumps over the lazy dog 0123456789\n".toByteArray()
+        return ByteArray(size) { line[it % line.size] }
+    }
+
+    private fun random(size: Int): ByteArray = ByteArray(size).also { Random(size.toLong()).nextBytes(it) }
+
+    private fun bytes(vararg values: Int): ByteArray = ByteArray(values.size) { values[it].toByte() }
+
+    private fun withDir(block: (Path) -> Unit) {
+        val dir = Files.createTempDirectory("parallel-zip-test-")
+        try {
+            block(dir)
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayInputStream
+import java.nio.channels.Channels
+import java.nio.file.Files
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ShaUtilsTest {
+
+    private val data = ByteArray(200_000) { (it * 7 + it / 13).toByte() }
+    private val expected = ShaUtils.hashSha256ToHex(data)
+
+    @Test
+    fun `streaming hashes match the in-memory hash`() {
+        assertEquals(expected, ShaUtils.hashSha256ToHex(ByteArrayInputStream(data)))
+        assertEquals(expected, ShaUtils.hashSha256ToHex(Channels.newChannel(ByteArrayInputStream(data))))
+
+        val file = Files.createTempFile("sha-utils-", ".bin")
+        try {
+            Files.write(file, data)
+            assertEquals(expected, ShaUtils.hashSha256ToHex(file))
+        } finally {
+            Files.deleteIfExists(file)
+        }
+
+        val hasher = ShaUtils.Hasher()
+        data.asList().chunked(30_000).forEach { hasher.update(it.toByteArray()) }
+        assertEquals(data.size.toLong(), hasher.bytes)
+        assertEquals(expected, hasher.hex())
+    }
+
+    @Test
+    fun `hashing stops once the size cap is exceeded`() {
+        val error = assertFailsWith<ShaUtils.SizeLimitExceededException> {
+            ShaUtils.hashSha256ToHex(ByteArrayInputStream(data), maxBytes = 100_000)
+        }
+        assertEquals(100_000, error.limit)
+
+        // Exactly at the cap is accepted.
+        assertEquals(expected, ShaUtils.hashSha256ToHex(ByteArrayInputStream(data), maxBytes = data.size.toLong()))
+    }
+
+}
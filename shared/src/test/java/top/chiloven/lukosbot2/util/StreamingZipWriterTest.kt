@@ -0,0 +1,183 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util
+
+import org.junit.jupiter.api.Test
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class StreamingZipWriterTest {
+
+    @Test
+    fun `entries keep item order and source files are removed`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+        val files = (0 until 4).map { file(dir, "f$it.txt", "text $it") }
+
+        StreamingZipWriter(zipPath).use { zip ->
+            zip.add(2, "b/f2.txt", files[2])
+            zip.add(0, "a/f0.txt", files[0])
+            zip.skip(1)
+            zip.add(3, "b/f3.txt", files[3])
+            zip.finish()
+        }
+
+        assertEquals(listOf("a/f0.txt", "b/f2.txt", "b/f3.txt"), entryNames(zipPath))
+        assertFalse(listOf(files[0], files[2], files[3]).any(Files::exists))
+        ZipFile(zipPath.toFile()).use { zip ->
+            assertEquals("text 2", zip.getInputStream(zip.getEntry("b/f2.txt")).readAllBytes().decodeToString())
+        }
+    }
+
+    @Test
+    fun `waiting files are written out of order beyond the window`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+
+        StreamingZipWriter(zipPath, reorderWindow = 2).use { zip ->
+            for (i in 1..4) zip.add(i, "f$i.txt", file(dir, "f$i.txt", "$i"))
+            // Items 1 and 2 were flushed without waiting for item 0.
+            zip.add(0, "f0.txt", file(dir, "f0.txt", "0"))
+            zip.finish()
+        }
+
+        assertEquals(listOf("f1.txt", "f2.txt", "f0.txt", "f3.txt", "f4.txt"), entryNames(zipPath))
+    }
+
+    @Test
+    fun `compressed media is stored and other files are deflated`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+        val image = ByteArray(4096) { (it * 31).toByte() }
+        val jpg = dir.resolve("photo.JPG").also { Files.write(it, image) }
+
+        StreamingZipWriter(zipPath).use { zip ->
+            zip.add(0, "photo.JPG", jpg)
+            zip.add(1, "notes.txt", file(dir, "notes.txt", "a".repeat(4096)))
+            zip.add(2, "notes.txt", file(dir, "notes2.txt", "dup"))
+            zip.finish()
+            assertEquals(1, zip.storedEntries)
+        }
+
+        ZipFile(zipPath.toFile()).use { zip ->
+            val stored = zip.getEntry("photo.JPG")
+            assertEquals(ZipEntry.STORED, stored.method)
+            assertContentEquals(image, zip.getInputStream(stored).readAllBytes())
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry("notes.txt").method)
+            assertTrue(zip.getEntry("notes (2).txt") != null)
+        }
+    }
+
+    @Test
+    fun `volumes stay under the byte limit and are reported as they close`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+        val random = Random(7)
+        val volumes = mutableListOf<StreamingZipWriter.Volume>()
+
+        StreamingZipWriter(zipPath, volumeBytes = 10_000, onVolume = { volumes += it }).use { zip ->
+            for (i in 0 until 7) {
+                val data = ByteArray(3_000).also(random::nextBytes)
+                zip.add(i, "f$i.bin", dir.resolve("f$i.bin").also { Files.write(it, data) })
+                if (i == 3) {
+                    // The first volume was handed over while items were still being added.
+                    assertTrue(volumes.isNotEmpty())
+                }
+            }
+            zip.finish()
+            assertEquals(volumes.size, zip.volumes)
+        }
+
+        assertTrue(volumes.size >= 3)
+        assertEquals((1..volumes.size).toList(), volumes.map { it.number })
+        assertTrue(volumes.all { it.split && Files.size(it.path) <= 10_000 })
+        assertEquals((0 until 7).map { "f$it.bin" }, volumes.flatMap { entryNames(it.path) })
+        assertEquals("out.part1.zip", volumes.first().path.fileName.toString())
+        assertFalse(Files.exists(zipPath))
+    }
+
+    @Test
+    fun `archive that fits one volume keeps its name`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+        val volumes = mutableListOf<StreamingZipWriter.Volume>()
+
+        StreamingZipWriter(zipPath, volumeBytes = 1_000_000, onVolume = { volumes += it }).use { zip ->
+            zip.add(0, "a.txt", file(dir, "a.txt", "a"))
+            zip.finish()
+        }
+
+        assertEquals(listOf(StreamingZipWriter.Volume(1, zipPath, 1, false)), volumes)
+        assertEquals(listOf("a.txt"), entryNames(zipPath))
+    }
+
+    @Test
+    fun `entries over the volume limit are left out instead of getting their own volume`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+        val random = Random(11)
+        val volumes = mutableListOf<StreamingZipWriter.Volume>()
+        val big = dir.resolve("big.bin").also { Files.write(it, ByteArray(20_000).also(random::nextBytes)) }
+
+        StreamingZipWriter(zipPath, volumeBytes = 10_000, onVolume = { volumes += it }).use { zip ->
+            zip.add(0, "a.txt", file(dir, "a.txt", "a"))
+            zip.add(1, "big.bin", big)
+            zip.add(2, "b.txt", file(dir, "b.txt", "b"))
+            zip.finish()
+            assertEquals(listOf("big.bin"), zip.oversized)
+            assertEquals(2, zip.entries)
+        }
+
+        assertEquals(listOf(StreamingZipWriter.Volume(1, zipPath, 2, false)), volumes)
+        assertEquals(listOf("a.txt", "b.txt"), entryNames(zipPath))
+        assertFalse(Files.exists(big))
+    }
+
+    @Test
+    fun `no volume is reported when every entry is over the limit`() = withDir { dir ->
+        val zipPath = dir.resolve("out.zip")
+        val volumes = mutableListOf<StreamingZipWriter.Volume>()
+
+        StreamingZipWriter(zipPath, volumeBytes = 1_000, onVolume = { volumes += it }).use { zip ->
+            zip.add(0, "big.bin", dir.resolve("big.bin").also { Files.write(it, ByteArray(5_000)) })
+            zip.finish()
+            assertEquals(0, zip.volumes)
+        }
+
+        assertTrue(volumes.isEmpty())
+        assertFalse(Files.exists(zipPath))
+        assertFalse(Files.exists(dir.resolve("out.part1.zip")))
+    }
+
+    private fun entryNames(zipPath: Path): List<String> =
+        ZipFile(zipPath.toFile()).use { zip -> zip.entries().toList().map { it.name } }
+
+    private fun file(dir: Path, name: String, text: String): Path =
+        dir.resolve(name).also { Files.writeString(it, text) }
+
+    private fun withDir(block: (Path) -> Unit) {
+        val dir = Files.createTempDirectory("streaming-zip-test-")
+        try {
+            block(dir)
+        } finally {
+            PathUtils.deleteRecursively(dir)
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2026 Chiloven945
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package top.chiloven.lukosbot2.util.concurrent
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class RenderExecutorTest {
+
+    @Test
+    fun `render runs at most the configured number of tasks at once`() {
+        val executor = RenderExecutor(threads = 2, queueCapacity = 32)
+        val running = AtomicInteger()
+        val peak = AtomicInteger()
+
+        try {
+            val results = runBlocking {
+                (1..12).map { i ->
+                    async {
+                        executor.render("task-$i") {
+                            val now = running.incrementAndGet()
+                            peak.accumulateAndGet(now) { a, b -> maxOf(a, b) }
+                            Thread.sleep(20)
+                            running.decrementAndGet()
+                            i * 2
+                        }
+                    }
+                }.awaitAll()
+            }
+
+            assertEquals((1..12).map { it * 2 }, results)
+            assertTrue(peak.get() <= 2, "peak concurrency was ${peak.get()}")
+            assertEquals(12, executor.stats().completed)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun `full queue rejects new work`() {
+        val executor = RenderExecutor(threads = 1, queueCapacity = 1)
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+
+        try {
+            Thread {
+                executor.renderBlocking("blocker") {
+                    started.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                }
+            }.start()
+            assertTrue(started.await(5, TimeUnit.SECONDS))
+
+            Thread { executor.renderBlocking("queued") { Unit } }.start()
+            waitUntil { executor.stats().queued == 1 }
+
+            assertFailsWith<RenderExecutor.RenderOverloadedException> {
+                executor.renderBlocking("rejected") { Unit }
+            }
+            assertEquals(1, executor.stats().rejected)
+        } finally {
+            release.countDown()
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun `renderBlocking rethrows task failure and records queue wait`() {
+        val executor = RenderExecutor(threads = 1, queueCapacity = 4)
+
+        try {
+            val error = assertFailsWith<IllegalStateException> {
+                executor.renderBlocking("broken") { error("boom") }
+            }
+            assertEquals("boom", error.message)
+
+            val stats = executor.stats()
+            assertEquals(1, stats.failed)
+            assertTrue(stats.avgQueueWaitMs >= 0.0)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun waitUntil(condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (!condition()) {
+            check(System.nanoTime() < deadline) { "condition not met in time" }
+            Thread.sleep(5)
+        }
+    }
+
+}